@@ -0,0 +1,48 @@
+/*
+ * Copyright 2015 Tomáš Šmíd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.muni.fi.vboxvmsmanager.logicimpl;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *
+ * @author Tomáš Šmíd
+ */
+class AsyncOperationExecutor {
+    
+    private static final AsyncOperationExecutor INSTANCE = new AsyncOperationExecutor();
+    private final AtomicInteger threadCount = new AtomicInteger(0);
+    private final ExecutorService executor = Executors.newCachedThreadPool((runnable) -> {
+        Thread thread = new Thread(runnable, "VBox async operation " + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    public static AsyncOperationExecutor getInstance(){
+        return INSTANCE;
+    }
+    
+    private AsyncOperationExecutor(){ }
+    
+    //cancelling of the returned future interrupts the operation and thus cancels its running VirtualBox progress
+    public <T> Future<T> submit(Callable<T> operation){
+        return executor.submit(operation);
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2015 Tomáš Šmíd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.muni.fi.vboxvmsmanager.logicimpl;
+
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.LaunchOptions;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.OperationResult;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.VirtualMachine;
+import cz.muni.fi.vboxvmsmanager.pubapi.exceptions.ConnectionFailureException;
+import cz.muni.fi.vboxvmsmanager.pubapi.exceptions.IncompatibleVirtToolAPIVersionException;
+import cz.muni.fi.vboxvmsmanager.pubapi.exceptions.OperationTimeoutException;
+import cz.muni.fi.vboxvmsmanager.pubapi.exceptions.UnexpectedVMStateException;
+import cz.muni.fi.vboxvmsmanager.pubapi.exceptions.UnknownVirtualMachineException;
+import cz.muni.fi.vboxvmsmanager.pubapi.types.CloneType;
+import cz.muni.fi.vboxvmsmanager.pubapi.types.LaunchMode;
+import cz.muni.fi.vboxvmsmanager.pubapi.types.PooledCloneState;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.virtualbox_4_3.VBoxException;
+
+/**
+ *
+ * @author Tomáš Šmíd
+ */
+class ClonePool {
+    
+    //pooled clones are never looked at directly, so they do not need any display frontend
+    private static final LaunchOptions CLONE_LAUNCH_OPTIONS = new LaunchOptions.Builder().mode(LaunchMode.HEADLESS).build();
+    private final VirtualMachine template;
+    private final int size;
+    private final PooledCloneState state;
+    private final LinkedBlockingQueue<VirtualMachine> readyClones = new LinkedBlockingQueue<>();
+    private final AtomicBoolean replenishScheduled = new AtomicBoolean(false);
+    private final ExecutorService replenisher;
+    private volatile boolean closed = false;
+    
+    ClonePool(VirtualMachine template, int size, PooledCloneState state){
+        this.template = template;
+        this.size = size;
+        this.state = state;
+        this.replenisher = Executors.newSingleThreadExecutor((runnable) -> {
+            Thread thread = new Thread(runnable, "Clone pool replenisher for " + template.getName());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    public VirtualMachine acquire(){
+        VirtualMachine clone = readyClones.poll();
+        scheduleReplenishment();
+        
+        return clone;
+    }
+    
+    public int getReadyCount(){
+        return readyClones.size();
+    }
+    
+    public void scheduleReplenishment(){
+        if(!closed && replenishScheduled.compareAndSet(false, true)){
+            replenisher.execute(() -> {
+                replenishScheduled.set(false);
+                replenish();
+            });
+        }
+    }
+    
+    public void close() throws InterruptedException{
+        closed = true;
+        replenisher.shutdown();
+        replenisher.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        
+        VirtualMachine clone;
+        while((clone = readyClones.poll()) != null){
+            removeClone(clone);
+        }
+    }
+    
+    private void replenish(){
+        NativeVBoxAPIManager natapiMan = NativeVBoxAPIManager.getInstance();
+        int missing = size - readyClones.size();
+        
+        if(closed || missing <= 0){
+            return;
+        }
+        
+        List<OperationResult<VirtualMachine>> results;
+        try{
+            results = natapiMan.createVMClones(template, CloneType.LINKED, missing, new ProgressMonitor());
+        }catch(InterruptedException ex){
+            Thread.currentThread().interrupt();
+            return;
+        }catch(ConnectionFailureException | IncompatibleVirtToolAPIVersionException | UnknownVirtualMachineException
+              | UnexpectedVMStateException | OperationTimeoutException | IllegalArgumentException ex){
+            
+            System.err.println("Replenishing clone pool of virtual machine " + template + " failure -> " + ex.getMessage());
+            return;
+        }
+        
+        //every created clone ends up either in the pool or removed, failure of one clone does not stop the others
+        for(OperationResult<VirtualMachine> result : results){
+            if(!result.isSuccessful()){
+                System.err.println("Replenishing clone pool of virtual machine " + template + " failure -> " + result.getMessage());
+                continue;
+            }
+            VirtualMachine clone = result.getSubject();
+            if(Thread.currentThread().isInterrupted()){
+                removeClone(clone);
+                continue;
+            }
+            try{
+                prepareClone(clone);
+                readyClones.offer(clone);
+            }catch(InterruptedException ex){
+                Thread.currentThread().interrupt();
+                removeClone(clone);
+            }catch(ConnectionFailureException | IncompatibleVirtToolAPIVersionException | UnknownVirtualMachineException
+                  | UnexpectedVMStateException | OperationTimeoutException | IllegalArgumentException | VBoxException ex){
+                
+                System.err.println("Preparing pooled clone " + clone + " failure -> " + ex.getMessage());
+                removeClone(clone);
+            }
+        }
+    }
+    
+    private void prepareClone(VirtualMachine clone) throws InterruptedException, ConnectionFailureException,
+            IncompatibleVirtToolAPIVersionException, UnknownVirtualMachineException, UnexpectedVMStateException,
+            OperationTimeoutException{
+        
+        NativeVBoxAPIMachine natapiMach = NativeVBoxAPIMachine.getInstance();
+        
+        switch(state){
+            case RUNNING : natapiMach.startVM(clone, CLONE_LAUNCH_OPTIONS, new ProgressMonitor()); break;
+            case SAVED   : natapiMach.startVM(clone, CLONE_LAUNCH_OPTIONS, new ProgressMonitor());
+                           natapiMach.saveState(clone, new ProgressMonitor()); break;
+            default      : break;
+        }
+    }
+    
+    //actual state of the clone is used, because its preparation may have failed halfway
+    private void removeClone(VirtualMachine clone){
+        NativeVBoxAPIManager natapiMan = NativeVBoxAPIManager.getInstance();
+        NativeVBoxAPIMachine natapiMach = NativeVBoxAPIMachine.getInstance();
+        //interruption of the replenisher must not leave the clone registered
+        boolean interrupted = Thread.interrupted();
+        
+        try{
+            switch(natapiMach.getVMState(clone)){
+                case "Running" :
+                case "Paused"  : natapiMach.shutDownVM(clone, new ProgressMonitor()); break;
+                case "Saved"   : natapiMach.discardSavedState(clone); break;
+                default        : break;
+            }
+            natapiMan.removeVirtualMachine(clone, new ProgressMonitor());
+        }catch(InterruptedException ex){
+            interrupted = true;
+            System.err.println("Removing pooled clone " + clone + " failure -> " + ex.getMessage());
+        }catch(ConnectionFailureException | IncompatibleVirtToolAPIVersionException | UnknownVirtualMachineException
+              | UnexpectedVMStateException | OperationTimeoutException | IllegalArgumentException | VBoxException ex){
+            
+            System.err.println("Removing pooled clone " + clone + " failure -> " + ex.getMessage());
+        }finally{
+            if(interrupted){
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2015 Tomáš Šmíd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.muni.fi.vboxvmsmanager.logicimpl;
+
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.VirtualMachine;
+import cz.muni.fi.vboxvmsmanager.pubapi.managers.ClonePoolManager;
+import cz.muni.fi.vboxvmsmanager.pubapi.types.PooledCloneState;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ *
+ * @author Tomáš Šmíd
+ */
+public class ClonePoolManagerImpl implements ClonePoolManager{
+    
+    private final ConcurrentMap<VirtualMachine, ClonePool> pools = new ConcurrentHashMap<>();
+    
+    @Override
+    public void createPool(VirtualMachine template, int size, PooledCloneState state) {
+        NativeVBoxAPIConnection natapiCon = NativeVBoxAPIConnection.getInstance();
+        
+        if(template == null){
+            System.err.println("Creating clone pool failure: There was made an attempt to create a clone pool of a null virtual machine.");
+            return;
+        }
+        if(size < 1){
+            System.err.println("Creating clone pool failure: Size of clone pool of virtual machine " + template + " must be a positive number, but it is " + size + ".");
+            return;
+        }
+        if(state == null){
+            System.err.println("Creating clone pool failure: There is not specified (is null) a state in which should be pooled clones of virtual machine " + template + " kept.");
+            return;
+        }
+        if(!natapiCon.isConnected(template.getHostMachine())){
+            System.err.println("Creating clone pool failure: There cannot be created any clone pool of virtual machine " + template + " now, because physical machine " + template.getHostMachine() + " is not connected.");
+            return;
+        }
+        
+        ClonePool pool = new ClonePool(template, size, state);
+        if(pools.putIfAbsent(template, pool) != null){
+            System.err.println("Creating clone pool failure: There already exists a clone pool of virtual machine " + template + ".");
+            return;
+        }
+        
+        System.out.println("Clone pool of virtual machine " + template + " created, filling it with " + size + " clones in the background");
+        pool.scheduleReplenishment();
+    }
+    
+    @Override
+    public VirtualMachine acquireClone(VirtualMachine template) {
+        if(template == null){
+            System.err.println("Acquiring pooled clone failure: There was made an attempt to acquire a clone of a null virtual machine.");
+            return null;
+        }
+        
+        ClonePool pool = pools.get(template);
+        if(pool == null){
+            System.err.println("Acquiring pooled clone failure: There is no clone pool of virtual machine " + template + ".");
+            return null;
+        }
+        
+        VirtualMachine clone = pool.acquire();
+        if(clone == null){
+            System.err.println("Acquiring pooled clone failure: There is no ready clone of virtual machine " + template + " in the pool now.");
+        }
+        
+        return clone;
+    }
+    
+    @Override
+    public int getReadyCloneCount(VirtualMachine template) {
+        ClonePool pool = (template == null ? null : pools.get(template));
+        
+        return (pool == null ? 0 : pool.getReadyCount());
+    }
+    
+    @Override
+    public void removePool(VirtualMachine template) {
+        ClonePool pool = (template == null ? null : pools.remove(template));
+        
+        if(pool == null){
+            System.err.println("Removing clone pool failure: There is no clone pool of virtual machine " + template + ".");
+            return;
+        }
+        
+        System.out.println("Removing clone pool of virtual machine " + template);
+        try{
+            pool.close();
+        }catch(InterruptedException ex){
+            System.err.println("Removing clone pool of virtual machine " + template + " failure: Removing was interrupted.");
+            Thread.currentThread().interrupt();
+            return;
+        }
+        System.out.println("Clone pool of virtual machine " + template + " removed");
+    }
+    
+    @Override
+    public void close() {
+        List<VirtualMachine> templates = new ArrayList<>(pools.keySet());
+        
+        templates.stream().forEach((template) -> {
+            removePool(template);
+        });
+    }
+    
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2015 Tomáš Šmíd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.muni.fi.vboxvmsmanager.logicimpl;
+
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.PhysicalMachine;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.PortRule;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.VirtualMachine;
+import cz.muni.fi.vboxvmsmanager.pubapi.exceptions.ConnectionFailureException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.virtualbox_4_3.IVirtualBox;
+import org.virtualbox_4_3.VBoxException;
+import org.virtualbox_4_3.VirtualBoxManager;
+
+/**
+ *
+ * @author Tomáš Šmíd
+ */
+class HostActor {
+    
+    //web server sessions expire, so the connection is not kept open when there is nothing to do
+    private static final long IDLE_CONNECTION_TIMEOUT = 60000L;
+    private final PhysicalMachine hostMachine;
+    private final Callable<VirtualBoxManager> connector;
+    private final LinkedBlockingQueue<Message<?>> mailbox = new LinkedBlockingQueue<>();
+    private final ExecutorService worker;
+    //connection is used by the worker thread only
+    private VirtualBoxManager vbm = null;
+    private volatile boolean closed = false;
+    
+    interface HostOperation<T>{
+        T perform(IVirtualBox vbox) throws Exception;
+    }
+    
+    private static final class Message<T>{
+        private final HostOperation<T> operation;
+        private final boolean read;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        
+        public Message(HostOperation<T> operation, boolean read){
+            this.operation = operation;
+            this.read = read;
+        }
+        
+        public void perform(IVirtualBox vbox) throws VBoxException{
+            if(result.isDone()){
+                return;
+            }
+            try{
+                result.complete(operation.perform(vbox));
+            }catch(VBoxException ex){
+                result.completeExceptionally(ex);
+                throw ex;
+            }catch(Exception ex){
+                result.completeExceptionally(ex);
+            }
+        }
+    }
+    
+    HostActor(PhysicalMachine hostMachine){
+        this(hostMachine, () -> NativeVBoxAPIConnection.getInstance().getVirtualBoxManager(hostMachine,
+                "Connection failure while trying to perform queued operations on physical machine " + hostMachine + ": "));
+    }
+    
+    HostActor(PhysicalMachine hostMachine, Callable<VirtualBoxManager> connector){
+        this.hostMachine = hostMachine;
+        this.connector = connector;
+        this.worker = Executors.newSingleThreadExecutor((runnable) -> {
+            Thread thread = new Thread(runnable, "Host actor for " + hostMachine);
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.worker.execute(this::processMailbox);
+    }
+    
+    public PhysicalMachine getHostMachine() {
+        return hostMachine;
+    }
+    
+    //operations are performed one after another in the order they were submitted
+    public <T> Future<T> submit(HostOperation<T> operation){
+        return send(new Message<>(operation, false));
+    }
+    
+    //adjacent reads in the mailbox are performed together within one pass over the connection
+    public <T> Future<T> read(HostOperation<T> operation){
+        return send(new Message<>(operation, true));
+    }
+    
+    public Future<String> getVMState(VirtualMachine virtualMachine){
+        return read((vbox) -> NativeVBoxAPIMachine.getInstance().readVMState(vbox, virtualMachine));
+    }
+    
+    public Future<List<PortRule>> getPortRules(VirtualMachine virtualMachine){
+        return read((vbox) -> NativeVBoxAPIMachine.getInstance().readPortRules(vbox, virtualMachine));
+    }
+    
+    public int getMailboxSize(){
+        return mailbox.size();
+    }
+    
+    //operations which have not been performed yet fail, the running one is interrupted
+    public void close(){
+        //no message can be added once the actor is closed, so the worker fails all of them when it stops
+        synchronized(mailbox){
+            closed = true;
+        }
+        worker.shutdownNow();
+    }
+    
+    private <T> Future<T> send(Message<T> message){
+        synchronized(mailbox){
+            if(closed){
+                message.result.completeExceptionally(new IllegalStateException("Queuing operation failure: Operations of physical machine " + hostMachine + " are not performed anymore."));
+                return message.result;
+            }
+            mailbox.add(message);
+        }
+        
+        return message.result;
+    }
+    
+    private void processMailbox(){
+        try{
+            while(!closed){
+                Message<?> message = mailbox.poll(IDLE_CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS);
+                if(message == null){
+                    disconnect();
+                    continue;
+                }
+                List<Message<?>> batch = new ArrayList<>();
+                batch.add(message);
+                //the worker is the only consumer, so the peeked message is the polled one
+                while(message.read && mailbox.peek() != null && mailbox.peek().read){
+                    batch.add(mailbox.poll());
+                }
+                process(batch);
+            }
+        }catch(InterruptedException ex){
+            //actor has been closed
+        }finally{
+            disconnect();
+            Message<?> message;
+            while((message = mailbox.poll()) != null){
+                message.result.completeExceptionally(new IllegalStateException("Performing operation failure: Operations of physical machine " + hostMachine + " are not performed anymore."));
+            }
+        }
+    }
+    
+    private void process(List<Message<?>> batch) throws InterruptedException{
+        IVirtualBox vbox;
+        try{
+            vbox = connect();
+        }catch(InterruptedException ex){
+            fail(batch, ex);
+            throw ex;
+        }catch(Exception ex){
+            fail(batch, ex);
+            return;
+        }
+        
+        for(Message<?> message : batch){
+            try{
+                message.perform(vbox);
+            }catch(VBoxException ex){
+                //broken connection is not used for the following operations
+                disconnect();
+                try{
+                    vbox = connect();
+                }catch(InterruptedException iex){
+                    fail(batch, iex);
+                    throw iex;
+                }catch(Exception cex){
+                    fail(batch, cex);
+                    return;
+                }
+            }
+        }
+    }
+    
+    private IVirtualBox connect() throws Exception{
+        if(vbm == null){
+            vbm = connector.call();
+            if(vbm == null){
+                throw new ConnectionFailureException("Connection failure while trying to perform queued operations on physical machine " + hostMachine + ".");
+            }
+        }
+        
+        return vbm.getVBox();
+    }
+    
+    private void disconnect(){
+        if(vbm != null){
+            try{
+                vbm.disconnect();
+                vbm.cleanup();
+            }catch(VBoxException ex){
+                //the connection is dropped anyway
+            }
+            vbm = null;
+        }
+    }
+    
+    private static void fail(List<Message<?>> batch, Exception ex){
+        for(Message<?> message : batch){
+            message.result.completeExceptionally(ex);
+        }
+    }
+}
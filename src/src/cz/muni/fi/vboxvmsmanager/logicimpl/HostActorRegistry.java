@@ -0,0 +1,53 @@
+/*
+ * Copyright 2015 Tomáš Šmíd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.muni.fi.vboxvmsmanager.logicimpl;
+
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.PhysicalMachine;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ *
+ * @author Tomáš Šmíd
+ */
+class HostActorRegistry {
+    
+    private static final HostActorRegistry INSTANCE = new HostActorRegistry();
+    private final Map<PhysicalMachine, HostActor> actors = new ConcurrentHashMap<>();
+    
+    public static HostActorRegistry getInstance(){
+        return INSTANCE;
+    }
+    
+    private HostActorRegistry(){ }
+    
+    //returns null if operations of the physical machine are not performed by an actor
+    public HostActor getActor(PhysicalMachine physicalMachine){
+        return (physicalMachine == null ? null : actors.get(physicalMachine));
+    }
+    
+    public void enable(PhysicalMachine physicalMachine){
+        actors.computeIfAbsent(physicalMachine, (pm) -> new HostActor(pm));
+    }
+    
+    public void remove(PhysicalMachine physicalMachine){
+        HostActor actor = actors.remove(physicalMachine);
+        
+        if(actor != null){
+            actor.close();
+        }
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2015 Tomáš Šmíd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.muni.fi.vboxvmsmanager.logicimpl;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import org.virtualbox_4_3.IMachine;
+import org.virtualbox_4_3.INetworkAdapter;
+import org.virtualbox_4_3.IVirtualBox;
+import org.virtualbox_4_3.VBoxException;
+
+/**
+ *
+ * @author Tomáš Šmíd
+ */
+final class HostPortAllocator {
+    
+    static final int MAX_PORT = 65535;
+    //host ports used by port forwarding rules of any virtual machine on the physical machine
+    private final BitSet boundPorts = new BitSet(MAX_PORT + 1);
+    //count of rules using each bound port, clones inherit rules of their source with the same host ports
+    private final int[] bindCounts = new int[MAX_PORT + 1];
+    //host ports used by rules of each virtual machine, one entry for each rule
+    private final Map<String, List<Integer>> portsByMachine = new HashMap<>();
+    //host ports handed out by allocate methods which have not been bound to any rule yet
+    private final BitSet allocatedPorts = new BitSet(MAX_PORT + 1);
+    //there is no free port below this one, so the search for a free port does not have to scan the beginning again
+    private int lowestFreeCandidate = 0;
+    
+    HostPortAllocator(){ }
+    
+    //marks host ports of all port forwarding rules of all network adapters of all virtual machines as bound
+    static HostPortAllocator seed(IVirtualBox vbox){
+        HostPortAllocator allocator = new HostPortAllocator();
+        
+        for(IMachine vboxMachine : vbox.getMachines()){
+            allocator.retainMachine(vbox, vboxMachine);
+        }
+        
+        return allocator;
+    }
+    
+    //marks host ports of all rules of the virtual machine as bound even if other rules use them already,
+    //which is the case of a clone that has inherited the rules of its source
+    public void retainMachine(IVirtualBox vbox, IMachine vboxMachine){
+        List<Integer> ports = new ArrayList<>();
+        String machineId;
+        
+        try{
+            if(!vboxMachine.getAccessible()){
+                return;
+            }
+            machineId = UUID.fromString(vboxMachine.getId()).toString();
+            long adapterCount = vbox.getSystemProperties().getMaxNetworkAdapters(vboxMachine.getChipsetType());
+            for(long slot = 0L; slot < adapterCount; ++slot){
+                INetworkAdapter adapter = vboxMachine.getNetworkAdapter(slot);
+                for(String redirect : adapter.getNATEngine().getRedirects()){
+                    ports.add(NATRedirectParser.parseHostPort(redirect));
+                }
+            }
+        }catch(VBoxException ex){
+            //virtual machine has been removed meanwhile
+            return;
+        }
+        
+        synchronized(this){
+            for(int port : ports){
+                addOwner(machineId, port);
+            }
+        }
+    }
+    
+    public synchronized void retain(String machineId, int port){
+        checkPort(port);
+        addOwner(machineId, port);
+    }
+    
+    //returns false if the port is already bound to another port forwarding rule
+    public synchronized boolean bind(String machineId, int port){
+        checkPort(port);
+        if(boundPorts.get(port)){
+            return false;
+        }
+        addOwner(machineId, port);
+        
+        return true;
+    }
+    
+    //the port stays bound while any other rule uses it
+    public synchronized void release(String machineId, int port){
+        checkPort(port);
+        List<Integer> ports = portsByMachine.get(machineId);
+        if(ports == null || !ports.remove(Integer.valueOf(port))){
+            return;
+        }
+        if(ports.isEmpty()){
+            portsByMachine.remove(machineId);
+        }
+        if(--bindCounts[port] == 0){
+            boundPorts.clear(port);
+            markFree(port);
+        }
+    }
+    
+    //releases a port handed out by allocate methods which has not been bound to any rule
+    public synchronized void release(int port){
+        checkPort(port);
+        if(allocatedPorts.get(port)){
+            allocatedPorts.clear(port);
+            markFree(port);
+        }
+    }
+    
+    //releases host ports of all rules of virtual machines which do not exist anymore
+    public void prune(IVirtualBox vbox){
+        Set<String> existingIds = new HashSet<>();
+        for(IMachine vboxMachine : vbox.getMachines()){
+            existingIds.add(UUID.fromString(vboxMachine.getId()).toString());
+        }
+        
+        synchronized(this){
+            for(String machineId : new ArrayList<>(portsByMachine.keySet())){
+                if(!existingIds.contains(machineId)){
+                    for(int port : new ArrayList<>(portsByMachine.get(machineId))){
+                        release(machineId, port);
+                    }
+                }
+            }
+        }
+    }
+    
+    public synchronized boolean isFree(int port){
+        checkPort(port);
+        return !boundPorts.get(port) && !allocatedPorts.get(port);
+    }
+    
+    //returns the first free port which is not lower than fromPort or -1 if there is none
+    public synchronized int allocate(int fromPort){
+        return allocateRange(1, fromPort);
+    }
+    
+    //returns the first port of count consecutive free ports which are not lower than fromPort or -1 if there are none
+    public synchronized int allocateRange(int count, int fromPort){
+        checkPort(fromPort);
+        if(count <= 0){
+            throw new IllegalArgumentException("Allocating host ports failure: Count of ports must be a positive number, but it is " + count + ".");
+        }
+        
+        int start = nextFreePort(Math.max(fromPort, lowestFreeCandidate));
+        while(start >= 0 && start + count - 1 <= MAX_PORT){
+            int end = nextUsedPort(start);
+            if(end < 0 || end - start >= count){
+                allocatedPorts.set(start, start + count);
+                int lowestFree = nextFreePort(lowestFreeCandidate);
+                lowestFreeCandidate = (lowestFree < 0 ? MAX_PORT + 1 : lowestFree);
+                return start;
+            }
+            start = nextFreePort(end);
+        }
+        
+        return -1;
+    }
+    
+    private void addOwner(String machineId, int port){
+        portsByMachine.computeIfAbsent(machineId, (id) -> new ArrayList<>()).add(port);
+        ++bindCounts[port];
+        boundPorts.set(port);
+        allocatedPorts.clear(port);
+    }
+    
+    private void markFree(int port){
+        if(port < lowestFreeCandidate){
+            lowestFreeCandidate = port;
+        }
+    }
+    
+    private int nextFreePort(int fromPort){
+        int port = fromPort;
+        while(port <= MAX_PORT){
+            int bound = boundPorts.nextClearBit(port);
+            int allocated = allocatedPorts.nextClearBit(port);
+            if(bound == allocated){
+                return (bound > MAX_PORT ? -1 : bound);
+            }
+            port = Math.max(bound, allocated);
+        }
+        
+        return -1;
+    }
+    
+    private int nextUsedPort(int fromPort){
+        int bound = boundPorts.nextSetBit(fromPort);
+        int allocated = allocatedPorts.nextSetBit(fromPort);
+        if(bound < 0){
+            return allocated;
+        }
+        
+        return (allocated < 0 ? bound : Math.min(bound, allocated));
+    }
+    
+    private void checkPort(int port){
+        if(port < 0 || port > MAX_PORT){
+            throw new IllegalArgumentException("Host port failure: Port number " + port + " is out of the range 0-" + MAX_PORT + ".");
+        }
+    }
+}
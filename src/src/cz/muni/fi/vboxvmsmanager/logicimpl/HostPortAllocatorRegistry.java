@@ -0,0 +1,55 @@
+/*
+ * Copyright 2015 Tomáš Šmíd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.muni.fi.vboxvmsmanager.logicimpl;
+
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.PhysicalMachine;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.virtualbox_4_3.IVirtualBox;
+
+/**
+ *
+ * @author Tomáš Šmíd
+ */
+class HostPortAllocatorRegistry {
+    
+    private static final HostPortAllocatorRegistry INSTANCE = new HostPortAllocatorRegistry();
+    private final Map<PhysicalMachine, HostPortAllocator> allocators = new ConcurrentHashMap<>();
+    
+    public static HostPortAllocatorRegistry getInstance(){
+        return INSTANCE;
+    }
+    
+    private HostPortAllocatorRegistry(){ }
+    
+    //returns null if the allocator of physical machine has not been seeded yet
+    public HostPortAllocator getAllocator(PhysicalMachine physicalMachine){
+        return allocators.get(physicalMachine);
+    }
+    
+    //the allocator is seeded when the physical machine is connected, this is only a fallback for the case it was not
+    public HostPortAllocator getAllocator(PhysicalMachine physicalMachine, IVirtualBox vbox){
+        return allocators.computeIfAbsent(physicalMachine, (pm) -> HostPortAllocator.seed(vbox));
+    }
+    
+    public void seed(PhysicalMachine physicalMachine, IVirtualBox vbox){
+        allocators.put(physicalMachine, HostPortAllocator.seed(vbox));
+    }
+    
+    public void remove(PhysicalMachine physicalMachine){
+        allocators.remove(physicalMachine);
+    }
+}
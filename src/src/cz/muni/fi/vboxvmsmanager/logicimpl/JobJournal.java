@@ -0,0 +1,133 @@
+/*
+ * Copyright 2015 Tomáš Šmíd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.muni.fi.vboxvmsmanager.logicimpl;
+
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.Job;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.PhysicalMachine;
+import cz.muni.fi.vboxvmsmanager.pubapi.types.CloneType;
+import cz.muni.fi.vboxvmsmanager.pubapi.types.JobType;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ *
+ * @author Tomáš Šmíd
+ */
+class JobJournal {
+    
+    private static final String QUEUED_RECORD = "Q";
+    private static final String FINISHED_RECORD = "F";
+    private static final String SEPARATOR = "\t";
+    private final Path file;
+    
+    JobJournal(Path file){
+        this.file = file;
+    }
+    
+    public Path getFile() {
+        return file;
+    }
+    
+    //each record is written to the disk before this method returns, so it survives a crash of the JVM
+    public synchronized void appendQueued(Job job) throws IOException{
+        write(file, Arrays.asList(toQueuedRecord(job)), StandardOpenOption.APPEND);
+    }
+    
+    public synchronized void appendFinished(UUID jobId, boolean successful, String message) throws IOException{
+        write(file, Arrays.asList(FINISHED_RECORD + SEPARATOR + jobId + SEPARATOR + (successful ? "1" : "0") + SEPARATOR +
+                                  encode(message)), StandardOpenOption.APPEND);
+    }
+    
+    //jobs which were queued but not finished yet, in the order they were queued; user passwords are never stored,
+    //so the physical machines of the jobs must be matched with the connected ones before the jobs are performed
+    public synchronized List<Job> load() throws IOException{
+        Map<UUID, Job> unfinishedJobs = new LinkedHashMap<>();
+        
+        if(!Files.exists(file)){
+            return new ArrayList<>();
+        }
+        
+        for(String line : Files.readAllLines(file, StandardCharsets.UTF_8)){
+            List<String> fields = Arrays.asList(line.split(SEPARATOR, -1));
+            try{
+                if(fields.get(0).equals(QUEUED_RECORD) && fields.size() == 9){
+                    PhysicalMachine pm = new PhysicalMachine(decode(fields.get(3)), decode(fields.get(4)), decode(fields.get(5)), null);
+                    Job.Builder builder = new Job.Builder(JobType.valueOf(fields.get(2)), pm, decode(fields.get(6)))
+                                                .id(UUID.fromString(fields.get(1)));
+                    if(!fields.get(8).isEmpty()){
+                        builder.source(decode(fields.get(7)), CloneType.valueOf(fields.get(8)));
+                    }
+                    Job job = builder.build();
+                    unfinishedJobs.put(job.getId(), job);
+                }else if(fields.get(0).equals(FINISHED_RECORD) && fields.size() == 4){
+                    unfinishedJobs.remove(UUID.fromString(fields.get(1)));
+                }
+            }catch(IllegalArgumentException ex){
+                //the last record can be incomplete, when the JVM crashed while it was being written
+            }
+        }
+        
+        return new ArrayList<>(unfinishedJobs.values());
+    }
+    
+    //replaces the whole journal by the unfinished jobs only, so that it does not grow with finished ones forever
+    public synchronized void checkpoint(Collection<Job> unfinishedJobs) throws IOException{
+        Path checkpoint = file.resolveSibling(file.getFileName() + ".checkpoint");
+        List<String> records = new ArrayList<>();
+        
+        for(Job job : unfinishedJobs){
+            records.add(toQueuedRecord(job));
+        }
+        write(checkpoint, records, StandardOpenOption.TRUNCATE_EXISTING);
+        Files.move(checkpoint, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    private static void write(Path path, List<String> records, StandardOpenOption mode) throws IOException{
+        Files.write(path, records, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.WRITE, mode,
+                    StandardOpenOption.DSYNC);
+    }
+    
+    private static String toQueuedRecord(Job job) throws UnsupportedEncodingException{
+        PhysicalMachine pm = job.getHostMachine();
+        
+        return QUEUED_RECORD + SEPARATOR + job.getId() + SEPARATOR + job.getType() + SEPARATOR + encode(pm.getAddressIP()) +
+               SEPARATOR + encode(pm.getPortOfVTWebServer()) + SEPARATOR + encode(pm.getUsername()) + SEPARATOR +
+               encode(job.getVirtualMachineName()) + SEPARATOR + encode(job.getSourceName()) + SEPARATOR +
+               (job.getCloneType() == null ? "" : job.getCloneType());
+    }
+    
+    private static String encode(String value) throws UnsupportedEncodingException{
+        return (value == null ? "" : URLEncoder.encode(value, "UTF-8"));
+    }
+    
+    private static String decode(String value) throws UnsupportedEncodingException{
+        return (value.isEmpty() ? null : URLDecoder.decode(value, "UTF-8"));
+    }
+}
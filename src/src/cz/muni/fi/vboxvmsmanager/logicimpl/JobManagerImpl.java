@@ -0,0 +1,120 @@
+/*
+ * Copyright 2015 Tomáš Šmíd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.muni.fi.vboxvmsmanager.logicimpl;
+
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.Job;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.OperationResult;
+import cz.muni.fi.vboxvmsmanager.pubapi.managers.JobManager;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ *
+ * @author Tomáš Šmíd
+ */
+public class JobManagerImpl implements JobManager{
+    
+    private final JobQueue queue;
+    
+    public JobManagerImpl(String journalFile, int maxParallelJobsPerHost, int maxQueuedJobsPerHost){
+        if(journalFile == null || journalFile.isEmpty()){
+            throw new IllegalArgumentException("Job manager inicialization failure: Journal file of jobs must be specified as non-empty string value.");
+        }
+        if(maxParallelJobsPerHost <= 0 || maxQueuedJobsPerHost <= 0){
+            throw new IllegalArgumentException("Job manager inicialization failure: Count of jobs performed in parallel and count of jobs waiting for one physical machine must be positive numbers, but they are " + maxParallelJobsPerHost + " and " + maxQueuedJobsPerHost + ".");
+        }
+        
+        this.queue = new JobQueue(new JobJournal(Paths.get(journalFile)), maxParallelJobsPerHost, maxQueuedJobsPerHost);
+    }
+    
+    @Override
+    public boolean submit(Job job) {
+        boolean queued = false;
+        
+        try{
+            queued = queue.submit(job);
+        } catch (IOException | IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            return false;
+        }
+        
+        if(!queued){
+            System.err.println("Queuing job failure: Job " + job + " has not been queued, because there are too many jobs waiting for its physical machine.");
+        }
+        
+        return queued;
+    }
+    
+    @Override
+    public boolean submit(Job job, long timeout) {
+        boolean queued = false;
+        
+        if(timeout <= 0L){
+            System.err.println("Queuing job failure: Timeout of queuing of job " + job + " must be a positive number of milliseconds, but it is " + timeout + ".");
+            return false;
+        }
+        
+        try{
+            queued = queue.submit(job, timeout);
+        } catch (IOException | IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            return false;
+        } catch (InterruptedException ex) {
+            System.err.println("Queuing job failure: Waiting for a free place for job " + job + " has been interrupted.");
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        
+        if(!queued){
+            System.err.println("Queuing job failure: Job " + job + " has not been queued within " + timeout + " ms, because there are too many jobs waiting for its physical machine.");
+        }
+        
+        return queued;
+    }
+    
+    @Override
+    public int resume() {
+        int recovered = 0;
+        
+        try{
+            recovered = queue.recover();
+        } catch (IOException ex) {
+            System.err.println("Resuming jobs failure: Journal of jobs cannot be read: " + ex.getMessage());
+            return recovered;
+        }
+        
+        System.out.println("Resuming jobs: " + recovered + " unfinished jobs recovered from the journal, " + queue.getUnfinishedJobs().size() + " jobs are unfinished");
+        
+        return recovered;
+    }
+    
+    @Override
+    public List<Job> getUnfinishedJobs() {
+        return queue.getUnfinishedJobs();
+    }
+    
+    @Override
+    public List<OperationResult<Job>> getFinishedJobs() {
+        return queue.getFinishedJobs();
+    }
+    
+    @Override
+    public void close() {
+        queue.close();
+        System.out.println("Job manager closed, unfinished jobs will be resumed from the journal");
+    }
+}
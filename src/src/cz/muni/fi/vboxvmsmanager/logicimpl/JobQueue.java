@@ -0,0 +1,348 @@
+/*
+ * Copyright 2015 Tomáš Šmíd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.muni.fi.vboxvmsmanager.logicimpl;
+
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.Job;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.LaunchOptions;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.OperationResult;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.PhysicalMachine;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.VirtualMachine;
+import cz.muni.fi.vboxvmsmanager.pubapi.exceptions.ConnectionFailureException;
+import cz.muni.fi.vboxvmsmanager.pubapi.exceptions.IncompatibleVirtToolAPIVersionException;
+import cz.muni.fi.vboxvmsmanager.pubapi.exceptions.OperationTimeoutException;
+import cz.muni.fi.vboxvmsmanager.pubapi.exceptions.UnexpectedVMStateException;
+import cz.muni.fi.vboxvmsmanager.pubapi.exceptions.UnknownVirtualMachineException;
+import cz.muni.fi.vboxvmsmanager.pubapi.types.JobType;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.WeakHashMap;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+
+/**
+ *
+ * @author Tomáš Šmíd
+ */
+class JobQueue {
+    
+    //count of finished jobs after which the journal is rewritten with the unfinished jobs only
+    private static final int CHECKPOINT_INTERVAL = 100;
+    //queues which have not been closed yet, their waiting jobs are dispatched when a physical machine is connected
+    private static final Set<JobQueue> OPEN_QUEUES = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+    private final JobJournal journal;
+    private final int maxParallelJobsPerHost;
+    private final int maxQueuedJobsPerHost;
+    private final JobRunner runner;
+    private final Predicate<PhysicalMachine> hostAvailability;
+    //all unfinished jobs including the running ones in the order they were queued
+    private final Map<UUID, Job> unfinishedJobs = new LinkedHashMap<>();
+    private final Map<UUID, Future<?>> runningJobs = new HashMap<>();
+    private final List<OperationResult<Job>> finishedJobs = new ArrayList<>();
+    private int finishedSinceCheckpoint = 0;
+    private boolean closed = false;
+    
+    interface JobRunner{
+        //throws InterruptedException when the job has been cancelled, so that it remains queued,
+        //any other failure finishes the job as failed
+        OperationResult<Job> run(Job job) throws InterruptedException;
+    }
+    
+    JobQueue(JobJournal journal, int maxParallelJobsPerHost, int maxQueuedJobsPerHost){
+        this(journal, maxParallelJobsPerHost, maxQueuedJobsPerHost, JobQueue::performJob,
+             (pm) -> NativeVBoxAPIConnection.getInstance().isConnected(pm));
+    }
+    
+    JobQueue(JobJournal journal, int maxParallelJobsPerHost, int maxQueuedJobsPerHost, JobRunner runner,
+             Predicate<PhysicalMachine> hostAvailability){
+        
+        this.journal = journal;
+        this.maxParallelJobsPerHost = maxParallelJobsPerHost;
+        this.maxQueuedJobsPerHost = maxQueuedJobsPerHost;
+        this.runner = runner;
+        this.hostAvailability = hostAvailability;
+        OPEN_QUEUES.add(this);
+    }
+    
+    //called when a physical machine has been connected, jobs recovered or queued while it was not available
+    //would otherwise wait until another job is submitted or finished
+    static void dispatchOpenQueues(){
+        List<JobQueue> queues;
+        synchronized(OPEN_QUEUES){
+            queues = new ArrayList<>(OPEN_QUEUES);
+        }
+        
+        for(JobQueue queue : queues){
+            queue.dispatch();
+        }
+    }
+    
+    //queues the unfinished jobs of the journal again, jobs which were running when the JVM stopped are performed
+    //again and skip the steps they have already done
+    public synchronized int recover() throws IOException{
+        int recovered = 0;
+        
+        for(Job job : journal.load()){
+            if(unfinishedJobs.putIfAbsent(job.getId(), job) == null){
+                ++recovered;
+            }
+        }
+        dispatch();
+        
+        return recovered;
+    }
+    
+    //returns false without queuing the job, when there are already maxQueuedJobsPerHost jobs waiting
+    //for the physical machine of the job
+    public synchronized boolean submit(Job job) throws IOException{
+        checkJobIsValid(job);
+        
+        if(closed || getWaitingCount(job.getHostMachine()) >= maxQueuedJobsPerHost){
+            return false;
+        }
+        
+        journal.appendQueued(job);
+        unfinishedJobs.put(job.getId(), job);
+        dispatch();
+        
+        return true;
+    }
+    
+    //waits at most timeout milliseconds for a free place in the queue of the physical machine of the job
+    public synchronized boolean submit(Job job, long timeout) throws IOException, InterruptedException{
+        long deadline = System.currentTimeMillis() + timeout;
+        
+        checkJobIsValid(job);
+        while(!closed && getWaitingCount(job.getHostMachine()) >= maxQueuedJobsPerHost){
+            long remaining = deadline - System.currentTimeMillis();
+            if(remaining <= 0L){
+                return false;
+            }
+            wait(remaining);
+        }
+        
+        return submit(job);
+    }
+    
+    //jobs of physical machines which have not been available yet are performed once they are connected
+    public synchronized void dispatch(){
+        Map<PhysicalMachine, Integer> runningCounts = new HashMap<>();
+        Set<String> busyVMs = new HashSet<>();
+        
+        for(Job job : unfinishedJobs.values()){
+            if(runningJobs.containsKey(job.getId())){
+                runningCounts.merge(job.getHostMachine(), 1, Integer::sum);
+                busyVMs.add(getVMKey(job));
+            }
+        }
+        
+        for(Job job : new ArrayList<>(unfinishedJobs.values())){
+            //jobs of one virtual machine are performed in the order they were queued
+            if(runningJobs.containsKey(job.getId()) || !busyVMs.add(getVMKey(job))){
+                continue;
+            }
+            if(closed || runningCounts.getOrDefault(job.getHostMachine(), 0) >= maxParallelJobsPerHost
+               || !hostAvailability.test(job.getHostMachine())){
+                continue;
+            }
+            runningCounts.merge(job.getHostMachine(), 1, Integer::sum);
+            runningJobs.put(job.getId(), AsyncOperationExecutor.getInstance().submit(() -> {
+                OperationResult<Job> result = null;
+                long start = System.currentTimeMillis();
+                try{
+                    result = runner.run(job);
+                }catch(RuntimeException ex){
+                    //job is not performed again at once, only a cancelled job remains queued
+                    result = new OperationResult<>(job, false, "Performing job " + job + " failure: " + ex.getMessage(),
+                                                   System.currentTimeMillis() - start);
+                }finally{
+                    finished(job, result);
+                }
+                return result;
+            }));
+        }
+    }
+    
+    public synchronized List<Job> getUnfinishedJobs(){
+        return new ArrayList<>(unfinishedJobs.values());
+    }
+    
+    public synchronized List<OperationResult<Job>> getFinishedJobs(){
+        return new ArrayList<>(finishedJobs);
+    }
+    
+    //running jobs are cancelled, but they remain in the journal, so they are performed again after recovery
+    public synchronized void close(){
+        closed = true;
+        OPEN_QUEUES.remove(this);
+        for(Future<?> future : runningJobs.values()){
+            future.cancel(true);
+        }
+        notifyAll();
+    }
+    
+    private synchronized void finished(Job job, OperationResult<Job> result){
+        runningJobs.remove(job.getId());
+        
+        if(result != null && !closed){
+            try{
+                journal.appendFinished(job.getId(), result.isSuccessful(), result.getMessage());
+                unfinishedJobs.remove(job.getId());
+                finishedJobs.add(result);
+                if(++finishedSinceCheckpoint >= CHECKPOINT_INTERVAL){
+                    journal.checkpoint(unfinishedJobs.values());
+                    finishedSinceCheckpoint = 0;
+                }
+            }catch(IOException ex){
+                //job remains unfinished in the journal, so it is performed again after recovery
+                System.err.println("Recording finished job " + job + " failure: " + ex.getMessage());
+            }
+        }
+        
+        notifyAll();
+        dispatch();
+    }
+    
+    private int getWaitingCount(PhysicalMachine physicalMachine){
+        int waiting = 0;
+        
+        for(Job job : unfinishedJobs.values()){
+            if(job.getHostMachine().equals(physicalMachine) && !runningJobs.containsKey(job.getId())){
+                ++waiting;
+            }
+        }
+        
+        return waiting;
+    }
+    
+    private static String getVMKey(Job job){
+        return job.getHostMachine().getAddressIP() + ":" + job.getHostMachine().getPortOfVTWebServer() + "/" +
+               job.getVirtualMachineName();
+    }
+    
+    private static OperationResult<Job> performJob(Job job) throws InterruptedException{
+        long start = System.currentTimeMillis();
+        
+        try{
+            String message = perform(job);
+            return new OperationResult<>(job, true, message, System.currentTimeMillis() - start);
+        }catch(ConnectionFailureException | IncompatibleVirtToolAPIVersionException | UnknownVirtualMachineException
+              | UnexpectedVMStateException | OperationTimeoutException ex){
+            
+            return new OperationResult<>(job, false, ex.getMessage(), System.currentTimeMillis() - start);
+        }catch(RuntimeException ex){
+            //exceptions of VirtualBox API are not checked, but they fail the job the same way
+            return new OperationResult<>(job, false, "Performing job " + job + " failure: " + ex.getMessage(),
+                                         System.currentTimeMillis() - start);
+        }
+    }
+    
+    //each job first checks whether its work has already been done, so that a job performed again after recovery
+    //skips it; returns the reason why the job has been skipped or an empty string
+    private static String perform(Job job) throws InterruptedException, ConnectionFailureException,
+            IncompatibleVirtToolAPIVersionException, UnknownVirtualMachineException, UnexpectedVMStateException,
+            OperationTimeoutException{
+        
+        NativeVBoxAPIManager natapiMan = NativeVBoxAPIManager.getInstance();
+        NativeVBoxAPIMachine natapiMach = NativeVBoxAPIMachine.getInstance();
+        PhysicalMachine pm = getConnectedHost(job);
+        VirtualMachine vm = findVM(pm, job.getVirtualMachineName());
+        
+        switch(job.getType()){
+            case CLONE:
+                if(vm != null){
+                    return "Virtual machine " + vm + " already exists";
+                }
+                VirtualMachine source = findVM(pm, job.getSourceName());
+                if(source == null){
+                    throw new UnknownVirtualMachineException("Job " + job + " failure: There is no virtual machine with name = " + job.getSourceName() + " on physical machine " + pm + " which should be cloned.");
+                }
+                natapiMan.createVMClone(source, job.getCloneType(), job.getVirtualMachineName(), new ProgressMonitor());
+                return "";
+            case START:
+                checkVMExists(job, vm);
+                if(Reconciler.RUNNING_STATES.contains(natapiMach.getVMState(vm))){
+                    return "Virtual machine " + vm + " is already running";
+                }
+                natapiMach.startVM(vm, new LaunchOptions.Builder().build(), new ProgressMonitor());
+                return "";
+            case STOP:
+                checkVMExists(job, vm);
+                if(!Reconciler.RUNNING_STATES.contains(natapiMach.getVMState(vm))){
+                    return "Virtual machine " + vm + " is not running";
+                }
+                natapiMach.shutDownVM(vm, new ProgressMonitor());
+                return "";
+            default:
+                if(vm == null){
+                    return "Virtual machine with name = " + job.getVirtualMachineName() + " has already been removed";
+                }
+                natapiMan.removeVirtualMachine(vm, new ProgressMonitor());
+                return "";
+        }
+    }
+    
+    //journal does not store user passwords, so the connected physical machine is used instead of the one of the job
+    private static PhysicalMachine getConnectedHost(Job job) throws ConnectionFailureException{
+        for(PhysicalMachine pm : NativeVBoxAPIConnection.getInstance().getConnectedPhysicalMachines()){
+            if(pm.equals(job.getHostMachine())){
+                return pm;
+            }
+        }
+        
+        throw new ConnectionFailureException("Connection failure while trying to perform job " + job + ": Physical machine " + job.getHostMachine() + " is not connected.");
+    }
+    
+    private static VirtualMachine findVM(PhysicalMachine physicalMachine, String name) throws InterruptedException,
+            ConnectionFailureException, IncompatibleVirtToolAPIVersionException, UnexpectedVMStateException{
+        
+        for(VirtualMachine vm : NativeVBoxAPIManager.getInstance().getVirtualMachines(physicalMachine)){
+            if(vm.getName().equals(name)){
+                return vm;
+            }
+        }
+        
+        return null;
+    }
+    
+    private static void checkVMExists(Job job, VirtualMachine virtualMachine) throws UnknownVirtualMachineException{
+        if(virtualMachine == null){
+            throw new UnknownVirtualMachineException("Job " + job + " failure: There is no virtual machine with name = " + job.getVirtualMachineName() + " on physical machine " + job.getHostMachine() + ".");
+        }
+    }
+    
+    private void checkJobIsValid(Job job){
+        if(job == null){
+            throw new IllegalArgumentException("Queuing job failure: There was made an attempt to queue a null job.");
+        }
+        if(job.getType() == null || job.getHostMachine() == null){
+            throw new IllegalArgumentException("Queuing job failure: Job " + job + " has not specified (is null) its type or physical machine.");
+        }
+        if(job.getVirtualMachineName() == null || job.getVirtualMachineName().isEmpty()){
+            throw new IllegalArgumentException("Queuing job failure: Job " + job + " has a null or an empty name of virtual machine.");
+        }
+        if(job.getType() == JobType.CLONE && (job.getSourceName() == null || job.getCloneType() == null)){
+            throw new IllegalArgumentException("Queuing job failure: Clone job " + job + " has not specified (is null) its source virtual machine or clone type.");
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2015 Tomáš Šmíd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.muni.fi.vboxvmsmanager.logicimpl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.virtualbox_4_3.IMedium;
+import org.virtualbox_4_3.IVirtualBox;
+
+/**
+ *
+ * @author Tomáš Šmíd
+ */
+class MediumTree {
+    
+    private final Map<String, MediumNode> nodes;
+    private final long creationTime;
+    
+    private static class MediumNode{
+        private final String id;
+        private final String parentId;
+        private final String machineId;
+        private final List<String> childrenIds = new ArrayList<>();
+        
+        MediumNode(String id, String parentId, String machineId){
+            this.id = id;
+            this.parentId = parentId;
+            this.machineId = machineId;
+        }
+    }
+    
+    private MediumTree(Map<String, MediumNode> nodes){
+        this.nodes = nodes;
+        this.creationTime = System.currentTimeMillis();
+    }
+    
+    //reads all the hard disks registered in VirtualBox in one pass, from base media to their differencing children
+    public static MediumTree build(IVirtualBox vbox){
+        return build(vbox, null);
+    }
+    
+    //the read media are put to the given map too (when it is not null), they are usable only with the same connection
+    public static MediumTree build(IVirtualBox vbox, Map<String, IMedium> media){
+        Map<String, MediumNode> nodes = new HashMap<>();
+        Deque<IMedium> toVisit = new ArrayDeque<>();
+        Deque<String> parentIds = new ArrayDeque<>();
+        
+        for(IMedium base : vbox.getHardDisks()){
+            toVisit.offer(base);
+            parentIds.offer("");
+        }
+        
+        while(!toVisit.isEmpty()){
+            IMedium medium = toVisit.poll();
+            String parentId = parentIds.poll();
+            List<String> machineIds = medium.getMachineIds();
+            MediumNode node = new MediumNode(medium.getId(), (parentId.isEmpty() ? null : parentId),
+                                             (machineIds.isEmpty() ? null : machineIds.get(0)));
+            nodes.put(node.id, node);
+            if(media != null){
+                media.put(node.id, medium);
+            }
+            if(node.parentId != null){
+                nodes.get(node.parentId).childrenIds.add(node.id);
+            }
+            
+            for(IMedium child : medium.getChildren()){
+                toVisit.offer(child);
+                parentIds.offer(node.id);
+            }
+        }
+        
+        return new MediumTree(nodes);
+    }
+    
+    public long getCreationTime(){
+        return creationTime;
+    }
+    
+    public boolean contains(String mediumId){
+        return nodes.containsKey(mediumId);
+    }
+    
+    public String getParentId(String mediumId){
+        MediumNode node = nodes.get(mediumId);
+        return (node == null ? null : node.parentId);
+    }
+    
+    public String getMachineId(String mediumId){
+        MediumNode node = nodes.get(mediumId);
+        return (node == null ? null : node.machineId);
+    }
+    
+    public List<String> getChildrenIds(String mediumId){
+        MediumNode node = nodes.get(mediumId);
+        return (node == null ? Collections.<String>emptyList() : Collections.unmodifiableList(node.childrenIds));
+    }
+    
+    public String getBaseId(String mediumId){
+        String baseId = mediumId;
+        String parentId = getParentId(baseId);
+        
+        while(parentId != null){
+            baseId = parentId;
+            parentId = getParentId(baseId);
+        }
+        
+        return baseId;
+    }
+    
+    public int getDepth(String mediumId){
+        int depth = 0;
+        String parentId = getParentId(mediumId);
+        
+        while(parentId != null){
+            ++depth;
+            parentId = getParentId(parentId);
+        }
+        
+        return depth;
+    }
+    
+    //machine which has attached the given mediumis a linked clone if the base medium belongs to another machine
+    public boolean isLinkedClone(String machineId, String attachedMediumId){
+        String baseOwnerId = getMachineId(getBaseId(attachedMediumId));
+        
+        return (baseOwnerId != null && !baseOwnerId.equals(machineId));
+    }
+    
+    //returns the top-most medium of the chain of media which still belongs to the given machine
+    public String getTopMediumOfMachine(String machineId, String attachedMediumId){
+        String mediumId = attachedMediumId;
+        String parentId = getParentId(mediumId);
+        
+        while(parentId != null && machineId.equals(getMachineId(parentId))){
+            mediumId = parentId;
+            parentId = getParentId(mediumId);
+        }
+        
+        return mediumId;
+    }
+    
+    //returns ids of all other machines using media derived from the given medium, deeper ones first,
+    //so the returned machines can be removed in the returned order
+    public List<String> getDependentMachineIds(String mediumId){
+        Set<String> machineIds = new LinkedHashSet<>();
+        
+        collectDependentMachineIds(mediumId, machineIds);
+        machineIds.remove(getMachineId(mediumId));
+        
+        return new ArrayList<>(machineIds);
+    }
+    
+    //returns ids of all the media which are not used by any machine and none of their children is used either,
+    //children precede their parents, so the media can be deleted in the returned order
+    public List<String> getUnusedMediumIds(){
+        List<String> unusedIds = new ArrayList<>();
+        
+        for(MediumNode node : nodes.values()){
+            if(node.parentId == null){
+                collectUnusedMediumIds(node.id, unusedIds);
+            }
+        }
+        
+        return unusedIds;
+    }
+    
+    private boolean collectUnusedMediumIds(String mediumId, List<String> unusedIds){
+        boolean unused = (getMachineId(mediumId) == null);
+        
+        for(String childId : getChildrenIds(mediumId)){
+            unused &= collectUnusedMediumIds(childId, unusedIds);
+        }
+        if(unused){
+            unusedIds.add(mediumId);
+        }
+        
+        return unused;
+    }
+    
+    private void collectDependentMachineIds(String mediumId, Set<String> machineIds){
+        String machineId = getMachineId(mediumId);
+        
+        for(String childId : getChildrenIds(mediumId)){
+            collectDependentMachineIds(childId, machineIds);
+            String childMachineId = getMachineId(childId);
+            if(childMachineId != null && !childMachineId.equals(machineId)){
+                machineIds.add(childMachineId);
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2015 Tomáš Šmíd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.muni.fi.vboxvmsmanager.logicimpl;
+
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.PhysicalMachine;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.virtualbox_4_3.IVirtualBox;
+
+/**
+ *
+ * @author Tomáš Šmíd
+ */
+class MediumTreeCache {
+    
+    private static final MediumTreeCache INSTANCE = new MediumTreeCache();
+    //media can be changed by anyone else than this library too, so the tree is not trusted for longer time
+    private static final long MAX_TREE_AGE = 10000L;
+    private final Map<PhysicalMachine, MediumTree> trees = new ConcurrentHashMap<>();
+    
+    public static MediumTreeCache getInstance(){
+        return INSTANCE;
+    }
+    
+    private MediumTreeCache(){ }
+    
+    public MediumTree getMediumTree(PhysicalMachine physicalMachine, IVirtualBox vbox){
+        MediumTree tree = trees.get(physicalMachine);
+        
+        if(tree == null || System.currentTimeMillis() - tree.getCreationTime() > MAX_TREE_AGE){
+            tree = MediumTree.build(vbox);
+            trees.put(physicalMachine, tree);
+        }
+        
+        return tree;
+    }
+    
+    //the tree is built again when it does not know the required medium, it was created by someone else meanwhile
+    public MediumTree getMediumTree(PhysicalMachine physicalMachine, IVirtualBox vbox, String requiredMediumId){
+        MediumTree tree = getMediumTree(physicalMachine, vbox);
+        
+        if(!tree.contains(requiredMediumId)){
+            tree = MediumTree.build(vbox);
+            trees.put(physicalMachine, tree);
+        }
+        
+        return tree;
+    }
+    
+    //has to be called whenever the media of physical machine are changed (cloning, removing, snapshots)
+    public void invalidate(PhysicalMachine physicalMachine){
+        trees.remove(physicalMachine);
+    }
+}
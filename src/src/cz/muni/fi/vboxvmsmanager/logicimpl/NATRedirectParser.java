@@ -0,0 +1,142 @@
+/*
+ * Copyright 2015 Tomáš Šmíd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.muni.fi.vboxvmsmanager.logicimpl;
+
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.PortRule;
+import cz.muni.fi.vboxvmsmanager.pubapi.types.ProtocolType;
+
+/**
+ *
+ * @author Tomáš Šmíd
+ */
+final class NATRedirectParser {
+    
+    //redirect format is "name,protocol,hostIP,hostPort,guestIP,guestPort"
+    private static final int NAME_FIELD = 0;
+    private static final int PROTOCOL_FIELD = 1;
+    private static final int HOST_IP_FIELD = 2;
+    private static final int HOST_PORT_FIELD = 3;
+    private static final int GUEST_IP_FIELD = 4;
+    private static final int GUEST_PORT_FIELD = 5;
+    //numeric codes of NATProtocol used by VirtualBox in redirects
+    private static final int NAT_PROTOCOL_UDP = 0;
+    private static final int NAT_PROTOCOL_TCP = 1;
+    private static final int MAX_PORT = 65535;
+    
+    private NATRedirectParser(){ }
+    
+    public static PortRule parse(String redirect){
+        return parse(redirect, 0L);
+    }
+    
+    public static PortRule parse(String redirect, long adapterSlot){
+        int hostIPStart = fieldStart(redirect, HOST_IP_FIELD);
+        int hostPortStart = fieldStart(redirect, hostIPStart, HOST_PORT_FIELD - HOST_IP_FIELD);
+        int guestIPStart = fieldStart(redirect, hostPortStart, GUEST_IP_FIELD - HOST_PORT_FIELD);
+        int guestPortStart = fieldStart(redirect, guestIPStart, GUEST_PORT_FIELD - GUEST_IP_FIELD);
+        
+        return new PortRule.Builder(parseName(redirect), parsePort(redirect, hostPortStart), parsePort(redirect, guestPortStart))
+                           .protocol(parseProtocol(redirect))
+                           .hostIP(redirect.substring(hostIPStart, hostPortStart - 1))
+                           .guestIP(redirect.substring(guestIPStart, guestPortStart - 1))
+                           .adapterSlot(adapterSlot).build();
+    }
+    
+    public static String format(PortRule portRule){
+        String hostIP = (portRule.getHostIP() == null ? "" : portRule.getHostIP());
+        String guestIP = (portRule.getGuestIP() == null ? "" : portRule.getGuestIP());
+        int protocolCode = (portRule.getProtocol() == ProtocolType.TCP ? NAT_PROTOCOL_TCP : NAT_PROTOCOL_UDP);
+        
+        return portRule.getName() + "," + protocolCode + "," + hostIP + "," + portRule.getHostPort() + "," +
+               guestIP + "," + portRule.getGuestPort();
+    }
+    
+    public static String parseName(String redirect){
+        return redirect.substring(0, fieldStart(redirect, PROTOCOL_FIELD) - 1);
+    }
+    
+    //compares the name without creating any substring
+    public static boolean hasName(String redirect, String name){
+        int nameEnd = fieldStart(redirect, PROTOCOL_FIELD) - 1;
+        
+        return nameEnd == name.length() && redirect.regionMatches(0, name, 0, nameEnd);
+    }
+    
+    public static ProtocolType parseProtocol(String redirect){
+        int start = fieldStart(redirect, PROTOCOL_FIELD);
+        int end = fieldStart(redirect, start, HOST_IP_FIELD - PROTOCOL_FIELD) - 1;
+        
+        if(end - start == 1){
+            switch(redirect.charAt(start) - '0'){
+                case NAT_PROTOCOL_UDP: return ProtocolType.UDP;
+                case NAT_PROTOCOL_TCP: return ProtocolType.TCP;
+                default: break;
+            }
+        }
+        for(ProtocolType protocol : ProtocolType.values()){
+            String name = protocol.name();
+            if(end - start == name.length() && redirect.regionMatches(true, start, name, 0, name.length())){
+                return protocol;
+            }
+        }
+        
+        throw new IllegalArgumentException("Redirect \"" + redirect + "\" has an unknown protocol.");
+    }
+    
+    public static int parseHostPort(String redirect){
+        return parsePort(redirect, fieldStart(redirect, HOST_PORT_FIELD));
+    }
+    
+    public static int parseGuestPort(String redirect){
+        return parsePort(redirect, fieldStart(redirect, GUEST_PORT_FIELD));
+    }
+    
+    private static int fieldStart(String redirect, int field){
+        return fieldStart(redirect, 0, field - NAME_FIELD);
+    }
+    
+    private static int fieldStart(String redirect, int from, int fieldsToSkip){
+        int start = from;
+        for(int i = 0; i < fieldsToSkip; ++i){
+            start = redirect.indexOf(',', start) + 1;
+            if(start == 0){
+                throw new IllegalArgumentException("Redirect \"" + redirect + "\" has not all the fields.");
+            }
+        }
+        
+        return start;
+    }
+    
+    private static int parsePort(String redirect, int start){
+        int port = 0;
+        int i = start;
+        for(; i < redirect.length() && redirect.charAt(i) != ','; ++i){
+            int digit = redirect.charAt(i) - '0';
+            if(digit < 0 || digit > 9){
+                throw new IllegalArgumentException("Redirect \"" + redirect + "\" has an invalid port number.");
+            }
+            port = port * 10 + digit;
+            if(port > MAX_PORT){
+                throw new IllegalArgumentException("Redirect \"" + redirect + "\" has a port number out of range <0," + MAX_PORT + ">.");
+            }
+        }
+        if(i == start){
+            throw new IllegalArgumentException("Redirect \"" + redirect + "\" has an empty port number.");
+        }
+        
+        return port;
+    }
+}
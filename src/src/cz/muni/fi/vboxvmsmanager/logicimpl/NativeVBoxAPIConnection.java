@@ -56,9 +56,12 @@ class NativeVBoxAPIConnection {
         if(!isConnected(physicalMachine)){
             apm.add(physicalMachine);
         }
+        HostPortAllocatorRegistry.getInstance().seed(physicalMachine, vbm.getVBox());
+        PortRuleIndex.getInstance().seed(physicalMachine, vbm.getVBox());
         
         vbm.disconnect();
         vbm.cleanup();
+        JobQueue.dispatchOpenQueues();
     }
     
     public void disconnectFrom(PhysicalMachine physicalMachine) throws DisconnectionFailureException{
@@ -77,6 +80,9 @@ class NativeVBoxAPIConnection {
             vbm = validateConnectionToPM(physicalMachine,msg1);
         }catch(ConnectionFailureException ex){
             apm.remove(physicalMachine);
+            HostPortAllocatorRegistry.getInstance().remove(physicalMachine);
+            PortRuleIndex.getInstance().removePhysicalMachine(physicalMachine);
+            HostActorRegistry.getInstance().remove(physicalMachine);
             throw new DisconnectionFailureException("Disconnection failure: Incorrect disconnection "
                     + "from physical machine " + physicalMachine + ". Most probably there could be one of "
                     + "two possible problems - network connection is not working or remote VirtualBox"
@@ -86,6 +92,9 @@ class NativeVBoxAPIConnection {
                     + "physical machine in order to ensure correct end of work with this one.");
         }catch(IncompatibleVirtToolAPIVersionException ex){
             apm.remove(physicalMachine);
+            HostPortAllocatorRegistry.getInstance().remove(physicalMachine);
+            PortRuleIndex.getInstance().removePhysicalMachine(physicalMachine);
+            HostActorRegistry.getInstance().remove(physicalMachine);
             throw new DisconnectionFailureException("Disconnection failure: Incorrect disconnection "
                     + "from physical machine " + physicalMachine + ". This physical machine could not be "
                     + "disconnected correctly and thus there could not be ensured correct end of work with this one, "
@@ -95,6 +104,9 @@ class NativeVBoxAPIConnection {
         vbm.cleanup();
         stopRunningVMs(physicalMachine);
         apm.remove(physicalMachine);
+        HostPortAllocatorRegistry.getInstance().remove(physicalMachine);
+        PortRuleIndex.getInstance().removePhysicalMachine(physicalMachine);
+        HostActorRegistry.getInstance().remove(physicalMachine);
     }
     
     public boolean isConnected(PhysicalMachine physicalMachine){
@@ -15,31 +15,56 @@
  */
 package cz.muni.fi.vboxvmsmanager.logicimpl;
 
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.LaunchOptions;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.OperationResult;
 import cz.muni.fi.vboxvmsmanager.pubapi.entities.PhysicalMachine;
 import cz.muni.fi.vboxvmsmanager.pubapi.entities.PortRule;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.Snapshot;
 import cz.muni.fi.vboxvmsmanager.pubapi.entities.VirtualMachine;
 import cz.muni.fi.vboxvmsmanager.pubapi.exceptions.ConnectionFailureException;
 import cz.muni.fi.vboxvmsmanager.pubapi.exceptions.IncompatibleVirtToolAPIVersionException;
+import cz.muni.fi.vboxvmsmanager.pubapi.exceptions.OperationTimeoutException;
 import cz.muni.fi.vboxvmsmanager.pubapi.exceptions.PortRuleDuplicityException;
 import cz.muni.fi.vboxvmsmanager.pubapi.exceptions.UnexpectedVMStateException;
 import cz.muni.fi.vboxvmsmanager.pubapi.exceptions.UnknownPortRuleException;
+import cz.muni.fi.vboxvmsmanager.pubapi.exceptions.UnknownSnapshotException;
 import cz.muni.fi.vboxvmsmanager.pubapi.exceptions.UnknownVirtualMachineException;
+import cz.muni.fi.vboxvmsmanager.pubapi.types.LaunchMode;
+import cz.muni.fi.vboxvmsmanager.pubapi.types.OperationType;
 import cz.muni.fi.vboxvmsmanager.pubapi.types.ProtocolType;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import org.virtualbox_4_3.IConsole;
+import org.virtualbox_4_3.IEvent;
+import org.virtualbox_4_3.IEventListener;
+import org.virtualbox_4_3.IEventSource;
 import org.virtualbox_4_3.IMachine;
 import org.virtualbox_4_3.INATEngine;
 import org.virtualbox_4_3.INetworkAdapter;
 import org.virtualbox_4_3.IProgress;
 import org.virtualbox_4_3.ISession;
+import org.virtualbox_4_3.ISnapshot;
 import org.virtualbox_4_3.IVirtualBox;
 import org.virtualbox_4_3.LockType;
 import org.virtualbox_4_3.MachineState;
 import org.virtualbox_4_3.NATProtocol;
 import org.virtualbox_4_3.NetworkAttachmentType;
 import org.virtualbox_4_3.SessionState;
+import org.virtualbox_4_3.VBoxEventType;
 import org.virtualbox_4_3.VBoxException;
 import org.virtualbox_4_3.VirtualBoxManager;
 
@@ -50,6 +75,14 @@ import org.virtualbox_4_3.VirtualBoxManager;
 class NativeVBoxAPIMachine {
     
     private static final NativeVBoxAPIMachine INSTANCE = new NativeVBoxAPIMachine();
+    private static final long STATE_POLL_INTERVAL = 50L;
+    
+    //an edit of redirect tables of NAT network adapters of virtual machine performed within one session
+    private interface PortRuleEdit{
+        
+        List<OperationResult<PortRule>> apply(Map<Long, INATEngine> natEngines, Map<Long, List<String>> redirects,
+                                              HostPortAllocator allocator);
+    }
     
     public static NativeVBoxAPIMachine getInstance(){
         return INSTANCE;
@@ -62,6 +95,18 @@ class NativeVBoxAPIMachine {
     public void startVM(VirtualMachine virtualMachine) throws InterruptedException, ConnectionFailureException,
             IncompatibleVirtToolAPIVersionException, UnknownVirtualMachineException, UnexpectedVMStateException{
         
+        try{
+            startVM(virtualMachine, new LaunchOptions.Builder().build(), new ProgressMonitor());
+        }catch(OperationTimeoutException ex){
+            //monitor without any deadline is never out of time
+            throw new UnexpectedVMStateException(ex.getMessage());
+        }
+    }
+    
+    public void startVM(VirtualMachine virtualMachine, LaunchOptions options, ProgressMonitor monitor) throws InterruptedException,
+            ConnectionFailureException, IncompatibleVirtToolAPIVersionException, UnknownVirtualMachineException,
+            UnexpectedVMStateException, OperationTimeoutException{
+        
         String errMsgForVMNullCheck = "Starting virtual machine failure: There was made an attempt to start a null virtual machine.";
         String errMsgForPMNullCheck = "Starting virtual machine failure: There was made an attempt to start virtual machine " + virtualMachine + " on a null physical machine.";
         String errMsgForVMIdCheck = "Starting virtual machine failure: Virtual machine " + virtualMachine + " has a null or an empty id.";
@@ -72,6 +117,7 @@ class NativeVBoxAPIMachine {
         String errMsgForVMAccessCheck = "Starting virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " failure: ";
         String errMsgForVMStateCheck = "Starting virtual machine failure: Virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " cannot be started, because virtual machine is already running.";
         String errMsgForUnusableVM = "Starting virtual machine failure: Virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " cannot be started now. There is another process that has locked this virtual machine for itself earlier or this virtual machine is already running.";
+        String errMsgForLaunchOptionsNullCheck = "Starting virtual machine failure: There were used null launch options for starting of virtual machine " + virtualMachine + ".";
         NativeVBoxAPIConnection natapiCon = NativeVBoxAPIConnection.getInstance();
         
         checkVMIsNotNull(virtualMachine, errMsgForVMNullCheck);
@@ -79,7 +125,9 @@ class NativeVBoxAPIMachine {
         checkVMIdIsNotNullNorEmpty(virtualMachine.getId(), errMsgForVMIdCheck);
         checkVMNameIsNotNullNorEmpty(virtualMachine.getName(), errMsgForVMNameCheck);
         checkPMIsConnected(virtualMachine.getHostMachine(), errMsgForNotConnectedPM);
+        checkLaunchOptionsAreNotNull(options, errMsgForLaunchOptionsNullCheck);
         
+        long start = System.currentTimeMillis();
         VirtualBoxManager vbm = natapiCon.getVirtualBoxManager(virtualMachine.getHostMachine(), errMsgForPMConError);
         IVirtualBox vbox = vbm.getVBox();
         IMachine vboxMachine = null;
@@ -107,28 +155,111 @@ class NativeVBoxAPIMachine {
         
         ISession session = vbm.getSessionObject();
         try{
-            IProgress progress = vboxMachine.launchVMProcess(session, "gui", "");
-            while(!progress.getCompleted()){
+            applyVRDESetting(virtualMachine, vboxMachine, session, options.getVRDEEnabled(), monitor);
+            IProgress progress = vboxMachine.launchVMProcess(session, getFrontendName(options.getMode()),
+                                                             getEnvironmentString(options.getEnvironment()));
+            while(!monitor.waitForCompletion(progress, "Starting virtual machine " + virtualMachine, 200)){
                 vbm.waitForEvents(0l);
-                progress.waitForCompletion(200);
-            }
-            while(vboxMachine.getState() != MachineState.Running){
-                //just loop until that is true
             }
+            checkProgressResult(progress, errMsgForVMAccessCheck);
+            waitForRunningState(virtualMachine, vboxMachine, monitor, errMsgForVMAccessCheck);
         }catch(VBoxException ex){
             vbm.disconnect();
             vbm.cleanup();
             throw new UnexpectedVMStateException(errMsgForUnusableVM);
+        }catch(InterruptedException | OperationTimeoutException | UnexpectedVMStateException ex){
+            if(session.getState() == SessionState.Locked){
+                session.unlockMachine();
+            }
+            vbm.disconnect();
+            vbm.cleanup();
+            throw ex;
         }
         
         session.unlockMachine();
+        OperationLatencyStats.getInstance().record(virtualMachine.getHostMachine(), OperationType.START,
+                                                   System.currentTimeMillis() - start);
         vbm.disconnect();
         vbm.cleanup();
     }
     
+    //starts virtual machines of each physical machine in parallel, but at most maxParallelStarts of them at once
+    //and with at least startInterval milliseconds between two consecutive starts, so that their boots do not
+    //saturate the disks of physical machine
+    public List<OperationResult<VirtualMachine>> startVMs(Collection<VirtualMachine> virtualMachines, LaunchOptions options,
+            int maxParallelStarts, long startInterval, ProgressMonitor monitor) throws InterruptedException{
+        
+        String errMsgForVMsNullCheck = "Starting virtual machines failure: There was made an attempt to start a null collection of virtual machines.";
+        String errMsgForVMNullCheck = "Starting virtual machine failure: There was made an attempt to start a null virtual machine.";
+        String errMsgForLaunchOptionsNullCheck = "Starting virtual machines failure: There were used null launch options for starting of virtual machines.";
+        String errMsgForParallelStartsCheck = "Starting virtual machines failure: Count of parallel starts must be a positive number, but it is " + maxParallelStarts + ".";
+        String errMsgForStartIntervalCheck = "Starting virtual machines failure: Interval between starts must not be a negative number of milliseconds, but it is " + startInterval + ".";
+        AsyncOperationExecutor executor = AsyncOperationExecutor.getInstance();
+        
+        if(virtualMachines == null){
+            throw new IllegalArgumentException(errMsgForVMsNullCheck);
+        }
+        checkLaunchOptionsAreNotNull(options, errMsgForLaunchOptionsNullCheck);
+        if(maxParallelStarts <= 0){
+            throw new IllegalArgumentException(errMsgForParallelStartsCheck);
+        }
+        if(startInterval < 0L){
+            throw new IllegalArgumentException(errMsgForStartIntervalCheck);
+        }
+        
+        List<OperationResult<VirtualMachine>> results = new ArrayList<>();
+        Map<PhysicalMachine, List<VirtualMachine>> vmsByHost = new LinkedHashMap<>();
+        for(VirtualMachine vm : virtualMachines){
+            if(vm == null){
+                results.add(new OperationResult<>(null, false, errMsgForVMNullCheck, 0L));
+            }else if(vm.getHostMachine() == null){
+                results.add(new OperationResult<>(vm, false, "Starting virtual machine failure: There was made an attempt to start virtual machine " + vm + " on a null physical machine.", 0L));
+            }else{
+                vmsByHost.computeIfAbsent(vm.getHostMachine(), (pm) -> new ArrayList<>()).add(vm);
+            }
+        }
+        
+        List<List<VirtualMachine>> hostVMs = new ArrayList<>(vmsByHost.values());
+        List<Future<List<OperationResult<VirtualMachine>>>> futures = new ArrayList<>();
+        for(List<VirtualMachine> vms : hostVMs){
+            futures.add(executor.submit(() -> startHostVMs(vms, options, maxParallelStarts, startInterval, monitor)));
+        }
+        
+        try{
+            for(int i = 0; i < futures.size(); ++i){
+                try{
+                    results.addAll(futures.get(i).get());
+                }catch(ExecutionException ex){
+                    for(VirtualMachine vm : hostVMs.get(i)){
+                        results.add(new OperationResult<>(vm, false, "Starting virtual machine " + vm + " failure: " + ex.getCause().getMessage(), 0L));
+                    }
+                }
+            }
+        }catch(InterruptedException ex){
+            for(Future<List<OperationResult<VirtualMachine>>> future : futures){
+                future.cancel(true);
+            }
+            throw ex;
+        }
+        
+        return results;
+    }
+    
     public void shutDownVM(VirtualMachine virtualMachine) throws ConnectionFailureException, InterruptedException,
             IncompatibleVirtToolAPIVersionException, UnknownVirtualMachineException, UnexpectedVMStateException{
         
+        try{
+            shutDownVM(virtualMachine, new ProgressMonitor());
+        }catch(OperationTimeoutException ex){
+            //monitor without any deadline is never out of time
+            throw new UnexpectedVMStateException(ex.getMessage());
+        }
+    }
+    
+    public void shutDownVM(VirtualMachine virtualMachine, ProgressMonitor monitor)throws ConnectionFailureException,
+            InterruptedException, IncompatibleVirtToolAPIVersionException, UnknownVirtualMachineException,
+            UnexpectedVMStateException, OperationTimeoutException{
+        
         String errMsgForVMNullCheck = "Shutdown virtual machine failure: There was made an attempt to shut down a null virtual machine.";
         String errMsgForPMNullCheck = "Shutdown virtual machine failure: There was made an attempt to shut down virtual machine " + virtualMachine + " on a null physical machine.";
         String errMsgForVMIdCheck = "Shutdown virtual machine failure: Virtual machine " + virtualMachine + " has a null or an empty id.";
@@ -146,6 +277,7 @@ class NativeVBoxAPIMachine {
         checkVMNameIsNotNullNorEmpty(virtualMachine.getName(), errMsgForVMNameCheck);
         checkPMIsConnected(virtualMachine.getHostMachine(), errMsgForNotConnectedPM);
         
+        long start = System.currentTimeMillis();
         VirtualBoxManager vbm = natapiCon.getVirtualBoxManager(virtualMachine.getHostMachine(), errMsgForPMConError);
         IVirtualBox vbox = vbm.getVBox();
         IMachine vboxMachine = null;
@@ -172,37 +304,48 @@ class NativeVBoxAPIMachine {
         }
         
         ISession session = vbm.getSessionObject();
-        vboxMachine.lockMachine(session, LockType.Shared);
-        IConsole console = session.getConsole();
-        IProgress progress = console.powerDown();
-        while(!progress.getCompleted()){
-            vbm.waitForEvents(0l);
-            progress.waitForCompletion(200);
-        }
-        session.unlockMachine();
-        while(vboxMachine.getState() != MachineState.PoweredOff){
-            
-        }
-        while(session.getState() != SessionState.Unlocked){
-            
+        try{
+            vboxMachine.lockMachine(session, LockType.Shared);
+            IConsole console = session.getConsole();
+            IProgress progress = console.powerDown();
+            while(!monitor.waitForCompletion(progress, "Shutting down virtual machine " + virtualMachine, 200)){
+                vbm.waitForEvents(0l);
+            }
+            checkProgressResult(progress, errMsgForVMAccessCheck);
+            session.unlockMachine();
+            waitForPoweredOffState(virtualMachine, vboxMachine, monitor);
+            if(!waitForSessionUnlock(session, monitor)){
+                throw new OperationTimeoutException("Shutting down virtual machine " + virtualMachine + " failure: Operation has not been finished before its deadline.");
+            }
+            OperationLatencyStats.getInstance().record(virtualMachine.getHostMachine(), OperationType.SHUT_DOWN,
+                                                       System.currentTimeMillis() - start);
+        }catch(VBoxException ex){
+            throw new UnexpectedVMStateException(errMsgForVMAccessCheck + ex.getMessage());
+        }finally{
+            if(session.getState() == SessionState.Locked){
+                session.unlockMachine();
+            }
+            vbm.disconnect();
+            vbm.cleanup();
         }
-        
-        vbm.disconnect();
-        vbm.cleanup();
     }
     
-    public void addPortRule(VirtualMachine virtualMachine, PortRule portRule) throws ConnectionFailureException,
-            InterruptedException, IncompatibleVirtToolAPIVersionException, UnknownVirtualMachineException,
-            IllegalArgumentException, PortRuleDuplicityException, UnexpectedVMStateException{     
+    //sends ACPI power button event to the guest and powers the virtual machine off only if the guest has not shut
+    //itself down within acpiTimeout milliseconds, returns whether the guest has been shut down gracefully
+    public boolean shutDownVMGracefully(VirtualMachine virtualMachine, long acpiTimeout, ProgressMonitor monitor)
+            throws ConnectionFailureException, InterruptedException, IncompatibleVirtToolAPIVersionException,
+            UnknownVirtualMachineException, UnexpectedVMStateException, OperationTimeoutException{
         
-        String errMsgForVMNullCheck = "Creating new port forwarding rule failure: There was made an attempt to create a new port forwarding rule for a null virtual machine.";
-        String errMsgForPMNullCheck = "Creating a new port forwarding rule failure: There was made an attempt to create a new port forwarding rule for virtual machine " + virtualMachine + " on a null physical machine.";
-        String errMsgForVMIdCheck = "Creating new port forwarding rule failure: Virtual machine " + virtualMachine + " has a null or an empty id.";
-        String errMsgForVMNameCheck = "Creating new port forwarding rule failure: Virtual machine " + virtualMachine + " has a null or an empty name.";
-        String errMsgForNotConnectedPM = "Connection failure while trying to create a new port forwarding rule for virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + ": There cannot be created any new port forwarding rule for this virtual machine on this physical machine now, because it is not connected.";
-        String errMsgForPMConError = "Connection failure while trying to create new port forwarding rule for virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + ": ";
-        String errMsgForUnknownVM = "Craeting new port forwarding rule failure: There is no virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " known to VirtualBox.";
-        String errMsgForAdapterCheck = "Creating new port forwarding rule failure: There cannot be created any port forwarding rule for virtual machine " + virtualMachine + ", because its network adapter is not attached to NAT.";
+        String errMsgForVMNullCheck = "Shutdown virtual machine failure: There was made an attempt to shut down a null virtual machine.";
+        String errMsgForPMNullCheck = "Shutdown virtual machine failure: There was made an attempt to shut down virtual machine " + virtualMachine + " on a null physical machine.";
+        String errMsgForVMIdCheck = "Shutdown virtual machine failure: Virtual machine " + virtualMachine + " has a null or an empty id.";
+        String errMsgForVMNameCheck = "Shutdown virtual machine failure: Virtual machine " + virtualMachine + " has a null or an empty name.";
+        String errMsgForNotConnectedPM = "Connection failure while trying to shut down virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + ": There cannot be shut down any virtual machine on this physical machine now, because it is not connected.";
+        String errMsgForPMConError = "Connection failure while trying to shut down virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + ": ";
+        String errMsgForUnknownVM = "Shutdown virtual machine failure: There is no virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " known to VirtualBox.";
+        String errMsgForVMAccessCheck = "Shutdown virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " failure: ";
+        String errMsgForVMStateCheck = "Shutdown virtual machine failure: Virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " cannot be shut down, because virtual machine is already powered off.";
+        String errMsgForACPITimeoutCheck = "Shutdown virtual machine failure: Timeout of ACPI shutdown of virtual machine " + virtualMachine + " must be a positive number of milliseconds, but it is " + acpiTimeout + ".";
         NativeVBoxAPIConnection natapiCon = NativeVBoxAPIConnection.getInstance();
         
         checkVMIsNotNull(virtualMachine, errMsgForVMNullCheck);
@@ -210,6 +353,7 @@ class NativeVBoxAPIMachine {
         checkVMIdIsNotNullNorEmpty(virtualMachine.getId(), errMsgForVMIdCheck);
         checkVMNameIsNotNullNorEmpty(virtualMachine.getName(), errMsgForVMNameCheck);
         checkPMIsConnected(virtualMachine.getHostMachine(), errMsgForNotConnectedPM);
+        checkTimeoutIsPositive(acpiTimeout, errMsgForACPITimeoutCheck);
         
         VirtualBoxManager vbm = natapiCon.getVirtualBoxManager(virtualMachine.getHostMachine(), errMsgForPMConError);
         IVirtualBox vbox = vbm.getVBox();
@@ -222,44 +366,188 @@ class NativeVBoxAPIMachine {
             throw new UnknownVirtualMachineException(errMsgForUnknownVM);
         }
         
+        if(!vboxMachine.getAccessible()){
+            vbm.disconnect();
+            vbm.cleanup();
+            throw new UnexpectedVMStateException(errMsgForVMAccessCheck + vboxMachine.getAccessError().getText());
+        }
+        
         try{
-            checkPortRuleValidity(virtualMachine, portRule, vboxMachine);
-        }catch(IllegalArgumentException | PortRuleDuplicityException ex){
+            checkVMStateIsValidForShutdown(vboxMachine.getState(), errMsgForVMStateCheck);
+        }catch(UnexpectedVMStateException ex){
             vbm.disconnect();
             vbm.cleanup();
             throw ex;
         }
         
-        INetworkAdapter adapter = vboxMachine.getNetworkAdapter(0L);
-        if(adapter.getAttachmentType() != NetworkAttachmentType.NAT){
-            throw new UnexpectedVMStateException(errMsgForAdapterCheck);
+        ISession session = vbm.getSessionObject();
+        IEventSource eventSource = vbox.getEventSource();
+        IEventListener listener = eventSource.createListener();
+        eventSource.registerListener(listener, Arrays.asList(VBoxEventType.OnMachineStateChanged), false);
+        boolean graceful;
+        try{
+            vboxMachine.lockMachine(session, LockType.Shared);
+            IConsole console = session.getConsole();
+            graceful = (vboxMachine.getState() == MachineState.Running &&
+                        waitForACPIShutdown(virtualMachine, vboxMachine, console, eventSource, listener, acpiTimeout, monitor));
+            if(!graceful){
+                IProgress progress = console.powerDown();
+                while(!monitor.waitForCompletion(progress, "Shutting down virtual machine " + virtualMachine, 200)){
+                    vbm.waitForEvents(0l);
+                }
+                checkProgressResult(progress, errMsgForVMAccessCheck);
+            }
+        }catch(VBoxException ex){
+            throw new UnexpectedVMStateException(errMsgForVMAccessCheck + ex.getMessage());
+        }finally{
+            eventSource.unregisterListener(listener);
+            if(session.getState() == SessionState.Locked){
+                session.unlockMachine();
+            }
+            vbm.disconnect();
+            vbm.cleanup();
         }
-        INATEngine natEngine = adapter.getNATEngine();
-        NATProtocol natp = (portRule.getProtocol() == ProtocolType.TCP ? NATProtocol.TCP : NATProtocol.UDP);
-        String hostIP = (portRule.getHostIP() == null ? "" : portRule.getHostIP());
-        String guestIP = (portRule.getGuestIP() == null ? "" : portRule.getGuestIP());
         
-        natEngine.addRedirect(portRule.getName(), natp, hostIP, portRule.getHostPort(),
-                              guestIP, portRule.getGuestPort());
+        return graceful;
+    }
+    
+    //shuts down all running virtual machines of the physical machine in parallel
+    public List<OperationResult<VirtualMachine>> shutDownAllVMsGracefully(PhysicalMachine physicalMachine, long acpiTimeout,
+            ProgressMonitor monitor) throws ConnectionFailureException, InterruptedException,
+            IncompatibleVirtToolAPIVersionException, UnexpectedVMStateException{
         
-        vbm.disconnect();
-        vbm.cleanup();        
+        String errMsgForPMNullCheck = "Shutdown virtual machines failure: There was made an attempt to shut down virtual machines on a null physical machine.";
+        String errMsgForNotConnectedPM = "Connection failure while trying to shut down virtual machines on physical machine " + physicalMachine + ": There cannot be shut down any virtual machine on this physical machine now, because it is not connected.";
+        String errMsgForPMConError = "Connection failure while trying to shut down virtual machines on physical machine " + physicalMachine + ": ";
+        String errMsgForACPITimeoutCheck = "Shutdown virtual machines failure: Timeout of ACPI shutdown of virtual machines on physical machine " + physicalMachine + " must be a positive number of milliseconds, but it is " + acpiTimeout + ".";
+        NativeVBoxAPIConnection natapiCon = NativeVBoxAPIConnection.getInstance();
+        AsyncOperationExecutor executor = AsyncOperationExecutor.getInstance();
+        
+        checkPMIsNotNull(physicalMachine, errMsgForPMNullCheck);
+        checkPMIsConnected(physicalMachine, errMsgForNotConnectedPM);
+        checkTimeoutIsPositive(acpiTimeout, errMsgForACPITimeoutCheck);
+        
+        List<VirtualMachine> runningVMs = new ArrayList<>();
+        VirtualBoxManager vbm = natapiCon.getVirtualBoxManager(physicalMachine, errMsgForPMConError);
+        try{
+            for(IMachine vboxMachine : vbm.getVBox().getMachines()){
+                if(vboxMachine.getAccessible() && isRunningState(vboxMachine.getState())){
+                    runningVMs.add(new VirtualMachine.Builder(UUID.fromString(vboxMachine.getId()), vboxMachine.getName(),
+                                                              physicalMachine).build());
+                }
+            }
+        }catch(VBoxException ex){
+            throw new UnexpectedVMStateException(errMsgForPMConError + ex.getMessage());
+        }finally{
+            vbm.disconnect();
+            vbm.cleanup();
+        }
+        
+        List<Future<OperationResult<VirtualMachine>>> futures = new ArrayList<>();
+        for(VirtualMachine vm : runningVMs){
+            futures.add(executor.submit(() -> tryShutDownVMGracefully(vm, acpiTimeout, monitor)));
+        }
         
+        List<OperationResult<VirtualMachine>> results = new ArrayList<>();
+        try{
+            for(int i = 0; i < futures.size(); ++i){
+                try{
+                    results.add(futures.get(i).get());
+                }catch(ExecutionException ex){
+                    results.add(new OperationResult<>(runningVMs.get(i), false, "Shutdown virtual machine " + runningVMs.get(i) + " failure: " + ex.getCause().getMessage(), 0L));
+                }
+            }
+        }catch(InterruptedException ex){
+            for(Future<OperationResult<VirtualMachine>> future : futures){
+                future.cancel(true);
+            }
+            throw ex;
+        }
+        
+        return results;
     }
     
-    public void deletePortRule(VirtualMachine virtualMachine, String ruleName) throws ConnectionFailureException,
+    //powers off virtual machines of each physical machine in parallel, every physical machine is served by at most
+    //maxParallelShutdowns connections which are reused for all its virtual machines
+    public Map<VirtualMachine, OperationResult<VirtualMachine>> shutDownVMs(Collection<VirtualMachine> virtualMachines,
+            int maxParallelShutdowns, ProgressMonitor monitor) throws InterruptedException{
+        
+        String errMsgForVMsNullCheck = "Shutdown virtual machines failure: There was made an attempt to shut down a null collection of virtual machines.";
+        String errMsgForVMNullCheck = "Shutdown virtual machine failure: There was made an attempt to shut down a null virtual machine.";
+        String errMsgForParallelShutdownsCheck = "Shutdown virtual machines failure: Count of parallel shutdowns must be a positive number, but it is " + maxParallelShutdowns + ".";
+        AsyncOperationExecutor executor = AsyncOperationExecutor.getInstance();
+        
+        if(virtualMachines == null){
+            throw new IllegalArgumentException(errMsgForVMsNullCheck);
+        }
+        if(maxParallelShutdowns <= 0){
+            throw new IllegalArgumentException(errMsgForParallelShutdownsCheck);
+        }
+        
+        Map<VirtualMachine, OperationResult<VirtualMachine>> results = new LinkedHashMap<>();
+        Map<PhysicalMachine, Queue<VirtualMachine>> vmsByHost = new LinkedHashMap<>();
+        for(VirtualMachine vm : virtualMachines){
+            if(vm == null){
+                results.put(null, new OperationResult<>(null, false, errMsgForVMNullCheck, 0L));
+            }else if(vm.getHostMachine() == null){
+                results.put(vm, new OperationResult<>(vm, false, "Shutdown virtual machine failure: There was made an attempt to shut down virtual machine " + vm + " on a null physical machine.", 0L));
+            }else if(vm.getId() == null){
+                results.put(vm, new OperationResult<>(vm, false, "Shutdown virtual machine failure: Virtual machine " + vm + " has a null or an empty id.", 0L));
+            }else{
+                vmsByHost.computeIfAbsent(vm.getHostMachine(), (pm) -> new ConcurrentLinkedQueue<>()).add(vm);
+            }
+        }
+        
+        List<Future<List<OperationResult<VirtualMachine>>>> futures = new ArrayList<>();
+        for(Map.Entry<PhysicalMachine, Queue<VirtualMachine>> entry : vmsByHost.entrySet()){
+            int workers = Math.min(maxParallelShutdowns, entry.getValue().size());
+            for(int i = 0; i < workers; ++i){
+                futures.add(executor.submit(() -> shutDownQueuedVMs(entry.getKey(), entry.getValue(), monitor)));
+            }
+        }
+        
+        String workerFailure = null;
+        try{
+            for(Future<List<OperationResult<VirtualMachine>>> future : futures){
+                try{
+                    for(OperationResult<VirtualMachine> result : future.get()){
+                        results.put(result.getSubject(), result);
+                    }
+                }catch(ExecutionException ex){
+                    workerFailure = ex.getCause().getMessage();
+                }
+            }
+        }catch(InterruptedException ex){
+            for(Future<List<OperationResult<VirtualMachine>>> future : futures){
+                future.cancel(true);
+            }
+            throw ex;
+        }
+        
+        //virtual machines taken from the queue by a failed worker have no result yet
+        for(VirtualMachine vm : virtualMachines){
+            if(!results.containsKey(vm)){
+                results.put(vm, new OperationResult<>(vm, false, "Shutdown virtual machine " + vm + " failure: " + workerFailure, 0L));
+            }
+        }
+        
+        return results;
+    }
+    
+    public void saveState(VirtualMachine virtualMachine, ProgressMonitor monitor) throws ConnectionFailureException,
             InterruptedException, IncompatibleVirtToolAPIVersionException, UnknownVirtualMachineException,
-            UnknownPortRuleException, UnexpectedVMStateException{
+            UnexpectedVMStateException, OperationTimeoutException{
         
-        String errMsgForVMNullCheck = "Deleting port forwarding rule failure: There was made an attempt to delete a port forwarding rule of a null virtual machine.";
-        String errMsgForPMNullCheck = "Deleting port forwarding rule failure: There was made an attempt to delete a port forwarding rule of virtual machine " + virtualMachine + " on a null physical machine.";
-        String errMsgForVMIdCheck = "Deleting new port forwarding rule failure: Virtual machine " + virtualMachine + " has a null or an empty id.";
-        String errMsgForVMNameCheck = "Deleting new port forwarding rule failure: Virtual machine " + virtualMachine + " has a null or an empty name.";
-        String errMsgForNotConnectedPM = "Connection failure while trying to delete port forwarding rule of virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + ": There cannot be deleted any port forwarding rule of this virtual machine on this physical machine now, because this physical machine is not connected.";
-        String errMsgForPMConError = "Connection failure while trying to delete port forwarding rule of virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + ": ";
-        String errMsgForUnknownVM = "Deleting port forwarding rule failure: There is no virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " known to VirtualBox.";
-        String errMsgForPRNameCheck = "Deleting port forwarding rule failure: Port forwarding rule to delete has null or empty name.";
-        String errMsgForPRNameDeleting = "Deleting port forwarding rule failure: There is no port rule with name = " + ruleName + " of virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " which could be deleted.";
+        String errMsgForVMNullCheck = "Saving state of virtual machine failure: There was made an attempt to save state of a null virtual machine.";
+        String errMsgForPMNullCheck = "Saving state of virtual machine failure: There was made an attempt to save state of virtual machine " + virtualMachine + " on a null physical machine.";
+        String errMsgForVMIdCheck = "Saving state of virtual machine failure: Virtual machine " + virtualMachine + " has a null or an empty id.";
+        String errMsgForVMNameCheck = "Saving state of virtual machine failure: Virtual machine " + virtualMachine + " has a null or an empty name.";
+        String errMsgForNotConnectedPM = "Connection failure while trying to save state of virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + ": There cannot be saved state of any virtual machine on this physical machine now, because it is not connected.";
+        String errMsgForPMConError = "Connection failure while trying to save state of virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + ": ";
+        String errMsgForUnknownVM = "Saving state of virtual machine failure: There is no virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " known to VirtualBox.";
+        String errMsgForVMAccessCheck = "Saving state of virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " failure: ";
+        String errMsgForVMStateCheck = "Saving state of virtual machine failure: State of virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " cannot be saved, because virtual machine is not running nor paused.";
+        String errMsgForUnusableVM = "Saving state of virtual machine failure: State of virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " cannot be saved now. There is another process that has locked this virtual machine for itself earlier.";
         NativeVBoxAPIConnection natapiCon = NativeVBoxAPIConnection.getInstance();
         
         checkVMIsNotNull(virtualMachine, errMsgForVMNullCheck);
@@ -267,7 +555,6 @@ class NativeVBoxAPIMachine {
         checkVMIdIsNotNullNorEmpty(virtualMachine.getId(), errMsgForVMIdCheck);
         checkVMNameIsNotNullNorEmpty(virtualMachine.getName(), errMsgForVMNameCheck);
         checkPMIsConnected(virtualMachine.getHostMachine(), errMsgForNotConnectedPM);
-        checkPortRuleNameIsNotNullNorEmpty(ruleName, errMsgForPRNameCheck);
         
         VirtualBoxManager vbm = natapiCon.getVirtualBoxManager(virtualMachine.getHostMachine(), errMsgForPMConError);
         IVirtualBox vbox = vbm.getVBox();
@@ -280,32 +567,53 @@ class NativeVBoxAPIMachine {
             throw new UnknownVirtualMachineException(errMsgForUnknownVM);
         }
         
-        INetworkAdapter adapter = vboxMachine.getNetworkAdapter(0L);
-        INATEngine natEngine = adapter.getNATEngine();
+        if(!vboxMachine.getAccessible()){
+            vbm.disconnect();
+            vbm.cleanup();
+            throw new UnexpectedVMStateException(errMsgForVMAccessCheck + vboxMachine.getAccessError().getText());
+        }
         
         try{
-            natEngine.removeRedirect(ruleName);
-        }catch(VBoxException ex){
+            checkVMStateIsValidForSaving(vboxMachine.getState(), errMsgForVMStateCheck);
+        }catch(UnexpectedVMStateException ex){
             vbm.disconnect();
             vbm.cleanup();
-            throw new UnknownPortRuleException(errMsgForPRNameDeleting);
+            throw ex;
         }
         
-        vbm.disconnect();
-        vbm.cleanup();
+        ISession session = vbm.getSessionObject();
+        try{
+            vboxMachine.lockMachine(session, LockType.Shared);
+            IConsole console = session.getConsole();
+            IProgress progress = console.saveState();
+            while(!monitor.waitForCompletion(progress, "Saving state of virtual machine " + virtualMachine, 200)){
+                vbm.waitForEvents(0l);
+            }
+            checkProgressResult(progress, errMsgForVMAccessCheck);
+        }catch(VBoxException ex){
+            throw new UnexpectedVMStateException(errMsgForUnusableVM);
+        }finally{
+            if(session.getState() == SessionState.Locked){
+                session.unlockMachine();
+            }
+            vbm.disconnect();
+            vbm.cleanup();
+        }
     }
     
-    public List<PortRule> getPortRules(VirtualMachine virtualMachine) throws ConnectionFailureException,
-            InterruptedException, IncompatibleVirtToolAPIVersionException, UnknownVirtualMachineException,
-            UnexpectedVMStateException{
+    public void discardSavedState(VirtualMachine virtualMachine) throws ConnectionFailureException, InterruptedException,
+            IncompatibleVirtToolAPIVersionException, UnknownVirtualMachineException, UnexpectedVMStateException{
         
-        String errMsgForVMNullCheck = "Retrieving all port forwarding rules failure: There was made an attempt to retrieve all port forwarding rules of a null virtual machine.";
-        String errMsgForPMNullCheck = "Retrieving all port forwarding rules failure: There was made an attempt to retrieve all port forwarding rules of virtual machine " + virtualMachine + " on a null physical machine.";
-        String errMsgForVMIdCheck = "Retrieving all port forwarding rules failure: Virtual machine " + virtualMachine + " has a null or an empty id.";
-        String errMsgForVMNameCheck = "Retrieving all port forwarding rules failure: Virtual machine " + virtualMachine + " has a null or an empty name.";
-        String errMsgForNotConnectedPM = "Connection failure while trying to retrieve all port forwarding rules of virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + ": There cannot be retrieved any port forwarding rule of this virtual machine on this physical machine now, because this physical machine is not connected.";
-        String errMsgForPMConError = "Connection failure while trying to retrieve all port forwarding rules of virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + ": ";
-        String errMsgForUnknownVM = "Retrieving all port forwarding rules failure: There is no virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " known to VirtualBox.";
+        String errMsgForVMNullCheck = "Discarding saved state of virtual machine failure: There was made an attempt to discard saved state of a null virtual machine.";
+        String errMsgForPMNullCheck = "Discarding saved state of virtual machine failure: There was made an attempt to discard saved state of virtual machine " + virtualMachine + " on a null physical machine.";
+        String errMsgForVMIdCheck = "Discarding saved state of virtual machine failure: Virtual machine " + virtualMachine + " has a null or an empty id.";
+        String errMsgForVMNameCheck = "Discarding saved state of virtual machine failure: Virtual machine " + virtualMachine + " has a null or an empty name.";
+        String errMsgForNotConnectedPM = "Connection failure while trying to discard saved state of virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + ": There cannot be discarded saved state of any virtual machine on this physical machine now, because it is not connected.";
+        String errMsgForPMConError = "Connection failure while trying to discard saved state of virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + ": ";
+        String errMsgForUnknownVM = "Discarding saved state of virtual machine failure: There is no virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " known to VirtualBox.";
+        String errMsgForVMAccessCheck = "Discarding saved state of virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " failure: ";
+        String errMsgForVMStateCheck = "Discarding saved state of virtual machine failure: Virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " has no saved state which could be discarded.";
+        String errMsgForUnusableVM = "Discarding saved state of virtual machine failure: Saved state of virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " cannot be discarded now. There is another process that has locked this virtual machine for itself earlier.";
         NativeVBoxAPIConnection natapiCon = NativeVBoxAPIConnection.getInstance();
         
         checkVMIsNotNull(virtualMachine, errMsgForVMNullCheck);
@@ -325,31 +633,49 @@ class NativeVBoxAPIMachine {
             throw new UnknownVirtualMachineException(errMsgForUnknownVM);
         }
         
-        INetworkAdapter adapter = vboxMachine.getNetworkAdapter(0L);
-        INATEngine natEngine = adapter.getNATEngine();
-        List<String> redirects = natEngine.getRedirects();
-        List<PortRule> portRules = new ArrayList<>();
-        
-        for(String redirect : redirects){
-            portRules.add(redirectToPortRule(redirect));
+        if(!vboxMachine.getAccessible()){
+            vbm.disconnect();
+            vbm.cleanup();
+            throw new UnexpectedVMStateException(errMsgForVMAccessCheck + vboxMachine.getAccessError().getText());
         }
         
-        vbm.disconnect();
-        vbm.cleanup();
+        if(vboxMachine.getState() != MachineState.Saved){
+            vbm.disconnect();
+            vbm.cleanup();
+            throw new UnexpectedVMStateException(errMsgForVMStateCheck);
+        }
         
-        return portRules;
+        ISession session = vbm.getSessionObject();
+        try{
+            vboxMachine.lockMachine(session, LockType.Write);
+            IConsole console = session.getConsole();
+            console.discardSavedState(true);
+        }catch(VBoxException ex){
+            throw new UnexpectedVMStateException(errMsgForUnusableVM);
+        }finally{
+            if(session.getState() == SessionState.Locked){
+                session.unlockMachine();
+            }
+            vbm.disconnect();
+            vbm.cleanup();
+        }
     }
     
-    public String getVMState(VirtualMachine virtualMachine) throws ConnectionFailureException, InterruptedException,
-            IncompatibleVirtToolAPIVersionException, UnknownVirtualMachineException, UnexpectedVMStateException{
-        String errMsgForVMNullCheck = "Retrieving virtual machine state failure: There was made an attempt to retrieve state of a null virtual machine.";
-        String errMsgForPMNullCheck = "Retrieving virtual machine state failure: There was made an attempt to retrieve state of virtual machine " + virtualMachine + " on a null physical machine.";
-        String errMsgForVMIdCheck = "Retrieving virtual machine state failure: Virtual machine " + virtualMachine + " has a null or an empty id.";
-        String errMsgForVMNameCheck = "Retrieving virtual machine state failure: Virtual machine " + virtualMachine + " has a null or an empty name.";
-        String errMsgForNotConnectedPM = "Connection failure while trying to retrieve state of virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + ": There cannot be retrieved state of this virtual machine on this physical machine now, because this physical machine is not connected.";
-        String errMsgForPMConError = "Connection failure while trying to retrieve state of virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + ": ";
-        String errMsgForUnknownVM = "Retrieving virtual machine state failure: There is no virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " known to VirtualBox.";
-        String errMsgForVMAccessCheck = "Retrieving state of virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " failure: ";
+    public void resumeVM(VirtualMachine virtualMachine, LaunchOptions options, ProgressMonitor monitor) throws InterruptedException,
+            ConnectionFailureException, IncompatibleVirtToolAPIVersionException, UnknownVirtualMachineException,
+            UnexpectedVMStateException, OperationTimeoutException{
+        
+        String errMsgForVMNullCheck = "Resuming virtual machine failure: There was made an attempt to resume a null virtual machine.";
+        String errMsgForPMNullCheck = "Resuming virtual machine failure: There was made an attempt to resume virtual machine " + virtualMachine + " on a null physical machine.";
+        String errMsgForVMIdCheck = "Resuming virtual machine failure: Virtual machine " + virtualMachine + " has a null or an empty id.";
+        String errMsgForVMNameCheck = "Resuming virtual machine failure: Virtual machine " + virtualMachine + " has a null or an empty name.";
+        String errMsgForNotConnectedPM = "Connection failure while trying to resume virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + ": There cannot be resumed any virtual machine on this physical machine now, because it is not connected.";
+        String errMsgForPMConError = "Connection failure while trying to resume virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + ": ";
+        String errMsgForUnknownVM = "Resuming virtual machine failure: There is no virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " known to VirtualBox.";
+        String errMsgForVMAccessCheck = "Resuming virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " failure: ";
+        String errMsgForVMStateCheck = "Resuming virtual machine failure: Virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " cannot be resumed, because virtual machine has no saved state.";
+        String errMsgForUnusableVM = "Resuming virtual machine failure: Virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " cannot be resumed now. There is another process that has locked this virtual machine for itself earlier.";
+        String errMsgForLaunchOptionsNullCheck = "Resuming virtual machine failure: There were used null launch options for resuming of virtual machine " + virtualMachine + ".";
         NativeVBoxAPIConnection natapiCon = NativeVBoxAPIConnection.getInstance();
         
         checkVMIsNotNull(virtualMachine, errMsgForVMNullCheck);
@@ -357,6 +683,7 @@ class NativeVBoxAPIMachine {
         checkVMIdIsNotNullNorEmpty(virtualMachine.getId(), errMsgForVMIdCheck);
         checkVMNameIsNotNullNorEmpty(virtualMachine.getName(), errMsgForVMNameCheck);
         checkPMIsConnected(virtualMachine.getHostMachine(), errMsgForNotConnectedPM);
+        checkLaunchOptionsAreNotNull(options, errMsgForLaunchOptionsNullCheck);
         
         VirtualBoxManager vbm = natapiCon.getVirtualBoxManager(virtualMachine.getHostMachine(), errMsgForPMConError);
         IVirtualBox vbox = vbm.getVBox();
@@ -375,37 +702,834 @@ class NativeVBoxAPIMachine {
             throw new UnexpectedVMStateException(errMsgForVMAccessCheck + vboxMachine.getAccessError().getText());
         }
         
-        String state = vboxMachine.getState().name();
-        
-        vbm.disconnect();
-        vbm.cleanup();
-        
-        return state;
-    }
-    
-    private void checkVMIsNotNull(VirtualMachine vm, String errMsg){
-        if(vm == null){
-            throw new IllegalArgumentException(errMsg);
-        }
-    }
-    
-    private void checkPMIsNotNull(PhysicalMachine pm, String errMsg){
-        if(pm == null){
-            throw new IllegalArgumentException(errMsg);
+        if(vboxMachine.getState() != MachineState.Saved){
+            vbm.disconnect();
+            vbm.cleanup();
+            throw new UnexpectedVMStateException(errMsgForVMStateCheck);
         }
-    }
-    
-    private void checkVMIdIsNotNullNorEmpty(UUID id, String errMsg){
-        if(id == null || id.toString().isEmpty()){
-            throw new IllegalArgumentException(errMsg);
+        
+        //launching of a saved virtual machine restores its saved state instead of booting the guest
+        ISession session = vbm.getSessionObject();
+        try{
+            applyVRDESetting(virtualMachine, vboxMachine, session, options.getVRDEEnabled(), monitor);
+            IProgress progress = vboxMachine.launchVMProcess(session, getFrontendName(options.getMode()),
+                                                             getEnvironmentString(options.getEnvironment()));
+            while(!monitor.waitForCompletion(progress, "Resuming virtual machine " + virtualMachine, 200)){
+                vbm.waitForEvents(0l);
+            }
+            checkProgressResult(progress, errMsgForVMAccessCheck);
+        }catch(VBoxException ex){
+            throw new UnexpectedVMStateException(errMsgForUnusableVM);
+        }finally{
+            if(session.getState() == SessionState.Locked){
+                session.unlockMachine();
+            }
+            vbm.disconnect();
+            vbm.cleanup();
         }
     }
     
-    private void checkVMNameIsNotNullNorEmpty(String name, String errMsg){
-        if(name == null || name.isEmpty()){
-            throw new IllegalArgumentException(errMsg);
-        }
-    }
+    public void pauseVM(VirtualMachine virtualMachine) throws ConnectionFailureException, InterruptedException,
+            IncompatibleVirtToolAPIVersionException, UnknownVirtualMachineException, UnexpectedVMStateException{
+        
+        String errMsgForVMNullCheck = "Pausing virtual machine failure: There was made an attempt to pause a null virtual machine.";
+        String errMsgForPMNullCheck = "Pausing virtual machine failure: There was made an attempt to pause virtual machine " + virtualMachine + " on a null physical machine.";
+        String errMsgForVMIdCheck = "Pausing virtual machine failure: Virtual machine " + virtualMachine + " has a null or an empty id.";
+        String errMsgForVMNameCheck = "Pausing virtual machine failure: Virtual machine " + virtualMachine + " has a null or an empty name.";
+        String errMsgForNotConnectedPM = "Connection failure while trying to pause virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + ": There cannot be paused any virtual machine on this physical machine now, because it is not connected.";
+        String errMsgForPMConError = "Connection failure while trying to pause virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + ": ";
+        String errMsgForUnknownVM = "Pausing virtual machine failure: There is no virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " known to VirtualBox.";
+        String errMsgForVMAccessCheck = "Pausing virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " failure: ";
+        String errMsgForVMStateCheck = "Pausing virtual machine failure: Virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " cannot be paused, because virtual machine is not running.";
+        NativeVBoxAPIConnection natapiCon = NativeVBoxAPIConnection.getInstance();
+        
+        checkVMIsNotNull(virtualMachine, errMsgForVMNullCheck);
+        checkPMIsNotNull(virtualMachine.getHostMachine(), errMsgForPMNullCheck);
+        checkVMIdIsNotNullNorEmpty(virtualMachine.getId(), errMsgForVMIdCheck);
+        checkVMNameIsNotNullNorEmpty(virtualMachine.getName(), errMsgForVMNameCheck);
+        checkPMIsConnected(virtualMachine.getHostMachine(), errMsgForNotConnectedPM);
+        
+        VirtualBoxManager vbm = natapiCon.getVirtualBoxManager(virtualMachine.getHostMachine(), errMsgForPMConError);
+        IVirtualBox vbox = vbm.getVBox();
+        IMachine vboxMachine = null;
+        try{
+            vboxMachine = vbox.findMachine(virtualMachine.getId().toString());
+        }catch(VBoxException ex){
+            vbm.disconnect();
+            vbm.cleanup();
+            throw new UnknownVirtualMachineException(errMsgForUnknownVM);
+        }
+        
+        if(!vboxMachine.getAccessible()){
+            vbm.disconnect();
+            vbm.cleanup();
+            throw new UnexpectedVMStateException(errMsgForVMAccessCheck + vboxMachine.getAccessError().getText());
+        }
+        
+        if(vboxMachine.getState() != MachineState.Running){
+            vbm.disconnect();
+            vbm.cleanup();
+            throw new UnexpectedVMStateException(errMsgForVMStateCheck);
+        }
+        
+        ISession session = vbm.getSessionObject();
+        try{
+            vboxMachine.lockMachine(session, LockType.Shared);
+            session.getConsole().pause();
+        }catch(VBoxException ex){
+            throw new UnexpectedVMStateException(errMsgForVMAccessCheck + ex.getMessage());
+        }finally{
+            if(session.getState() == SessionState.Locked){
+                session.unlockMachine();
+            }
+            vbm.disconnect();
+            vbm.cleanup();
+        }
+    }
+    
+    public void unpauseVM(VirtualMachine virtualMachine) throws ConnectionFailureException, InterruptedException,
+            IncompatibleVirtToolAPIVersionException, UnknownVirtualMachineException, UnexpectedVMStateException{
+        
+        String errMsgForVMNullCheck = "Unpausing virtual machine failure: There was made an attempt to unpause a null virtual machine.";
+        String errMsgForPMNullCheck = "Unpausing virtual machine failure: There was made an attempt to unpause virtual machine " + virtualMachine + " on a null physical machine.";
+        String errMsgForVMIdCheck = "Unpausing virtual machine failure: Virtual machine " + virtualMachine + " has a null or an empty id.";
+        String errMsgForVMNameCheck = "Unpausing virtual machine failure: Virtual machine " + virtualMachine + " has a null or an empty name.";
+        String errMsgForNotConnectedPM = "Connection failure while trying to unpause virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + ": There cannot be unpaused any virtual machine on this physical machine now, because it is not connected.";
+        String errMsgForPMConError = "Connection failure while trying to unpause virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + ": ";
+        String errMsgForUnknownVM = "Unpausing virtual machine failure: There is no virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " known to VirtualBox.";
+        String errMsgForVMAccessCheck = "Unpausing virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " failure: ";
+        String errMsgForVMStateCheck = "Unpausing virtual machine failure: Virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " cannot be unpaused, because virtual machine is not paused.";
+        NativeVBoxAPIConnection natapiCon = NativeVBoxAPIConnection.getInstance();
+        
+        checkVMIsNotNull(virtualMachine, errMsgForVMNullCheck);
+        checkPMIsNotNull(virtualMachine.getHostMachine(), errMsgForPMNullCheck);
+        checkVMIdIsNotNullNorEmpty(virtualMachine.getId(), errMsgForVMIdCheck);
+        checkVMNameIsNotNullNorEmpty(virtualMachine.getName(), errMsgForVMNameCheck);
+        checkPMIsConnected(virtualMachine.getHostMachine(), errMsgForNotConnectedPM);
+        
+        VirtualBoxManager vbm = natapiCon.getVirtualBoxManager(virtualMachine.getHostMachine(), errMsgForPMConError);
+        IVirtualBox vbox = vbm.getVBox();
+        IMachine vboxMachine = null;
+        try{
+            vboxMachine = vbox.findMachine(virtualMachine.getId().toString());
+        }catch(VBoxException ex){
+            vbm.disconnect();
+            vbm.cleanup();
+            throw new UnknownVirtualMachineException(errMsgForUnknownVM);
+        }
+        
+        if(!vboxMachine.getAccessible()){
+            vbm.disconnect();
+            vbm.cleanup();
+            throw new UnexpectedVMStateException(errMsgForVMAccessCheck + vboxMachine.getAccessError().getText());
+        }
+        
+        if(vboxMachine.getState() != MachineState.Paused){
+            vbm.disconnect();
+            vbm.cleanup();
+            throw new UnexpectedVMStateException(errMsgForVMStateCheck);
+        }
+        
+        ISession session = vbm.getSessionObject();
+        try{
+            vboxMachine.lockMachine(session, LockType.Shared);
+            session.getConsole().resume();
+        }catch(VBoxException ex){
+            throw new UnexpectedVMStateException(errMsgForVMAccessCheck + ex.getMessage());
+        }finally{
+            if(session.getState() == SessionState.Locked){
+                session.unlockMachine();
+            }
+            vbm.disconnect();
+            vbm.cleanup();
+        }
+    }
+    
+    public Snapshot takeSnapshot(VirtualMachine virtualMachine, String name, String description, ProgressMonitor monitor)
+            throws ConnectionFailureException, InterruptedException, IncompatibleVirtToolAPIVersionException,
+            UnknownVirtualMachineException, UnexpectedVMStateException, OperationTimeoutException{
+        
+        String errMsgForVMNullCheck = "Taking snapshot failure: There was made an attempt to take snapshot of a null virtual machine.";
+        String errMsgForPMNullCheck = "Taking snapshot failure: There was made an attempt to take snapshot of virtual machine " + virtualMachine + " on a null physical machine.";
+        String errMsgForVMIdCheck = "Taking snapshot failure: Virtual machine " + virtualMachine + " has a null or an empty id.";
+        String errMsgForVMNameCheck = "Taking snapshot failure: Virtual machine " + virtualMachine + " has a null or an empty name.";
+        String errMsgForNotConnectedPM = "Connection failure while trying to take snapshot of virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + ": There cannot be taken snapshot of any virtual machine on this physical machine now, because it is not connected.";
+        String errMsgForPMConError = "Connection failure while trying to take snapshot of virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + ": ";
+        String errMsgForUnknownVM = "Taking snapshot failure: There is no virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " known to VirtualBox.";
+        String errMsgForVMAccessCheck = "Taking snapshot of virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " failure: ";
+        String errMsgForSnapshotNameCheck = "Taking snapshot failure: Snapshot of virtual machine " + virtualMachine + " must have a non-empty name.";
+        String errMsgForVMStateCheck = "Taking snapshot failure: Snapshot of virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " cannot be taken now, because virtual machine is in a transient state.";
+        NativeVBoxAPIConnection natapiCon = NativeVBoxAPIConnection.getInstance();
+        
+        checkVMIsNotNull(virtualMachine, errMsgForVMNullCheck);
+        checkPMIsNotNull(virtualMachine.getHostMachine(), errMsgForPMNullCheck);
+        checkVMIdIsNotNullNorEmpty(virtualMachine.getId(), errMsgForVMIdCheck);
+        checkVMNameIsNotNullNorEmpty(virtualMachine.getName(), errMsgForVMNameCheck);
+        checkPMIsConnected(virtualMachine.getHostMachine(), errMsgForNotConnectedPM);
+        checkSnapshotNameIsNotNullNorEmpty(name, errMsgForSnapshotNameCheck);
+        
+        VirtualBoxManager vbm = natapiCon.getVirtualBoxManager(virtualMachine.getHostMachine(), errMsgForPMConError);
+        IVirtualBox vbox = vbm.getVBox();
+        IMachine vboxMachine = null;
+        try{
+            vboxMachine = vbox.findMachine(virtualMachine.getId().toString());
+        }catch(VBoxException ex){
+            vbm.disconnect();
+            vbm.cleanup();
+            throw new UnknownVirtualMachineException(errMsgForUnknownVM);
+        }
+        
+        if(!vboxMachine.getAccessible()){
+            vbm.disconnect();
+            vbm.cleanup();
+            throw new UnexpectedVMStateException(errMsgForVMAccessCheck + vboxMachine.getAccessError().getText());
+        }
+        
+        try{
+            checkVMStateIsValidForSnapshot(vboxMachine.getState(), errMsgForVMStateCheck);
+        }catch(UnexpectedVMStateException ex){
+            vbm.disconnect();
+            vbm.cleanup();
+            throw ex;
+        }
+        
+        ISession session = vbm.getSessionObject();
+        Snapshot snapshot;
+        try{
+            vboxMachine.lockMachine(session, getLockTypeFor(vboxMachine.getState()));
+            IProgress progress = session.getConsole().takeSnapshot(name, (description == null ? "" : description));
+            while(!monitor.waitForCompletion(progress, "Taking snapshot of virtual machine " + virtualMachine, 200)){
+                vbm.waitForEvents(0l);
+            }
+            checkProgressResult(progress, errMsgForVMAccessCheck);
+            snapshot = vboxSnapshotToSnapshot(vboxMachine.getCurrentSnapshot(), true);
+        }catch(VBoxException ex){
+            throw new UnexpectedVMStateException(errMsgForVMAccessCheck + ex.getMessage());
+        }finally{
+            if(session.getState() == SessionState.Locked){
+                session.unlockMachine();
+            }
+            SnapshotTreeCache.getInstance().invalidate(vboxMachine.getId());
+            MediumTreeCache.getInstance().invalidate(virtualMachine.getHostMachine());
+            vbm.disconnect();
+            vbm.cleanup();
+        }
+        
+        return snapshot;
+    }
+    
+    public List<Snapshot> getSnapshots(VirtualMachine virtualMachine) throws ConnectionFailureException, InterruptedException,
+            IncompatibleVirtToolAPIVersionException, UnknownVirtualMachineException, UnexpectedVMStateException{
+        
+        String errMsgForVMNullCheck = "Retrieving snapshots failure: There was made an attempt to retrieve snapshots of a null virtual machine.";
+        String errMsgForPMNullCheck = "Retrieving snapshots failure: There was made an attempt to retrieve snapshots of virtual machine " + virtualMachine + " on a null physical machine.";
+        String errMsgForVMIdCheck = "Retrieving snapshots failure: Virtual machine " + virtualMachine + " has a null or an empty id.";
+        String errMsgForVMNameCheck = "Retrieving snapshots failure: Virtual machine " + virtualMachine + " has a null or an empty name.";
+        String errMsgForNotConnectedPM = "Connection failure while trying to retrieve snapshots of virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + ": There cannot be retrieved snapshots of any virtual machine on this physical machine now, because it is not connected.";
+        String errMsgForPMConError = "Connection failure while trying to retrieve snapshots of virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + ": ";
+        String errMsgForUnknownVM = "Retrieving snapshots failure: There is no virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " known to VirtualBox.";
+        String errMsgForVMAccessCheck = "Retrieving snapshots of virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " failure: ";
+        NativeVBoxAPIConnection natapiCon = NativeVBoxAPIConnection.getInstance();
+        
+        checkVMIsNotNull(virtualMachine, errMsgForVMNullCheck);
+        checkPMIsNotNull(virtualMachine.getHostMachine(), errMsgForPMNullCheck);
+        checkVMIdIsNotNullNorEmpty(virtualMachine.getId(), errMsgForVMIdCheck);
+        checkVMNameIsNotNullNorEmpty(virtualMachine.getName(), errMsgForVMNameCheck);
+        checkPMIsConnected(virtualMachine.getHostMachine(), errMsgForNotConnectedPM);
+        
+        VirtualBoxManager vbm = natapiCon.getVirtualBoxManager(virtualMachine.getHostMachine(), errMsgForPMConError);
+        IVirtualBox vbox = vbm.getVBox();
+        IMachine vboxMachine = null;
+        try{
+            vboxMachine = vbox.findMachine(virtualMachine.getId().toString());
+        }catch(VBoxException ex){
+            vbm.disconnect();
+            vbm.cleanup();
+            throw new UnknownVirtualMachineException(errMsgForUnknownVM);
+        }
+        
+        if(!vboxMachine.getAccessible()){
+            vbm.disconnect();
+            vbm.cleanup();
+            throw new UnexpectedVMStateException(errMsgForVMAccessCheck + vboxMachine.getAccessError().getText());
+        }
+        
+        SnapshotTree snapshotTree = SnapshotTreeCache.getInstance().getSnapshotTree(vboxMachine);
+        ISnapshot currentSnapshot = vboxMachine.getCurrentSnapshot();
+        String currentId = (currentSnapshot == null ? null : currentSnapshot.getId());
+        List<Snapshot> snapshots = new ArrayList<>();
+        
+        for(String snapshotId : snapshotTree.getSnapshotIds()){
+            String parentId = snapshotTree.getParentId(snapshotId);
+            snapshots.add(new Snapshot(UUID.fromString(snapshotId), snapshotTree.getName(snapshotId),
+                                       snapshotTree.getDescription(snapshotId), snapshotTree.getTimeStamp(snapshotId),
+                                       (parentId == null ? null : UUID.fromString(parentId)), snapshotId.equals(currentId)));
+        }
+        
+        vbm.disconnect();
+        vbm.cleanup();
+        
+        return snapshots;
+    }
+    
+    public void restoreSnapshot(VirtualMachine virtualMachine, Snapshot snapshot, ProgressMonitor monitor)
+            throws ConnectionFailureException, InterruptedException, IncompatibleVirtToolAPIVersionException,
+            UnknownVirtualMachineException, UnknownSnapshotException, UnexpectedVMStateException, OperationTimeoutException{
+        
+        String errMsgForVMNullCheck = "Restoring snapshot failure: There was made an attempt to restore snapshot of a null virtual machine.";
+        String errMsgForPMNullCheck = "Restoring snapshot failure: There was made an attempt to restore snapshot of virtual machine " + virtualMachine + " on a null physical machine.";
+        String errMsgForVMIdCheck = "Restoring snapshot failure: Virtual machine " + virtualMachine + " has a null or an empty id.";
+        String errMsgForVMNameCheck = "Restoring snapshot failure: Virtual machine " + virtualMachine + " has a null or an empty name.";
+        String errMsgForNotConnectedPM = "Connection failure while trying to restore snapshot of virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + ": There cannot be restored snapshot of any virtual machine on this physical machine now, because it is not connected.";
+        String errMsgForPMConError = "Connection failure while trying to restore snapshot of virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + ": ";
+        String errMsgForUnknownVM = "Restoring snapshot failure: There is no virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " known to VirtualBox.";
+        String errMsgForVMAccessCheck = "Restoring snapshot of virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " failure: ";
+        String errMsgForSnapshotNullCheck = "Restoring snapshot failure: There was made an attempt to restore a null snapshot of virtual machine " + virtualMachine + ".";
+        String errMsgForUnknownSnapshot = "Restoring snapshot failure: There is no snapshot " + snapshot + " of virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + ".";
+        String errMsgForVMStateCheck = "Restoring snapshot failure: Snapshot of virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " cannot be restored, because virtual machine is not powered off nor saved.";
+        NativeVBoxAPIConnection natapiCon = NativeVBoxAPIConnection.getInstance();
+        
+        checkVMIsNotNull(virtualMachine, errMsgForVMNullCheck);
+        checkPMIsNotNull(virtualMachine.getHostMachine(), errMsgForPMNullCheck);
+        checkVMIdIsNotNullNorEmpty(virtualMachine.getId(), errMsgForVMIdCheck);
+        checkVMNameIsNotNullNorEmpty(virtualMachine.getName(), errMsgForVMNameCheck);
+        checkPMIsConnected(virtualMachine.getHostMachine(), errMsgForNotConnectedPM);
+        checkSnapshotIsNotNull(snapshot, errMsgForSnapshotNullCheck);
+        
+        VirtualBoxManager vbm = natapiCon.getVirtualBoxManager(virtualMachine.getHostMachine(), errMsgForPMConError);
+        IVirtualBox vbox = vbm.getVBox();
+        IMachine vboxMachine = null;
+        try{
+            vboxMachine = vbox.findMachine(virtualMachine.getId().toString());
+        }catch(VBoxException ex){
+            vbm.disconnect();
+            vbm.cleanup();
+            throw new UnknownVirtualMachineException(errMsgForUnknownVM);
+        }
+        
+        if(!vboxMachine.getAccessible()){
+            vbm.disconnect();
+            vbm.cleanup();
+            throw new UnexpectedVMStateException(errMsgForVMAccessCheck + vboxMachine.getAccessError().getText());
+        }
+        
+        try{
+            checkVMStateIsValidForRestoring(vboxMachine.getState(), errMsgForVMStateCheck);
+        }catch(UnexpectedVMStateException ex){
+            vbm.disconnect();
+            vbm.cleanup();
+            throw ex;
+        }
+        
+        ISnapshot vboxSnapshot = null;
+        try{
+            vboxSnapshot = vboxMachine.findSnapshot(snapshot.getId().toString());
+        }catch(VBoxException ex){
+            vbm.disconnect();
+            vbm.cleanup();
+            throw new UnknownSnapshotException(errMsgForUnknownSnapshot);
+        }
+        
+        ISession session = vbm.getSessionObject();
+        try{
+            vboxMachine.lockMachine(session, LockType.Write);
+            IProgress progress = session.getConsole().restoreSnapshot(vboxSnapshot);
+            while(!monitor.waitForCompletion(progress, "Restoring snapshot of virtual machine " + virtualMachine, 200)){
+                vbm.waitForEvents(0l);
+            }
+            checkProgressResult(progress, errMsgForVMAccessCheck);
+        }catch(VBoxException ex){
+            throw new UnexpectedVMStateException(errMsgForVMAccessCheck + ex.getMessage());
+        }finally{
+            if(session.getState() == SessionState.Locked){
+                session.unlockMachine();
+            }
+            SnapshotTreeCache.getInstance().invalidate(vboxMachine.getId());
+            MediumTreeCache.getInstance().invalidate(virtualMachine.getHostMachine());
+            vbm.disconnect();
+            vbm.cleanup();
+        }
+    }
+    
+    public void deleteSnapshot(VirtualMachine virtualMachine, Snapshot snapshot, ProgressMonitor monitor)
+            throws ConnectionFailureException, InterruptedException, IncompatibleVirtToolAPIVersionException,
+            UnknownVirtualMachineException, UnknownSnapshotException, UnexpectedVMStateException, OperationTimeoutException{
+        
+        String errMsgForVMNullCheck = "Deleting snapshot failure: There was made an attempt to delete snapshot of a null virtual machine.";
+        String errMsgForPMNullCheck = "Deleting snapshot failure: There was made an attempt to delete snapshot of virtual machine " + virtualMachine + " on a null physical machine.";
+        String errMsgForVMIdCheck = "Deleting snapshot failure: Virtual machine " + virtualMachine + " has a null or an empty id.";
+        String errMsgForVMNameCheck = "Deleting snapshot failure: Virtual machine " + virtualMachine + " has a null or an empty name.";
+        String errMsgForNotConnectedPM = "Connection failure while trying to delete snapshot of virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + ": There cannot be deleted snapshot of any virtual machine on this physical machine now, because it is not connected.";
+        String errMsgForPMConError = "Connection failure while trying to delete snapshot of virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + ": ";
+        String errMsgForUnknownVM = "Deleting snapshot failure: There is no virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " known to VirtualBox.";
+        String errMsgForVMAccessCheck = "Deleting snapshot of virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " failure: ";
+        String errMsgForSnapshotNullCheck = "Deleting snapshot failure: There was made an attempt to delete a null snapshot of virtual machine " + virtualMachine + ".";
+        String errMsgForUnknownSnapshot = "Deleting snapshot failure: There is no snapshot " + snapshot + " of virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + ".";
+        String errMsgForVMStateCheck = "Deleting snapshot failure: Snapshot of virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " cannot be deleted now, because virtual machine is in a transient state.";
+        NativeVBoxAPIConnection natapiCon = NativeVBoxAPIConnection.getInstance();
+        
+        checkVMIsNotNull(virtualMachine, errMsgForVMNullCheck);
+        checkPMIsNotNull(virtualMachine.getHostMachine(), errMsgForPMNullCheck);
+        checkVMIdIsNotNullNorEmpty(virtualMachine.getId(), errMsgForVMIdCheck);
+        checkVMNameIsNotNullNorEmpty(virtualMachine.getName(), errMsgForVMNameCheck);
+        checkPMIsConnected(virtualMachine.getHostMachine(), errMsgForNotConnectedPM);
+        checkSnapshotIsNotNull(snapshot, errMsgForSnapshotNullCheck);
+        
+        VirtualBoxManager vbm = natapiCon.getVirtualBoxManager(virtualMachine.getHostMachine(), errMsgForPMConError);
+        IVirtualBox vbox = vbm.getVBox();
+        IMachine vboxMachine = null;
+        try{
+            vboxMachine = vbox.findMachine(virtualMachine.getId().toString());
+        }catch(VBoxException ex){
+            vbm.disconnect();
+            vbm.cleanup();
+            throw new UnknownVirtualMachineException(errMsgForUnknownVM);
+        }
+        
+        if(!vboxMachine.getAccessible()){
+            vbm.disconnect();
+            vbm.cleanup();
+            throw new UnexpectedVMStateException(errMsgForVMAccessCheck + vboxMachine.getAccessError().getText());
+        }
+        
+        try{
+            checkVMStateIsValidForSnapshot(vboxMachine.getState(), errMsgForVMStateCheck);
+        }catch(UnexpectedVMStateException ex){
+            vbm.disconnect();
+            vbm.cleanup();
+            throw ex;
+        }
+        
+        ISnapshot vboxSnapshot = null;
+        try{
+            vboxSnapshot = vboxMachine.findSnapshot(snapshot.getId().toString());
+        }catch(VBoxException ex){
+            vbm.disconnect();
+            vbm.cleanup();
+            throw new UnknownSnapshotException(errMsgForUnknownSnapshot);
+        }
+        
+        ISession session = vbm.getSessionObject();
+        try{
+            vboxMachine.lockMachine(session, getLockTypeFor(vboxMachine.getState()));
+            IProgress progress = session.getConsole().deleteSnapshot(vboxSnapshot.getId());
+            while(!monitor.waitForCompletion(progress, "Deleting snapshot of virtual machine " + virtualMachine, 200)){
+                vbm.waitForEvents(0l);
+            }
+            checkProgressResult(progress, errMsgForVMAccessCheck);
+        }catch(VBoxException ex){
+            throw new UnexpectedVMStateException(errMsgForVMAccessCheck + ex.getMessage());
+        }finally{
+            if(session.getState() == SessionState.Locked){
+                session.unlockMachine();
+            }
+            SnapshotTreeCache.getInstance().invalidate(vboxMachine.getId());
+            MediumTreeCache.getInstance().invalidate(virtualMachine.getHostMachine());
+            vbm.disconnect();
+            vbm.cleanup();
+        }
+    }
+    
+    public void addPortRule(VirtualMachine virtualMachine, PortRule portRule) throws ConnectionFailureException,
+            InterruptedException, IncompatibleVirtToolAPIVersionException, UnknownVirtualMachineException,
+            IllegalArgumentException, PortRuleDuplicityException, UnexpectedVMStateException{     
+        
+        String errMsgForVMNullCheck = "Creating new port forwarding rule failure: There was made an attempt to create a new port forwarding rule for a null virtual machine.";
+        String errMsgForPMNullCheck = "Creating a new port forwarding rule failure: There was made an attempt to create a new port forwarding rule for virtual machine " + virtualMachine + " on a null physical machine.";
+        String errMsgForVMIdCheck = "Creating new port forwarding rule failure: Virtual machine " + virtualMachine + " has a null or an empty id.";
+        String errMsgForVMNameCheck = "Creating new port forwarding rule failure: Virtual machine " + virtualMachine + " has a null or an empty name.";
+        String errMsgForNotConnectedPM = "Connection failure while trying to create a new port forwarding rule for virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + ": There cannot be created any new port forwarding rule for this virtual machine on this physical machine now, because it is not connected.";
+        String errMsgForPMConError = "Connection failure while trying to create new port forwarding rule for virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + ": ";
+        String errMsgForUnknownVM = "Craeting new port forwarding rule failure: There is no virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " known to VirtualBox.";
+        String errMsgForAdapterCheck = "Creating new port forwarding rule failure: There cannot be created any port forwarding rule for virtual machine " + virtualMachine + ", because its network adapter is not attached to NAT.";
+        String errMsgForPRNullCheck = "Creating new port forwarding rule failure: There was made an attempt to create a null port forwarding rule for virtual machine " + virtualMachine + ".";
+        String errMsgForAdapterSlotCheck = "Creating new port forwarding rule failure: Network adapter slot of port forwarding rule " + portRule + " is out of the range of network adapter slots of virtual machine " + virtualMachine + ".";
+        NativeVBoxAPIConnection natapiCon = NativeVBoxAPIConnection.getInstance();
+        
+        checkVMIsNotNull(virtualMachine, errMsgForVMNullCheck);
+        checkPMIsNotNull(virtualMachine.getHostMachine(), errMsgForPMNullCheck);
+        checkVMIdIsNotNullNorEmpty(virtualMachine.getId(), errMsgForVMIdCheck);
+        checkVMNameIsNotNullNorEmpty(virtualMachine.getName(), errMsgForVMNameCheck);
+        checkPMIsConnected(virtualMachine.getHostMachine(), errMsgForNotConnectedPM);
+        checkPortRuleIsNotNull(portRule, errMsgForPRNullCheck);
+        
+        VirtualBoxManager vbm = natapiCon.getVirtualBoxManager(virtualMachine.getHostMachine(), errMsgForPMConError);
+        IVirtualBox vbox = vbm.getVBox();
+        IMachine vboxMachine = null;
+        try{
+            vboxMachine = vbox.findMachine(virtualMachine.getId().toString());
+        }catch(VBoxException ex){
+            vbm.disconnect();
+            vbm.cleanup();
+            throw new UnknownVirtualMachineException(errMsgForUnknownVM);
+        }
+        
+        try{
+            checkAdapterSlotIsValid(vbox, vboxMachine, portRule.getAdapterSlot(), errMsgForAdapterSlotCheck);
+            checkPortRuleValidity(virtualMachine, portRule, vboxMachine.getNetworkAdapter(portRule.getAdapterSlot()).getNATEngine().getRedirects());
+        }catch(IllegalArgumentException | PortRuleDuplicityException ex){
+            vbm.disconnect();
+            vbm.cleanup();
+            throw ex;
+        }
+        
+        INetworkAdapter adapter = vboxMachine.getNetworkAdapter(portRule.getAdapterSlot());
+        if(adapter.getAttachmentType() != NetworkAttachmentType.NAT){
+            throw new UnexpectedVMStateException(errMsgForAdapterCheck);
+        }
+        INATEngine natEngine = adapter.getNATEngine();
+        NATProtocol natp = (portRule.getProtocol() == ProtocolType.TCP ? NATProtocol.TCP : NATProtocol.UDP);
+        String hostIP = (portRule.getHostIP() == null ? "" : portRule.getHostIP());
+        String guestIP = (portRule.getGuestIP() == null ? "" : portRule.getGuestIP());
+        
+        //host port has to be free on the whole physical machine, not only among rules of this virtual machine
+        HostPortAllocator allocator = HostPortAllocatorRegistry.getInstance().getAllocator(virtualMachine.getHostMachine(), vbox);
+        if(!allocator.bind(virtualMachine.getId().toString(), portRule.getHostPort())){
+            vbm.disconnect();
+            vbm.cleanup();
+            throw new PortRuleDuplicityException(getErrMsgForHostPortBinding(virtualMachine, portRule));
+        }
+        
+        try{
+            natEngine.addRedirect(portRule.getName(), natp, hostIP, portRule.getHostPort(),
+                                  guestIP, portRule.getGuestPort());
+        }catch(VBoxException ex){
+            allocator.release(virtualMachine.getId().toString(), portRule.getHostPort());
+            vbm.disconnect();
+            vbm.cleanup();
+            throw new UnexpectedVMStateException(errMsgForAdapterCheck);
+        }
+        PortRuleTableCache.getInstance().invalidate(virtualMachine.getId().toString());
+        PortRuleIndex.getInstance().add(virtualMachine, portRule);
+        
+        vbm.disconnect();
+        vbm.cleanup();        
+        
+    }
+    
+    public void deletePortRule(VirtualMachine virtualMachine, String ruleName) throws ConnectionFailureException,
+            InterruptedException, IncompatibleVirtToolAPIVersionException, UnknownVirtualMachineException,
+            UnknownPortRuleException, UnexpectedVMStateException{
+        
+        deletePortRule(virtualMachine, ruleName, 0L);
+    }
+    
+    public void deletePortRule(VirtualMachine virtualMachine, String ruleName, long adapterSlot) throws ConnectionFailureException,
+            InterruptedException, IncompatibleVirtToolAPIVersionException, UnknownVirtualMachineException,
+            UnknownPortRuleException, UnexpectedVMStateException{
+        
+        String errMsgForVMNullCheck = "Deleting port forwarding rule failure: There was made an attempt to delete a port forwarding rule of a null virtual machine.";
+        String errMsgForPMNullCheck = "Deleting port forwarding rule failure: There was made an attempt to delete a port forwarding rule of virtual machine " + virtualMachine + " on a null physical machine.";
+        String errMsgForVMIdCheck = "Deleting new port forwarding rule failure: Virtual machine " + virtualMachine + " has a null or an empty id.";
+        String errMsgForVMNameCheck = "Deleting new port forwarding rule failure: Virtual machine " + virtualMachine + " has a null or an empty name.";
+        String errMsgForNotConnectedPM = "Connection failure while trying to delete port forwarding rule of virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + ": There cannot be deleted any port forwarding rule of this virtual machine on this physical machine now, because this physical machine is not connected.";
+        String errMsgForPMConError = "Connection failure while trying to delete port forwarding rule of virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + ": ";
+        String errMsgForUnknownVM = "Deleting port forwarding rule failure: There is no virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " known to VirtualBox.";
+        String errMsgForPRNameCheck = "Deleting port forwarding rule failure: Port forwarding rule to delete has null or empty name.";
+        String errMsgForPRNameDeleting = "Deleting port forwarding rule failure: There is no port rule with name = " + ruleName + " of network adapter in slot " + adapterSlot + " of virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " which could be deleted.";
+        String errMsgForAdapterSlotCheck = "Deleting port forwarding rule failure: Network adapter slot " + adapterSlot + " is out of the range of network adapter slots of virtual machine " + virtualMachine + ".";
+        NativeVBoxAPIConnection natapiCon = NativeVBoxAPIConnection.getInstance();
+        
+        checkVMIsNotNull(virtualMachine, errMsgForVMNullCheck);
+        checkPMIsNotNull(virtualMachine.getHostMachine(), errMsgForPMNullCheck);
+        checkVMIdIsNotNullNorEmpty(virtualMachine.getId(), errMsgForVMIdCheck);
+        checkVMNameIsNotNullNorEmpty(virtualMachine.getName(), errMsgForVMNameCheck);
+        checkPMIsConnected(virtualMachine.getHostMachine(), errMsgForNotConnectedPM);
+        checkPortRuleNameIsNotNullNorEmpty(ruleName, errMsgForPRNameCheck);
+        
+        VirtualBoxManager vbm = natapiCon.getVirtualBoxManager(virtualMachine.getHostMachine(), errMsgForPMConError);
+        IVirtualBox vbox = vbm.getVBox();
+        IMachine vboxMachine = null;
+        try{
+            vboxMachine = vbox.findMachine(virtualMachine.getId().toString());
+        }catch(VBoxException ex){
+            vbm.disconnect();
+            vbm.cleanup();
+            throw new UnknownVirtualMachineException(errMsgForUnknownVM);
+        }
+        
+        try{
+            checkAdapterSlotIsValid(vbox, vboxMachine, adapterSlot, errMsgForAdapterSlotCheck);
+        }catch(IllegalArgumentException ex){
+            vbm.disconnect();
+            vbm.cleanup();
+            throw ex;
+        }
+        
+        INetworkAdapter adapter = vboxMachine.getNetworkAdapter(adapterSlot);
+        INATEngine natEngine = adapter.getNATEngine();
+        int hostPort = -1;
+        for(String redirect : natEngine.getRedirects()){
+            if(NATRedirectParser.hasName(redirect, ruleName)){
+                hostPort = NATRedirectParser.parseHostPort(redirect);
+            }
+        }
+        
+        try{
+            natEngine.removeRedirect(ruleName);
+        }catch(VBoxException ex){
+            vbm.disconnect();
+            vbm.cleanup();
+            throw new UnknownPortRuleException(errMsgForPRNameDeleting);
+        }
+        if(hostPort >= 0){
+            HostPortAllocatorRegistry.getInstance().getAllocator(virtualMachine.getHostMachine(), vbox).release(virtualMachine.getId().toString(), hostPort);
+        }
+        PortRuleTableCache.getInstance().invalidate(virtualMachine.getId().toString());
+        PortRuleIndex.getInstance().remove(virtualMachine, ruleName, adapterSlot);
+        
+        vbm.disconnect();
+        vbm.cleanup();
+    }
+    
+    //all the rules are added in one session and validated against one fetched redirect table,
+    //a rule which cannot be added does not prevent adding of the other ones
+    public List<OperationResult<PortRule>> addPortRules(VirtualMachine virtualMachine, Collection<PortRule> portRules)
+            throws ConnectionFailureException, InterruptedException, IncompatibleVirtToolAPIVersionException,
+            UnknownVirtualMachineException, UnexpectedVMStateException{
+        
+        String errMsgForPRsNullCheck = "Creating new port forwarding rules failure: There was made an attempt to create a null collection of port forwarding rules for virtual machine " + virtualMachine + ".";
+        
+        if(portRules == null){
+            throw new IllegalArgumentException(errMsgForPRsNullCheck);
+        }
+        
+        return editPortRules(virtualMachine, "Creating new port forwarding rules", (natEngines, redirects, allocator) -> {
+            return addRedirects(virtualMachine, natEngines, redirects, allocator, portRules);
+        });
+    }
+    
+    public List<OperationResult<PortRule>> deletePortRules(VirtualMachine virtualMachine, Collection<PortRule> portRules)
+            throws ConnectionFailureException, InterruptedException, IncompatibleVirtToolAPIVersionException,
+            UnknownVirtualMachineException, UnexpectedVMStateException{
+        
+        String errMsgForPRsNullCheck = "Deleting port forwarding rules failure: There was made an attempt to delete a null collection of port forwarding rules of virtual machine " + virtualMachine + ".";
+        
+        if(portRules == null){
+            throw new IllegalArgumentException(errMsgForPRsNullCheck);
+        }
+        
+        return editPortRules(virtualMachine, "Deleting port forwarding rules", (natEngines, redirects, allocator) -> {
+            List<OperationResult<PortRule>> results = new ArrayList<>();
+            Map<Long, Map<String, Integer>> hostPorts = new HashMap<>();
+            for(Map.Entry<Long, List<String>> entry : redirects.entrySet()){
+                Map<String, Integer> slotHostPorts = new HashMap<>();
+                for(String redirect : entry.getValue()){
+                    slotHostPorts.put(NATRedirectParser.parseName(redirect), NATRedirectParser.parseHostPort(redirect));
+                }
+                hostPorts.put(entry.getKey(), slotHostPorts);
+            }
+            
+            for(PortRule portRule : portRules){
+                long start = System.currentTimeMillis();
+                Map<String, Integer> slotHostPorts = (portRule == null ? null : hostPorts.get(portRule.getAdapterSlot()));
+                Integer hostPort = (slotHostPorts == null ? null : slotHostPorts.remove(portRule.getName()));
+                if(hostPort == null){
+                    results.add(new OperationResult<>(portRule, false, "Deleting port forwarding rule failure: There is no port rule " + portRule + " of virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " which could be deleted.", 0L));
+                    continue;
+                }
+                natEngines.get(portRule.getAdapterSlot()).removeRedirect(portRule.getName());
+                allocator.release(virtualMachine.getId().toString(), hostPort);
+                results.add(new OperationResult<>(portRule, true, "", System.currentTimeMillis() - start));
+            }
+            
+            return results;
+        });
+    }
+    
+    //replaces all the existing rules of all NAT network adapters by the new ones in one session
+    public List<OperationResult<PortRule>> replacePortRules(VirtualMachine virtualMachine, Collection<PortRule> portRules)
+            throws ConnectionFailureException, InterruptedException, IncompatibleVirtToolAPIVersionException,
+            UnknownVirtualMachineException, UnexpectedVMStateException{
+        
+        String errMsgForPRsNullCheck = "Replacing port forwarding rules failure: There was made an attempt to replace port forwarding rules of virtual machine " + virtualMachine + " by a null collection of port forwarding rules.";
+        
+        if(portRules == null){
+            throw new IllegalArgumentException(errMsgForPRsNullCheck);
+        }
+        
+        return editPortRules(virtualMachine, "Replacing port forwarding rules", (natEngines, redirects, allocator) -> {
+            Map<Long, List<String>> emptyRedirects = new HashMap<>();
+            for(Map.Entry<Long, List<String>> entry : redirects.entrySet()){
+                INATEngine natEngine = natEngines.get(entry.getKey());
+                for(String redirect : entry.getValue()){
+                    natEngine.removeRedirect(NATRedirectParser.parseName(redirect));
+                    allocator.release(virtualMachine.getId().toString(), NATRedirectParser.parseHostPort(redirect));
+                }
+                emptyRedirects.put(entry.getKey(), new ArrayList<>());
+            }
+            
+            return addRedirects(virtualMachine, natEngines, emptyRedirects, allocator, portRules);
+        });
+    }
+    
+    //either all the changes needed to get the wanted rules are saved or the previous rules are kept
+    public void applyPortRuleSet(VirtualMachine virtualMachine, Collection<PortRule> portRules)
+            throws ConnectionFailureException, InterruptedException, IncompatibleVirtToolAPIVersionException,
+            UnknownVirtualMachineException, UnexpectedVMStateException, PortRuleDuplicityException{
+        
+        String errMsgForPRsNullCheck = "Applying port forwarding rule set failure: There was made an attempt to apply a null collection of port forwarding rules to virtual machine " + virtualMachine + ".";
+        
+        if(portRules == null){
+            throw new IllegalArgumentException(errMsgForPRsNullCheck);
+        }
+        
+        //the whole set is validated before the machine is locked, each rule against the previous ones
+        Map<Long, List<String>> wantedRedirects = new HashMap<>();
+        Map<Long, Map<String, PortRule>> wantedRules = new HashMap<>();
+        Set<Integer> wantedHostPorts = new HashSet<>();
+        for(PortRule portRule : portRules){
+            List<String> slotRedirects = wantedRedirects.computeIfAbsent((portRule == null ? 0L : portRule.getAdapterSlot()), (slot) -> new ArrayList<>());
+            checkPortRuleValidity(virtualMachine, portRule, slotRedirects);
+            if(!wantedHostPorts.add(portRule.getHostPort())){
+                throw new PortRuleDuplicityException("Applying port forwarding rule set failure: Host port number = " + portRule.getHostPort() + " of port forwarding rule " + portRule + " is used by more rules of the set.");
+            }
+            String redirect = NATRedirectParser.format(portRule);
+            slotRedirects.add(redirect);
+            wantedRules.computeIfAbsent(portRule.getAdapterSlot(), (slot) -> new LinkedHashMap<>())
+                       .put(portRule.getName(), NATRedirectParser.parse(redirect, portRule.getAdapterSlot()));
+        }
+        
+        long start = System.currentTimeMillis();
+        Set<Long> natSlots = new HashSet<>();
+        List<OperationResult<PortRule>> results = editPortRules(virtualMachine, "Applying port forwarding rule set", (natEngines, redirects, allocator) -> {
+            natSlots.addAll(natEngines.keySet());
+            return applyPortRuleDiff(virtualMachine, natEngines, redirects, allocator, wantedRules);
+        });
+        //rules for adapters which are not attached to NAT fail regardless of the other rules
+        for(OperationResult<PortRule> result : results){
+            if(!result.isSuccessful() && !natSlots.contains(result.getSubject().getAdapterSlot())){
+                throw new UnexpectedVMStateException(result.getMessage());
+            }
+        }
+        for(OperationResult<PortRule> result : results){
+            if(!result.isSuccessful()){
+                throw new PortRuleDuplicityException(result.getMessage());
+            }
+        }
+        OperationLatencyStats.getInstance().record(virtualMachine.getHostMachine(), OperationType.APPLY_PORT_RULES,
+                                                   System.currentTimeMillis() - start);
+    }
+    
+    public List<PortRule> getPortRules(VirtualMachine virtualMachine) throws ConnectionFailureException,
+            InterruptedException, IncompatibleVirtToolAPIVersionException, UnknownVirtualMachineException,
+            UnexpectedVMStateException{
+        
+        String errMsgForVMNullCheck = "Retrieving all port forwarding rules failure: There was made an attempt to retrieve all port forwarding rules of a null virtual machine.";
+        String errMsgForPMNullCheck = "Retrieving all port forwarding rules failure: There was made an attempt to retrieve all port forwarding rules of virtual machine " + virtualMachine + " on a null physical machine.";
+        String errMsgForVMIdCheck = "Retrieving all port forwarding rules failure: Virtual machine " + virtualMachine + " has a null or an empty id.";
+        String errMsgForVMNameCheck = "Retrieving all port forwarding rules failure: Virtual machine " + virtualMachine + " has a null or an empty name.";
+        String errMsgForNotConnectedPM = "Connection failure while trying to retrieve all port forwarding rules of virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + ": There cannot be retrieved any port forwarding rule of this virtual machine on this physical machine now, because this physical machine is not connected.";
+        String errMsgForPMConError = "Connection failure while trying to retrieve all port forwarding rules of virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + ": ";
+        NativeVBoxAPIConnection natapiCon = NativeVBoxAPIConnection.getInstance();
+        
+        checkVMIsNotNull(virtualMachine, errMsgForVMNullCheck);
+        checkPMIsNotNull(virtualMachine.getHostMachine(), errMsgForPMNullCheck);
+        checkVMIdIsNotNullNorEmpty(virtualMachine.getId(), errMsgForVMIdCheck);
+        checkVMNameIsNotNullNorEmpty(virtualMachine.getName(), errMsgForVMNameCheck);
+        checkPMIsConnected(virtualMachine.getHostMachine(), errMsgForNotConnectedPM);
+        
+        VirtualBoxManager vbm = natapiCon.getVirtualBoxManager(virtualMachine.getHostMachine(), errMsgForPMConError);
+        try{
+            return readPortRules(vbm.getVBox(), virtualMachine);
+        }finally{
+            vbm.disconnect();
+            vbm.cleanup();
+        }
+    }
+    
+    //reads the rules within an already open connection, so that more reads can share one connection
+    List<PortRule> readPortRules(IVirtualBox vbox, VirtualMachine virtualMachine) throws UnknownVirtualMachineException{
+        String errMsgForUnknownVM = "Retrieving all port forwarding rules failure: There is no virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " known to VirtualBox.";
+        IMachine vboxMachine = null;
+        
+        try{
+            vboxMachine = vbox.findMachine(virtualMachine.getId().toString());
+        }catch(VBoxException ex){
+            throw new UnknownVirtualMachineException(errMsgForUnknownVM);
+        }
+        
+        //rules of all NAT network adapters are fetched within one connection
+        List<PortRule> portRules = new ArrayList<>();
+        for(long slot : getNATAdapterSlots(vbox, vboxMachine)){
+            INATEngine natEngine = vboxMachine.getNetworkAdapter(slot).getNATEngine();
+            portRules.addAll(PortRuleTableCache.getInstance().getPortRules(virtualMachine.getId().toString(), slot,
+                                                                           natEngine.getRedirects()));
+        }
+        PortRuleIndex.getInstance().update(virtualMachine, portRules);
+        
+        return portRules;
+    }
+    
+    public String getVMState(VirtualMachine virtualMachine) throws ConnectionFailureException, InterruptedException,
+            IncompatibleVirtToolAPIVersionException, UnknownVirtualMachineException, UnexpectedVMStateException{
+        String errMsgForVMNullCheck = "Retrieving virtual machine state failure: There was made an attempt to retrieve state of a null virtual machine.";
+        String errMsgForPMNullCheck = "Retrieving virtual machine state failure: There was made an attempt to retrieve state of virtual machine " + virtualMachine + " on a null physical machine.";
+        String errMsgForVMIdCheck = "Retrieving virtual machine state failure: Virtual machine " + virtualMachine + " has a null or an empty id.";
+        String errMsgForVMNameCheck = "Retrieving virtual machine state failure: Virtual machine " + virtualMachine + " has a null or an empty name.";
+        String errMsgForNotConnectedPM = "Connection failure while trying to retrieve state of virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + ": There cannot be retrieved state of this virtual machine on this physical machine now, because this physical machine is not connected.";
+        String errMsgForPMConError = "Connection failure while trying to retrieve state of virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + ": ";
+        NativeVBoxAPIConnection natapiCon = NativeVBoxAPIConnection.getInstance();
+        
+        checkVMIsNotNull(virtualMachine, errMsgForVMNullCheck);
+        checkPMIsNotNull(virtualMachine.getHostMachine(), errMsgForPMNullCheck);
+        checkVMIdIsNotNullNorEmpty(virtualMachine.getId(), errMsgForVMIdCheck);
+        checkVMNameIsNotNullNorEmpty(virtualMachine.getName(), errMsgForVMNameCheck);
+        checkPMIsConnected(virtualMachine.getHostMachine(), errMsgForNotConnectedPM);
+        
+        VirtualBoxManager vbm = natapiCon.getVirtualBoxManager(virtualMachine.getHostMachine(), errMsgForPMConError);
+        try{
+            return readVMState(vbm.getVBox(), virtualMachine);
+        }finally{
+            vbm.disconnect();
+            vbm.cleanup();
+        }
+    }
+    
+    //reads the state within an already open connection, so that more reads can share one connection
+    String readVMState(IVirtualBox vbox, VirtualMachine virtualMachine) throws UnknownVirtualMachineException,
+            UnexpectedVMStateException{
+        
+        String errMsgForUnknownVM = "Retrieving virtual machine state failure: There is no virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " known to VirtualBox.";
+        String errMsgForVMAccessCheck = "Retrieving state of virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " failure: ";
+        IMachine vboxMachine = null;
+        
+        try{
+            vboxMachine = vbox.findMachine(virtualMachine.getId().toString());
+        }catch(VBoxException ex){
+            throw new UnknownVirtualMachineException(errMsgForUnknownVM);
+        }
+        
+        if(!vboxMachine.getAccessible()){
+            throw new UnexpectedVMStateException(errMsgForVMAccessCheck + vboxMachine.getAccessError().getText());
+        }
+        
+        return vboxMachine.getState().name();
+    }
+    
+    private void checkVMIsNotNull(VirtualMachine vm, String errMsg){
+        if(vm == null){
+            throw new IllegalArgumentException(errMsg);
+        }
+    }
+    
+    private void checkPMIsNotNull(PhysicalMachine pm, String errMsg){
+        if(pm == null){
+            throw new IllegalArgumentException(errMsg);
+        }
+    }
+    
+    private void checkVMIdIsNotNullNorEmpty(UUID id, String errMsg){
+        if(id == null || id.toString().isEmpty()){
+            throw new IllegalArgumentException(errMsg);
+        }
+    }
+    
+    private void checkVMNameIsNotNullNorEmpty(String name, String errMsg){
+        if(name == null || name.isEmpty()){
+            throw new IllegalArgumentException(errMsg);
+        }
+    }
     
     private void checkPMIsConnected(PhysicalMachine pm, String errMsg) throws UnexpectedVMStateException{
         NativeVBoxAPIConnection natapiCon = NativeVBoxAPIConnection.getInstance();
@@ -432,20 +1556,646 @@ class NativeVBoxAPIMachine {
         }
     }
     
-    private void checkPortRuleValidity(VirtualMachine virtualMachine, PortRule portRule, IMachine vboxMachine) throws PortRuleDuplicityException{
+    private void checkTimeoutIsPositive(long timeout, String errMsg){
+        if(timeout <= 0L){
+            throw new IllegalArgumentException(errMsg);
+        }
+    }
+    
+    private boolean isRunningState(MachineState state){
+        switch(state){
+            case Running:
+            case Paused :
+            case Stuck  : return true;
+            default     : return false;
+        }
+    }
+    
+    //a boot slot is released as soon as the virtual machine is running, then the next one can be started
+    private List<OperationResult<VirtualMachine>> startHostVMs(List<VirtualMachine> vms, LaunchOptions options,
+            int maxParallelStarts, long startInterval, ProgressMonitor monitor) throws InterruptedException{
+        
+        AsyncOperationExecutor executor = AsyncOperationExecutor.getInstance();
+        Semaphore bootSlots = new Semaphore(maxParallelStarts);
+        List<VirtualMachine> startedVMs = new ArrayList<>();
+        List<Future<OperationResult<VirtualMachine>>> futures = new ArrayList<>();
+        List<OperationResult<VirtualMachine>> results = new ArrayList<>();
+        long lastStart = 0L;
+        
+        try{
+            for(VirtualMachine vm : vms){
+                bootSlots.acquire();
+                if(monitor.isDeadlineExceeded()){
+                    bootSlots.release();
+                    results.add(new OperationResult<>(vm, false, "Starting virtual machine " + vm + " failure: Operation has not been finished before its deadline.", 0L));
+                    continue;
+                }
+                long wait = lastStart + startInterval - System.currentTimeMillis();
+                if(wait > 0L){
+                    Thread.sleep(wait);
+                }
+                lastStart = System.currentTimeMillis();
+                startedVMs.add(vm);
+                futures.add(executor.submit(() -> {
+                    try{
+                        return tryStartVM(vm, options, monitor);
+                    }finally{
+                        bootSlots.release();
+                    }
+                }));
+            }
+            
+            for(int i = 0; i < futures.size(); ++i){
+                try{
+                    results.add(futures.get(i).get());
+                }catch(ExecutionException ex){
+                    results.add(new OperationResult<>(startedVMs.get(i), false, "Starting virtual machine " + startedVMs.get(i) + " failure: " + ex.getCause().getMessage(), 0L));
+                }
+            }
+        }catch(InterruptedException ex){
+            for(Future<OperationResult<VirtualMachine>> future : futures){
+                future.cancel(true);
+            }
+            throw ex;
+        }
+        
+        return results;
+    }
+    
+    private OperationResult<VirtualMachine> tryStartVM(VirtualMachine vm, LaunchOptions options, ProgressMonitor monitor)
+            throws InterruptedException{
+        
+        long start = System.currentTimeMillis();
+        try{
+            startVM(vm, options, monitor);
+            return new OperationResult<>(vm, true, "", System.currentTimeMillis() - start);
+        }catch(ConnectionFailureException | IncompatibleVirtToolAPIVersionException | UnknownVirtualMachineException
+                | UnexpectedVMStateException | OperationTimeoutException | IllegalArgumentException ex){
+            
+            return new OperationResult<>(vm, false, ex.getMessage(), System.currentTimeMillis() - start);
+        }
+    }
+    
+    //takes virtual machines from the queue shared with the other workers of the same physical machine
+    //until it is empty, all of them are powered off through one connection
+    private List<OperationResult<VirtualMachine>> shutDownQueuedVMs(PhysicalMachine physicalMachine, Queue<VirtualMachine> queue,
+            ProgressMonitor monitor) throws InterruptedException{
+        
+        String errMsgForPMConError = "Connection failure while trying to shut down virtual machines on physical machine " + physicalMachine + ": ";
+        NativeVBoxAPIConnection natapiCon = NativeVBoxAPIConnection.getInstance();
+        List<OperationResult<VirtualMachine>> results = new ArrayList<>();
+        VirtualMachine vm;
+        
+        VirtualBoxManager vbm;
+        try{
+            vbm = natapiCon.getVirtualBoxManager(physicalMachine, errMsgForPMConError);
+        }catch(ConnectionFailureException | IncompatibleVirtToolAPIVersionException ex){
+            while((vm = queue.poll()) != null){
+                results.add(new OperationResult<>(vm, false, ex.getMessage(), 0L));
+            }
+            return results;
+        }
+        
+        try{
+            while((vm = queue.poll()) != null){
+                if(Thread.currentThread().isInterrupted()){
+                    throw new InterruptedException("Shutdown virtual machines failure: Operation has been cancelled.");
+                }
+                if(monitor.isDeadlineExceeded()){
+                    results.add(new OperationResult<>(vm, false, "Shutdown virtual machine " + vm + " failure: Operation has not been finished before its deadline.", 0L));
+                    continue;
+                }
+                long start = System.currentTimeMillis();
+                try{
+                    results.add(powerDownVM(vm, vbm, monitor));
+                }catch(RuntimeException ex){
+                    results.add(new OperationResult<>(vm, false, "Shutdown virtual machine " + vm + " failure: " + ex.getMessage(),
+                                                      System.currentTimeMillis() - start));
+                }
+            }
+        }finally{
+            vbm.disconnect();
+            vbm.cleanup();
+        }
+        
+        return results;
+    }
+    
+    private OperationResult<VirtualMachine> powerDownVM(VirtualMachine vm, VirtualBoxManager vbm, ProgressMonitor monitor)
+            throws InterruptedException{
+        
+        String errMsgForVMAccessCheck = "Shutdown virtual machine " + vm + " on physical machine " + vm.getHostMachine() + " failure: ";
+        String errMsgForVMStateCheck = "Shutdown virtual machine failure: Virtual machine " + vm + " on physical machine " + vm.getHostMachine() + " cannot be shut down, because virtual machine is already powered off.";
+        long start = System.currentTimeMillis();
+        ISession session = vbm.getSessionObject();
+        
+        try{
+            IMachine vboxMachine = vbm.getVBox().findMachine(vm.getId().toString());
+            if(!isRunningState(vboxMachine.getState())){
+                return new OperationResult<>(vm, false, errMsgForVMStateCheck, System.currentTimeMillis() - start);
+            }
+            vboxMachine.lockMachine(session, LockType.Shared);
+            IProgress progress = session.getConsole().powerDown();
+            monitor.waitForCompletion(progress, "Shutting down virtual machine " + vm);
+            checkProgressResult(progress, errMsgForVMAccessCheck);
+            long duration = System.currentTimeMillis() - start;
+            OperationLatencyStats.getInstance().record(vm.getHostMachine(), OperationType.SHUT_DOWN, duration);
+            
+            return new OperationResult<>(vm, true, "", duration);
+        }catch(VBoxException ex){
+            return new OperationResult<>(vm, false, errMsgForVMAccessCheck + ex.getMessage(), System.currentTimeMillis() - start);
+        }catch(UnexpectedVMStateException | OperationTimeoutException ex){
+            return new OperationResult<>(vm, false, ex.getMessage(), System.currentTimeMillis() - start);
+        }finally{
+            if(session.getState() == SessionState.Locked){
+                session.unlockMachine();
+            }
+            //session of the connection is reused for the next virtual machine, if it is not unlocked before
+            //the deadline, the next virtual machine fails to be locked and its failure is reported
+            waitForSessionUnlock(session, monitor);
+        }
+    }
+    
+    private OperationResult<VirtualMachine> tryShutDownVMGracefully(VirtualMachine vm, long acpiTimeout, ProgressMonitor monitor)
+            throws InterruptedException{
+        
+        long start = System.currentTimeMillis();
+        try{
+            boolean graceful = shutDownVMGracefully(vm, acpiTimeout, monitor);
+            String message = (graceful ? "" : "Virtual machine " + vm + " has not been shut down by its guest in time and has been powered off");
+            return new OperationResult<>(vm, true, message, System.currentTimeMillis() - start);
+        }catch(ConnectionFailureException | IncompatibleVirtToolAPIVersionException | UnknownVirtualMachineException
+                | UnexpectedVMStateException | OperationTimeoutException | IllegalArgumentException ex){
+            
+            return new OperationResult<>(vm, false, ex.getMessage(), System.currentTimeMillis() - start);
+        }
+    }
+    
+    //returns false if the guest has not powered itself off before acpiTimeout or the deadline of monitor
+    private boolean waitForACPIShutdown(VirtualMachine virtualMachine, IMachine vboxMachine, IConsole console,
+            IEventSource eventSource, IEventListener listener, long acpiTimeout, ProgressMonitor monitor)
+            throws InterruptedException{
+        
+        try{
+            console.powerButton();
+        }catch(VBoxException ex){
+            //guest does not support ACPI or it is not ready to handle the event yet
+            return false;
+        }
+        
+        long start = System.currentTimeMillis();
+        long deadline = (Long.MAX_VALUE - start < acpiTimeout ? Long.MAX_VALUE : start + acpiTimeout);
+        while(vboxMachine.getState() != MachineState.PoweredOff){
+            if(Thread.currentThread().isInterrupted()){
+                throw new InterruptedException("Shutting down virtual machine " + virtualMachine + " failure: Operation has been cancelled.");
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if(remaining <= 0L || monitor.isDeadlineExceeded()){
+                return false;
+            }
+            IEvent event = eventSource.getEvent(listener, (int)Math.min(remaining, 200L));
+            if(event != null){
+                eventSource.eventProcessed(listener, event);
+            }
+        }
+        
+        return true;
+    }
+    
+    private void checkVMStateIsValidForSaving(MachineState state, String errMsg) throws UnexpectedVMStateException{
+        switch(state){
+            case Running:
+            case Paused : break;
+            default     : throw new UnexpectedVMStateException(errMsg);
+        }
+    }
+    
+    private void checkVMStateIsValidForSnapshot(MachineState state, String errMsg) throws UnexpectedVMStateException{
+        switch(state){
+            case PoweredOff:
+            case Saved     :
+            case Aborted   :
+            case Teleported:
+            case Running   :
+            case Paused    : break;
+            default        : throw new UnexpectedVMStateException(errMsg);
+        }
+    }
+    
+    private void checkVMStateIsValidForRestoring(MachineState state, String errMsg) throws UnexpectedVMStateException{
+        switch(state){
+            case PoweredOff:
+            case Saved     :
+            case Aborted   :
+            case Teleported: break;
+            default        : throw new UnexpectedVMStateException(errMsg);
+        }
+    }
+    
+    private void checkSnapshotNameIsNotNullNorEmpty(String name, String errMsg){
+        if(name == null || name.isEmpty()){
+            throw new IllegalArgumentException(errMsg);
+        }
+    }
+    
+    private void checkSnapshotIsNotNull(Snapshot snapshot, String errMsg){
+        if(snapshot == null){
+            throw new IllegalArgumentException(errMsg);
+        }
+    }
+    
+    private void checkLaunchOptionsAreNotNull(LaunchOptions options, String errMsg){
+        if(options == null){
+            throw new IllegalArgumentException(errMsg);
+        }
+    }
+    
+    private String getFrontendName(LaunchMode mode){
+        switch(mode){
+            case HEADLESS : return "headless";
+            case SDL      : return "sdl";
+            default       : return "gui";
+        }
+    }
+    
+    //environment is passed to the launched process as "NAME=VALUE" lines
+    private String getEnvironmentString(Map<String, String> environment){
+        StringBuilder sb = new StringBuilder();
+        for(Map.Entry<String, String> variable : environment.entrySet()){
+            if(sb.length() > 0){
+                sb.append('\n');
+            }
+            sb.append(variable.getKey()).append('=').append(variable.getValue());
+        }
+        
+        return sb.toString();
+    }
+    
+    //VRDE server is a part of machine settings, so it has to be changed before the machine process is launched
+    private void applyVRDESetting(VirtualMachine virtualMachine, IMachine vboxMachine, ISession session, Boolean vrdeEnabled,
+            ProgressMonitor monitor) throws InterruptedException, OperationTimeoutException{
+        
+        if(vrdeEnabled == null || vboxMachine.getVRDEServer().getEnabled() == vrdeEnabled){
+            return;
+        }
+        
+        vboxMachine.lockMachine(session, LockType.Write);
+        try{
+            IMachine mutableMachine = session.getMachine();
+            mutableMachine.getVRDEServer().setEnabled(vrdeEnabled);
+            mutableMachine.saveSettings();
+        }finally{
+            session.unlockMachine();
+        }
+        if(!waitForSessionUnlock(session, monitor)){
+            throw new OperationTimeoutException("Changing remote display setting of virtual machine " + virtualMachine + " failure: Operation has not been finished before its deadline.");
+        }
+    }
+    
+    //state of virtual machine changes to running a while after its launch is finished, unless the launch has failed
+    private void waitForRunningState(VirtualMachine virtualMachine, IMachine vboxMachine, ProgressMonitor monitor,
+            String errMsg) throws InterruptedException, OperationTimeoutException, UnexpectedVMStateException{
+        
+        MachineState state;
+        while((state = vboxMachine.getState()) != MachineState.Running){
+            if(state == MachineState.PoweredOff || state == MachineState.Aborted){
+                throw new UnexpectedVMStateException(errMsg + "Virtual machine has not been started, its state is " + state + ".");
+            }
+            if(monitor.isDeadlineExceeded()){
+                throw new OperationTimeoutException("Starting virtual machine " + virtualMachine + " failure: Operation has not been finished before its deadline.");
+            }
+            Thread.sleep(STATE_POLL_INTERVAL);
+        }
+    }
+    
+    //state of virtual machine changes to powered off a while after its power down is finished
+    private void waitForPoweredOffState(VirtualMachine virtualMachine, IMachine vboxMachine, ProgressMonitor monitor)
+            throws InterruptedException, OperationTimeoutException{
+        
+        while(vboxMachine.getState() != MachineState.PoweredOff){
+            if(monitor.isDeadlineExceeded()){
+                throw new OperationTimeoutException("Shutting down virtual machine " + virtualMachine + " failure: Operation has not been finished before its deadline.");
+            }
+            Thread.sleep(STATE_POLL_INTERVAL);
+        }
+    }
+    
+    //session is unlocked a while after unlockMachine returns, returns false if the deadline of monitor is exceeded first
+    private boolean waitForSessionUnlock(ISession session, ProgressMonitor monitor) throws InterruptedException{
+        while(session.getState() != SessionState.Unlocked){
+            if(monitor.isDeadlineExceeded()){
+                return false;
+            }
+            Thread.sleep(STATE_POLL_INTERVAL);
+        }
+        return true;
+    }
+    
+    private void checkProgressResult(IProgress progress, String errMsg) throws UnexpectedVMStateException{
+        if(progress.getResultCode() != 0){
+            throw new UnexpectedVMStateException(errMsg + progress.getErrorInfo().getText());
+        }
+    }
+    
+    //running machine can be controlled only through a shared lock, the others have to be locked exclusively
+    private LockType getLockTypeFor(MachineState state){
+        switch(state){
+            case Running:
+            case Paused :
+            case Stuck  : return LockType.Shared;
+            default     : return LockType.Write;
+        }
+    }
+    
+    private Snapshot vboxSnapshotToSnapshot(ISnapshot vboxSnapshot, boolean current){
+        ISnapshot parent = vboxSnapshot.getParent();
+        
+        return new Snapshot(UUID.fromString(vboxSnapshot.getId()), vboxSnapshot.getName(), vboxSnapshot.getDescription(),
+                            vboxSnapshot.getTimeStamp(), (parent == null ? null : UUID.fromString(parent.getId())), current);
+    }
+    
+    //locks the virtual machine, lets the edit work with NAT engines of all its NAT network adapters and saves the settings
+    private List<OperationResult<PortRule>> editPortRules(VirtualMachine virtualMachine, String operation, PortRuleEdit edit)
+            throws ConnectionFailureException, InterruptedException, IncompatibleVirtToolAPIVersionException,
+            UnknownVirtualMachineException, UnexpectedVMStateException{
+        
+        String errMsgForVMNullCheck = operation + " failure: There was made an attempt to edit port forwarding rules of a null virtual machine.";
+        String errMsgForPMNullCheck = operation + " failure: There was made an attempt to edit port forwarding rules of virtual machine " + virtualMachine + " on a null physical machine.";
+        String errMsgForVMIdCheck = operation + " failure: Virtual machine " + virtualMachine + " has a null or an empty id.";
+        String errMsgForVMNameCheck = operation + " failure: Virtual machine " + virtualMachine + " has a null or an empty name.";
+        String errMsgForNotConnectedPM = "Connection failure while trying to edit port forwarding rules of virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + ": There cannot be edited any port forwarding rule of this virtual machine on this physical machine now, because this physical machine is not connected.";
+        String errMsgForPMConError = "Connection failure while trying to edit port forwarding rules of virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + ": ";
+        String errMsgForUnknownVM = operation + " failure: There is no virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " known to VirtualBox.";
+        String errMsgForAdapterCheck = operation + " failure: There cannot be edited any port forwarding rule of virtual machine " + virtualMachine + ", because none of its network adapters is attached to NAT.";
+        String errMsgForVMAccessCheck = operation + " of virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " failure: ";
+        NativeVBoxAPIConnection natapiCon = NativeVBoxAPIConnection.getInstance();
+        
+        checkVMIsNotNull(virtualMachine, errMsgForVMNullCheck);
+        checkPMIsNotNull(virtualMachine.getHostMachine(), errMsgForPMNullCheck);
+        checkVMIdIsNotNullNorEmpty(virtualMachine.getId(), errMsgForVMIdCheck);
+        checkVMNameIsNotNullNorEmpty(virtualMachine.getName(), errMsgForVMNameCheck);
+        checkPMIsConnected(virtualMachine.getHostMachine(), errMsgForNotConnectedPM);
+        
+        VirtualBoxManager vbm = natapiCon.getVirtualBoxManager(virtualMachine.getHostMachine(), errMsgForPMConError);
+        IVirtualBox vbox = vbm.getVBox();
+        IMachine vboxMachine = null;
+        try{
+            vboxMachine = vbox.findMachine(virtualMachine.getId().toString());
+        }catch(VBoxException ex){
+            vbm.disconnect();
+            vbm.cleanup();
+            throw new UnknownVirtualMachineException(errMsgForUnknownVM);
+        }
+        
+        ISession session = vbm.getSessionObject();
+        HostPortAllocator allocator = HostPortAllocatorRegistry.getInstance().getAllocator(virtualMachine.getHostMachine(), vbox);
+        IMachine mutableMachine = null;
+        Map<Long, INATEngine> natEngines = new HashMap<>();
+        Map<Long, List<String>> previousRedirects = new HashMap<>();
+        try{
+            vboxMachine.lockMachine(session, getLockTypeFor(vboxMachine.getState()));
+            mutableMachine = session.getMachine();
+            List<Long> slots = getNATAdapterSlots(vbox, mutableMachine);
+            if(slots.isEmpty()){
+                throw new UnexpectedVMStateException(errMsgForAdapterCheck);
+            }
+            Map<Long, List<String>> redirects = new HashMap<>();
+            for(long slot : slots){
+                INATEngine natEngine = mutableMachine.getNetworkAdapter(slot).getNATEngine();
+                natEngines.put(slot, natEngine);
+                previousRedirects.put(slot, natEngine.getRedirects());
+                redirects.put(slot, new ArrayList<>(previousRedirects.get(slot)));
+            }
+            List<OperationResult<PortRule>> results = edit.apply(natEngines, redirects, allocator);
+            mutableMachine.saveSettings();
+            
+            List<PortRule> portRules = new ArrayList<>();
+            for(Map.Entry<Long, INATEngine> entry : natEngines.entrySet()){
+                portRules.addAll(PortRuleTableCache.getInstance().getPortRules(virtualMachine.getId().toString(), entry.getKey(),
+                                                                               entry.getValue().getRedirects()));
+            }
+            PortRuleIndex.getInstance().update(virtualMachine, portRules);
+            
+            return results;
+        }catch(VBoxException ex){
+            String errMsg = errMsgForVMAccessCheck + ex.getMessage();
+            if(!previousRedirects.isEmpty()){
+                try{
+                    rollBackPortRuleEdit(virtualMachine.getId().toString(), mutableMachine, natEngines, previousRedirects, allocator);
+                }catch(VBoxException rex){
+                    errMsg += " Restoring previous port forwarding rules failure: " + rex.getMessage();
+                }
+            }
+            throw new UnexpectedVMStateException(errMsg);
+        }finally{
+            if(session.getState() == SessionState.Locked){
+                session.unlockMachine();
+            }
+            vbm.disconnect();
+            vbm.cleanup();
+        }
+    }
+    
+    //the edit is not left half done, the redirect tables are put back as they were before and the changes are discarded
+    void rollBackPortRuleEdit(String machineId, IMachine mutableMachine, Map<Long, INATEngine> natEngines,
+            Map<Long, List<String>> previousRedirects, HostPortAllocator allocator){
+        
+        restoreRedirects(machineId, natEngines, previousRedirects, allocator);
+        mutableMachine.discardSettings();
+    }
+    
+    private void restoreRedirects(String machineId, Map<Long, INATEngine> natEngines, Map<Long, List<String>> previousRedirects, HostPortAllocator allocator){
+        //all the current rules are removed first, so host ports of rules moved between adapters can be bound again
+        for(long slot : previousRedirects.keySet()){
+            INATEngine natEngine = natEngines.get(slot);
+            for(String redirect : natEngine.getRedirects()){
+                natEngine.removeRedirect(NATRedirectParser.parseName(redirect));
+                allocator.release(machineId, NATRedirectParser.parseHostPort(redirect));
+            }
+        }
+        for(Map.Entry<Long, List<String>> entry : previousRedirects.entrySet()){
+            INATEngine natEngine = natEngines.get(entry.getKey());
+            for(String redirect : entry.getValue()){
+                PortRule portRule = NATRedirectParser.parse(redirect);
+                NATProtocol natp = (portRule.getProtocol() == ProtocolType.TCP ? NATProtocol.TCP : NATProtocol.UDP);
+                natEngine.addRedirect(portRule.getName(), natp, portRule.getHostIP(), portRule.getHostPort(),
+                                      portRule.getGuestIP(), portRule.getGuestPort());
+                allocator.retain(machineId, portRule.getHostPort());
+            }
+        }
+    }
+    
+    //rules which are not changed are kept, obsolete and changed ones are removed and new and changed ones are added,
+    //when any rule cannot be used nothing is changed
+    List<OperationResult<PortRule>> applyPortRuleDiff(VirtualMachine virtualMachine, Map<Long, INATEngine> natEngines,
+            Map<Long, List<String>> redirects, HostPortAllocator allocator, Map<Long, Map<String, PortRule>> wantedRules){
+        
+        List<OperationResult<PortRule>> results = new ArrayList<>();
+        for(Map.Entry<Long, Map<String, PortRule>> entry : wantedRules.entrySet()){
+            if(!natEngines.containsKey(entry.getKey())){
+                for(PortRule wantedRule : entry.getValue().values()){
+                    results.add(new OperationResult<>(wantedRule, false, getErrMsgForAdapterSlot(virtualMachine, wantedRule), 0L));
+                }
+            }
+        }
+        
+        List<PortRule> obsoleteRules = new ArrayList<>();
+        Set<Integer> releasedHostPorts = new HashSet<>();
+        Map<Long, Map<String, PortRule>> actualRules = new HashMap<>();
+        for(Map.Entry<Long, List<String>> entry : redirects.entrySet()){
+            Map<String, PortRule> slotActualRules = new HashMap<>();
+            Map<String, PortRule> slotWantedRules = wantedRules.getOrDefault(entry.getKey(), Collections.<String, PortRule>emptyMap());
+            for(String redirect : entry.getValue()){
+                PortRule actualRule = NATRedirectParser.parse(redirect, entry.getKey());
+                slotActualRules.put(actualRule.getName(), actualRule);
+                PortRule wantedRule = slotWantedRules.get(actualRule.getName());
+                if(wantedRule == null || !isSamePortRule(wantedRule, actualRule)){
+                    obsoleteRules.add(actualRule);
+                    releasedHostPorts.add(actualRule.getHostPort());
+                }
+            }
+            actualRules.put(entry.getKey(), slotActualRules);
+        }
+        List<PortRule> newRules = new ArrayList<>();
+        for(Map.Entry<Long, Map<String, PortRule>> entry : actualRules.entrySet()){
+            for(PortRule wantedRule : wantedRules.getOrDefault(entry.getKey(), Collections.<String, PortRule>emptyMap()).values()){
+                PortRule actualRule = entry.getValue().get(wantedRule.getName());
+                if(actualRule == null || !isSamePortRule(wantedRule, actualRule)){
+                    newRules.add(wantedRule);
+                    if(!releasedHostPorts.contains(wantedRule.getHostPort()) && !allocator.isFree(wantedRule.getHostPort())){
+                        results.add(new OperationResult<>(wantedRule, false, getErrMsgForHostPortBinding(virtualMachine, wantedRule), 0L));
+                    }
+                }
+            }
+        }
+        if(!results.isEmpty()){
+            return results;
+        }
+        
+        for(PortRule obsoleteRule : obsoleteRules){
+            long start = System.currentTimeMillis();
+            natEngines.get(obsoleteRule.getAdapterSlot()).removeRedirect(obsoleteRule.getName());
+            allocator.release(virtualMachine.getId().toString(), obsoleteRule.getHostPort());
+            results.add(new OperationResult<>(obsoleteRule, true, "", System.currentTimeMillis() - start));
+        }
+        for(PortRule newRule : newRules){
+            long start = System.currentTimeMillis();
+            //host port could have been taken by another virtual machine meanwhile
+            if(!allocator.bind(virtualMachine.getId().toString(), newRule.getHostPort())){
+                restoreRedirects(virtualMachine.getId().toString(), natEngines, redirects, allocator);
+                List<OperationResult<PortRule>> failure = new ArrayList<>();
+                failure.add(new OperationResult<>(newRule, false, getErrMsgForHostPortBinding(virtualMachine, newRule), 0L));
+                return failure;
+            }
+            NATProtocol natp = (newRule.getProtocol() == ProtocolType.TCP ? NATProtocol.TCP : NATProtocol.UDP);
+            try{
+                natEngines.get(newRule.getAdapterSlot()).addRedirect(newRule.getName(), natp, newRule.getHostIP(), newRule.getHostPort(),
+                                                                     newRule.getGuestIP(), newRule.getGuestPort());
+            }catch(VBoxException ex){
+                //the rule is not in the redirect table, so the rollback would not release its port
+                allocator.release(virtualMachine.getId().toString(), newRule.getHostPort());
+                throw ex;
+            }
+            results.add(new OperationResult<>(newRule, true, "", System.currentTimeMillis() - start));
+        }
+        
+        return results;
+    }
+    
+    private boolean isSamePortRule(PortRule first, PortRule second){
+        return first.getName().equals(second.getName()) && first.getProtocol() == second.getProtocol() &&
+               first.getHostIP().equals(second.getHostIP()) && first.getHostPort() == second.getHostPort() &&
+               first.getGuestIP().equals(second.getGuestIP()) && first.getGuestPort() == second.getGuestPort();
+    }
+    
+    //redirects hold the actual redirect tables, so every added rule is checked also against the previous ones
+    private List<OperationResult<PortRule>> addRedirects(VirtualMachine virtualMachine, Map<Long, INATEngine> natEngines,
+            Map<Long, List<String>> redirects, HostPortAllocator allocator, Collection<PortRule> portRules){
+        
+        List<OperationResult<PortRule>> results = new ArrayList<>();
+        
+        for(PortRule portRule : portRules){
+            long start = System.currentTimeMillis();
+            List<String> slotRedirects = (portRule == null ? null : redirects.get(portRule.getAdapterSlot()));
+            if(portRule != null && slotRedirects == null){
+                results.add(new OperationResult<>(portRule, false, getErrMsgForAdapterSlot(virtualMachine, portRule), 0L));
+                continue;
+            }
+            try{
+                checkPortRuleValidity(virtualMachine, portRule, slotRedirects);
+            }catch(IllegalArgumentException | PortRuleDuplicityException ex){
+                results.add(new OperationResult<>(portRule, false, ex.getMessage(), 0L));
+                continue;
+            }
+            
+            if(!allocator.bind(virtualMachine.getId().toString(), portRule.getHostPort())){
+                results.add(new OperationResult<>(portRule, false, getErrMsgForHostPortBinding(virtualMachine, portRule), 0L));
+                continue;
+            }
+            
+            NATProtocol natp = (portRule.getProtocol() == ProtocolType.TCP ? NATProtocol.TCP : NATProtocol.UDP);
+            String hostIP = (portRule.getHostIP() == null ? "" : portRule.getHostIP());
+            String guestIP = (portRule.getGuestIP() == null ? "" : portRule.getGuestIP());
+            try{
+                natEngines.get(portRule.getAdapterSlot()).addRedirect(portRule.getName(), natp, hostIP, portRule.getHostPort(),
+                                                                      guestIP, portRule.getGuestPort());
+            }catch(VBoxException ex){
+                allocator.release(virtualMachine.getId().toString(), portRule.getHostPort());
+                results.add(new OperationResult<>(portRule, false, "Creating new port forwarding rule " + portRule + " failure: " + ex.getMessage(), System.currentTimeMillis() - start));
+                continue;
+            }
+            slotRedirects.add(NATRedirectParser.format(portRule));
+            results.add(new OperationResult<>(portRule, true, "", System.currentTimeMillis() - start));
+        }
+        
+        return results;
+    }
+    
+    private String getErrMsgForAdapterSlot(VirtualMachine virtualMachine, PortRule portRule){
+        return "Editing port forwarding rule failure: Network adapter in slot " + portRule.getAdapterSlot() + " of virtual machine " + virtualMachine + " is not enabled or not attached to NAT, so port forwarding rule " + portRule + " cannot be used on it.";
+    }
+    
+    //slots of enabled network adapters attached to NAT
+    static List<Long> getNATAdapterSlots(IVirtualBox vbox, IMachine vboxMachine){
+        List<Long> slots = new ArrayList<>();
+        long adapterCount = vbox.getSystemProperties().getMaxNetworkAdapters(vboxMachine.getChipsetType());
+        
+        for(long slot = 0L; slot < adapterCount; ++slot){
+            INetworkAdapter adapter = vboxMachine.getNetworkAdapter(slot);
+            if(adapter.getEnabled() && adapter.getAttachmentType() == NetworkAttachmentType.NAT){
+                slots.add(slot);
+            }
+        }
+        
+        return slots;
+    }
+    
+    private String getErrMsgForHostPortBinding(VirtualMachine virtualMachine, PortRule portRule){
+        return "Creating new port forwarding rule failure: Host port number = " + portRule.getHostPort() + " of port forwarding rule " + portRule + " is already used by another virtual machine on physical machine " + virtualMachine.getHostMachine() + ".";
+    }
+    
+    private void checkPortRuleValidity(VirtualMachine virtualMachine, PortRule portRule, List<String> redirects) throws PortRuleDuplicityException{
         String errMsgForPRNullCheck = "Creating new port forwarding rule failure: There was made an attempt to create a null port forwarding rule for virtual machine " + virtualMachine + ".";
         String errMsgForPRNameCheck = "Creating new port forwarding rule failure: Name of port rule " + portRule + " is null or empty.";
         String errMsgForPRHostPortCheck = "Creating new port forwarding rule failure: Host port number of new port forwarding rule " + portRule + " is negative or too big. Host port number can be from the range 0-65535.";
         String errMsgForPRGuestPortCheck = "Creating new port forwarding rule failure: Guest port number of new port forwarding rule " + portRule + " is negative or too big. Guest port number can be from the range 0-65535.";
+        
+        checkPortRuleIsNotNull(portRule,errMsgForPRNullCheck);
+        
         String errMsgForPRNameDuplicityCheck = "Crating new port forwarding rule failure: There already exists port forwarding rule with name = " + portRule.getName() + " on virtual machine " + virtualMachine + ".";
         String errMsgForPRHPDuplicityCheck = "Creating new port forwarding rule failure: There already exists port forwarding rule using host port number = " + portRule.getHostPort() + " on virtual machine " + virtualMachine + ".";
         
-        checkPortRuleIsNotNull(portRule,errMsgForPRNullCheck);
         checkPortRuleNameIsNotNullNorEmpty(portRule.getName(),errMsgForPRNameCheck);
         checkPortRuleHostOrGuestPortIsValid(portRule.getHostPort(),errMsgForPRHostPortCheck);
         checkPortRuleHostOrGuestPortIsValid(portRule.getGuestPort(),errMsgForPRGuestPortCheck);
-        checkPortRuleNameDuplicity(vboxMachine, portRule.getName(),errMsgForPRNameDuplicityCheck);
-        checkPortRuleHostPortDuplicity(vboxMachine, portRule.getHostPort(),errMsgForPRHPDuplicityCheck);
+        checkPortRuleNameDuplicity(redirects, portRule.getName(),errMsgForPRNameDuplicityCheck);
+        checkPortRuleHostPortDuplicity(redirects, portRule.getHostPort(),errMsgForPRHPDuplicityCheck);
+    }
+    
+    private void checkAdapterSlotIsValid(IVirtualBox vbox, IMachine vboxMachine, long adapterSlot, String errMsg){
+        if(adapterSlot < 0 || adapterSlot >= vbox.getSystemProperties().getMaxNetworkAdapters(vboxMachine.getChipsetType())){
+            throw new IllegalArgumentException(errMsg);
+        }
     }
     
     private void checkPortRuleIsNotNull(PortRule portRule, String errMsg){
@@ -466,43 +2216,19 @@ class NativeVBoxAPIMachine {
         }
     }
     
-    private void checkPortRuleNameDuplicity(IMachine vboxMachine, String name, String errMsg) throws PortRuleDuplicityException{
-        INetworkAdapter adapter = vboxMachine.getNetworkAdapter(0L);
-        INATEngine natEngine = adapter.getNATEngine();
-        List<String> redirects = natEngine.getRedirects();
-        
+    private void checkPortRuleNameDuplicity(List<String> redirects, String name, String errMsg) throws PortRuleDuplicityException{
         for(String redirect : redirects){
-            String[] parts = redirect.split(",");
-            if(parts[0].equals(name)){
+            if(NATRedirectParser.hasName(redirect, name)){
                 throw new PortRuleDuplicityException(errMsg);
             }
         }
     }
     
-    private void checkPortRuleHostPortDuplicity(IMachine vboxMachine, int port, String errMsg) throws PortRuleDuplicityException{
-        INetworkAdapter adapter = vboxMachine.getNetworkAdapter(0L);
-        INATEngine natEngine = adapter.getNATEngine();
-        List<String> redirects = natEngine.getRedirects();
-        
+    private void checkPortRuleHostPortDuplicity(List<String> redirects, int port, String errMsg) throws PortRuleDuplicityException{
         for(String redirect : redirects){
-            String[] parts = redirect.split(",");
-            int redHostPort = Integer.parseInt(parts[3]);
-            if(redHostPort == port){
+            if(NATRedirectParser.parseHostPort(redirect) == port){
                 throw new PortRuleDuplicityException(errMsg);
             }
         }
     }
-    
-    private PortRule redirectToPortRule(String redirect){
-        String parts[] = redirect.split(",");
-        String name = parts[0];
-        ProtocolType protocol = ProtocolType.valueOf(parts[1]);
-        String hostIP = parts[2];
-        int hostPort = Integer.parseInt(parts[3]);
-        String guestIP = parts[4];
-        int guestPort = Integer.parseInt(parts[5]);
-        
-        return new PortRule.Builder(name, hostPort, guestPort).protocol(protocol)
-                           .hostIP(hostIP).guestIP(guestIP).build();
-    }
 }
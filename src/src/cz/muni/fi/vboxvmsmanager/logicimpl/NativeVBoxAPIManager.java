@@ -15,23 +15,37 @@
  */
 package cz.muni.fi.vboxvmsmanager.logicimpl;
 
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.GarbageReport;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.OperationResult;
 import cz.muni.fi.vboxvmsmanager.pubapi.entities.PhysicalMachine;
 import cz.muni.fi.vboxvmsmanager.pubapi.entities.VirtualMachine;
 import cz.muni.fi.vboxvmsmanager.pubapi.exceptions.ConnectionFailureException;
 import cz.muni.fi.vboxvmsmanager.pubapi.exceptions.IncompatibleVirtToolAPIVersionException;
+import cz.muni.fi.vboxvmsmanager.pubapi.exceptions.OperationTimeoutException;
 import cz.muni.fi.vboxvmsmanager.pubapi.exceptions.UnexpectedVMStateException;
 import cz.muni.fi.vboxvmsmanager.pubapi.exceptions.UnknownVirtualMachineException;
 import cz.muni.fi.vboxvmsmanager.pubapi.types.CloneType;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import org.virtualbox_4_3.CleanupMode;
 import org.virtualbox_4_3.CloneMode;
 import org.virtualbox_4_3.CloneOptions;
+import org.virtualbox_4_3.DeviceType;
 import org.virtualbox_4_3.IConsole;
 import org.virtualbox_4_3.IGuestOSType;
 import org.virtualbox_4_3.IMachine;
 import org.virtualbox_4_3.IMedium;
+import org.virtualbox_4_3.IMediumAttachment;
 import org.virtualbox_4_3.IProgress;
 import org.virtualbox_4_3.ISession;
 import org.virtualbox_4_3.ISnapshot;
@@ -39,6 +53,7 @@ import org.virtualbox_4_3.ISystemProperties;
 import org.virtualbox_4_3.IVirtualBox;
 import org.virtualbox_4_3.LockType;
 import org.virtualbox_4_3.MachineState;
+import org.virtualbox_4_3.MediumState;
 import org.virtualbox_4_3.VBoxException;
 import org.virtualbox_4_3.VirtualBoxManager;
 import org.virtualbox_4_3.SessionState;
@@ -50,6 +65,63 @@ import org.virtualbox_4_3.SessionState;
 final class NativeVBoxAPIManager {
     
     private static final NativeVBoxAPIManager INSTANCE = new NativeVBoxAPIManager();
+    private static final int MAX_CONCURRENT_CLONES = 4;
+    private static final String LINKED_BASE_SNAPSHOT_PREFIX = "Linked Base For ";
+    private static final String LINKED_BASE_SNAPSHOT_SEPARATOR = "\n";
+    //younger snapshots can still be in use by a linked clone which is being created right now
+    private static final long MIN_GARBAGE_SNAPSHOT_AGE = 600000L;
+    //mediums have no creation time, so they are collected only after being found unused for this long,
+    //a medium of a machine which is being created right now is not attached yet
+    private static final long MIN_GARBAGE_MEDIUM_AGE = 600000L;
+    
+    //ids of unused mediums of each physical machine together with the time they have been found unused first
+    private final Map<PhysicalMachine, Map<String, Long>> unusedMediumsFirstSeen = new HashMap<>();
+    
+    //one running cloneTo operation of a bulk cloning job
+    private static class CloneJob{
+        private final String cloneName;
+        private final IMachine clone;
+        private final IProgress progress;
+        private final long start;
+        
+        CloneJob(String cloneName, IMachine clone, IProgress progress, long start){
+            this.cloneName = cloneName;
+            this.clone = clone;
+            this.progress = progress;
+            this.start = start;
+        }
+    }
+    
+    //one virtual machine of a bulk removal together with everything found out about it while planning
+    private static class RemovalUnit{
+        private final VirtualMachine virtualMachine;
+        private final String machineId;
+        private final String machineName;
+        private final int depth;
+        private final String parentMachineId;
+        private final List<String> dependentMachineIds;
+        private long start;
+        
+        RemovalUnit(VirtualMachine virtualMachine, String machineId, String machineName, int depth, String parentMachineId,
+                    List<String> dependentMachineIds){
+            this.virtualMachine = virtualMachine;
+            this.machineId = machineId;
+            this.machineName = machineName;
+            this.depth = depth;
+            this.parentMachineId = parentMachineId;
+            this.dependentMachineIds = dependentMachineIds;
+        }
+    }
+    
+    //removal units sharing the same base medium, they are removed one by one with children before their parents
+    private static class RemovalBranch{
+        private final PhysicalMachine physicalMachine;
+        private final List<RemovalUnit> units = new ArrayList<>();
+        
+        RemovalBranch(PhysicalMachine physicalMachine){
+            this.physicalMachine = physicalMachine;
+        }
+    }
     
     public static NativeVBoxAPIManager getInstance(){
         return INSTANCE;
@@ -89,6 +161,8 @@ final class NativeVBoxAPIManager {
             }
             
             vbox.registerMachine(unregMachine);
+            MediumTreeCache.getInstance().invalidate(physicalMachine);
+            retainHostPorts(physicalMachine, vbox, unregMachine);
         }
         
         vbm.disconnect();
@@ -164,8 +238,9 @@ final class NativeVBoxAPIManager {
         return vms;
     }
     
-    public void removeVirtualMachine(VirtualMachine virtualMachine) throws InterruptedException, ConnectionFailureException,
-            IncompatibleVirtToolAPIVersionException, UnknownVirtualMachineException, UnexpectedVMStateException{
+    public void removeVirtualMachine(VirtualMachine virtualMachine, ProgressMonitor monitor) throws InterruptedException,
+            ConnectionFailureException, IncompatibleVirtToolAPIVersionException, UnknownVirtualMachineException,
+            UnexpectedVMStateException, OperationTimeoutException{
         
         String errMsgForVMNullCheck = "Removing virtual machine failure: There was made an attempt to remove a null virtual machine.";
         String errMsgForPMNullCheck = "Removing virtual machine failure: There was made an attempt to remove virtual machine " + virtualMachine + " from a null physical machine.";
@@ -174,6 +249,7 @@ final class NativeVBoxAPIManager {
         String errMsgForUnknownVM = "Removing virtual machine failure: There is no virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " known to VirtualBox. Most probably has been this virtual machine removed recently."; 
         String errMsgForVMStateCheck = "Removing virtual machine failure: Virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " cannot be removed, because it is not powered off.";
         NativeVBoxAPIConnection natapiCon = NativeVBoxAPIConnection.getInstance();
+        MediumTreeCache mtCache = MediumTreeCache.getInstance();
         
         checkVMIsNotNull(virtualMachine, errMsgForVMNullCheck);
         checkPMIsNotNull(virtualMachine.getHostMachine(), errMsgForPMNullCheck);
@@ -182,13 +258,14 @@ final class NativeVBoxAPIManager {
         VirtualBoxManager vbm = natapiCon.getVirtualBoxManager(virtualMachine.getHostMachine(), errMsgForPMConError);
         IVirtualBox vbox = vbm.getVBox();
         IMachine vboxMachine = null;
+        UnexpectedVMStateException snapshotFailure = null;
         try{
             vboxMachine = vbox.findMachine(virtualMachine.getId().toString());
         }catch(VBoxException ex){
             vbm.disconnect();
             vbm.cleanup();
             throw new UnknownVirtualMachineException(errMsgForUnknownVM);
-        }        
+        }
         
         if(!vboxMachine.getAccessible()){
             try{
@@ -196,21 +273,263 @@ final class NativeVBoxAPIManager {
             }catch(VBoxException ex){ /*machine was not registered*/ }
         }else{
             checkVMStateForRemoving(vboxMachine.getState(), errMsgForVMStateCheck);
-
-            if(isLinkedClone(vboxMachine, vbox)){
+            
+            String attachedMediumId = vboxMachine.getMedium("SATA", 0, 0).getId();
+            MediumTree mediumTree = mtCache.getMediumTree(virtualMachine.getHostMachine(), vbox, attachedMediumId);
+            if(isLinkedClone(vboxMachine, attachedMediumId, mediumTree)){
                 ISession session = vbm.getSessionObject();
-                removeVMAsSnapshot(vboxMachine, vbox, session);
+                try{
+                    removeVMAsSnapshot(vboxMachine, attachedMediumId, mediumTree, vbox, session, monitor);
+                }catch(UnexpectedVMStateException ex){
+                    //virtual machine itself has been removed, so the caches are updated first
+                    snapshotFailure = ex;
+                }catch(InterruptedException | OperationTimeoutException ex){
+                    if(session.getState() == SessionState.Locked){
+                        session.unlockMachine();
+                    }
+                    mtCache.invalidate(virtualMachine.getHostMachine());
+                    vbm.disconnect();
+                    vbm.cleanup();
+                    throw ex;
+                }
             }else{
-                removeVMAsStandaloneUnit(vboxMachine, vbox);
+                removeVMAsStandaloneUnit(vboxMachine, attachedMediumId, mediumTree, vbox);
             }
         }
         
+        mtCache.invalidate(virtualMachine.getHostMachine());
+        PortRuleTableCache.getInstance().invalidate(virtualMachine.getId().toString());
+        PortRuleIndex.getInstance().prune(virtualMachine.getHostMachine(), vbox);
+        pruneHostPorts(virtualMachine.getHostMachine(), vbox);
+        vbm.disconnect();
+        vbm.cleanup();
+        
+        if(snapshotFailure != null){
+            throw new UnexpectedVMStateException("Virtual machine " + virtualMachine + " has been removed, but its linked base snapshot could not be deleted: "
+                                                 + snapshotFailure.getMessage());
+        }
+    }
+    
+    public List<OperationResult<VirtualMachine>> removeVirtualMachines(Collection<VirtualMachine> virtualMachines,
+            ProgressMonitor monitor) throws InterruptedException{
+        
+        String errMsgForVMsNullCheck = "Removing virtual machines failure: There was made an attempt to remove a null collection of virtual machines.";
+        String errMsgForVMNullCheck = "Removing virtual machine failure: There was made an attempt to remove a null virtual machine.";
+        AsyncOperationExecutor executor = AsyncOperationExecutor.getInstance();
+        
+        if(virtualMachines == null){
+            throw new IllegalArgumentException(errMsgForVMsNullCheck);
+        }
+        
+        List<OperationResult<VirtualMachine>> results = new ArrayList<>();
+        Map<PhysicalMachine, Map<UUID, VirtualMachine>> vmsByHost = new LinkedHashMap<>();
+        for(VirtualMachine vm : virtualMachines){
+            if(vm == null){
+                results.add(new OperationResult<>(null, false, errMsgForVMNullCheck, 0L));
+            }else if(vm.getHostMachine() == null){
+                results.add(new OperationResult<>(vm, false, "Removing virtual machine failure: There was made an attempt to remove virtual machine " + vm + " from a null physical machine.", 0L));
+            }else{
+                vmsByHost.computeIfAbsent(vm.getHostMachine(), (pm) -> new LinkedHashMap<>()).put(vm.getId(), vm);
+            }
+        }
+        
+        List<RemovalBranch> branches = new ArrayList<>();
+        for(Map.Entry<PhysicalMachine, Map<UUID, VirtualMachine>> entry : vmsByHost.entrySet()){
+            branches.addAll(planRemoval(entry.getKey(), entry.getValue().values(), results));
+        }
+        
+        //branches do not share any medium, so they can be removed in parallel
+        List<Future<List<OperationResult<VirtualMachine>>>> futures = new ArrayList<>();
+        for(RemovalBranch branch : branches){
+            futures.add(executor.submit(() -> executeRemovalBranch(branch, monitor)));
+        }
+        
+        try{
+            for(int i = 0; i < futures.size(); ++i){
+                try{
+                    results.addAll(futures.get(i).get());
+                }catch(ExecutionException ex){
+                    for(RemovalUnit unit : branches.get(i).units){
+                        results.add(new OperationResult<>(unit.virtualMachine, false, "Removing virtual machine " + unit.virtualMachine + " failure: " + ex.getCause().getMessage(), 0L));
+                    }
+                }
+            }
+        }catch(InterruptedException ex){
+            for(Future<List<OperationResult<VirtualMachine>>> future : futures){
+                future.cancel(true);
+            }
+            throw ex;
+        }
+        
+        return results;
+    }
+    
+    //reserves count consecutive host ports which are not used by any port forwarding rule on the physical machine,
+    //returns the first of them or -1 if there are no such ports from fromPort up
+    public int allocateHostPorts(PhysicalMachine physicalMachine, int count, int fromPort) throws InterruptedException,
+            ConnectionFailureException, IncompatibleVirtToolAPIVersionException, UnexpectedVMStateException{
+        
+        String errMsgForPMNullCheck = "Allocating host ports failure: There was made an attempt to allocate host ports on a null physical machine.";
+        String errMsgForNotConnectedPM = "Connection failure while trying to allocate host ports on physical machine " + physicalMachine + ": There cannot be allocated any host port on this physical machine now, because it is not connected.";
+        
+        checkPMIsNotNull(physicalMachine, errMsgForPMNullCheck);
+        checkPMIsConnected(physicalMachine, errMsgForNotConnectedPM);
+        
+        return getHostPortAllocator(physicalMachine).allocateRange(count, fromPort);
+    }
+    
+    //releases a port which has been allocated, but has not been used by any rule, host ports of rules are released
+    //when the rules or their virtual machines are deleted
+    public void releaseHostPort(PhysicalMachine physicalMachine, int port) throws InterruptedException,
+            ConnectionFailureException, IncompatibleVirtToolAPIVersionException, UnexpectedVMStateException{
+        
+        String errMsgForPMNullCheck = "Releasing host port failure: There was made an attempt to release a host port on a null physical machine.";
+        String errMsgForNotConnectedPM = "Connection failure while trying to release host port on physical machine " + physicalMachine + ": There cannot be released any host port on this physical machine now, because it is not connected.";
+        
+        checkPMIsNotNull(physicalMachine, errMsgForPMNullCheck);
+        checkPMIsConnected(physicalMachine, errMsgForNotConnectedPM);
+        
+        getHostPortAllocator(physicalMachine).release(port);
+    }
+    
+    public GarbageReport findGarbage(PhysicalMachine physicalMachine) throws InterruptedException, ConnectionFailureException,
+            IncompatibleVirtToolAPIVersionException, UnexpectedVMStateException{
+        
+        String errMsgForPMNullCheck = "Searching for garbage failure: There was made an attempt to search for garbage on a null physical machine.";
+        String errMsgForNotConnectedPM = "Connection failure while trying to search for garbage on physical machine " + physicalMachine + ": There cannot be searched for any garbage on this physical machine now, because it is not connected.";
+        String errMsgForPMConError = "Connection failure while trying to search for garbage on physical machine " + physicalMachine + ": ";
+        NativeVBoxAPIConnection natapiCon = NativeVBoxAPIConnection.getInstance();
+        
+        checkPMIsNotNull(physicalMachine, errMsgForPMNullCheck);
+        checkPMIsConnected(physicalMachine, errMsgForNotConnectedPM);
+        
+        VirtualBoxManager vbm = natapiCon.getVirtualBoxManager(physicalMachine, errMsgForPMConError);
+        IVirtualBox vbox = vbm.getVBox();
+        Map<String, IMedium> media = new HashMap<>();
+        MediumTree mediumTree = MediumTree.build(vbox, media);
+        List<String> snapshots = new ArrayList<>();
+        List<String> locations = new ArrayList<>();
+        long reclaimableSpace = 0L;
+        
+        for(ISnapshot snapshot : getGarbageSnapshots(vbox, mediumTree)){
+            snapshots.add(getSnapshotDescription(snapshot));
+        }
+        List<String> unusedMediumIds = mediumTree.getUnusedMediumIds();
+        recordUnusedMediums(physicalMachine, unusedMediumIds);
+        for(String mediumId : unusedMediumIds){
+            IMedium medium = media.get(mediumId);
+            locations.add(medium.getLocation());
+            reclaimableSpace += getMediumSize(medium);
+        }
+        
         vbm.disconnect();
         vbm.cleanup();
+        
+        return new GarbageReport(snapshots, locations, reclaimableSpace, new ArrayList<>());
+    }
+    
+    //deletes garbage one item by one with a pause between deletions, so VirtualBox is not overloaded by the collection
+    public GarbageReport collectGarbage(PhysicalMachine physicalMachine, long pause, ProgressMonitor monitor)
+            throws InterruptedException, ConnectionFailureException, IncompatibleVirtToolAPIVersionException,
+            UnexpectedVMStateException{
+        
+        String errMsgForPMNullCheck = "Collecting garbage failure: There was made an attempt to collect garbage on a null physical machine.";
+        String errMsgForNotConnectedPM = "Connection failure while trying to collect garbage on physical machine " + physicalMachine + ": There cannot be collected any garbage on this physical machine now, because it is not connected.";
+        String errMsgForPMConError = "Connection failure while trying to collect garbage on physical machine " + physicalMachine + ": ";
+        NativeVBoxAPIConnection natapiCon = NativeVBoxAPIConnection.getInstance();
+        
+        checkPMIsNotNull(physicalMachine, errMsgForPMNullCheck);
+        checkPMIsConnected(physicalMachine, errMsgForNotConnectedPM);
+        
+        VirtualBoxManager vbm = natapiCon.getVirtualBoxManager(physicalMachine, errMsgForPMConError);
+        IVirtualBox vbox = vbm.getVBox();
+        ISession session = vbm.getSessionObject();
+        Map<String, IMedium> media = new HashMap<>();
+        MediumTree mediumTree = MediumTree.build(vbox, media);
+        List<String> snapshots = new ArrayList<>();
+        List<String> locations = new ArrayList<>();
+        List<String> errors = new ArrayList<>();
+        long reclaimedSpace = 0L;
+        
+        try{
+            for(ISnapshot snapshot : getGarbageSnapshots(vbox, mediumTree)){
+                if(monitor.isDeadlineExceeded()){
+                    break;
+                }
+                String description = getSnapshotDescription(snapshot);
+                try{
+                    //snapshot holds only a read-only copy of machine, the machine itself has to be locked
+                    vbox.findMachine(snapshot.getMachine().getId()).lockMachine(session, LockType.Write);
+                    IProgress p = session.getConsole().deleteSnapshot(snapshot.getId());
+                    monitor.waitForCompletion(p, "Deleting snapshot " + description);
+                    snapshots.add(description);
+                }catch(VBoxException | OperationTimeoutException ex){
+                    errors.add("Deleting snapshot " + description + " failure: " + ex.getMessage());
+                }finally{
+                    if(session.getState() == SessionState.Locked){
+                        session.unlockMachine();
+                    }
+                    SnapshotTreeCache.getInstance().invalidate(snapshot.getMachine().getId());
+                }
+                Thread.sleep(pause);
+            }
+            
+            List<String> unusedMediumIds = mediumTree.getUnusedMediumIds();
+            Set<String> oldUnusedMediumIds = recordUnusedMediums(physicalMachine, unusedMediumIds);
+            for(String mediumId : unusedMediumIds){
+                if(monitor.isDeadlineExceeded()){
+                    break;
+                }
+                if(!oldUnusedMediumIds.contains(mediumId)){
+                    continue;
+                }
+                IMedium medium = media.get(mediumId);
+                String location = medium.getLocation();
+                long size = getMediumSize(medium);
+                try{
+                    //the medium could have been attached since the medium tree was built
+                    if(!medium.getMachineIds().isEmpty() || !medium.getChildren().isEmpty()){
+                        continue;
+                    }
+                    MediumState state = medium.getState();
+                    if(state == MediumState.Inaccessible){
+                        //there is no file which could be deleted, the medium is just forgotten
+                        medium.close();
+                    }else if(state != MediumState.Created){
+                        //the medium is locked by another operation
+                        continue;
+                    }else{
+                        IProgress p = medium.deleteStorage();
+                        monitor.waitForCompletion(p, "Deleting medium \"" + location + "\"");
+                    }
+                    locations.add(location);
+                    reclaimedSpace += size;
+                }catch(VBoxException | OperationTimeoutException ex){
+                    errors.add("Deleting medium \"" + location + "\" failure: " + ex.getMessage());
+                }
+                Thread.sleep(pause);
+            }
+        }finally{
+            MediumTreeCache.getInstance().invalidate(physicalMachine);
+            vbm.disconnect();
+            vbm.cleanup();
+        }
+        
+        return new GarbageReport(snapshots, locations, reclaimedSpace, errors);
     }
     
-    public VirtualMachine createVMClone(VirtualMachine virtualMachine, CloneType cloneType) throws InterruptedException,
-            ConnectionFailureException, IncompatibleVirtToolAPIVersionException, UnknownVirtualMachineException, UnexpectedVMStateException{
+    public VirtualMachine createVMClone(VirtualMachine virtualMachine, CloneType cloneType, ProgressMonitor monitor)
+            throws InterruptedException, ConnectionFailureException, IncompatibleVirtToolAPIVersionException,
+            UnknownVirtualMachineException, UnexpectedVMStateException, OperationTimeoutException{
+        
+        return createVMClone(virtualMachine, cloneType, null, monitor);
+    }
+    
+    //the clone gets a generated name when no name is requested
+    public VirtualMachine createVMClone(VirtualMachine virtualMachine, CloneType cloneType, String requestedName,
+            ProgressMonitor monitor) throws InterruptedException, ConnectionFailureException,
+            IncompatibleVirtToolAPIVersionException, UnknownVirtualMachineException, UnexpectedVMStateException,
+            OperationTimeoutException{
         
         String errMsgForVMNullCheck = "Cloning virtual machine failure: There was made an attempt to clone a null virtual machine.";
         String errMsgForPMNullCheck = "Cloning virtual machine failure: There was made an attempt to clone virtual machine " + virtualMachine + " on a null physical machine.";
@@ -226,6 +545,7 @@ final class NativeVBoxAPIManager {
         checkPMIsConnected(virtualMachine.getHostMachine(), errMsgForNotConnectedPM);
         checkCloneTypeIsNotNull(cloneType, errMsgForCloneTypeNullCheck);
         
+        long start = System.currentTimeMillis();
         VirtualBoxManager vbm = natapiCon.getVirtualBoxManager(virtualMachine.getHostMachine(), errMsgForPMConError);
         IVirtualBox vbox = vbm.getVBox();
         IMachine vboxMachine = null;
@@ -242,15 +562,22 @@ final class NativeVBoxAPIManager {
             vbm.cleanup();
             throw new UnexpectedVMStateException("Cloning virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " failure: " + vboxMachine.getAccessError().getText());
         }
-        checkVMStateForCloning(vboxMachine.getState(), errMsgForVMStateCheck);
+        try{
+            checkVMStateForCloning(vboxMachine.getState(), errMsgForVMStateCheck);
+        }catch(UnexpectedVMStateException ex){
+            vbm.disconnect();
+            vbm.cleanup();
+            throw ex;
+        }
         
-        String cloneName = getNewCloneName(vboxMachine.getName(), vbox, cloneType);
+        String cloneName = (requestedName == null ? getNewCloneName(vboxMachine.getName(), vbox, cloneType) : requestedName);
         
         IMachine clonableVBoxMachine;
+        ISnapshot snapshot = null;
+        ISession session = vbm.getSessionObject();
         if(cloneType == CloneType.LINKED){
-            ISession session = vbm.getSessionObject();
             try{
-                takeSnapshot(vboxMachine,session,cloneName);
+                takeSnapshot(vboxMachine,session,Arrays.asList(cloneName),monitor);
             }catch(VBoxException ex){
                 if(session.getState() == SessionState.Locked){
                     session.unlockMachine();
@@ -258,8 +585,15 @@ final class NativeVBoxAPIManager {
                 vbm.disconnect();
                 vbm.cleanup();
                 throw new UnexpectedVMStateException("Cloning virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " failure: " + ex.getMessage());
-            }        
-            ISnapshot snapshot = vboxMachine.getCurrentSnapshot();
+            }catch(InterruptedException | OperationTimeoutException ex){
+                if(session.getState() == SessionState.Locked){
+                    session.unlockMachine();
+                }
+                vbm.disconnect();
+                vbm.cleanup();
+                throw ex;
+            }
+            snapshot = vboxMachine.getCurrentSnapshot();
             clonableVBoxMachine = snapshot.getMachine();
             
         }else{
@@ -270,26 +604,552 @@ final class NativeVBoxAPIManager {
         List<CloneOptions> clops = getCloneOptions(cloneType);
         CloneMode cloneMode = getCloneMode(cloneType);
         
-        IProgress progress = clonableVBoxMachine.cloneTo(vboxMachineClone, cloneMode, clops);        
-        Long pp = 0L;
-        while(!progress.getCompleted()){
-            if(progress.getPercent() > pp){
-                pp = progress.getPercent();
-                System.out.println(pp + "%");
+        IProgress progress = clonableVBoxMachine.cloneTo(vboxMachineClone, cloneMode, clops);
+        try{
+            monitor.waitForCompletion(progress, "Cloning virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine());
+        }catch(InterruptedException | OperationTimeoutException ex){
+            removeUnfinishedClone(vboxMachineClone);
+            if(snapshot != null){
+                deleteLinkedBaseSnapshot(vboxMachine, snapshot, session);
+            }
+            MediumTreeCache.getInstance().invalidate(virtualMachine.getHostMachine());
+            vbm.disconnect();
+            vbm.cleanup();
+            throw ex;
+        }
+        if(progress.getResultCode() != 0){
+            String errorText = progress.getErrorInfo().getText();
+            removeUnfinishedClone(vboxMachineClone);
+            if(snapshot != null){
+                deleteLinkedBaseSnapshot(vboxMachine, snapshot, session);
             }
+            MediumTreeCache.getInstance().invalidate(virtualMachine.getHostMachine());
+            vbm.disconnect();
+            vbm.cleanup();
+            throw new UnexpectedVMStateException("Cloning virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " failure: " + errorText);
         }
         vboxMachineClone.saveSettings();        
         vbox.registerMachine(vboxMachineClone);
+        retainHostPorts(virtualMachine.getHostMachine(), vbox, vboxMachineClone);
         
         IGuestOSType gost = vbox.getGuestOSType(vboxMachineClone.getOSTypeId());
         VirtualMachine vm = createVirtualMachine(vboxMachineClone, gost, virtualMachine.getHostMachine());
         
+        MediumTreeCache.getInstance().invalidate(virtualMachine.getHostMachine());
+        //only clones created one at a time are recorded, because clones created in parallel slow each other down
+        OperationLatencyStats.getInstance().record(virtualMachine.getHostMachine(),
+                                                   OperationPlanner.getCloneOperationType(cloneType),
+                                                   System.currentTimeMillis() - start);
         vbm.disconnect();
         vbm.cleanup();
         
         return vm;
     }
     
+    public List<OperationResult<VirtualMachine>> createVMClones(VirtualMachine virtualMachine, CloneType cloneType, int count,
+            ProgressMonitor monitor) throws InterruptedException, ConnectionFailureException,
+            IncompatibleVirtToolAPIVersionException, UnknownVirtualMachineException, UnexpectedVMStateException,
+            OperationTimeoutException{
+        
+        String errMsgForVMNullCheck = "Cloning virtual machine failure: There was made an attempt to clone a null virtual machine.";
+        String errMsgForPMNullCheck = "Cloning virtual machine failure: There was made an attempt to clone virtual machine " + virtualMachine + " on a null physical machine.";
+        String errMsgForNotConnectedPM = "Connection failure while trying to clone virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + ": There cannot be cloned any virtual machine on this physical machine now, because it is not connected.";
+        String errMsgForPMConError = "Connection failure while trying to clone virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + ": ";
+        String errMsgForUnknownVM = "Cloning virtual machine failure: There is no virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " known to VirtualBox. Most probably has been this virtual machine removed recently.";
+        String errMsgForCloneTypeNullCheck = "Cloning virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " failure: There is not specified (is null) a type of a clone should be created.";
+        String errMsgForCloneCountCheck = "Cloning virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " failure: Count of clones to be created must be a positive number, but it is " + count + ".";
+        String errMsgForVMStateCheck = "Cloning virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " failure: Virtual machine cannot be cloned, because it is not in one of required state (PoweredOff, Saved, Running, Paused).";
+        NativeVBoxAPIConnection natapiCon = NativeVBoxAPIConnection.getInstance();
+        
+        checkVMIsNotNull(virtualMachine, errMsgForVMNullCheck);
+        checkPMIsNotNull(virtualMachine.getHostMachine(), errMsgForPMNullCheck);
+        checkPMIsConnected(virtualMachine.getHostMachine(), errMsgForNotConnectedPM);
+        checkCloneTypeIsNotNull(cloneType, errMsgForCloneTypeNullCheck);
+        checkCloneCountIsPositive(count, errMsgForCloneCountCheck);
+        
+        VirtualBoxManager vbm = natapiCon.getVirtualBoxManager(virtualMachine.getHostMachine(), errMsgForPMConError);
+        IVirtualBox vbox = vbm.getVBox();
+        IMachine vboxMachine = null;
+        try{
+            vboxMachine = vbox.findMachine(virtualMachine.getId().toString());
+        }catch(VBoxException ex){
+            vbm.disconnect();
+            vbm.cleanup();
+            throw new UnknownVirtualMachineException(errMsgForUnknownVM);
+        }
+        
+        if(!vboxMachine.getAccessible()){
+            vbm.disconnect();
+            vbm.cleanup();
+            throw new UnexpectedVMStateException("Cloning virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " failure: " + vboxMachine.getAccessError().getText());
+        }
+        try{
+            checkVMStateForCloning(vboxMachine.getState(), errMsgForVMStateCheck);
+        }catch(UnexpectedVMStateException ex){
+            vbm.disconnect();
+            vbm.cleanup();
+            throw ex;
+        }
+        
+        List<String> cloneNames = getNewCloneNames(vboxMachine.getName(), vbox, cloneType, count);
+        
+        //all linked clones of one job share the same base snapshot
+        IMachine clonableVBoxMachine;
+        ISnapshot snapshot = null;
+        ISession session = vbm.getSessionObject();
+        if(cloneType == CloneType.LINKED){
+            try{
+                takeSnapshot(vboxMachine,session,cloneNames,monitor);
+            }catch(VBoxException ex){
+                if(session.getState() == SessionState.Locked){
+                    session.unlockMachine();
+                }
+                vbm.disconnect();
+                vbm.cleanup();
+                throw new UnexpectedVMStateException("Cloning virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine() + " failure: " + ex.getMessage());
+            }catch(InterruptedException | OperationTimeoutException ex){
+                if(session.getState() == SessionState.Locked){
+                    session.unlockMachine();
+                }
+                vbm.disconnect();
+                vbm.cleanup();
+                throw ex;
+            }
+            snapshot = vboxMachine.getCurrentSnapshot();
+            clonableVBoxMachine = snapshot.getMachine();
+        
+        }else{
+            clonableVBoxMachine = vbox.findMachine(vboxMachine.getId());
+        }
+        
+        List<CloneOptions> clops = getCloneOptions(cloneType);
+        CloneMode cloneMode = getCloneMode(cloneType);
+        List<OperationResult<VirtualMachine>> results = new ArrayList<>();
+        List<CloneJob> runningJobs = new ArrayList<>();
+        int nextClone = 0;
+        
+        String operation = "Cloning virtual machine " + virtualMachine + " on physical machine " + virtualMachine.getHostMachine();
+        try{
+            while(nextClone < cloneNames.size() || !runningJobs.isEmpty()){
+                while(nextClone < cloneNames.size() && runningJobs.size() < MAX_CONCURRENT_CLONES && !monitor.isDeadlineExceeded()){
+                    String cloneName = cloneNames.get(nextClone++);
+                    long start = System.currentTimeMillis();
+                    try{
+                        IMachine vboxMachineClone = vbox.createMachine(null, cloneName, null, clonableVBoxMachine.getOSTypeId(), null);
+                        IProgress progress = clonableVBoxMachine.cloneTo(vboxMachineClone, cloneMode, clops);
+                        runningJobs.add(new CloneJob(cloneName, vboxMachineClone, progress, start));
+                    }catch(VBoxException ex){
+                        results.add(new OperationResult<>(null, false, "Creating clone \"" + cloneName + "\" failure: " + ex.getMessage(),
+                                                          System.currentTimeMillis() - start));
+                    }
+                }
+                
+                if(runningJobs.isEmpty()){
+                    if(monitor.isDeadlineExceeded()){
+                        break;
+                    }
+                    continue;
+                }
+                
+                try{
+                    CloneJob firstJob = runningJobs.get(0);
+                    monitor.waitForCompletion(firstJob.progress, operation + " into clone \"" + firstJob.cloneName + "\"", 200);
+                }catch(OperationTimeoutException ex){
+                    //the rest of the running clones is cancelled too, finished clones are kept
+                    for(CloneJob job : runningJobs){
+                        monitor.cancel(job.progress);
+                        removeUnfinishedClone(job.clone);
+                        results.add(new OperationResult<>(null, false, "Creating clone \"" + job.cloneName + "\" failure: " + ex.getMessage(),
+                                                          System.currentTimeMillis() - job.start));
+                    }
+                    runningJobs.clear();
+                    break;
+                }
+                List<CloneJob> finishedJobs = new ArrayList<>();
+                for(CloneJob job : runningJobs){
+                    monitor.report(job.progress, operation + " into clone \"" + job.cloneName + "\"");
+                    if(job.progress.getCompleted()){
+                        finishedJobs.add(job);
+                        results.add(finishCloneJob(job, vbox, virtualMachine.getHostMachine()));
+                    }
+                }
+                runningJobs.removeAll(finishedJobs);
+            }
+            
+            while(nextClone < cloneNames.size()){
+                results.add(new OperationResult<>(null, false, "Creating clone \"" + cloneNames.get(nextClone++) + "\" failure: "
+                                                  + operation + " has not been finished before its deadline.", 0L));
+            }
+        }catch(InterruptedException ex){
+            for(CloneJob job : runningJobs){
+                monitor.cancel(job.progress);
+                removeUnfinishedClone(job.clone);
+            }
+            throw ex;
+        }finally{
+            if(snapshot != null && !hasAnySuccessfulResult(results)){
+                deleteLinkedBaseSnapshot(vboxMachine, snapshot, session);
+            }
+            MediumTreeCache.getInstance().invalidate(virtualMachine.getHostMachine());
+            vbm.disconnect();
+            vbm.cleanup();
+        }
+        
+        return results;
+    }
+    
+    private OperationResult<VirtualMachine> finishCloneJob(CloneJob job, IVirtualBox vbox, PhysicalMachine pm){
+        try{
+            if(job.progress.getResultCode() != 0){
+                return new OperationResult<>(null, false, "Creating clone \"" + job.cloneName + "\" failure: "
+                                             + job.progress.getErrorInfo().getText(), System.currentTimeMillis() - job.start);
+            }
+            job.clone.saveSettings();
+            vbox.registerMachine(job.clone);
+            retainHostPorts(pm, vbox, job.clone);
+            
+            IGuestOSType gost = vbox.getGuestOSType(job.clone.getOSTypeId());
+            VirtualMachine vm = createVirtualMachine(job.clone, gost, pm);
+            
+            return new OperationResult<>(vm, true, "Clone \"" + job.cloneName + "\" created successfully",
+                                         System.currentTimeMillis() - job.start);
+        }catch(VBoxException ex){
+            return new OperationResult<>(null, false, "Creating clone \"" + job.cloneName + "\" failure: " + ex.getMessage(),
+                                         System.currentTimeMillis() - job.start);
+        }
+    }
+    
+    //finds out everything needed for removal of virtual machines on one physical machine using only one connection
+    private List<RemovalBranch> planRemoval(PhysicalMachine physicalMachine, Collection<VirtualMachine> virtualMachines,
+            List<OperationResult<VirtualMachine>> results) throws InterruptedException{
+        
+        String errMsgForNotConnectedPM = "Connection failure while trying to remove virtual machines from physical machine " + physicalMachine + ": There cannot be removed any virtual machine from this physical machine now, because it is not connected.";
+        String errMsgForPMConError = "Connection failure while trying to remove virtual machines from physical machine " + physicalMachine + ": ";
+        NativeVBoxAPIConnection natapiCon = NativeVBoxAPIConnection.getInstance();
+        MediumTreeCache mtCache = MediumTreeCache.getInstance();
+        Map<String, RemovalBranch> branches = new LinkedHashMap<>();
+        
+        VirtualBoxManager vbm;
+        try{
+            checkPMIsConnected(physicalMachine, errMsgForNotConnectedPM);
+            vbm = natapiCon.getVirtualBoxManager(physicalMachine, errMsgForPMConError);
+        }catch(UnexpectedVMStateException | ConnectionFailureException | IncompatibleVirtToolAPIVersionException ex){
+            for(VirtualMachine vm : virtualMachines){
+                results.add(new OperationResult<>(vm, false, ex.getMessage(), 0L));
+            }
+            return new ArrayList<>();
+        }
+        IVirtualBox vbox = vbm.getVBox();
+        
+        for(VirtualMachine vm : virtualMachines){
+            String errMsgForUnknownVM = "Removing virtual machine failure: There is no virtual machine " + vm + " on physical machine " + physicalMachine + " known to VirtualBox. Most probably has been this virtual machine removed recently.";
+            String errMsgForVMStateCheck = "Removing virtual machine failure: Virtual machine " + vm + " on physical machine " + physicalMachine + " cannot be removed, because it is not powered off.";
+            long start = System.currentTimeMillis();
+            IMachine vboxMachine;
+            try{
+                vboxMachine = vbox.findMachine(vm.getId().toString());
+            }catch(VBoxException ex){
+                results.add(new OperationResult<>(vm, false, errMsgForUnknownVM, 0L));
+                continue;
+            }
+            
+            try{
+                if(!vboxMachine.getAccessible()){
+                    try{
+                        vboxMachine.unregister(CleanupMode.DetachAllReturnHardDisksOnly);
+                    }catch(VBoxException ex){ /*machine was not registered*/ }
+                    mtCache.invalidate(physicalMachine);
+                    results.add(new OperationResult<>(vm, true, "", System.currentTimeMillis() - start));
+                    continue;
+                }
+                checkVMStateForRemoving(vboxMachine.getState(), errMsgForVMStateCheck);
+                
+                String attachedMediumId = vboxMachine.getMedium("SATA", 0, 0).getId();
+                MediumTree mediumTree = mtCache.getMediumTree(physicalMachine, vbox, attachedMediumId);
+                String topMediumId = mediumTree.getTopMediumOfMachine(vboxMachine.getId(), attachedMediumId);
+                String parentMachineId = (isLinkedClone(vboxMachine, attachedMediumId, mediumTree)
+                                          ? mediumTree.getMachineId(mediumTree.getParentId(topMediumId)) : null);
+                RemovalUnit unit = new RemovalUnit(vm, vboxMachine.getId(), vboxMachine.getName(), mediumTree.getDepth(topMediumId),
+                                                   parentMachineId, mediumTree.getDependentMachineIds(topMediumId));
+                branches.computeIfAbsent(mediumTree.getBaseId(attachedMediumId), (id) -> new RemovalBranch(physicalMachine))
+                        .units.add(unit);
+            }catch(UnexpectedVMStateException ex){
+                results.add(new OperationResult<>(vm, false, ex.getMessage(), 0L));
+            }catch(VBoxException ex){
+                results.add(new OperationResult<>(vm, false, "Removing virtual machine " + vm + " failure: " + ex.getMessage(), 0L));
+            }
+        }
+        
+        vbm.disconnect();
+        vbm.cleanup();
+        
+        for(RemovalBranch branch : branches.values()){
+            branch.units.sort((unit1, unit2) -> Integer.compare(unit2.depth, unit1.depth));
+        }
+        
+        return new ArrayList<>(branches.values());
+    }
+    
+    private List<OperationResult<VirtualMachine>> executeRemovalBranch(RemovalBranch branch, ProgressMonitor monitor)
+            throws InterruptedException{
+        
+        String errMsgForPMConError = "Connection failure while trying to remove virtual machines from physical machine " + branch.physicalMachine + ": ";
+        NativeVBoxAPIConnection natapiCon = NativeVBoxAPIConnection.getInstance();
+        List<OperationResult<VirtualMachine>> results = new ArrayList<>();
+        
+        VirtualBoxManager vbm;
+        try{
+            vbm = natapiCon.getVirtualBoxManager(branch.physicalMachine, errMsgForPMConError);
+        }catch(ConnectionFailureException | IncompatibleVirtToolAPIVersionException ex){
+            for(RemovalUnit unit : branch.units){
+                results.add(new OperationResult<>(unit.virtualMachine, false, ex.getMessage(), 0L));
+            }
+            return results;
+        }
+        IVirtualBox vbox = vbm.getVBox();
+        ISession session = vbm.getSessionObject();
+        Set<String> removedMachineIds = new HashSet<>();
+        Map<String, List<RemovalUnit>> unitsByParent = new LinkedHashMap<>();
+        
+        try{
+            for(RemovalUnit unit : branch.units){
+                if(Thread.currentThread().isInterrupted() || monitor.isDeadlineExceeded()){
+                    results.add(new OperationResult<>(unit.virtualMachine, false, "Removing virtual machine " + unit.virtualMachine + " failure: Operation has been cancelled or has not been finished before its deadline.", 0L));
+                    continue;
+                }
+                
+                unit.start = System.currentTimeMillis();
+                try{
+                    for(String machineId : unit.dependentMachineIds){
+                        if(removedMachineIds.add(machineId)){
+                            removeVBoxMachine(vbox.findMachine(machineId));
+                        }
+                    }
+                    removeVBoxMachine(vbox.findMachine(unit.machineId));
+                    removedMachineIds.add(unit.machineId);
+                }catch(VBoxException ex){
+                    results.add(new OperationResult<>(unit.virtualMachine, false, "Removing virtual machine " + unit.virtualMachine + " failure: " + ex.getMessage(),
+                                                      System.currentTimeMillis() - unit.start));
+                    continue;
+                }
+                
+                if(unit.parentMachineId != null){
+                    unitsByParent.computeIfAbsent(unit.parentMachineId, (id) -> new ArrayList<>()).add(unit);
+                }else{
+                    results.add(new OperationResult<>(unit.virtualMachine, true, "", System.currentTimeMillis() - unit.start));
+                }
+            }
+            
+            //linked base snapshots are deleted only once for each parent machine and only if the parent itself stays
+            for(Map.Entry<String, List<RemovalUnit>> entry : unitsByParent.entrySet()){
+                String message = "";
+                if(!removedMachineIds.contains(entry.getKey())){
+                    List<String> machineNames = new ArrayList<>();
+                    for(RemovalUnit unit : entry.getValue()){
+                        machineNames.add(unit.machineName);
+                    }
+                    try{
+                        String failures = deleteSnapshots(entry.getKey(), vbox, machineNames, session, monitor);
+                        if(!failures.isEmpty()){
+                            message = "Virtual machine has been removed, but its linked base snapshot could not be deleted: " + failures;
+                        }
+                    }catch(VBoxException | OperationTimeoutException ex){
+                        message = "Virtual machine has been removed, but its linked base snapshot could not be deleted: " + ex.getMessage();
+                    }catch(InterruptedException ex){
+                        Thread.currentThread().interrupt();
+                        message = "Virtual machine has been removed, but its linked base snapshot could not be deleted: " + ex.getMessage();
+                    }
+                }
+                for(RemovalUnit unit : entry.getValue()){
+                    results.add(new OperationResult<>(unit.virtualMachine, true, message, System.currentTimeMillis() - unit.start));
+                }
+            }
+        }finally{
+            if(session.getState() == SessionState.Locked){
+                session.unlockMachine();
+            }
+            MediumTreeCache.getInstance().invalidate(branch.physicalMachine);
+            try{
+                PortRuleIndex.getInstance().prune(branch.physicalMachine, vbox);
+                pruneHostPorts(branch.physicalMachine, vbox);
+            }catch(VBoxException ex){
+                System.err.println("Updating index of port forwarding rules on physical machine " + branch.physicalMachine + " failure: " + ex.getMessage());
+            }
+            vbm.disconnect();
+            vbm.cleanup();
+        }
+        
+        return results;
+    }
+    
+    //records the given mediums as found unused now and forgets the others, returns ids of the given mediums
+    //which have been found unused for at least MIN_GARBAGE_MEDIUM_AGE
+    private Set<String> recordUnusedMediums(PhysicalMachine physicalMachine, List<String> unusedMediumIds){
+        long now = System.currentTimeMillis();
+        Set<String> oldIds = new HashSet<>();
+        
+        synchronized(unusedMediumsFirstSeen){
+            Map<String, Long> firstSeen = unusedMediumsFirstSeen.computeIfAbsent(physicalMachine, (pm) -> new HashMap<>());
+            firstSeen.keySet().retainAll(unusedMediumIds);
+            for(String mediumId : unusedMediumIds){
+                if(now - firstSeen.computeIfAbsent(mediumId, (id) -> now) >= MIN_GARBAGE_MEDIUM_AGE){
+                    oldIds.add(mediumId);
+                }
+            }
+        }
+        
+        return oldIds;
+    }
+    
+    //linked base snapshots of all branches of snapshot trees, from which no existing linked clone has been created
+    private List<ISnapshot> getGarbageSnapshots(IVirtualBox vbox, MediumTree mediumTree){
+        List<ISnapshot> garbage = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        
+        for(IMachine vboxMachine : vbox.getMachines()){
+            if(!vboxMachine.getAccessible()){
+                continue;
+            }
+            
+            SnapshotTree snapshotTree = SnapshotTreeCache.getInstance().getSnapshotTree(vboxMachine);
+            for(String snapshotId : snapshotTree.getSnapshotIds()){
+                if(snapshotTree.getName(snapshotId).startsWith(LINKED_BASE_SNAPSHOT_PREFIX)
+                   && now - snapshotTree.getTimeStamp(snapshotId) > MIN_GARBAGE_SNAPSHOT_AGE){
+                    
+                    ISnapshot snapshot = vboxMachine.findSnapshot(snapshotId);
+                    if(!hasLinkedClones(snapshot, vboxMachine.getId(), mediumTree)){
+                        garbage.add(snapshot);
+                    }
+                }
+            }
+        }
+        
+        return garbage;
+    }
+    
+    //linked clones have their first medium created as a child of the medium attached in the snapshot
+    private boolean hasLinkedClones(ISnapshot snapshot, String machineId, MediumTree mediumTree){
+        String snapshotMediumId;
+        try{
+            snapshotMediumId = snapshot.getMachine().getMedium("SATA", 0, 0).getId();
+        }catch(VBoxException ex){
+            //without a hard disk nothing can be decided, so the snapshot is rather kept
+            return true;
+        }
+        
+        for(String childId : mediumTree.getChildrenIds(snapshotMediumId)){
+            String childMachineId = mediumTree.getMachineId(childId);
+            if(childMachineId != null && !childMachineId.equals(machineId)){
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private String getSnapshotDescription(ISnapshot snapshot){
+        return "\"" + snapshot.getName() + "\" of virtual machine \"" + snapshot.getMachine().getName() + "\"";
+    }
+    
+    private long getMediumSize(IMedium medium){
+        try{
+            return medium.getSize();
+        }catch(VBoxException ex){
+            return 0L;
+        }
+    }
+    
+    private boolean hasAnySuccessfulResult(List<OperationResult<VirtualMachine>> results){
+        for(OperationResult<VirtualMachine> result : results){
+            if(result.isSuccessful()){
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    //media created by the cloning are deleted together with the clone, so they do not stay on the disk
+    private void removeUnfinishedClone(IMachine vboxMachineClone){
+        List<IMedium> mediums;
+        try{
+            mediums = vboxMachineClone.unregister(CleanupMode.DetachAllReturnHardDisksOnly);
+        }catch(VBoxException ex){
+            //clone has not been registered yet, so its hard disks are found among its attachments
+            mediums = getAttachedHardDisks(vboxMachineClone);
+        }
+        try{
+            vboxMachineClone.deleteConfig(mediums);
+        }catch(VBoxException ex){
+            //there has not been created anything which should be deleted
+        }
+    }
+    
+    private List<IMedium> getAttachedHardDisks(IMachine vboxMachine){
+        List<IMedium> mediums = new ArrayList<>();
+        
+        try{
+            for(IMediumAttachment attachment : vboxMachine.getMediumAttachments()){
+                if(attachment.getType() == DeviceType.HardDisk && attachment.getMedium() != null){
+                    mediums.add(attachment.getMedium());
+                }
+            }
+        }catch(VBoxException ex){
+            //there are no attachments which could be read
+        }
+        return mediums;
+    }
+    
+    private void deleteLinkedBaseSnapshot(IMachine vboxMachine, ISnapshot snapshot, ISession session){
+        try{
+            vboxMachine.lockMachine(session, LockType.Shared);
+            IConsole console = session.getConsole();
+            IProgress p = console.deleteSnapshot(snapshot.getId());
+            p.waitForCompletion(-1);
+        }catch(VBoxException ex){
+            System.err.println("Deleting snapshot \"" + snapshot.getName() + "\" of unfinished clone failure: " + ex.getMessage());
+        }finally{
+            if(session.getState() == SessionState.Locked){
+                session.unlockMachine();
+            }
+            SnapshotTreeCache.getInstance().invalidate(vboxMachine.getId());
+        }
+    }
+    
+    //clones inherit port forwarding rules of their source, so their host ports are used by more rules
+    private void retainHostPorts(PhysicalMachine pm, IVirtualBox vbox, IMachine vboxMachine){
+        //allocator which has not been seeded yet reads the rules of the new machine when it is seeded
+        HostPortAllocator allocator = HostPortAllocatorRegistry.getInstance().getAllocator(pm);
+        if(allocator != null){
+            allocator.retainMachine(vbox, vboxMachine);
+        }
+    }
+    
+    private void pruneHostPorts(PhysicalMachine pm, IVirtualBox vbox){
+        HostPortAllocator allocator = HostPortAllocatorRegistry.getInstance().getAllocator(pm);
+        if(allocator != null){
+            allocator.prune(vbox);
+        }
+    }
+    
+    private HostPortAllocator getHostPortAllocator(PhysicalMachine pm) throws InterruptedException,
+            ConnectionFailureException, IncompatibleVirtToolAPIVersionException{
+        
+        String errMsgForPMConError = "Connection failure while trying to read port forwarding rules on physical machine " + pm + ": ";
+        HostPortAllocatorRegistry registry = HostPortAllocatorRegistry.getInstance();
+        HostPortAllocator allocator = registry.getAllocator(pm);
+        
+        if(allocator == null){
+            VirtualBoxManager vbm = NativeVBoxAPIConnection.getInstance().getVirtualBoxManager(pm, errMsgForPMConError);
+            try{
+                allocator = registry.getAllocator(pm, vbm.getVBox());
+            }finally{
+                vbm.disconnect();
+                vbm.cleanup();
+            }
+        }
+        
+        return allocator;
+    }
+    
     private void checkPMIsNotNull(PhysicalMachine pm, String errMsg){
         if(pm == null){
             throw new IllegalArgumentException(errMsg);
@@ -328,6 +1188,12 @@ final class NativeVBoxAPIManager {
         }
     }
     
+    private void checkCloneCountIsPositive(int count, String errMsg){
+        if(count < 1){
+            throw new IllegalArgumentException(errMsg);
+        }
+    }
+    
     private void checkVMStateForCloning(MachineState state, String errMsg) throws UnexpectedVMStateException{
         switch(state){
             case PoweredOff:
@@ -398,44 +1264,31 @@ final class NativeVBoxAPIManager {
         return vm;
     }
     
-    private boolean isLinkedClone(IMachine vboxMachine, IVirtualBox vbox){
-        IMedium baseMedium = vboxMachine.getMedium("SATA", 0, 0).getBase();
-        IMachine baseVBoxMachine = vbox.findMachine(baseMedium.getMachineIds().get(0));
-        
-        return (vboxMachine.getName().contains("_LinkClone") || !baseVBoxMachine.getId().equals(vboxMachine.getId()));
+    private boolean isLinkedClone(IMachine vboxMachine, String attachedMediumId, MediumTree mediumTree){
+        return (vboxMachine.getName().contains("_LinkClone") || mediumTree.isLinkedClone(vboxMachine.getId(), attachedMediumId));
     }
     
-    private void removeVMAsSnapshot(IMachine vboxMachine, IVirtualBox vbox, ISession session){
-        String machineName = vboxMachine.getName();
-        IMedium medium = vboxMachine.getMedium("SATA", 0, 0);
-        IMedium parentMedium;
+    private void removeVMAsSnapshot(IMachine vboxMachine, String attachedMediumId, MediumTree mediumTree, IVirtualBox vbox,
+            ISession session, ProgressMonitor monitor) throws InterruptedException, OperationTimeoutException,
+            UnexpectedVMStateException{
         
-        while(medium.getParent().getMachineIds().get(0).equals(vboxMachine.getId())){
-            IMedium m = medium.getParent();
-            medium = m;
-        }        
-        parentMedium = medium.getParent();
+        String machineName = vboxMachine.getName();
+        String topMediumId = mediumTree.getTopMediumOfMachine(vboxMachine.getId(), attachedMediumId);
+        String parentMachineId = mediumTree.getMachineId(mediumTree.getParentId(topMediumId));
         
-        removeLinkedCloneChildren(medium,vbox);
+        removeLinkedCloneChildren(topMediumId, mediumTree, vbox);
         removeVBoxMachine(vboxMachine);
-        deleteSnapshot(parentMedium, vbox, machineName, session);
+        if(parentMachineId != null){
+            String message = deleteSnapshot(parentMachineId, vbox, machineName, session, monitor);
+            if(!message.isEmpty()){
+                throw new UnexpectedVMStateException(message);
+            }
+        }
     }
     
-    private void removeLinkedCloneChildren(IMedium medium, IVirtualBox vbox){
-        List<IMedium> meds = medium.getChildren();
-        IMachine machine = vbox.findMachine(medium.getMachineIds().get(0));
-        
-        if(!meds.isEmpty()){
-            for(IMedium med : meds){
-                IMachine am = vbox.findMachine(med.getMachineIds().get(0));
-                if(am.getId().equals(machine.getId())){
-                    am = null;
-                }
-                removeLinkedCloneChildren(med,vbox);
-                if(am != null){
-                    removeVBoxMachine(am);
-                }
-            }
+    private void removeLinkedCloneChildren(String mediumId, MediumTree mediumTree, IVirtualBox vbox){
+        for(String machineId : mediumTree.getDependentMachineIds(mediumId)){
+            removeVBoxMachine(vbox.findMachine(machineId));
         }
     }
     
@@ -444,45 +1297,110 @@ final class NativeVBoxAPIManager {
         vboxMachine.deleteConfig(mediums);
     }
     
-    private void removeVMAsStandaloneUnit(IMachine vboxMachine, IVirtualBox vbox){
-        IMedium medium = vboxMachine.getMedium("SATA", 0, 0);
-        
-        while(medium.getParent().getMachineIds().get(0).equals(vboxMachine.getId())){
-            IMedium m = medium.getParent();
-            medium = m;
-        }
+    private void removeVMAsStandaloneUnit(IMachine vboxMachine, String attachedMediumId, MediumTree mediumTree, IVirtualBox vbox){
+        String topMediumId = mediumTree.getTopMediumOfMachine(vboxMachine.getId(), attachedMediumId);
         
-        removeLinkedCloneChildren(medium,vbox);
+        removeLinkedCloneChildren(topMediumId, mediumTree, vbox);
         removeVBoxMachine(vboxMachine);
     }
     
-    private void deleteSnapshot(IMedium parentMedium, IVirtualBox vbox, String machineName, ISession session){
-        IMachine parentMachine = vbox.findMachine(parentMedium.getMachineIds().get(0));
-        ISnapshot snapshot = parentMachine.findSnapshot(null);
+    private String deleteSnapshot(String parentMachineId, IVirtualBox vbox, String machineName, ISession session,
+            ProgressMonitor monitor) throws InterruptedException, OperationTimeoutException{
         
-        for(long i = 0; i < parentMachine.getSnapshotCount(); ++i){            
-            ISnapshot tmp;
-            if(!snapshot.getChildren().isEmpty()){
-                tmp = snapshot.getChildren().get(0);
-            }else{
-                tmp = null;
+        return deleteSnapshots(parentMachineId, vbox, Arrays.asList(machineName), session, monitor);
+    }
+    
+    //deletes linked base snapshots of all the given machines from all branches of snapshot tree,
+    //the parent machine is locked only once, returns description of deletions which failed or an empty string
+    private String deleteSnapshots(String parentMachineId, IVirtualBox vbox, Collection<String> machineNames, ISession session,
+            ProgressMonitor monitor) throws InterruptedException, OperationTimeoutException{
+        
+        IMachine parentMachine = vbox.findMachine(parentMachineId);
+        SnapshotTree snapshotTree = SnapshotTreeCache.getInstance().getSnapshotTree(parentMachine);
+        Set<String> existingMachineNames = getMachineNames(vbox);
+        List<String> snapshotIds = new ArrayList<>();
+        
+        for(String snapshotId : snapshotTree.getSnapshotIds()){
+            String snapshotName = snapshotTree.getName(snapshotId);
+            String snapshotDescription = snapshotTree.getDescription(snapshotId);
+            //snapshot still shared by other linked clones created by the same bulk cloning job is kept
+            if(isLinkedBaseSnapshotOf(snapshotName, snapshotDescription, parentMachine.getName(), machineNames)
+               && !isLinkedBaseSnapshotOf(snapshotName, snapshotDescription, parentMachine.getName(), existingMachineNames)){
+                snapshotIds.add(snapshotId);
             }
-            
-            if(snapshot.getName().contains(machineName)){
-                parentMachine.lockMachine(session, LockType.Write);
-                IConsole console = session.getConsole();
-                IProgress p = console.deleteSnapshot(snapshot.getId());
-                while(!p.getCompleted()){
-                    //do nothing, just loop while condition is true
+        }
+        if(snapshotIds.isEmpty()){
+            return "";
+        }
+        
+        StringBuilder failures = new StringBuilder();
+        parentMachine.lockMachine(session, LockType.Write);
+        try{
+            IConsole console = session.getConsole();
+            for(String snapshotId : snapshotIds){
+                String errMsgForDeletion = "Deleting snapshot \"" + snapshotTree.getName(snapshotId) + "\" failure: ";
+                try{
+                    IProgress p = console.deleteSnapshot(snapshotId);
+                    monitor.waitForCompletion(p, "Deleting snapshot \"" + snapshotTree.getName(snapshotId) + "\"");
+                    if(p.getResultCode() != 0){
+                        appendFailure(failures, errMsgForDeletion + p.getErrorInfo().getText());
+                    }
+                }catch(VBoxException ex){
+                    appendFailure(failures, errMsgForDeletion + ex.getMessage());
                 }
-                session.unlockMachine();
             }
-            
-            snapshot = tmp;
+        }finally{
+            session.unlockMachine();
+            SnapshotTreeCache.getInstance().invalidate(parentMachineId);
+        }
+        
+        return failures.toString();
+    }
+    
+    private Set<String> getMachineNames(IVirtualBox vbox){
+        Set<String> machineNames = new HashSet<>();
+        
+        for(IMachine vboxMachine : vbox.getMachines()){
+            if(vboxMachine.getAccessible()){
+                machineNames.add(vboxMachine.getName());
+            }
+        }
+        return machineNames;
+    }
+    
+    private static void appendFailure(StringBuilder failures, String failure){
+        if(failures.length() > 0){
+            failures.append(" ");
+        }
+        failures.append(failure);
+    }
+    
+    //linked base snapshot is named "Linked Base For <parent> and ..." and lists its clones one per line
+    //in the description, snapshots without description name their only clone after "and"
+    static boolean isLinkedBaseSnapshotOf(String snapshotName, String snapshotDescription, String parentMachineName,
+            Collection<String> machineNames){
+        String prefix = LINKED_BASE_SNAPSHOT_PREFIX + parentMachineName + " and ";
+        
+        if(snapshotName == null || !snapshotName.startsWith(prefix)){
+            return false;
+        }
+        if(snapshotDescription == null || snapshotDescription.isEmpty()){
+            return machineNames.contains(snapshotName.substring(prefix.length()));
+        }
+        
+        for(String cloneName : snapshotDescription.split(LINKED_BASE_SNAPSHOT_SEPARATOR)){
+            if(machineNames.contains(cloneName)){
+                return true;
+            }
         }
+        return false;
     }
     
     private String getNewCloneName(String origName, IVirtualBox vbox, CloneType cloneType){
+        return getNewCloneNames(origName, vbox, cloneType, 1).get(0);
+    }
+    
+    private List<String> getNewCloneNames(String origName, IVirtualBox vbox, CloneType cloneType, int count){
         String sufix = null;
         
         switch(cloneType){
@@ -493,29 +1411,37 @@ final class NativeVBoxAPIManager {
             default: throw new IllegalArgumentException("Cloning virtual machine " + origName + " failure: There was used illegal type of clone.");
         }
         
-        int count = 1;
-        String cloneName = origName + sufix + count;
+        List<String> cloneNames = new ArrayList<>();
+        int number = 1;
         
-        for(;;){
+        while(cloneNames.size() < count){
+            String cloneName = origName + sufix + number;
             try{
                 vbox.findMachine(cloneName);
-                break;
             }catch(VBoxException ex){
-                ++count;
-                cloneName = origName + sufix + count;
+                //there is no machine with such a name yet, so the name can be used
+                cloneNames.add(cloneName);
             }
+            ++number;
         }
         
-        return cloneName;
-        
+        return cloneNames;
     }
     
-    private void takeSnapshot(IMachine vboxMachine, ISession session, String cloneName){
+    //names of all clones sharing the snapshot are recorded one per line in its description,
+    //the snapshot name itself stays bounded
+    private void takeSnapshot(IMachine vboxMachine, ISession session, List<String> cloneNames, ProgressMonitor monitor)
+            throws InterruptedException, OperationTimeoutException{
+        
+        String snapshotName = LINKED_BASE_SNAPSHOT_PREFIX + vboxMachine.getName() + " and "
+                              + (cloneNames.size() == 1 ? cloneNames.get(0) : cloneNames.size() + " clones");
         vboxMachine.lockMachine(session, LockType.Shared);
         IConsole c = session.getConsole();
-        IProgress p = c.takeSnapshot("Linked Base For " + vboxMachine.getName() + " and " + cloneName, null);
-        while(!p.getCompleted()){
-            //do nothing, just loop until snapshot is created
+        IProgress p = c.takeSnapshot(snapshotName, String.join(LINKED_BASE_SNAPSHOT_SEPARATOR, cloneNames));
+        try{
+            monitor.waitForCompletion(p, "Taking snapshot of virtual machine \"" + vboxMachine.getName() + "\"");
+        }finally{
+            SnapshotTreeCache.getInstance().invalidate(vboxMachine.getId());
         }
         session.unlockMachine();
     }
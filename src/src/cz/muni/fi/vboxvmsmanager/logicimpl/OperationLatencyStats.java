@@ -0,0 +1,89 @@
+/*
+ * Copyright 2015 Tomáš Šmíd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.muni.fi.vboxvmsmanager.logicimpl;
+
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.PhysicalMachine;
+import cz.muni.fi.vboxvmsmanager.pubapi.types.OperationType;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ *
+ * @author Tomáš Šmíd
+ */
+class OperationLatencyStats {
+    
+    private static final OperationLatencyStats INSTANCE = new OperationLatencyStats();
+    //weight of the newest latency in the moving average, so older latencies are forgotten gradually
+    private static final double NEWEST_LATENCY_WEIGHT = 0.2;
+    private final Map<PhysicalMachine, Map<OperationType, Latency>> latencies = new ConcurrentHashMap<>();
+    
+    private static final class Latency{
+        private double average = 0.0;
+        private long count = 0L;
+        
+        public synchronized void add(long duration){
+            average = (count == 0L ? duration : average + NEWEST_LATENCY_WEIGHT * (duration - average));
+            ++count;
+        }
+        
+        public synchronized long getAverage(){
+            return Math.round(average);
+        }
+        
+        public synchronized long getCount(){
+            return count;
+        }
+    }
+    
+    public static OperationLatencyStats getInstance(){
+        return INSTANCE;
+    }
+    
+    private OperationLatencyStats(){ }
+    
+    //only durations of successfully finished operations should be recorded
+    public void record(PhysicalMachine physicalMachine, OperationType type, long duration){
+        latencies.computeIfAbsent(physicalMachine, (pm) -> new ConcurrentHashMap<>())
+                 .computeIfAbsent(type, (t) -> new Latency()).add(duration);
+    }
+    
+    //physical machine which has not performed the operation yet is expected to be as fast as the other ones,
+    //returns -1 when the operation has not been performed on any physical machine
+    public long getEstimate(PhysicalMachine physicalMachine, OperationType type){
+        Map<OperationType, Latency> hostLatencies = latencies.get(physicalMachine);
+        Latency latency = (hostLatencies == null ? null : hostLatencies.get(type));
+        if(latency != null){
+            return latency.getAverage();
+        }
+        
+        long weightedSum = 0L;
+        long count = 0L;
+        for(Map<OperationType, Latency> otherLatencies : latencies.values()){
+            Latency otherLatency = otherLatencies.get(type);
+            if(otherLatency != null){
+                weightedSum += otherLatency.getAverage() * otherLatency.getCount();
+                count += otherLatency.getCount();
+            }
+        }
+        
+        return (count == 0L ? -1L : weightedSum / count);
+    }
+    
+    public void clear(){
+        latencies.clear();
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2015 Tomáš Šmíd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.muni.fi.vboxvmsmanager.logicimpl;
+
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.OperationPlan;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.PhysicalMachine;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.PlannedOperation;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.VirtualMachine;
+import cz.muni.fi.vboxvmsmanager.pubapi.types.CloneType;
+import cz.muni.fi.vboxvmsmanager.pubapi.types.OperationType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ *
+ * @author Tomáš Šmíd
+ */
+class OperationPlanner {
+    
+    private static final OperationPlanner INSTANCE = new OperationPlanner();
+    
+    public static OperationPlanner getInstance(){
+        return INSTANCE;
+    }
+    
+    private OperationPlanner(){ }
+    
+    public PlannedOperation estimate(OperationType type, String virtualMachineName, PhysicalMachine physicalMachine){
+        return new PlannedOperation(type, virtualMachineName, physicalMachine,
+                                    OperationLatencyStats.getInstance().getEstimate(physicalMachine, type));
+    }
+    
+    public static OperationType getCloneOperationType(CloneType cloneType){
+        return (cloneType == CloneType.LINKED ? OperationType.LINKED_CLONE : OperationType.FULL_CLONE);
+    }
+    
+    //the same operation planned for each of the virtual machines
+    public OperationPlan plan(Collection<VirtualMachine> virtualMachines, OperationType type, int maxParallel,
+                              long startInterval){
+        List<List<PlannedOperation>> chains = new ArrayList<>();
+        for(VirtualMachine vm : virtualMachines){
+            if(vm != null){
+                chains.add(Arrays.asList(estimate(type, vm.getName(), vm.getHostMachine())));
+            }
+        }
+        
+        return plan(chains, maxParallel, startInterval);
+    }
+    
+    //operations of one chain are performed one after another, chains of each physical machine are performed
+    //by at most maxParallel workers in the given order and each chain is started at least startInterval
+    //milliseconds after the previous one
+    public OperationPlan plan(List<List<PlannedOperation>> chains, int maxParallel, long startInterval){
+        List<PlannedOperation> operations = new ArrayList<>();
+        Map<PhysicalMachine, List<Long>> chainDurationsByHost = new LinkedHashMap<>();
+        for(List<PlannedOperation> chain : chains){
+            if(chain.isEmpty()){
+                continue;
+            }
+            long chainDuration = 0L;
+            for(PlannedOperation operation : chain){
+                operations.add(operation);
+                chainDuration += Math.max(0L, operation.getEstimatedDuration());
+            }
+            chainDurationsByHost.computeIfAbsent(chain.get(0).getHostMachine(), (pm) -> new ArrayList<>()).add(chainDuration);
+        }
+        
+        Map<PhysicalMachine, Long> estimatedDurations = new LinkedHashMap<>();
+        for(Map.Entry<PhysicalMachine, List<Long>> entry : chainDurationsByHost.entrySet()){
+            estimatedDurations.put(entry.getKey(), simulate(entry.getValue(), maxParallel, startInterval));
+        }
+        
+        return new OperationPlan(operations, estimatedDurations);
+    }
+    
+    static void printPlan(String operationName, OperationPlan plan){
+        for(PlannedOperation operation : plan.getOperations()){
+            System.out.println(operation);
+        }
+        for(Map.Entry<PhysicalMachine, Long> entry : plan.getEstimatedDurations().entrySet()){
+            System.out.println(operationName + " on physical machine " + entry.getKey() + " is estimated to take " + entry.getValue() + " ms");
+        }
+        if(!plan.isFullyEstimated()){
+            System.out.println(operationName + " estimates do not include operations which have never been performed before");
+        }
+    }
+    
+    //each chain is given to the worker which becomes free first
+    static long simulate(List<Long> chainDurations, int maxParallel, long startInterval){
+        PriorityQueue<Long> workerFreeTimes = new PriorityQueue<>();
+        for(int i = 0; i < Math.min(Math.max(1, maxParallel), chainDurations.size()); ++i){
+            workerFreeTimes.add(0L);
+        }
+        
+        long end = 0L;
+        for(int i = 0; i < chainDurations.size(); ++i){
+            long start = Math.max(workerFreeTimes.poll(), i * startInterval);
+            long chainEnd = start + chainDurations.get(i);
+            workerFreeTimes.add(chainEnd);
+            end = Math.max(end, chainEnd);
+        }
+        
+        return end;
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2015 Tomáš Šmíd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.muni.fi.vboxvmsmanager.logicimpl;
+
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.PhysicalMachine;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.PortRule;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.PortRuleOwner;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.VirtualMachine;
+import cz.muni.fi.vboxvmsmanager.pubapi.types.ProtocolType;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import org.virtualbox_4_3.IMachine;
+import org.virtualbox_4_3.IVirtualBox;
+import org.virtualbox_4_3.VBoxException;
+
+/**
+ *
+ * @author Tomáš Šmíd
+ */
+class PortRuleIndex {
+    
+    private static final PortRuleIndex INSTANCE = new PortRuleIndex();
+    private final Map<PortKey, PortRuleOwner> owners = new ConcurrentHashMap<>();
+    //keys of rules of each virtual machine, so that all its rules can be replaced at once
+    private final Map<PhysicalMachine, Map<UUID, Set<PortKey>>> keysByMachine = new HashMap<>();
+    
+    private static final class PortKey{
+        private final PhysicalMachine physicalMachine;
+        private final ProtocolType protocol;
+        private final int hostPort;
+        
+        PortKey(PhysicalMachine physicalMachine, ProtocolType protocol, int hostPort){
+            this.physicalMachine = physicalMachine;
+            this.protocol = protocol;
+            this.hostPort = hostPort;
+        }
+        
+        @Override
+        public boolean equals(Object obj){
+            if(obj == this) return true;
+            if(!(obj instanceof PortKey)) return false;
+            PortKey key = (PortKey)obj;
+            return this.physicalMachine.equals(key.physicalMachine) && this.protocol == key.protocol &&
+                   this.hostPort == key.hostPort;
+        }
+        
+        @Override
+        public int hashCode() {
+            int hash = 7;
+            hash = 31 * hash + Objects.hashCode(this.physicalMachine);
+            hash = 31 * hash + Objects.hashCode(this.protocol);
+            hash = 31 * hash + this.hostPort;
+            return hash;
+        }
+    }
+    
+    public static PortRuleIndex getInstance(){
+        return INSTANCE;
+    }
+    
+    private PortRuleIndex(){ }
+    
+    public PortRuleOwner lookup(PhysicalMachine physicalMachine, ProtocolType protocol, int hostPort){
+        return owners.get(new PortKey(physicalMachine, protocol, hostPort));
+    }
+    
+    //indexes rules of all NAT network adapters of all virtual machines on the physical machine
+    public void seed(PhysicalMachine physicalMachine, IVirtualBox vbox){
+        Map<VirtualMachine, List<PortRule>> rulesByMachine = new HashMap<>();
+        
+        for(IMachine vboxMachine : vbox.getMachines()){
+            try{
+                if(!vboxMachine.getAccessible()){
+                    continue;
+                }
+                VirtualMachine vm = new VirtualMachine.Builder(UUID.fromString(vboxMachine.getId()), vboxMachine.getName(),
+                                                               physicalMachine).build();
+                List<PortRule> rules = new ArrayList<>();
+                for(long slot : NativeVBoxAPIMachine.getNATAdapterSlots(vbox, vboxMachine)){
+                    for(String redirect : vboxMachine.getNetworkAdapter(slot).getNATEngine().getRedirects()){
+                        rules.add(NATRedirectParser.parse(redirect, slot));
+                    }
+                }
+                rulesByMachine.put(vm, rules);
+            }catch(VBoxException ex){
+                //virtual machine has been removed meanwhile
+            }
+        }
+        
+        synchronized(this){
+            removePhysicalMachine(physicalMachine);
+            for(Map.Entry<VirtualMachine, List<PortRule>> entry : rulesByMachine.entrySet()){
+                update(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+    
+    //replaces all the indexed rules of the virtual machine
+    public synchronized void update(VirtualMachine virtualMachine, Collection<PortRule> portRules){
+        removeVirtualMachine(virtualMachine);
+        for(PortRule portRule : portRules){
+            add(virtualMachine, portRule);
+        }
+    }
+    
+    public synchronized void add(VirtualMachine virtualMachine, PortRule portRule){
+        PortKey key = new PortKey(virtualMachine.getHostMachine(), portRule.getProtocol(), portRule.getHostPort());
+        
+        owners.put(key, new PortRuleOwner(virtualMachine, portRule));
+        keysByMachine.computeIfAbsent(virtualMachine.getHostMachine(), (pm) -> new HashMap<>())
+                     .computeIfAbsent(virtualMachine.getId(), (id) -> new HashSet<>()).add(key);
+    }
+    
+    public synchronized void remove(VirtualMachine virtualMachine, String ruleName, long adapterSlot){
+        Set<PortKey> keys = getKeys(virtualMachine);
+        
+        for(PortKey key : new ArrayList<>(keys)){
+            PortRuleOwner owner = owners.get(key);
+            if(owner != null && owner.getVirtualMachine().getId().equals(virtualMachine.getId()) &&
+               owner.getPortRule().getName().equals(ruleName) && owner.getPortRule().getAdapterSlot() == adapterSlot){
+                owners.remove(key);
+                keys.remove(key);
+            }
+        }
+    }
+    
+    public synchronized void removeVirtualMachine(VirtualMachine virtualMachine){
+        Set<PortKey> keys = getKeys(virtualMachine);
+        
+        for(PortKey key : keys){
+            PortRuleOwner owner = owners.get(key);
+            //the key could be taken over by another virtual machine meanwhile
+            if(owner != null && owner.getVirtualMachine().getId().equals(virtualMachine.getId())){
+                owners.remove(key);
+            }
+        }
+        keys.clear();
+    }
+    
+    //drops rules of virtual machines which do not exist on the physical machine anymore
+    public void prune(PhysicalMachine physicalMachine, IVirtualBox vbox){
+        Set<UUID> existingIds = new HashSet<>();
+        for(IMachine vboxMachine : vbox.getMachines()){
+            existingIds.add(UUID.fromString(vboxMachine.getId()));
+        }
+        
+        synchronized(this){
+            Map<UUID, Set<PortKey>> machines = keysByMachine.get(physicalMachine);
+            if(machines == null){
+                return;
+            }
+            for(UUID id : new ArrayList<>(machines.keySet())){
+                if(!existingIds.contains(id)){
+                    for(PortKey key : machines.remove(id)){
+                        PortRuleOwner owner = owners.get(key);
+                        if(owner != null && owner.getVirtualMachine().getId().equals(id)){
+                            owners.remove(key);
+                        }
+                    }
+                }
+            }
+        }
+    }
+    
+    public synchronized void removePhysicalMachine(PhysicalMachine physicalMachine){
+        Map<UUID, Set<PortKey>> machines = keysByMachine.remove(physicalMachine);
+        
+        if(machines != null){
+            for(Set<PortKey> keys : machines.values()){
+                for(PortKey key : keys){
+                    owners.remove(key);
+                }
+            }
+        }
+    }
+    
+    private Set<PortKey> getKeys(VirtualMachine virtualMachine){
+        return keysByMachine.computeIfAbsent(virtualMachine.getHostMachine(), (pm) -> new HashMap<>())
+                            .computeIfAbsent(virtualMachine.getId(), (id) -> new HashSet<>());
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2015 Tomáš Šmíd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.muni.fi.vboxvmsmanager.logicimpl;
+
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.PortRule;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ *
+ * @author Tomáš Šmíd
+ */
+class PortRuleTableCache {
+    
+    private static final PortRuleTableCache INSTANCE = new PortRuleTableCache();
+    //tables are identified by id of their machine and slot of their network adapter
+    private final Map<String, Map<Long, PortRuleTable>> tables = new ConcurrentHashMap<>();
+    
+    private static final class PortRuleTable{
+        private final List<String> redirects;
+        private final List<PortRule> portRules;
+        
+        public PortRuleTable(List<String> redirects, List<PortRule> portRules){
+            this.redirects = redirects;
+            this.portRules = portRules;
+        }
+    }
+    
+    public static PortRuleTableCache getInstance(){
+        return INSTANCE;
+    }
+    
+    private PortRuleTableCache(){ }
+    
+    //redirects are parsed again only when they differ from the ones of the cached table,
+    //so the table cannot be stale even if rules are changed by anyone else than this library
+    public List<PortRule> getPortRules(String machineId, long adapterSlot, List<String> redirects){
+        Map<Long, PortRuleTable> machineTables = tables.computeIfAbsent(machineId, id -> new ConcurrentHashMap<>());
+        PortRuleTable table = machineTables.get(adapterSlot);
+        
+        if(table == null || !table.redirects.equals(redirects)){
+            List<PortRule> portRules = new ArrayList<>(redirects.size());
+            for(String redirect : redirects){
+                portRules.add(NATRedirectParser.parse(redirect, adapterSlot));
+            }
+            table = new PortRuleTable(new ArrayList<>(redirects), Collections.unmodifiableList(portRules));
+            machineTables.put(adapterSlot, table);
+        }
+        
+        return table.portRules;
+    }
+    
+    //should be called whenever port rules of machine are changed or the machine is removed
+    public void invalidate(String machineId){
+        tables.remove(machineId);
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2015 Tomáš Šmíd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.muni.fi.vboxvmsmanager.logicimpl;
+
+import cz.muni.fi.vboxvmsmanager.pubapi.exceptions.OperationTimeoutException;
+import cz.muni.fi.vboxvmsmanager.pubapi.listeners.ProgressListener;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.virtualbox_4_3.IProgress;
+import org.virtualbox_4_3.VBoxException;
+
+/**
+ *
+ * @author Tomáš Šmíd
+ */
+class ProgressMonitor {
+    
+    private static final int POLL_INTERVAL = 200;
+    private static final int CANCEL_WAIT_TIME = 10000;
+    static final long NOTIFICATION_INTERVAL = 1000L;
+    private final long deadline;
+    private final ProgressListener listener;
+    //one monitor can be shared by operations running in parallel (e.g. independent branches of bulk removal)
+    private final Map<String, ProgressRecord> records = new ConcurrentHashMap<>();
+    
+    //monitor without any deadline, operation can be only interrupted
+    ProgressMonitor(){
+        this(null);
+    }
+    
+    ProgressMonitor(ProgressListener listener){
+        this.deadline = Long.MAX_VALUE;
+        this.listener = listener;
+    }
+    
+    ProgressMonitor(long timeout){
+        this(timeout, null);
+    }
+    
+    ProgressMonitor(long timeout, ProgressListener listener){
+        if(timeout <= 0L){
+            throw new IllegalArgumentException("Progress monitor inicialization failure: Timeout must be a positive number of milliseconds, but it is " + timeout + ".");
+        }
+        long now = System.currentTimeMillis();
+        this.deadline = (Long.MAX_VALUE - now < timeout ? Long.MAX_VALUE : now + timeout);
+        this.listener = listener;
+    }
+    
+    public void waitForCompletion(IProgress progress, String operation) throws InterruptedException,
+            OperationTimeoutException{
+        
+        while(!waitForCompletion(progress, operation, POLL_INTERVAL)){
+            //just loop until the operation is completed, cancelled or the deadline is exceeded
+        }
+    }
+    
+    //waits at most maxWait milliseconds and returns whether the operation has been completed
+    public boolean waitForCompletion(IProgress progress, String operation, int maxWait) throws InterruptedException,
+            OperationTimeoutException{
+        
+        if(progress.getCompleted()){
+            report(progress, operation);
+            return true;
+        }
+        
+        if(Thread.currentThread().isInterrupted()){
+            cancel(progress);
+            throw new InterruptedException(operation + " failure: Operation has been cancelled.");
+        }
+        
+        long remaining = deadline - System.currentTimeMillis();
+        if(remaining <= 0L){
+            cancel(progress);
+            throw new OperationTimeoutException(operation + " failure: Operation has not been finished before its deadline and has been cancelled.");
+        }
+        
+        progress.waitForCompletion((int)Math.min(maxWait, remaining));
+        report(progress, operation);
+        
+        return progress.getCompleted();
+    }
+    
+    //notifies the listener about the actual progress of operation, at most once per NOTIFICATION_INTERVAL
+    //unless the operation has been completed
+    public void report(IProgress progress, String operation){
+        if(listener == null){
+            return;
+        }
+        
+        long now = System.currentTimeMillis();
+        ProgressRecord record = records.get(operation);
+        if(record == null){
+            record = new ProgressRecord(now);
+            records.put(operation, record);
+        }
+        
+        boolean completed = progress.getCompleted();
+        long percent = (completed ? 100L : progress.getPercent());
+        if(percent == record.lastPercent || (!completed && now - record.lastNotification < NOTIFICATION_INTERVAL)){
+            return;
+        }
+        record.lastPercent = percent;
+        record.lastNotification = now;
+        
+        try{
+            listener.progressChanged(operation, percent, estimateRemainingTime(record.start, now, percent));
+        }catch(RuntimeException ex){
+            //a faulty listener must not break the operation itself
+            System.err.println("Progress notification failure: " + ex.getMessage());
+        }
+    }
+    
+    public boolean isDeadlineExceeded(){
+        return System.currentTimeMillis() >= deadline;
+    }
+    
+    static long estimateRemainingTime(long start, long now, long percent){
+        if(percent >= 100L){
+            return 0L;
+        }
+        if(percent <= 0L || now <= start){
+            return -1L;
+        }
+        
+        return (now - start) * (100L - percent) / percent;
+    }
+    
+    public void cancel(IProgress progress){
+        try{
+            if(!progress.getCompleted() && progress.getCancelable()){
+                progress.cancel();
+                progress.waitForCompletion(CANCEL_WAIT_TIME);
+            }
+        }catch(VBoxException ex){
+            //operation has been finished or cancelled meanwhile
+        }
+    }
+    
+    private static class ProgressRecord{
+        
+        private final long start;
+        private long lastPercent = -1L;
+        private long lastNotification = 0L;
+        
+        ProgressRecord(long start){
+            this.start = start;
+        }
+    }
+}
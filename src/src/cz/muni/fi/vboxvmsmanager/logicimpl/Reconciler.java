@@ -0,0 +1,323 @@
+/*
+ * Copyright 2015 Tomáš Šmíd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.muni.fi.vboxvmsmanager.logicimpl;
+
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.DesiredVMState;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.OperationPlan;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.OperationResult;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.PhysicalMachine;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.PlannedOperation;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.PortRule;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.ReconciliationAction;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.VirtualMachine;
+import cz.muni.fi.vboxvmsmanager.pubapi.exceptions.ConnectionFailureException;
+import cz.muni.fi.vboxvmsmanager.pubapi.exceptions.IncompatibleVirtToolAPIVersionException;
+import cz.muni.fi.vboxvmsmanager.pubapi.exceptions.OperationTimeoutException;
+import cz.muni.fi.vboxvmsmanager.pubapi.exceptions.PortRuleDuplicityException;
+import cz.muni.fi.vboxvmsmanager.pubapi.exceptions.UnexpectedVMStateException;
+import cz.muni.fi.vboxvmsmanager.pubapi.exceptions.UnknownVirtualMachineException;
+import cz.muni.fi.vboxvmsmanager.pubapi.types.OperationType;
+import cz.muni.fi.vboxvmsmanager.pubapi.types.ReconciliationActionType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ *
+ * @author Tomáš Šmíd
+ */
+class Reconciler {
+    
+    private static final Reconciler INSTANCE = new Reconciler();
+    static final List<String> RUNNING_STATES = Arrays.asList("Running", "Paused", "Stuck");
+    
+    public static Reconciler getInstance(){
+        return INSTANCE;
+    }
+    
+    private Reconciler(){ }
+    
+    //compares the desired states with the actual ones, actions of every virtual machine are returned in the order
+    //in which they have to be performed
+    public List<ReconciliationAction> plan(Collection<DesiredVMState> desiredStates) throws InterruptedException,
+            ConnectionFailureException, IncompatibleVirtToolAPIVersionException, UnexpectedVMStateException{
+        
+        NativeVBoxAPIManager natapiMan = NativeVBoxAPIManager.getInstance();
+        NativeVBoxAPIMachine natapiMach = NativeVBoxAPIMachine.getInstance();
+        
+        checkDesiredStatesAreValid(desiredStates);
+        
+        List<ReconciliationAction> actions = new ArrayList<>();
+        Map<PhysicalMachine, Map<String, VirtualMachine>> inventories = new HashMap<>();
+        for(DesiredVMState desiredState : desiredStates){
+            Map<String, VirtualMachine> inventory = inventories.get(desiredState.getHostMachine());
+            if(inventory == null){
+                inventory = new HashMap<>();
+                for(VirtualMachine vm : natapiMan.getVirtualMachines(desiredState.getHostMachine())){
+                    inventory.put(vm.getName(), vm);
+                }
+                inventories.put(desiredState.getHostMachine(), inventory);
+            }
+            
+            VirtualMachine vm = inventory.get(desiredState.getName());
+            String state = null;
+            List<PortRule> portRules = null;
+            try{
+                if(vm != null && desiredState.getRunning() != null){
+                    state = natapiMach.getVMState(vm);
+                }
+                if(vm != null && desiredState.getPortRules() != null){
+                    portRules = natapiMach.getPortRules(vm);
+                }
+            }catch(UnknownVirtualMachineException ex){
+                //virtual machine has been removed meanwhile
+                vm = null;
+            }
+            actions.addAll(diff(desiredState, vm, state, portRules));
+        }
+        
+        return actions;
+    }
+    
+    //actions of one virtual machine are performed one after another, virtual machines of each physical machine
+    //are reconciled in parallel by at most maxParallelVMs workers
+    public List<OperationResult<ReconciliationAction>> execute(List<ReconciliationAction> actions, int maxParallelVMs,
+            ProgressMonitor monitor) throws InterruptedException{
+        
+        String errMsgForParallelVMsCheck = "Reconciliation failure: Count of virtual machines reconciled in parallel must be a positive number, but it is " + maxParallelVMs + ".";
+        AsyncOperationExecutor executor = AsyncOperationExecutor.getInstance();
+        
+        if(maxParallelVMs <= 0){
+            throw new IllegalArgumentException(errMsgForParallelVMsCheck);
+        }
+        
+        Map<DesiredVMState, List<ReconciliationAction>> actionsByVM = new IdentityHashMap<>();
+        Map<PhysicalMachine, Queue<List<ReconciliationAction>>> vmActionsByHost = new LinkedHashMap<>();
+        for(ReconciliationAction action : actions){
+            List<ReconciliationAction> vmActions = actionsByVM.get(action.getDesiredState());
+            if(vmActions == null){
+                vmActions = new ArrayList<>();
+                actionsByVM.put(action.getDesiredState(), vmActions);
+                vmActionsByHost.computeIfAbsent(action.getDesiredState().getHostMachine(), (pm) -> new ConcurrentLinkedQueue<>())
+                               .add(vmActions);
+            }
+            vmActions.add(action);
+        }
+        
+        List<Future<List<OperationResult<ReconciliationAction>>>> futures = new ArrayList<>();
+        for(Queue<List<ReconciliationAction>> queue : vmActionsByHost.values()){
+            int workers = Math.min(maxParallelVMs, queue.size());
+            for(int i = 0; i < workers; ++i){
+                futures.add(executor.submit(() -> executeQueuedActions(queue, monitor)));
+            }
+        }
+        
+        List<OperationResult<ReconciliationAction>> results = new ArrayList<>();
+        try{
+            for(Future<List<OperationResult<ReconciliationAction>>> future : futures){
+                try{
+                    results.addAll(future.get());
+                }catch(ExecutionException ex){
+                    System.err.println("Reconciliation failure: " + ex.getCause().getMessage());
+                }
+            }
+        }catch(InterruptedException ex){
+            for(Future<List<OperationResult<ReconciliationAction>>> future : futures){
+                future.cancel(true);
+            }
+            throw ex;
+        }
+        
+        return results;
+    }
+    
+    //actions are planned the same way as they are executed, one virtual machine per chain of operations
+    public OperationPlan estimate(List<ReconciliationAction> actions, int maxParallelVMs){
+        String errMsgForParallelVMsCheck = "Estimating reconciliation failure: Count of virtual machines reconciled in parallel must be a positive number, but it is " + maxParallelVMs + ".";
+        OperationPlanner planner = OperationPlanner.getInstance();
+        
+        if(maxParallelVMs <= 0){
+            throw new IllegalArgumentException(errMsgForParallelVMsCheck);
+        }
+        
+        Map<DesiredVMState, List<PlannedOperation>> chains = new LinkedHashMap<>();
+        for(ReconciliationAction action : actions){
+            DesiredVMState desiredState = action.getDesiredState();
+            chains.computeIfAbsent(desiredState, (ds) -> new ArrayList<>())
+                  .add(planner.estimate(getOperationType(action), desiredState.getName(), desiredState.getHostMachine()));
+        }
+        
+        return planner.plan(new ArrayList<>(chains.values()), maxParallelVMs, 0L);
+    }
+    
+    static OperationType getOperationType(ReconciliationAction action){
+        switch(action.getType()){
+            case CLONE: return OperationPlanner.getCloneOperationType(action.getDesiredState().getCloneType());
+            case APPLY_PORT_RULES: return OperationType.APPLY_PORT_RULES;
+            case START: return OperationType.START;
+            default: return OperationType.SHUT_DOWN;
+        }
+    }
+    
+    //virtual machine is null when it does not exist, state and portRules are null when they are not managed
+    static List<ReconciliationAction> diff(DesiredVMState desiredState, VirtualMachine virtualMachine, String state,
+                                           List<PortRule> portRules){
+        
+        List<ReconciliationAction> actions = new ArrayList<>();
+        
+        if(virtualMachine == null){
+            actions.add(new ReconciliationAction(ReconciliationActionType.CLONE, desiredState, null, "Virtual machine does not exist"));
+            //clone inherits rules of its source, so they are applied always
+            if(desiredState.getPortRules() != null){
+                actions.add(new ReconciliationAction(ReconciliationActionType.APPLY_PORT_RULES, desiredState, null, "Virtual machine does not exist"));
+            }
+            if(Boolean.TRUE.equals(desiredState.getRunning())){
+                actions.add(new ReconciliationAction(ReconciliationActionType.START, desiredState, null, "Virtual machine does not exist"));
+            }
+            
+            return actions;
+        }
+        
+        if(desiredState.getPortRules() != null){
+            Set<String> wantedRedirects = toRedirects(desiredState.getPortRules());
+            Set<String> actualRedirects = toRedirects(portRules);
+            if(!wantedRedirects.equals(actualRedirects)){
+                Set<String> missing = new HashSet<>(wantedRedirects);
+                missing.removeAll(actualRedirects);
+                Set<String> obsolete = new HashSet<>(actualRedirects);
+                obsolete.removeAll(wantedRedirects);
+                actions.add(new ReconciliationAction(ReconciliationActionType.APPLY_PORT_RULES, desiredState, virtualMachine,
+                                                     missing.size() + " port forwarding rules are missing or changed and " + obsolete.size() + " are obsolete"));
+            }
+        }
+        if(Boolean.TRUE.equals(desiredState.getRunning()) && !RUNNING_STATES.contains(state)){
+            actions.add(new ReconciliationAction(ReconciliationActionType.START, desiredState, virtualMachine, "Virtual machine is in state " + state));
+        }
+        if(Boolean.FALSE.equals(desiredState.getRunning()) && RUNNING_STATES.contains(state)){
+            actions.add(new ReconciliationAction(ReconciliationActionType.STOP, desiredState, virtualMachine, "Virtual machine is in state " + state));
+        }
+        
+        return actions;
+    }
+    
+    //rules are compared in the form in which VirtualBox stores them, so null and empty addresses are the same
+    private static Set<String> toRedirects(List<PortRule> portRules){
+        Set<String> redirects = new HashSet<>();
+        
+        if(portRules != null){
+            for(PortRule portRule : portRules){
+                redirects.add(portRule.getAdapterSlot() + ":" + NATRedirectParser.format(portRule));
+            }
+        }
+        
+        return redirects;
+    }
+    
+    private List<OperationResult<ReconciliationAction>> executeQueuedActions(Queue<List<ReconciliationAction>> queue,
+            ProgressMonitor monitor) throws InterruptedException{
+        
+        List<OperationResult<ReconciliationAction>> results = new ArrayList<>();
+        
+        List<ReconciliationAction> vmActions;
+        while((vmActions = queue.poll()) != null){
+            VirtualMachine vm = vmActions.get(0).getVirtualMachine();
+            boolean failed = false;
+            for(ReconciliationAction action : vmActions){
+                if(failed){
+                    results.add(new OperationResult<>(action, false, "Reconciliation action " + action + " skipped, because a previous action of the same virtual machine failed.", 0L));
+                    continue;
+                }
+                long start = System.currentTimeMillis();
+                try{
+                    vm = performAction(action, vm, monitor);
+                    results.add(new OperationResult<>(action, true, "", System.currentTimeMillis() - start));
+                }catch(ConnectionFailureException | IncompatibleVirtToolAPIVersionException | UnknownVirtualMachineException
+                        | UnexpectedVMStateException | OperationTimeoutException | PortRuleDuplicityException
+                        | IllegalArgumentException ex){
+                    
+                    results.add(new OperationResult<>(action, false, ex.getMessage(), System.currentTimeMillis() - start));
+                    failed = true;
+                }
+            }
+        }
+        
+        return results;
+    }
+    
+    //returns the virtual machine the following actions are performed on, which is the new one after cloning
+    private VirtualMachine performAction(ReconciliationAction action, VirtualMachine virtualMachine, ProgressMonitor monitor)
+            throws InterruptedException, ConnectionFailureException, IncompatibleVirtToolAPIVersionException,
+            UnknownVirtualMachineException, UnexpectedVMStateException, OperationTimeoutException, PortRuleDuplicityException{
+        
+        DesiredVMState desiredState = action.getDesiredState();
+        
+        switch(action.getType()){
+            case CLONE:
+                if(desiredState.getSource() == null){
+                    throw new IllegalArgumentException("Reconciliation failure: Virtual machine \"" + desiredState.getName() + "\" does not exist on physical machine " + desiredState.getHostMachine() + " and there is no source virtual machine it could be cloned from.");
+                }
+                return NativeVBoxAPIManager.getInstance().createVMClone(desiredState.getSource(), desiredState.getCloneType(),
+                                                                        desiredState.getName(), monitor);
+            case APPLY_PORT_RULES:
+                NativeVBoxAPIMachine.getInstance().applyPortRuleSet(virtualMachine, desiredState.getPortRules());
+                return virtualMachine;
+            case START:
+                NativeVBoxAPIMachine.getInstance().startVM(virtualMachine, desiredState.getLaunchOptions(), monitor);
+                return virtualMachine;
+            case STOP:
+                NativeVBoxAPIMachine.getInstance().shutDownVM(virtualMachine, monitor);
+                return virtualMachine;
+            default:
+                throw new IllegalArgumentException("Reconciliation failure: Unknown reconciliation action " + action + ".");
+        }
+    }
+    
+    private void checkDesiredStatesAreValid(Collection<DesiredVMState> desiredStates){
+        Set<String> names = new HashSet<>();
+        
+        for(DesiredVMState desiredState : desiredStates){
+            if(desiredState == null){
+                throw new IllegalArgumentException("Reconciliation failure: There was made an attempt to reconcile a null desired virtual machine state.");
+            }
+            if(desiredState.getName() == null || desiredState.getName().trim().isEmpty()){
+                throw new IllegalArgumentException("Reconciliation failure: Desired virtual machine state " + desiredState + " has a null or an empty name.");
+            }
+            if(desiredState.getHostMachine() == null){
+                throw new IllegalArgumentException("Reconciliation failure: Desired virtual machine state " + desiredState + " has a null physical machine.");
+            }
+            if(desiredState.getSource() != null && !desiredState.getHostMachine().equals(desiredState.getSource().getHostMachine())){
+                throw new IllegalArgumentException("Reconciliation failure: Source virtual machine of desired virtual machine state " + desiredState + " is not on the same physical machine.");
+            }
+            if(desiredState.getSource() != null && desiredState.getCloneType() == null){
+                throw new IllegalArgumentException("Reconciliation failure: Desired virtual machine state " + desiredState + " has not specified (is null) a type of clone which should be created.");
+            }
+            if(!names.add(desiredState.getHostMachine() + "/" + desiredState.getName())){
+                throw new IllegalArgumentException("Reconciliation failure: Virtual machine \"" + desiredState.getName() + "\" on physical machine " + desiredState.getHostMachine() + " is described by more desired states.");
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2015 Tomáš Šmíd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.muni.fi.vboxvmsmanager.logicimpl;
+
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.BulkOperationReport;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.DesiredVMState;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.OperationPlan;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.OperationResult;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.ReconciliationAction;
+import cz.muni.fi.vboxvmsmanager.pubapi.exceptions.ConnectionFailureException;
+import cz.muni.fi.vboxvmsmanager.pubapi.exceptions.IncompatibleVirtToolAPIVersionException;
+import cz.muni.fi.vboxvmsmanager.pubapi.exceptions.UnexpectedVMStateException;
+import cz.muni.fi.vboxvmsmanager.pubapi.managers.ReconciliationManager;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ *
+ * @author Tomáš Šmíd
+ */
+public class ReconciliationManagerImpl implements ReconciliationManager{
+
+    @Override
+    public List<ReconciliationAction> plan(Collection<DesiredVMState> desiredStates) {
+        List<ReconciliationAction> actions = new ArrayList<>();
+        
+        if(desiredStates == null){
+            System.err.println("Planning reconciliation failure: There was made an attempt to reconcile a null collection of desired virtual machine states.");
+            return actions;
+        }
+        
+        System.out.println("Comparing " + desiredStates.size() + " desired virtual machine states with the actual ones");
+        try{
+            actions = Reconciler.getInstance().plan(desiredStates);
+        } catch (InterruptedException | ConnectionFailureException | IncompatibleVirtToolAPIVersionException
+                | UnexpectedVMStateException | IllegalArgumentException ex) {
+            
+            System.err.println(ex.getMessage());
+            return actions;
+        }
+        
+        for(ReconciliationAction action : actions){
+            System.out.println("Drift found: " + action);
+        }
+        System.out.println("Planning finished: " + actions.size() + " reconciliation actions needed");
+        
+        return actions;
+    }
+    
+    @Override
+    public BulkOperationReport<ReconciliationAction> reconcile(Collection<DesiredVMState> desiredStates,
+                                                               int maxParallelVMsPerHost) {
+        List<OperationResult<ReconciliationAction>> results = new ArrayList<>();
+        long start = System.currentTimeMillis();
+        
+        if(desiredStates == null){
+            System.err.println("Reconciliation failure: There was made an attempt to reconcile a null collection of desired virtual machine states.");
+            return new BulkOperationReport<>(results, 0L);
+        }
+        if(maxParallelVMsPerHost <= 0){
+            System.err.println("Reconciliation failure: Count of virtual machines reconciled in parallel must be a positive number, but it is " + maxParallelVMsPerHost + ".");
+            return new BulkOperationReport<>(results, 0L);
+        }
+        
+        List<ReconciliationAction> actions = plan(desiredStates);
+        if(actions.isEmpty()){
+            return new BulkOperationReport<>(results, System.currentTimeMillis() - start);
+        }
+        
+        System.out.println("Performing " + actions.size() + " reconciliation actions");
+        try{
+            results = Reconciler.getInstance().execute(actions, maxParallelVMsPerHost, new ProgressMonitor());
+        } catch (InterruptedException | IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+        }
+        
+        for(OperationResult<ReconciliationAction> result : results){
+            if(!result.isSuccessful()){
+                System.err.println(result.getMessage());
+            }
+        }
+        
+        BulkOperationReport<ReconciliationAction> report = new BulkOperationReport<>(results, System.currentTimeMillis() - start);
+        System.out.println("Reconciliation finished: " + report.getSuccessfulCount() + " of " + actions.size() + " reconciliation actions performed successfully in " + report.getDuration() + " ms");
+        
+        return report;
+    }
+    
+    @Override
+    public OperationPlan estimate(Collection<DesiredVMState> desiredStates, int maxParallelVMsPerHost) {
+        if(desiredStates == null){
+            System.err.println("Estimating reconciliation failure: There was made an attempt to reconcile a null collection of desired virtual machine states.");
+            return new OperationPlan(null, null);
+        }
+        if(maxParallelVMsPerHost <= 0){
+            System.err.println("Estimating reconciliation failure: Count of virtual machines reconciled in parallel must be a positive number, but it is " + maxParallelVMsPerHost + ".");
+            return new OperationPlan(null, null);
+        }
+        
+        OperationPlan plan = Reconciler.getInstance().estimate(plan(desiredStates), maxParallelVMsPerHost);
+        OperationPlanner.printPlan("Reconciliation", plan);
+        
+        return plan;
+    }
+}
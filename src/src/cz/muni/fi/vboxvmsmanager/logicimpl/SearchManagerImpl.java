@@ -16,9 +16,11 @@
 package cz.muni.fi.vboxvmsmanager.logicimpl;
 
 import cz.muni.fi.vboxvmsmanager.pubapi.entities.PhysicalMachine;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.PortRuleOwner;
 import cz.muni.fi.vboxvmsmanager.pubapi.entities.SearchCriteria;
 import cz.muni.fi.vboxvmsmanager.pubapi.entities.VirtualMachine;
 import cz.muni.fi.vboxvmsmanager.pubapi.managers.SearchManager;
+import cz.muni.fi.vboxvmsmanager.pubapi.types.ProtocolType;
 import cz.muni.fi.vboxvmsmanager.pubapi.types.SearchCriterionType;
 import cz.muni.fi.vboxvmsmanager.pubapi.types.SearchMode;
 import java.util.ArrayList;
@@ -49,6 +51,24 @@ public class SearchManagerImpl implements SearchManager{
         return findAllSuitableVMs(vms,searchCriteria,mode,searchOrder);
     }
     
+    @Override
+    public PortRuleOwner findPortRuleOwner(PhysicalMachine physicalMachine, ProtocolType protocol, int hostPort){
+        if(physicalMachine == null){
+            System.err.println("Searching port rule owner failure: Physical machine is null.");
+            return null;
+        }
+        if(protocol == null){
+            System.err.println("Searching port rule owner failure: Protocol is null.");
+            return null;
+        }
+        if(hostPort < 0 || hostPort > 65535){
+            System.err.println("Searching port rule owner failure: Host port " + hostPort + " is out of range <0,65535>.");
+            return null;
+        }
+        
+        return PortRuleIndex.getInstance().lookup(physicalMachine, protocol, hostPort);
+    }
+    
     private boolean isAnyPMConnected(){
         AccessedPhysicalMachines apm = AccessedPhysicalMachines.getInstance();
         List<PhysicalMachine> connectedPMs = apm.getAccessedPhysicalMachines();
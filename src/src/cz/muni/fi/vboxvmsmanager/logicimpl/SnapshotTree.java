@@ -0,0 +1,151 @@
+/*
+ * Copyright 2015 Tomáš Šmíd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.muni.fi.vboxvmsmanager.logicimpl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.virtualbox_4_3.IMachine;
+import org.virtualbox_4_3.ISnapshot;
+
+/**
+ *
+ * @author Tomáš Šmíd
+ */
+class SnapshotTree {
+    
+    private final Map<String, SnapshotNode> nodes;
+    private final String rootId;
+    private final long creationTime;
+    
+    private static class SnapshotNode{
+        private final String id;
+        private final String name;
+        private final String description;
+        private final String parentId;
+        private final long timeStamp;
+        private final List<String> childrenIds = new ArrayList<>();
+        
+        SnapshotNode(String id, String name, String description, String parentId, long timeStamp){
+            this.id = id;
+            this.name = name;
+            this.description = description;
+            this.parentId = parentId;
+            this.timeStamp = timeStamp;
+        }
+    }
+    
+    private SnapshotTree(Map<String, SnapshotNode> nodes, String rootId){
+        this.nodes = nodes;
+        this.rootId = rootId;
+        this.creationTime = System.currentTimeMillis();
+    }
+    
+    //reads all the snapshots of machine including all branches in one pass, parents precede their children
+    public static SnapshotTree build(IMachine vboxMachine){
+        Map<String, SnapshotNode> nodes = new LinkedHashMap<>();
+        
+        if(vboxMachine.getSnapshotCount() == 0L){
+            return new SnapshotTree(nodes, null);
+        }
+        
+        Deque<ISnapshot> toVisit = new ArrayDeque<>();
+        Deque<String> parentIds = new ArrayDeque<>();
+        toVisit.offer(vboxMachine.findSnapshot(null));
+        parentIds.offer("");
+        
+        while(!toVisit.isEmpty()){
+            ISnapshot snapshot = toVisit.poll();
+            String parentId = parentIds.poll();
+            SnapshotNode node = new SnapshotNode(snapshot.getId(), snapshot.getName(), snapshot.getDescription(),
+                                                 (parentId.isEmpty() ? null : parentId), snapshot.getTimeStamp());
+            nodes.put(node.id, node);
+            if(node.parentId != null){
+                nodes.get(node.parentId).childrenIds.add(node.id);
+            }
+            
+            for(ISnapshot child : snapshot.getChildren()){
+                toVisit.offer(child);
+                parentIds.offer(node.id);
+            }
+        }
+        
+        return new SnapshotTree(nodes, nodes.keySet().iterator().next());
+    }
+    
+    public long getCreationTime(){
+        return creationTime;
+    }
+    
+    public boolean isEmpty(){
+        return nodes.isEmpty();
+    }
+    
+    public String getRootId(){
+        return rootId;
+    }
+    
+    public boolean contains(String snapshotId){
+        return nodes.containsKey(snapshotId);
+    }
+    
+    public List<String> getSnapshotIds(){
+        return new ArrayList<>(nodes.keySet());
+    }
+    
+    public String getName(String snapshotId){
+        SnapshotNode node = nodes.get(snapshotId);
+        return (node == null ? null : node.name);
+    }
+    
+    public String getDescription(String snapshotId){
+        SnapshotNode node = nodes.get(snapshotId);
+        return (node == null ? null : node.description);
+    }
+    
+    public String getParentId(String snapshotId){
+        SnapshotNode node = nodes.get(snapshotId);
+        return (node == null ? null : node.parentId);
+    }
+    
+    //time of snapshot creation in milliseconds since the epoch
+    public long getTimeStamp(String snapshotId){
+        SnapshotNode node = nodes.get(snapshotId);
+        return (node == null ? 0L : node.timeStamp);
+    }
+    
+    public List<String> getChildrenIds(String snapshotId){
+        SnapshotNode node = nodes.get(snapshotId);
+        return (node == null ? Collections.<String>emptyList() : Collections.unmodifiableList(node.childrenIds));
+    }
+    
+    //snapshot names need not be unique, so all the snapshots with the given name are returned
+    public List<String> findIdsByName(String name){
+        List<String> ids = new ArrayList<>();
+        
+        for(SnapshotNode node : nodes.values()){
+            if(node.name.equals(name)){
+                ids.add(node.id);
+            }
+        }
+        
+        return ids;
+    }
+}
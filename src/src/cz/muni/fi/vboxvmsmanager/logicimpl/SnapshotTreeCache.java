@@ -0,0 +1,56 @@
+/*
+ * Copyright 2015 Tomáš Šmíd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.muni.fi.vboxvmsmanager.logicimpl;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.virtualbox_4_3.IMachine;
+
+/**
+ *
+ * @author Tomáš Šmíd
+ */
+class SnapshotTreeCache {
+    
+    private static final SnapshotTreeCache INSTANCE = new SnapshotTreeCache();
+    //snapshots can be changed by anyone else than this library too, so the tree is not trusted for longer time
+    private static final long MAX_TREE_AGE = 10000L;
+    //trees are identified by id of their machine
+    private final Map<String, SnapshotTree> trees = new ConcurrentHashMap<>();
+    
+    public static SnapshotTreeCache getInstance(){
+        return INSTANCE;
+    }
+    
+    private SnapshotTreeCache(){ }
+    
+    public SnapshotTree getSnapshotTree(IMachine vboxMachine){
+        String machineId = vboxMachine.getId();
+        SnapshotTree tree = trees.get(machineId);
+        
+        if(tree == null || System.currentTimeMillis() - tree.getCreationTime() > MAX_TREE_AGE){
+            tree = SnapshotTree.build(vboxMachine);
+            trees.put(machineId, tree);
+        }
+        
+        return tree;
+    }
+    
+    //has to be called whenever a snapshot of machine is taken, deleted or restored
+    public void invalidate(String machineId){
+        trees.remove(machineId);
+    }
+}
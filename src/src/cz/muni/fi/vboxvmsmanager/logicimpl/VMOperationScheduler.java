@@ -0,0 +1,193 @@
+/*
+ * Copyright 2015 Tomáš Šmíd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.muni.fi.vboxvmsmanager.logicimpl;
+
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.PhysicalMachine;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.VirtualMachine;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ *
+ * @author Tomáš Šmíd
+ */
+class VMOperationScheduler {
+    
+    private static final VMOperationScheduler INSTANCE = new VMOperationScheduler((operation) -> {
+        AsyncOperationExecutor.getInstance().submit(() -> {
+            operation.run();
+            return null;
+        });
+    });
+    static final int DEFAULT_MAX_PARALLEL_VMS_PER_HOST = 8;
+    private final Executor executor;
+    private final Map<UUID, VMQueue> vmQueues = new HashMap<>();
+    private final Map<PhysicalMachine, HostState> hostStates = new HashMap<>();
+    
+    private static final class ScheduledOperation<T> extends FutureTask<T>{
+        private final String key;
+        
+        public ScheduledOperation(String key, Callable<T> operation){
+            super(operation);
+            this.key = key;
+        }
+    }
+    
+    private static final class VMQueue{
+        private final UUID id;
+        private final PhysicalMachine hostMachine;
+        private final Deque<ScheduledOperation<?>> operations = new ArrayDeque<>();
+        private ScheduledOperation<?> running = null;
+        private boolean scheduled = false;
+        
+        public VMQueue(UUID id, PhysicalMachine hostMachine){
+            this.id = id;
+            this.hostMachine = hostMachine;
+        }
+    }
+    
+    private static final class HostState{
+        private final Queue<VMQueue> waitingVMs = new ArrayDeque<>();
+        private int maxParallelVMs = DEFAULT_MAX_PARALLEL_VMS_PER_HOST;
+        private int runningVMs = 0;
+    }
+    
+    public static VMOperationScheduler getInstance(){
+        return INSTANCE;
+    }
+    
+    VMOperationScheduler(Executor executor){
+        this.executor = executor;
+    }
+    
+    //operations of one virtual machine are performed one after another in the order they were scheduled, operations
+    //of different virtual machines in parallel, but at most maxParallelVMs of them on each physical machine at once;
+    //operation with the same key as the last queued operation which is still waiting for its turn is not scheduled
+    //again and the future of the waiting operation is returned instead, so the same key must always mean the same
+    //operation; an operation queued behind a different one is kept, because its result could differ
+    @SuppressWarnings("unchecked")
+    public synchronized <T> Future<T> schedule(VirtualMachine virtualMachine, String key, Callable<T> operation){
+        String errMsgForVMNullCheck = "Scheduling operation failure: There was made an attempt to schedule an operation of a null virtual machine.";
+        String errMsgForVMIdCheck = "Scheduling operation failure: Virtual machine " + virtualMachine + " has a null id.";
+        String errMsgForOperationNullCheck = "Scheduling operation failure: There was made an attempt to schedule a null operation of virtual machine " + virtualMachine + ".";
+        
+        checkVMIsNotNull(virtualMachine, errMsgForVMNullCheck);
+        checkVMIdIsNotNull(virtualMachine.getId(), errMsgForVMIdCheck);
+        checkOperationIsNotNull(operation, errMsgForOperationNullCheck);
+        
+        VMQueue vmQueue = vmQueues.computeIfAbsent(virtualMachine.getId(), (id) -> new VMQueue(id, virtualMachine.getHostMachine()));
+        ScheduledOperation<?> last = vmQueue.operations.peekLast();
+        if(key != null && last != null && last != vmQueue.running && key.equals(last.key) && !last.isCancelled()){
+            return (Future<T>) last;
+        }
+        
+        ScheduledOperation<T> scheduledOperation = new ScheduledOperation<>(key, operation);
+        vmQueue.operations.add(scheduledOperation);
+        if(!vmQueue.scheduled){
+            vmQueue.scheduled = true;
+            HostState hostState = getHostState(vmQueue.hostMachine);
+            hostState.waitingVMs.add(vmQueue);
+            dispatch(hostState);
+        }
+        
+        return scheduledOperation;
+    }
+    
+    public synchronized void setMaxParallelVMs(PhysicalMachine physicalMachine, int maxParallelVMs){
+        String errMsgForPMNullCheck = "Setting limit of parallel operations failure: There was made an attempt to set a limit of a null physical machine.";
+        String errMsgForParallelVMsCheck = "Setting limit of parallel operations failure: Count of virtual machines operated in parallel on physical machine " + physicalMachine + " must be a positive number, but it is " + maxParallelVMs + ".";
+        
+        if(physicalMachine == null){
+            throw new IllegalArgumentException(errMsgForPMNullCheck);
+        }
+        if(maxParallelVMs <= 0){
+            throw new IllegalArgumentException(errMsgForParallelVMsCheck);
+        }
+        
+        HostState hostState = getHostState(physicalMachine);
+        hostState.maxParallelVMs = maxParallelVMs;
+        dispatch(hostState);
+    }
+    
+    //count of operations of the virtual machine which have not been finished yet, including the running one
+    public synchronized int getPendingCount(VirtualMachine virtualMachine){
+        VMQueue vmQueue = (virtualMachine == null ? null : vmQueues.get(virtualMachine.getId()));
+        
+        return (vmQueue == null ? 0 : vmQueue.operations.size());
+    }
+    
+    private HostState getHostState(PhysicalMachine physicalMachine){
+        return hostStates.computeIfAbsent(physicalMachine, (pm) -> new HostState());
+    }
+    
+    private void dispatch(HostState hostState){
+        while(hostState.runningVMs < hostState.maxParallelVMs && !hostState.waitingVMs.isEmpty()){
+            VMQueue vmQueue = hostState.waitingVMs.poll();
+            ++hostState.runningVMs;
+            ScheduledOperation<?> operation = vmQueue.operations.peek();
+            vmQueue.running = operation;
+            executor.execute(() -> {
+                try{
+                    //cancelled operation does nothing here
+                    operation.run();
+                }finally{
+                    finished(vmQueue, operation);
+                }
+            });
+        }
+    }
+    
+    private synchronized void finished(VMQueue vmQueue, ScheduledOperation<?> operation){
+        HostState hostState = getHostState(vmQueue.hostMachine);
+        vmQueue.operations.remove(operation);
+        vmQueue.running = null;
+        --hostState.runningVMs;
+        //virtual machine with more operations goes behind the ones which are already waiting for their turn
+        if(vmQueue.operations.isEmpty()){
+            vmQueue.scheduled = false;
+            vmQueues.remove(vmQueue.id);
+        }else{
+            hostState.waitingVMs.add(vmQueue);
+        }
+        dispatch(hostState);
+    }
+    
+    private void checkVMIsNotNull(VirtualMachine virtualMachine, String errMsg){
+        if(virtualMachine == null){
+            throw new IllegalArgumentException(errMsg);
+        }
+    }
+    
+    private void checkVMIdIsNotNull(UUID id, String errMsg){
+        if(id == null){
+            throw new IllegalArgumentException(errMsg);
+        }
+    }
+    
+    private void checkOperationIsNotNull(Callable<?> operation, String errMsg){
+        if(operation == null){
+            throw new IllegalArgumentException(errMsg);
+        }
+    }
+}
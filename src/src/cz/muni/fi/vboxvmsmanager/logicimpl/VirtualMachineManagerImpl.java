@@ -15,16 +15,34 @@
  */
 package cz.muni.fi.vboxvmsmanager.logicimpl;
 
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.BulkOperationReport;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.LaunchOptions;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.OperationPlan;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.OperationResult;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.PhysicalMachine;
 import cz.muni.fi.vboxvmsmanager.pubapi.entities.PortRule;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.Snapshot;
 import cz.muni.fi.vboxvmsmanager.pubapi.entities.VirtualMachine;
 import cz.muni.fi.vboxvmsmanager.pubapi.exceptions.ConnectionFailureException;
 import cz.muni.fi.vboxvmsmanager.pubapi.exceptions.IncompatibleVirtToolAPIVersionException;
+import cz.muni.fi.vboxvmsmanager.pubapi.exceptions.OperationTimeoutException;
 import cz.muni.fi.vboxvmsmanager.pubapi.exceptions.PortRuleDuplicityException;
 import cz.muni.fi.vboxvmsmanager.pubapi.exceptions.UnexpectedVMStateException;
 import cz.muni.fi.vboxvmsmanager.pubapi.exceptions.UnknownPortRuleException;
+import cz.muni.fi.vboxvmsmanager.pubapi.exceptions.UnknownSnapshotException;
 import cz.muni.fi.vboxvmsmanager.pubapi.exceptions.UnknownVirtualMachineException;
+import cz.muni.fi.vboxvmsmanager.pubapi.listeners.ProgressListener;
 import cz.muni.fi.vboxvmsmanager.pubapi.managers.VirtualMachineManager;
+import cz.muni.fi.vboxvmsmanager.pubapi.types.OperationType;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  *
@@ -44,135 +62,601 @@ public class VirtualMachineManagerImpl implements VirtualMachineManager{
     
     @Override
     public void startVM(VirtualMachine virtualMachine) {
-        NativeVBoxAPIMachine natapiMach = NativeVBoxAPIMachine.getInstance();
-        boolean error = false;
+        ProgressMonitor monitor = new ProgressMonitor();
+        performSerialized(virtualMachine, "start", () -> startVM(virtualMachine, new LaunchOptions.Builder().build(), monitor), false);
+    }
+
+    @Override
+    public void startVM(VirtualMachine virtualMachine, ProgressListener listener) {
+        ProgressMonitor monitor = new ProgressMonitor(listener);
+        performSerialized(virtualMachine, null, () -> startVM(virtualMachine, new LaunchOptions.Builder().build(), monitor), false);
+    }
+    
+    @Override
+    public void startVM(VirtualMachine virtualMachine, LaunchOptions options) {
+        ProgressMonitor monitor = new ProgressMonitor();
+        performSerialized(virtualMachine, null, () -> startVM(virtualMachine, options, monitor), false);
+    }
+    
+    @Override
+    public Future<Boolean> startVMAsync(VirtualMachine virtualMachine, long timeout) {
+        if(timeout <= 0L){
+            System.err.println("Starting virtual machine failure: Timeout of starting of virtual machine " + virtualMachine + " must be a positive number of milliseconds, but it is " + timeout + ".");
+            return null;
+        }
         
-        if(virtualMachine != null){
-            System.out.println("Starting virtual machine " + virtualMachine);
-            try{
-                natapiMach.startVM(virtualMachine);
-            } catch (InterruptedException | ConnectionFailureException | IncompatibleVirtToolAPIVersionException
-                    | UnknownVirtualMachineException | UnexpectedVMStateException | IllegalArgumentException ex) {
+        ProgressMonitor monitor = new ProgressMonitor(timeout);
+        return scheduleSerialized(virtualMachine, null, () -> startVM(virtualMachine, new LaunchOptions.Builder().build(), monitor));
+    }
 
-                System.err.println(ex.getMessage());
-                error = true;
+    @Override
+    public BulkOperationReport<VirtualMachine> startVMs(Collection<VirtualMachine> virtualMachines, LaunchOptions options,
+                                                        int maxParallelStartsPerHost, long startInterval) {
+        NativeVBoxAPIMachine natapiMach = NativeVBoxAPIMachine.getInstance();
+        List<OperationResult<VirtualMachine>> results = new ArrayList<>();
+        long start = System.currentTimeMillis();
+        
+        if(virtualMachines == null){
+            System.err.println("Starting virtual machines failure: There was made an attempt to start a null collection of virtual machines.");
+            return new BulkOperationReport<>(results, 0L);
+        }
+        
+        System.out.println("Starting " + virtualMachines.size() + " virtual machines");
+        try{
+            results = natapiMach.startVMs(virtualMachines, options, maxParallelStartsPerHost, startInterval, new ProgressMonitor());
+        } catch (InterruptedException | IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+        }
+        
+        for(OperationResult<VirtualMachine> result : results){
+            if(!result.isSuccessful()){
+                System.err.println(result.getMessage());
             }
+        }
+        
+        BulkOperationReport<VirtualMachine> report = new BulkOperationReport<>(results, System.currentTimeMillis() - start);
+        System.out.println("Starting finished: " + report.getSuccessfulCount() + " of " + virtualMachines.size() + " virtual machines started successfully in " + report.getDuration() + " ms");
+        
+        return report;
+    }
+    
+    @Override
+    public OperationPlan planStartVMs(Collection<VirtualMachine> virtualMachines, int maxParallelStartsPerHost,
+                                      long startInterval) {
+        if(virtualMachines == null){
+            System.err.println("Planning start of virtual machines failure: There was made an attempt to plan start of a null collection of virtual machines.");
+            return new OperationPlan(null, null);
+        }
+        if(maxParallelStartsPerHost <= 0){
+            System.err.println("Planning start of virtual machines failure: Maximum count of virtual machines started in parallel on one physical machine must be a positive number, but it is " + maxParallelStartsPerHost + ".");
+            return new OperationPlan(null, null);
+        }
+        if(startInterval < 0L){
+            System.err.println("Planning start of virtual machines failure: Interval between two consecutive starts must not be a negative number of milliseconds, but it is " + startInterval + ".");
+            return new OperationPlan(null, null);
+        }
+        
+        OperationPlan plan = OperationPlanner.getInstance().plan(virtualMachines, OperationType.START,
+                                                                  maxParallelStartsPerHost, startInterval);
+        OperationPlanner.printPlan("Starting", plan);
+        
+        return plan;
+    }
+    
+    @Override
+    public void shutDownVM(VirtualMachine virtualMachine) {
+        ProgressMonitor monitor = new ProgressMonitor();
+        performSerialized(virtualMachine, "shutDown", () -> shutDownVM(virtualMachine, monitor), false);
+    }
 
-            if(!error){
-                System.out.println("Virtual machine \"" + virtualMachine.getName() + "\" is running");
-            }
-        }else{
-            System.err.println("Starting virtual machine failure: There was made an attempt to start a null virtual machine.");
+    @Override
+    public void shutDownVM(VirtualMachine virtualMachine, ProgressListener listener) {
+        ProgressMonitor monitor = new ProgressMonitor(listener);
+        performSerialized(virtualMachine, null, () -> shutDownVM(virtualMachine, monitor), false);
+    }
+    
+    @Override
+    public Future<Boolean> shutDownVMAsync(VirtualMachine virtualMachine, long timeout) {
+        if(timeout <= 0L){
+            System.err.println("Shutdown virtual machine failure: Timeout of shutting down of virtual machine " + virtualMachine + " must be a positive number of milliseconds, but it is " + timeout + ".");
+            return null;
         }
+        
+        ProgressMonitor monitor = new ProgressMonitor(timeout);
+        return scheduleSerialized(virtualMachine, null, () -> shutDownVM(virtualMachine, monitor));
     }
 
     @Override
-    public void shutDownVM(VirtualMachine virtualMachine) {
+    public Map<VirtualMachine, OperationResult<VirtualMachine>> shutDownVMs(Collection<VirtualMachine> virtualMachines,
+                                                                          int maxParallelShutdownsPerHost, long timeout) {
         NativeVBoxAPIMachine natapiMach = NativeVBoxAPIMachine.getInstance();
-        boolean error = false;
+        Map<VirtualMachine, OperationResult<VirtualMachine>> results = new LinkedHashMap<>();
         
-        if(virtualMachine != null){
-            System.out.println("Shutting down virtual machine " + virtualMachine);
-            try{
-                natapiMach.shutDownVM(virtualMachine);
-            } catch (ConnectionFailureException | InterruptedException | IncompatibleVirtToolAPIVersionException
-                    | UnknownVirtualMachineException | UnexpectedVMStateException | IllegalArgumentException ex) {
-
-                System.err.println(ex.getMessage());
-                error = true;
-            }
-
-            if(!error){
-                System.out.println("Virtual machine \"" + virtualMachine.getName() + "\" is powered off");
+        if(virtualMachines == null){
+            System.err.println("Shutdown virtual machines failure: There was made an attempt to shut down a null collection of virtual machines.");
+            return results;
+        }
+        if(timeout <= 0L){
+            System.err.println("Shutdown virtual machines failure: Timeout of shutting down of virtual machines must be a positive number of milliseconds, but it is " + timeout + ".");
+            return results;
+        }
+        
+        System.out.println("Shutting down " + virtualMachines.size() + " virtual machines");
+        try{
+            results = natapiMach.shutDownVMs(virtualMachines, maxParallelShutdownsPerHost, new ProgressMonitor(timeout));
+        } catch (InterruptedException | IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            return results;
+        }
+        
+        int shutDown = 0;
+        for(OperationResult<VirtualMachine> result : results.values()){
+            if(result.isSuccessful()){
+                ++shutDown;
+            }else{
+                System.err.println(result.getMessage());
             }
-        }else{
-            System.err.println("Shutdown virtual machine failure: There was made an attempt to shut down a null virtual machine.");
         }
+        System.out.println("Shutdown finished: " + shutDown + " of " + virtualMachines.size() + " virtual machines shut down successfully");
+        
+        return results;
     }
-
+    
     @Override
-    public void addPortRule(VirtualMachine virtualMachine, PortRule rule) {
+    public OperationPlan planShutDownVMs(Collection<VirtualMachine> virtualMachines, int maxParallelShutdownsPerHost) {
+        if(virtualMachines == null){
+            System.err.println("Planning shutdown of virtual machines failure: There was made an attempt to plan shutdown of a null collection of virtual machines.");
+            return new OperationPlan(null, null);
+        }
+        if(maxParallelShutdownsPerHost <= 0){
+            System.err.println("Planning shutdown of virtual machines failure: Maximum count of virtual machines shut down in parallel on one physical machine must be a positive number, but it is " + maxParallelShutdownsPerHost + ".");
+            return new OperationPlan(null, null);
+        }
+        
+        OperationPlan plan = OperationPlanner.getInstance().plan(virtualMachines, OperationType.SHUT_DOWN,
+                                                                  maxParallelShutdownsPerHost, 0L);
+        OperationPlanner.printPlan("Shutdown", plan);
+        
+        return plan;
+    }
+    
+    @Override
+    public void shutDownVMGracefully(VirtualMachine virtualMachine, long acpiTimeout) {
+        performSerialized(virtualMachine, null, () -> {
+            NativeVBoxAPIMachine natapiMach = NativeVBoxAPIMachine.getInstance();
+        
+            if(virtualMachine != null){
+                System.out.println("Shutting down virtual machine " + virtualMachine + " via ACPI");
+                try{
+                    if(natapiMach.shutDownVMGracefully(virtualMachine, acpiTimeout, new ProgressMonitor())){
+                        System.out.println("Virtual machine \"" + virtualMachine.getName() + "\" has been shut down by its guest");
+                    }else{
+                        System.out.println("Virtual machine \"" + virtualMachine.getName() + "\" has not been shut down by its guest in time and has been powered off");
+                    }
+                } catch (ConnectionFailureException | InterruptedException | IncompatibleVirtToolAPIVersionException
+                        | UnknownVirtualMachineException | UnexpectedVMStateException | OperationTimeoutException
+                        | IllegalArgumentException ex) {
+                
+                    System.err.println(ex.getMessage());
+                }
+            }else{
+                System.err.println("Shutdown virtual machine failure: There was made an attempt to shut down a null virtual machine.");
+            }
+            
+            return null;
+        }, null);
+    }
+    
+    @Override
+    public List<OperationResult<VirtualMachine>> shutDownAllVMsGracefully(PhysicalMachine physicalMachine, long acpiTimeout) {
         NativeVBoxAPIMachine natapiMach = NativeVBoxAPIMachine.getInstance();
-        boolean error = false;
+        List<OperationResult<VirtualMachine>> results = new ArrayList<>();
         
-        if(virtualMachine != null){
-            if(rule != null){
-                System.out.println("Adding new port forwarding rule " + rule + " to virtual machine " + virtualMachine);
+        System.out.println("Shutting down all virtual machines on physical machine " + physicalMachine + " via ACPI");
+        try{
+            results = natapiMach.shutDownAllVMsGracefully(physicalMachine, acpiTimeout, new ProgressMonitor());
+        } catch (ConnectionFailureException | InterruptedException | IncompatibleVirtToolAPIVersionException
+                | UnexpectedVMStateException | IllegalArgumentException ex) {
+            
+            System.err.println(ex.getMessage());
+            return results;
+        }
+        
+        int shutDown = 0;
+        for(OperationResult<VirtualMachine> result : results){
+            if(result.isSuccessful()){
+                ++shutDown;
+            }else{
+                System.err.println(result.getMessage());
+            }
+        }
+        System.out.println("Shutdown finished: " + shutDown + " of " + results.size() + " virtual machines shut down successfully");
+        
+        return results;
+    }
+    
+    @Override
+    public void saveState(VirtualMachine virtualMachine) {
+        performSerialized(virtualMachine, "saveState", () -> {
+            NativeVBoxAPIMachine natapiMach = NativeVBoxAPIMachine.getInstance();
+            boolean error = false;
+        
+            if(virtualMachine != null){
+                System.out.println("Saving state of virtual machine " + virtualMachine);
                 try{
-                    natapiMach.addPortRule(virtualMachine, rule);
+                    natapiMach.saveState(virtualMachine, new ProgressMonitor());
                 } catch (ConnectionFailureException | InterruptedException | IncompatibleVirtToolAPIVersionException
-                        | UnknownVirtualMachineException | IllegalArgumentException | PortRuleDuplicityException
-                        | UnexpectedVMStateException ex) {
-
+                        | UnknownVirtualMachineException | UnexpectedVMStateException | OperationTimeoutException
+                        | IllegalArgumentException ex) {
+                
                     System.err.println(ex.getMessage());
                     error = true;
                 }
-
+            
                 if(!error){
-                    System.out.println("New port forwarding rule \"" + rule.getName() + "\" added successfully");
+                    System.out.println("Virtual machine \"" + virtualMachine.getName() + "\" is saved");
                 }
             }else{
-                System.err.println("Creating new port forwarding rule failure: There was made an attempt to create a null port forwarding rule for virtual machine " + virtualMachine + ".");
+                System.err.println("Saving state of virtual machine failure: There was made an attempt to save state of a null virtual machine.");
             }
-        }else{
-            System.err.println("Creating new port forwarding rule failure: There was made an attempt to create a new port forwarding rule for a null virtual machine.");
-        }
+            
+            return null;
+        }, null);
+    }
+    
+    @Override
+    public void resumeVM(VirtualMachine virtualMachine) {
+        resumeVM(virtualMachine, new LaunchOptions.Builder().build());
+    }
+    
+    @Override
+    public void resumeVM(VirtualMachine virtualMachine, LaunchOptions options) {
+        performSerialized(virtualMachine, null, () -> {
+            NativeVBoxAPIMachine natapiMach = NativeVBoxAPIMachine.getInstance();
+            boolean error = false;
+        
+            if(virtualMachine != null){
+                System.out.println("Resuming virtual machine " + virtualMachine);
+                try{
+                    natapiMach.resumeVM(virtualMachine, options, new ProgressMonitor());
+                } catch (ConnectionFailureException | InterruptedException | IncompatibleVirtToolAPIVersionException
+                        | UnknownVirtualMachineException | UnexpectedVMStateException | OperationTimeoutException
+                        | IllegalArgumentException ex) {
+                
+                    System.err.println(ex.getMessage());
+                    error = true;
+                }
+            
+                if(!error){
+                    System.out.println("Virtual machine \"" + virtualMachine.getName() + "\" is running");
+                }
+            }else{
+                System.err.println("Resuming virtual machine failure: There was made an attempt to resume a null virtual machine.");
+            }
+            
+            return null;
+        }, null);
+    }
+    
+    @Override
+    public void pauseVM(VirtualMachine virtualMachine) {
+        performSerialized(virtualMachine, "pause", () -> {
+            NativeVBoxAPIMachine natapiMach = NativeVBoxAPIMachine.getInstance();
+            boolean error = false;
+        
+            if(virtualMachine != null){
+                System.out.println("Pausing virtual machine " + virtualMachine);
+                try{
+                    natapiMach.pauseVM(virtualMachine);
+                } catch (ConnectionFailureException | InterruptedException | IncompatibleVirtToolAPIVersionException
+                        | UnknownVirtualMachineException | UnexpectedVMStateException
+                        | IllegalArgumentException ex) {
+                
+                    System.err.println(ex.getMessage());
+                    error = true;
+                }
+            
+                if(!error){
+                    System.out.println("Virtual machine \"" + virtualMachine.getName() + "\" is paused");
+                }
+            }else{
+                System.err.println("Pausing virtual machine failure: There was made an attempt to pause a null virtual machine.");
+            }
+            
+            return null;
+        }, null);
+    }
+    
+    @Override
+    public void unpauseVM(VirtualMachine virtualMachine) {
+        performSerialized(virtualMachine, "unpause", () -> {
+            NativeVBoxAPIMachine natapiMach = NativeVBoxAPIMachine.getInstance();
+            boolean error = false;
+        
+            if(virtualMachine != null){
+                System.out.println("Unpausing virtual machine " + virtualMachine);
+                try{
+                    natapiMach.unpauseVM(virtualMachine);
+                } catch (ConnectionFailureException | InterruptedException | IncompatibleVirtToolAPIVersionException
+                        | UnknownVirtualMachineException | UnexpectedVMStateException
+                        | IllegalArgumentException ex) {
+                
+                    System.err.println(ex.getMessage());
+                    error = true;
+                }
+            
+                if(!error){
+                    System.out.println("Virtual machine \"" + virtualMachine.getName() + "\" is running");
+                }
+            }else{
+                System.err.println("Unpausing virtual machine failure: There was made an attempt to unpause a null virtual machine.");
+            }
+            
+            return null;
+        }, null);
+    }
+    
+    @Override
+    public void addPortRule(VirtualMachine virtualMachine, PortRule rule) {
+        performSerialized(virtualMachine, null, () -> {
+            NativeVBoxAPIMachine natapiMach = NativeVBoxAPIMachine.getInstance();
+            boolean error = false;
+        
+            if(virtualMachine != null){
+                if(rule != null){
+                    System.out.println("Adding new port forwarding rule " + rule + " to virtual machine " + virtualMachine);
+                    try{
+                        natapiMach.addPortRule(virtualMachine, rule);
+                    } catch (ConnectionFailureException | InterruptedException | IncompatibleVirtToolAPIVersionException
+                            | UnknownVirtualMachineException | IllegalArgumentException | PortRuleDuplicityException
+                            | UnexpectedVMStateException ex) {
+
+                        System.err.println(ex.getMessage());
+                        error = true;
+                    }
+
+                    if(!error){
+                        System.out.println("New port forwarding rule \"" + rule.getName() + "\" added successfully");
+                    }
+                }else{
+                    System.err.println("Creating new port forwarding rule failure: There was made an attempt to create a null port forwarding rule for virtual machine " + virtualMachine + ".");
+                }
+            }else{
+                System.err.println("Creating new port forwarding rule failure: There was made an attempt to create a new port forwarding rule for a null virtual machine.");
+            }
+            
+            return null;
+        }, null);
     }
 
     @Override
     public void deletePortRule(VirtualMachine virtualMachine, PortRule rule) {
-        NativeVBoxAPIMachine natapiMach = NativeVBoxAPIMachine.getInstance();
-        boolean error = false;
+        performSerialized(virtualMachine, null, () -> {
+            NativeVBoxAPIMachine natapiMach = NativeVBoxAPIMachine.getInstance();
+            boolean error = false;
         
-        if(virtualMachine != null){
-            if(rule != null){
-                System.out.println("Deleting port forwarding rule " + rule + " from virtual machine " + virtualMachine);
+            if(virtualMachine != null){
+                if(rule != null){
+                    System.out.println("Deleting port forwarding rule " + rule + " from virtual machine " + virtualMachine);
+                    try{
+                        natapiMach.deletePortRule(virtualMachine, rule.getName(), rule.getAdapterSlot());
+                    } catch (ConnectionFailureException | InterruptedException | IncompatibleVirtToolAPIVersionException
+                            | UnknownVirtualMachineException | UnknownPortRuleException | IllegalArgumentException
+                            | UnexpectedVMStateException ex) {
+
+                        System.err.println(ex.getMessage());
+                        error = true;
+                    }
+
+                    if(!error){
+                        System.out.println("Deleting finished successfully");
+                    }
+                }else{
+                    System.err.println("Creating new port forwarding rule failure: There was made an attempt to create a null port forwarding rule for virtual machine " + virtualMachine + ".");
+                }
+            }else{
+                System.err.println("Deleting port forwarding rule failure: There was made an attempt to delete a port forwarding rule of a null virtual machine.");
+            }
+            
+            return null;
+        }, null);
+    }
+
+    @Override
+    public List<OperationResult<PortRule>> addPortRules(VirtualMachine virtualMachine, Collection<PortRule> rules) {
+        return performSerialized(virtualMachine, null, () -> {
+            NativeVBoxAPIMachine natapiMach = NativeVBoxAPIMachine.getInstance();
+            List<OperationResult<PortRule>> results = new ArrayList<>();
+        
+            if(virtualMachine == null){
+                System.err.println("Creating new port forwarding rules failure: There was made an attempt to create new port forwarding rules for a null virtual machine.");
+                return results;
+            }
+            if(rules == null){
+                System.err.println("Creating new port forwarding rules failure: There was made an attempt to create a null collection of port forwarding rules for virtual machine " + virtualMachine + ".");
+                return results;
+            }
+        
+            System.out.println("Adding " + rules.size() + " port forwarding rules of virtual machine " + virtualMachine);
+            try{
+                results = natapiMach.addPortRules(virtualMachine, rules);
+            } catch (ConnectionFailureException | InterruptedException | IncompatibleVirtToolAPIVersionException
+                    | UnknownVirtualMachineException | IllegalArgumentException | UnexpectedVMStateException ex) {
+            
+                System.err.println(ex.getMessage());
+                return results;
+            }
+        
+            int successful = 0;
+            for(OperationResult<PortRule> result : results){
+                if(result.isSuccessful()){
+                    ++successful;
+                }else{
+                    System.err.println(result.getMessage());
+                }
+            }
+            System.out.println("Adding finished: " + successful + " of " + rules.size() + " port forwarding rules processed successfully");
+        
+            return results;
+        }, new ArrayList<>());
+    }
+    
+    @Override
+    public List<OperationResult<PortRule>> deletePortRules(VirtualMachine virtualMachine, Collection<PortRule> rules) {
+        return performSerialized(virtualMachine, null, () -> {
+            NativeVBoxAPIMachine natapiMach = NativeVBoxAPIMachine.getInstance();
+            List<OperationResult<PortRule>> results = new ArrayList<>();
+        
+            if(virtualMachine == null){
+                System.err.println("Deleting port forwarding rules failure: There was made an attempt to delete port forwarding rules of a null virtual machine.");
+                return results;
+            }
+            if(rules == null){
+                System.err.println("Deleting port forwarding rules failure: There was made an attempt to delete a null collection of port forwarding rules of virtual machine " + virtualMachine + ".");
+                return results;
+            }
+        
+            System.out.println("Deleting " + rules.size() + " port forwarding rules of virtual machine " + virtualMachine);
+            try{
+                results = natapiMach.deletePortRules(virtualMachine, rules);
+            } catch (ConnectionFailureException | InterruptedException | IncompatibleVirtToolAPIVersionException
+                    | UnknownVirtualMachineException | IllegalArgumentException | UnexpectedVMStateException ex) {
+            
+                System.err.println(ex.getMessage());
+                return results;
+            }
+        
+            int successful = 0;
+            for(OperationResult<PortRule> result : results){
+                if(result.isSuccessful()){
+                    ++successful;
+                }else{
+                    System.err.println(result.getMessage());
+                }
+            }
+            System.out.println("Deleting finished: " + successful + " of " + rules.size() + " port forwarding rules processed successfully");
+        
+            return results;
+        }, new ArrayList<>());
+    }
+    
+    @Override
+    public List<OperationResult<PortRule>> replacePortRules(VirtualMachine virtualMachine, Collection<PortRule> rules) {
+        return performSerialized(virtualMachine, null, () -> {
+            NativeVBoxAPIMachine natapiMach = NativeVBoxAPIMachine.getInstance();
+            List<OperationResult<PortRule>> results = new ArrayList<>();
+        
+            if(virtualMachine == null){
+                System.err.println("Replacing port forwarding rules failure: There was made an attempt to replace port forwarding rules of a null virtual machine.");
+                return results;
+            }
+            if(rules == null){
+                System.err.println("Replacing port forwarding rules failure: There was made an attempt to replace port forwarding rules of virtual machine " + virtualMachine + " by a null collection of port forwarding rules.");
+                return results;
+            }
+        
+            System.out.println("Replacing all port forwarding rules by " + rules.size() + " port forwarding rules of virtual machine " + virtualMachine);
+            try{
+                results = natapiMach.replacePortRules(virtualMachine, rules);
+            } catch (ConnectionFailureException | InterruptedException | IncompatibleVirtToolAPIVersionException
+                    | UnknownVirtualMachineException | IllegalArgumentException | UnexpectedVMStateException ex) {
+            
+                System.err.println(ex.getMessage());
+                return results;
+            }
+        
+            int successful = 0;
+            for(OperationResult<PortRule> result : results){
+                if(result.isSuccessful()){
+                    ++successful;
+                }else{
+                    System.err.println(result.getMessage());
+                }
+            }
+            System.out.println("Replacing finished: " + successful + " of " + rules.size() + " port forwarding rules processed successfully");
+        
+            return results;
+        }, new ArrayList<>());
+    }
+    
+    @Override
+    public boolean applyPortRuleSet(VirtualMachine virtualMachine, Collection<PortRule> rules) {
+        return performSerialized(virtualMachine, null, () -> {
+            NativeVBoxAPIMachine natapiMach = NativeVBoxAPIMachine.getInstance();
+        
+            if(virtualMachine == null){
+                System.err.println("Applying port forwarding rule set failure: There was made an attempt to apply port forwarding rules to a null virtual machine.");
+                return false;
+            }
+            if(rules == null){
+                System.err.println("Applying port forwarding rule set failure: There was made an attempt to apply a null collection of port forwarding rules to virtual machine " + virtualMachine + ".");
+                return false;
+            }
+        
+            System.out.println("Applying set of " + rules.size() + " port forwarding rules to virtual machine " + virtualMachine);
+            try{
+                natapiMach.applyPortRuleSet(virtualMachine, rules);
+            } catch (ConnectionFailureException | InterruptedException | IncompatibleVirtToolAPIVersionException
+                    | UnknownVirtualMachineException | IllegalArgumentException | PortRuleDuplicityException
+                    | UnexpectedVMStateException ex) {
+            
+                System.err.println(ex.getMessage());
+                System.err.println("Port forwarding rules of virtual machine " + virtualMachine + " were left unchanged");
+                return false;
+            }
+        
+            System.out.println("Port forwarding rule set applied successfully");
+            return true;
+        }, false);
+    }
+    
+    @Override
+    public void deleteAllPortRules(VirtualMachine virtualMachine) {
+        performSerialized(virtualMachine, "deleteAllPortRules", () -> {
+            NativeVBoxAPIMachine natapiMach = NativeVBoxAPIMachine.getInstance();
+            boolean error = false;
+        
+            if(virtualMachine != null){
+                System.out.println("Deleting all port forwarding rules from virtual machine " + virtualMachine);
                 try{
-                    natapiMach.deletePortRule(virtualMachine, rule.getName());
+                    //applying an empty rule set deletes all the rules at once or none of them
+                    natapiMach.applyPortRuleSet(virtualMachine, Collections.<PortRule>emptyList());
                 } catch (ConnectionFailureException | InterruptedException | IncompatibleVirtToolAPIVersionException
-                        | UnknownVirtualMachineException | UnknownPortRuleException | IllegalArgumentException
+                        | UnknownVirtualMachineException | IllegalArgumentException | PortRuleDuplicityException
                         | UnexpectedVMStateException ex) {
 
-                    System.err.println(ex.getMessage());
+                    System.err.println("Deleting all port forwarding rules failure -> " + ex.getMessage());
                     error = true;
                 }
 
                 if(!error){
-                    System.out.println("Deleting finished successfully");
+                    System.out.println("All port forwarding rules from virtual machine " + virtualMachine + " deleted successfully");
                 }
             }else{
-                System.err.println("Creating new port forwarding rule failure: There was made an attempt to create a null port forwarding rule for virtual machine " + virtualMachine + ".");
+                System.err.println("Deleting all port forwarding rules failure: There was made an attempt to delete all port forwarding rules of a null virtual machine.");
             }
-        }else{
-            System.err.println("Deleting port forwarding rule failure: There was made an attempt to delete a port forwarding rule of a null virtual machine.");
-        }
+            
+            return null;
+        }, null);
     }
 
     @Override
-    public void deleteAllPortRules(VirtualMachine virtualMachine) {
+    public List<PortRule> getPortRules(VirtualMachine virtualMachine) {
         NativeVBoxAPIMachine natapiMach = NativeVBoxAPIMachine.getInstance();
         List<PortRule> portRules = null;
         boolean error = false;
         
         if(virtualMachine != null){
-            System.out.println("Deleting all port forwarding rules from virtual machine " + virtualMachine);
-            try{
-                portRules = natapiMach.getPortRules(virtualMachine);
-            } catch (ConnectionFailureException | InterruptedException | IncompatibleVirtToolAPIVersionException
-                    | UnknownVirtualMachineException | IllegalArgumentException | UnexpectedVMStateException ex) {
-
-                System.err.println("Deleting all port forwarding rules failure -> " + ex.getMessage());
-                error = true;
-            }
-
-            if(!error && portRules != null && !portRules.isEmpty()){
+            System.out.println("Retrieving all port forwarding rules from virtual machine " + virtualMachine);
+            HostActor actor = getHostActor(virtualMachine);
+            if(actor != null){
+                portRules = await(virtualMachine, actor.getPortRules(virtualMachine), null);
+                error = (portRules == null);
+            }else{
                 try{
-                    for(PortRule rule : portRules){
-                        natapiMach.deletePortRule(virtualMachine, rule.getName());
-                    }
+                    portRules = natapiMach.getPortRules(virtualMachine);
                 } catch (ConnectionFailureException | InterruptedException | IncompatibleVirtToolAPIVersionException
-                        | UnknownVirtualMachineException | UnknownPortRuleException | IllegalArgumentException
-                        | UnexpectedVMStateException ex) {
+                        | UnknownVirtualMachineException | IllegalArgumentException | UnexpectedVMStateException ex) {
 
                     System.err.println(ex.getMessage());
                     error = true;
@@ -180,45 +664,145 @@ public class VirtualMachineManagerImpl implements VirtualMachineManager{
             }
 
             if(!error){
-                System.out.println("All port forwarding rules from virtual machine " + virtualMachine + " deleted successfully");
+                System.out.println("All port rules from virtual machine " + virtualMachine + " retrieved successfully");
             }
         }else{
-            System.err.println("Deleting all port forwarding rules failure: There was made an attempt to delete all port forwarding rules of a null virtual machine.");
+            System.err.println("Retrieving all port forwarding rules failure: There was made an attempt to retrieve all port forwarding rules of a null virtual machine.");
         }
+        
+        return portRules;
     }
 
     @Override
-    public List<PortRule> getPortRules(VirtualMachine virtualMachine) {
+    public Snapshot takeSnapshot(VirtualMachine virtualMachine, String name, String description) {
+        return performSerialized(virtualMachine, null, () -> {
+            NativeVBoxAPIMachine natapiMach = NativeVBoxAPIMachine.getInstance();
+            Snapshot snapshot = null;
+        
+            if(virtualMachine != null){
+                System.out.println("Taking snapshot \"" + name + "\" of virtual machine " + virtualMachine);
+                try{
+                    snapshot = natapiMach.takeSnapshot(virtualMachine, name, description, new ProgressMonitor());
+                } catch (ConnectionFailureException | InterruptedException | IncompatibleVirtToolAPIVersionException
+                        | UnknownVirtualMachineException | IllegalArgumentException | UnexpectedVMStateException
+                        | OperationTimeoutException ex) {
+                
+                    System.err.println(ex.getMessage());
+                }
+            
+                if(snapshot != null){
+                    System.out.println("Snapshot " + snapshot + " taken successfully");
+                }
+            }else{
+                System.err.println("Taking snapshot failure: There was made an attempt to take snapshot of a null virtual machine.");
+            }
+        
+            return snapshot;
+        }, null);
+    }
+    
+    @Override
+    public void restoreSnapshot(VirtualMachine virtualMachine, Snapshot snapshot) {
+        performSerialized(virtualMachine, null, () -> {
+            NativeVBoxAPIMachine natapiMach = NativeVBoxAPIMachine.getInstance();
+            boolean error = false;
+        
+            if(virtualMachine != null){
+                if(snapshot != null){
+                    System.out.println("Restoring snapshot " + snapshot + " of virtual machine " + virtualMachine);
+                    try{
+                        natapiMach.restoreSnapshot(virtualMachine, snapshot, new ProgressMonitor());
+                    } catch (ConnectionFailureException | InterruptedException | IncompatibleVirtToolAPIVersionException
+                            | UnknownVirtualMachineException | UnknownSnapshotException | IllegalArgumentException
+                            | UnexpectedVMStateException | OperationTimeoutException ex) {
+                    
+                        System.err.println(ex.getMessage());
+                        error = true;
+                    }
+                
+                    if(!error){
+                        System.out.println("Restoring finished successfully");
+                    }
+                }else{
+                    System.err.println("Restoring snapshot failure: There was made an attempt to restore a null snapshot of virtual machine " + virtualMachine + ".");
+                }
+            }else{
+                System.err.println("Restoring snapshot failure: There was made an attempt to restore snapshot of a null virtual machine.");
+            }
+            
+            return null;
+        }, null);
+    }
+    
+    @Override
+    public void deleteSnapshot(VirtualMachine virtualMachine, Snapshot snapshot) {
+        performSerialized(virtualMachine, null, () -> {
+            NativeVBoxAPIMachine natapiMach = NativeVBoxAPIMachine.getInstance();
+            boolean error = false;
+        
+            if(virtualMachine != null){
+                if(snapshot != null){
+                    System.out.println("Deleting snapshot " + snapshot + " of virtual machine " + virtualMachine);
+                    try{
+                        natapiMach.deleteSnapshot(virtualMachine, snapshot, new ProgressMonitor());
+                    } catch (ConnectionFailureException | InterruptedException | IncompatibleVirtToolAPIVersionException
+                            | UnknownVirtualMachineException | UnknownSnapshotException | IllegalArgumentException
+                            | UnexpectedVMStateException | OperationTimeoutException ex) {
+                    
+                        System.err.println(ex.getMessage());
+                        error = true;
+                    }
+                
+                    if(!error){
+                        System.out.println("Deleting finished successfully");
+                    }
+                }else{
+                    System.err.println("Deleting snapshot failure: There was made an attempt to delete a null snapshot of virtual machine " + virtualMachine + ".");
+                }
+            }else{
+                System.err.println("Deleting snapshot failure: There was made an attempt to delete snapshot of a null virtual machine.");
+            }
+            
+            return null;
+        }, null);
+    }
+    
+    @Override
+    public List<Snapshot> getSnapshots(VirtualMachine virtualMachine) {
         NativeVBoxAPIMachine natapiMach = NativeVBoxAPIMachine.getInstance();
-        List<PortRule> portRules = null;
+        List<Snapshot> snapshots = null;
         boolean error = false;
         
         if(virtualMachine != null){
-            System.out.println("Retrieving all port forwarding rules from virtual machine " + virtualMachine);
+            System.out.println("Retrieving all snapshots of virtual machine " + virtualMachine);
             try{
-                portRules = natapiMach.getPortRules(virtualMachine);
+                snapshots = natapiMach.getSnapshots(virtualMachine);
             } catch (ConnectionFailureException | InterruptedException | IncompatibleVirtToolAPIVersionException
                     | UnknownVirtualMachineException | IllegalArgumentException | UnexpectedVMStateException ex) {
-
+                
                 System.err.println(ex.getMessage());
                 error = true;
             }
-
+            
             if(!error){
-                System.out.println("All port rules from virtual machine " + virtualMachine + " retrieved successfully");
+                System.out.println("All snapshots of virtual machine " + virtualMachine + " retrieved successfully");
             }
         }else{
-            System.err.println("Retrieving all port forwarding rules failure: There was made an attempt to retrieve all port forwarding rules of a null virtual machine.");
+            System.err.println("Retrieving all snapshots failure: There was made an attempt to retrieve all snapshots of a null virtual machine.");
         }
         
-        return portRules;
+        return snapshots;
     }
-
+    
     @Override
     public String getVMState(VirtualMachine virtualMachine) {
         NativeVBoxAPIMachine natapiMach = NativeVBoxAPIMachine.getInstance();
         String state = null;
         
+        HostActor actor = getHostActor(virtualMachine);
+        if(actor != null){
+            return await(virtualMachine, actor.getVMState(virtualMachine), null);
+        }
         try{
             state = natapiMach.getVMState(virtualMachine);
         } catch (ConnectionFailureException | InterruptedException | IncompatibleVirtToolAPIVersionException
@@ -230,4 +814,99 @@ public class VirtualMachineManagerImpl implements VirtualMachineManager{
         return state;
     }
     
+    //operations of one virtual machine are performed one after another, so that they do not fail on the lock
+    //of the virtual machine held by its other operation, the operation itself reports an invalid virtual machine
+    private <T> T performSerialized(VirtualMachine virtualMachine, String key, Callable<T> operation, T failure) {
+        return await(virtualMachine, scheduleSerialized(virtualMachine, key, operation), failure);
+    }
+    
+    private <T> T await(VirtualMachine virtualMachine, Future<T> future, T failure) {
+        try{
+            return future.get();
+        } catch (InterruptedException ex) {
+            future.cancel(true);
+            System.err.println("Operation of virtual machine " + virtualMachine + " failure: Waiting for the operation has been interrupted.");
+            return failure;
+        } catch (ExecutionException ex) {
+            System.err.println(ex.getCause().getMessage());
+            return failure;
+        }
+    }
+    
+    private <T> Future<T> scheduleSerialized(VirtualMachine virtualMachine, String key, Callable<T> operation) {
+        if(virtualMachine == null || virtualMachine.getId() == null){
+            return AsyncOperationExecutor.getInstance().submit(operation);
+        }
+        //actor performs all the operations of its physical machine one after another, so they are serialized anyway
+        HostActor actor = getHostActor(virtualMachine);
+        if(actor != null){
+            return actor.submit((vbox) -> operation.call());
+        }
+        
+        return VMOperationScheduler.getInstance().schedule(virtualMachine, key, operation);
+    }
+    
+    //returns null if operations of the physical machine of the virtual machine are not performed by an actor
+    private HostActor getHostActor(VirtualMachine virtualMachine) {
+        if(virtualMachine == null || virtualMachine.getId() == null){
+            return null;
+        }
+        
+        return HostActorRegistry.getInstance().getActor(virtualMachine.getHostMachine());
+    }
+    
+    private boolean startVM(VirtualMachine virtualMachine, LaunchOptions options, ProgressMonitor monitor) {
+        NativeVBoxAPIMachine natapiMach = NativeVBoxAPIMachine.getInstance();
+        boolean error = false;
+        
+        if(virtualMachine != null){
+            System.out.println("Starting virtual machine " + virtualMachine);
+            try{
+                natapiMach.startVM(virtualMachine, options, monitor);
+            } catch (InterruptedException | ConnectionFailureException | IncompatibleVirtToolAPIVersionException
+                    | UnknownVirtualMachineException | UnexpectedVMStateException | OperationTimeoutException
+                    | IllegalArgumentException ex) {
+                
+                System.err.println(ex.getMessage());
+                error = true;
+            }
+            
+            if(!error){
+                System.out.println("Virtual machine \"" + virtualMachine.getName() + "\" is running");
+            }
+        }else{
+            System.err.println("Starting virtual machine failure: There was made an attempt to start a null virtual machine.");
+            error = true;
+        }
+        
+        return !error;
+    }
+    
+    private boolean shutDownVM(VirtualMachine virtualMachine, ProgressMonitor monitor) {
+        NativeVBoxAPIMachine natapiMach = NativeVBoxAPIMachine.getInstance();
+        boolean error = false;
+        
+        if(virtualMachine != null){
+            System.out.println("Shutting down virtual machine " + virtualMachine);
+            try{
+                natapiMach.shutDownVM(virtualMachine, monitor);
+            } catch (ConnectionFailureException | InterruptedException | IncompatibleVirtToolAPIVersionException
+                    | UnknownVirtualMachineException | UnexpectedVMStateException | OperationTimeoutException
+                    | IllegalArgumentException ex) {
+                
+                System.err.println(ex.getMessage());
+                error = true;
+            }
+            
+            if(!error){
+                System.out.println("Virtual machine \"" + virtualMachine.getName() + "\" is powered off");
+            }
+        }else{
+            System.err.println("Shutdown virtual machine failure: There was made an attempt to shut down a null virtual machine.");
+            error = true;
+        }
+        
+        return !error;
+    }
+    
 }
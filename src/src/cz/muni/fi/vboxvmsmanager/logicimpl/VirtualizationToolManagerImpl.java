@@ -15,17 +15,29 @@
  */
 package cz.muni.fi.vboxvmsmanager.logicimpl;
 
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.GarbageReport;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.OperationPlan;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.OperationResult;
 import cz.muni.fi.vboxvmsmanager.pubapi.entities.PhysicalMachine;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.PlannedOperation;
 import cz.muni.fi.vboxvmsmanager.pubapi.entities.VirtualMachine;
 import cz.muni.fi.vboxvmsmanager.pubapi.exceptions.ConnectionFailureException;
 import cz.muni.fi.vboxvmsmanager.pubapi.exceptions.IncompatibleVirtToolAPIVersionException;
+import cz.muni.fi.vboxvmsmanager.pubapi.exceptions.OperationTimeoutException;
 import cz.muni.fi.vboxvmsmanager.pubapi.exceptions.UnexpectedVMStateException;
 import cz.muni.fi.vboxvmsmanager.pubapi.exceptions.UnknownVirtualMachineException;
+import cz.muni.fi.vboxvmsmanager.pubapi.listeners.ProgressListener;
 import cz.muni.fi.vboxvmsmanager.pubapi.managers.VirtualMachineManager;
 import cz.muni.fi.vboxvmsmanager.pubapi.managers.VirtualizationToolManager;
 import cz.muni.fi.vboxvmsmanager.pubapi.types.CloneType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Future;
 
 /**
  *
@@ -33,6 +45,9 @@ import java.util.UUID;
  */
 public class VirtualizationToolManagerImpl implements VirtualizationToolManager{
     
+    private static final long PAUSE_BETWEEN_GARBAGE_DELETIONS = 1000L;
+    //only one garbage collection runs on each physical machine at a time
+    private static final Map<PhysicalMachine, Future<GarbageReport>> garbageCollections = new HashMap<>();
     private PhysicalMachine hostMachine;
     
     public VirtualizationToolManagerImpl(PhysicalMachine hostMachine){
@@ -114,15 +129,290 @@ public class VirtualizationToolManagerImpl implements VirtualizationToolManager{
 
     @Override
     public void removeVirtualMachine(VirtualMachine virtualMachine) {
+        removeVirtualMachine(virtualMachine, new ProgressMonitor());
+    }
+    
+    @Override
+    public void removeVirtualMachine(VirtualMachine virtualMachine, ProgressListener listener) {
+        removeVirtualMachine(virtualMachine, new ProgressMonitor(listener));
+    }
+    
+    @Override
+    public Future<Boolean> removeVirtualMachineAsync(VirtualMachine virtualMachine, long timeout) {
+        AsyncOperationExecutor executor = AsyncOperationExecutor.getInstance();
+        
+        if(timeout <= 0L){
+            System.err.println("Removing virtual machine failure: Timeout of removing of virtual machine " + virtualMachine + " must be a positive number of milliseconds, but it is " + timeout + ".");
+            return null;
+        }
+        
+        ProgressMonitor monitor = new ProgressMonitor(timeout);
+        return executor.submit(() -> removeVirtualMachine(virtualMachine, monitor));
+    }
+    
+    @Override
+    public List<OperationResult<VirtualMachine>> removeVirtualMachines(Collection<VirtualMachine> virtualMachines) {
+        NativeVBoxAPIManager natapiMan = NativeVBoxAPIManager.getInstance();
+        List<OperationResult<VirtualMachine>> results = new ArrayList<>();
+        
+        if(virtualMachines != null){
+            System.out.println("Removing " + virtualMachines.size() + " virtual machines from physical machine " + hostMachine);
+            try{
+                results = natapiMan.removeVirtualMachines(virtualMachines, new ProgressMonitor());
+            } catch (InterruptedException | IllegalArgumentException ex) {
+                System.err.println(ex.getMessage());
+                return results;
+            }
+            
+            int removed = 0;
+            for(OperationResult<VirtualMachine> result : results){
+                if(result.isSuccessful()){
+                    ++removed;
+                }else{
+                    System.err.println(result.getMessage());
+                }
+            }
+            System.out.println("Removing finished: " + removed + " of " + virtualMachines.size() + " virtual machines removed successfully");
+        }else{
+            System.err.println("Removing virtual machines failure: There was made an attempt to remove a null collection of virtual machines.");
+        }
+        
+        return results;
+    }
+    
+    @Override
+    public VirtualMachine cloneVirtualMachine(VirtualMachine virtualMachine, CloneType type) {
+        return cloneVirtualMachine(virtualMachine, type, new ProgressMonitor());
+    }
+    
+    @Override
+    public VirtualMachine cloneVirtualMachine(VirtualMachine virtualMachine, CloneType type, ProgressListener listener) {
+        return cloneVirtualMachine(virtualMachine, type, new ProgressMonitor(listener));
+    }
+    
+    @Override
+    public Future<VirtualMachine> cloneVirtualMachineAsync(VirtualMachine virtualMachine, CloneType type, long timeout) {
+        return cloneVirtualMachineAsync(virtualMachine, type, timeout, null);
+    }
+    
+    @Override
+    public Future<VirtualMachine> cloneVirtualMachineAsync(VirtualMachine virtualMachine, CloneType type, long timeout,
+                                                           ProgressListener listener) {
+        AsyncOperationExecutor executor = AsyncOperationExecutor.getInstance();
+        
+        if(timeout <= 0L){
+            System.err.println("Cloning virtual machine failure: Timeout of cloning of virtual machine " + virtualMachine + " must be a positive number of milliseconds, but it is " + timeout + ".");
+            return null;
+        }
+        
+        ProgressMonitor monitor = new ProgressMonitor(timeout, listener);
+        return executor.submit(() -> cloneVirtualMachine(virtualMachine, type, monitor));
+    }
+    
+    @Override
+    public List<OperationResult<VirtualMachine>> cloneVirtualMachine(VirtualMachine virtualMachine, CloneType type, int count) {
+        return cloneVirtualMachine(virtualMachine, type, count, null);
+    }
+    
+    @Override
+    public List<OperationResult<VirtualMachine>> cloneVirtualMachine(VirtualMachine virtualMachine, CloneType type, int count,
+                                                                     ProgressListener listener) {
+        NativeVBoxAPIManager natapiMan = NativeVBoxAPIManager.getInstance();
+        List<OperationResult<VirtualMachine>> results = new ArrayList<>();
+        
+        if(virtualMachine != null){
+            System.out.println("Creating " + count + " clones of virtual machine " + virtualMachine + " on physical machine " + hostMachine);
+            try{
+                results = natapiMan.createVMClones(virtualMachine, type, count, new ProgressMonitor(listener));
+            } catch (InterruptedException | ConnectionFailureException | IncompatibleVirtToolAPIVersionException
+                    | UnknownVirtualMachineException | UnexpectedVMStateException | OperationTimeoutException
+                    | IllegalArgumentException ex) {
+                
+                System.err.println(ex.getMessage());
+                return results;
+            }
+            
+            int created = 0;
+            for(OperationResult<VirtualMachine> result : results){
+                if(result.isSuccessful()){
+                    ++created;
+                }else{
+                    System.err.println(result.getMessage());
+                }
+            }
+            System.out.println("Cloning finished: " + created + " of " + count + " clones created successfully");
+        }else{
+            System.err.println("Cloning virtual machine failure: There was made an attempt to clone a null virtual machine.");
+        }
+        
+        return results;
+    }
+    
+    @Override
+    public OperationPlan planCloneVirtualMachine(VirtualMachine virtualMachine, CloneType type, int count) {
+        OperationPlanner planner = OperationPlanner.getInstance();
+        
+        if(virtualMachine == null){
+            System.err.println("Planning cloning of virtual machine failure: There was made an attempt to plan cloning of a null virtual machine.");
+            return new OperationPlan(null, null);
+        }
+        if(type == null){
+            System.err.println("Planning cloning of virtual machine " + virtualMachine + " failure: There is not specified (is null) a type of clones should be created.");
+            return new OperationPlan(null, null);
+        }
+        if(count <= 0){
+            System.err.println("Planning cloning of virtual machine " + virtualMachine + " failure: Count of clones to be created must be a positive number, but it is " + count + ".");
+            return new OperationPlan(null, null);
+        }
+        
+        //clones created in parallel share the disk of the physical machine, so they are expected to take
+        //as long as if they were created one after another
+        List<List<PlannedOperation>> chains = new ArrayList<>();
+        for(int i = 0; i < count; ++i){
+            chains.add(Arrays.asList(planner.estimate(OperationPlanner.getCloneOperationType(type),
+                                                      virtualMachine.getName(), hostMachine)));
+        }
+        OperationPlan plan = planner.plan(chains, 1, 0L);
+        OperationPlanner.printPlan("Cloning", plan);
+        
+        return plan;
+    }
+    
+    @Override
+    public int allocateHostPort(int fromPort) {
+        return allocateHostPorts(1, fromPort);
+    }
+    
+    @Override
+    public int allocateHostPorts(int count, int fromPort) {
+        NativeVBoxAPIManager natapiMan = NativeVBoxAPIManager.getInstance();
+        int port = -1;
+        
+        try{
+            port = natapiMan.allocateHostPorts(hostMachine, count, fromPort);
+        } catch (InterruptedException | ConnectionFailureException | IncompatibleVirtToolAPIVersionException
+                | UnexpectedVMStateException | IllegalArgumentException ex) {
+            
+            System.err.println(ex.getMessage());
+            return port;
+        }
+        
+        if(port < 0){
+            System.err.println("Allocating host ports failure: There are no " + count + " consecutive free host ports from port " + fromPort + " on physical machine " + hostMachine + ".");
+        }
+        
+        return port;
+    }
+    
+    @Override
+    public void releaseHostPort(int port) {
+        NativeVBoxAPIManager natapiMan = NativeVBoxAPIManager.getInstance();
+        
+        try{
+            natapiMan.releaseHostPort(hostMachine, port);
+        } catch (InterruptedException | ConnectionFailureException | IncompatibleVirtToolAPIVersionException
+                | UnexpectedVMStateException | IllegalArgumentException ex) {
+            
+            System.err.println(ex.getMessage());
+        }
+    }
+    
+    @Override
+    public void setMaxParallelVMOperations(int maxParallelVMs) {
+        try{
+            VMOperationScheduler.getInstance().setMaxParallelVMs(hostMachine, maxParallelVMs);
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+        }
+    }
+    
+    @Override
+    public void setHostActorEnabled(boolean enabled) {
+        NativeVBoxAPIConnection natapiCon = NativeVBoxAPIConnection.getInstance();
+        
+        if(!enabled){
+            HostActorRegistry.getInstance().remove(hostMachine);
+            System.out.println("Operations of physical machine " + hostMachine + " are performed by their callers");
+            return;
+        }
+        if(!natapiCon.isConnected(hostMachine)){
+            System.err.println("Enabling host actor failure: There cannot be enabled host actor of physical machine " + hostMachine + " now, because it is not connected.");
+            return;
+        }
+        
+        HostActorRegistry.getInstance().enable(hostMachine);
+        System.out.println("Operations of physical machine " + hostMachine + " are performed by its host actor");
+    }
+    
+    @Override
+    public GarbageReport findGarbage() {
+        NativeVBoxAPIManager natapiMan = NativeVBoxAPIManager.getInstance();
+        GarbageReport report = null;
+        
+        try{
+            report = natapiMan.findGarbage(hostMachine);
+        } catch (InterruptedException | ConnectionFailureException | IncompatibleVirtToolAPIVersionException
+                | UnexpectedVMStateException | IllegalArgumentException ex) {
+            
+            System.err.println(ex.getMessage());
+        }
+        
+        return report;
+    }
+    
+    @Override
+    public Future<GarbageReport> collectGarbage() {
+        AsyncOperationExecutor executor = AsyncOperationExecutor.getInstance();
+        
+        synchronized(garbageCollections){
+            Future<GarbageReport> collection = garbageCollections.get(hostMachine);
+            if(collection == null || collection.isDone()){
+                collection = executor.submit(() -> collectGarbage(new ProgressMonitor()));
+                garbageCollections.put(hostMachine, collection);
+            }
+            return collection;
+        }
+    }
+    
+    @Override
+    public VirtualMachineManager getVirtualMachineManager() {
+        return VirtualMachineManagerImpl.getInstance();
+    }
+    
+    private GarbageReport collectGarbage(ProgressMonitor monitor) {
+        NativeVBoxAPIManager natapiMan = NativeVBoxAPIManager.getInstance();
+        GarbageReport report = null;
+        
+        System.out.println("Collecting garbage on physical machine " + hostMachine);
+        try{
+            report = natapiMan.collectGarbage(hostMachine, PAUSE_BETWEEN_GARBAGE_DELETIONS, monitor);
+        } catch (InterruptedException | ConnectionFailureException | IncompatibleVirtToolAPIVersionException
+                | UnexpectedVMStateException | IllegalArgumentException ex) {
+            
+            System.err.println(ex.getMessage());
+            return report;
+        }
+        
+        for(String error : report.getErrors()){
+            System.err.println(error);
+        }
+        System.out.println("Garbage collection finished: " + report.getSnapshots().size() + " snapshots and " + report.getMedia().size()
+                           + " media deleted, " + report.getReclaimableSpace() + " bytes reclaimed");
+        
+        return report;
+    }
+    
+    private boolean removeVirtualMachine(VirtualMachine virtualMachine, ProgressMonitor monitor) {
         NativeVBoxAPIManager natapiMan = NativeVBoxAPIManager.getInstance();
         boolean error = false;
         
         if(virtualMachine != null){
             System.out.println("Removing virtual machine " + virtualMachine + " from physical machine " + hostMachine);
             try{
-                natapiMan.removeVirtualMachine(virtualMachine);
+                natapiMan.removeVirtualMachine(virtualMachine, monitor);
             } catch (InterruptedException | ConnectionFailureException | IncompatibleVirtToolAPIVersionException
-                    | UnknownVirtualMachineException | UnexpectedVMStateException | IllegalArgumentException ex) {
+                    | UnknownVirtualMachineException | UnexpectedVMStateException | OperationTimeoutException
+                    | IllegalArgumentException ex) {
                 
                 System.err.println(ex.getMessage());
                 error = true;
@@ -133,11 +423,13 @@ public class VirtualizationToolManagerImpl implements VirtualizationToolManager{
             }
         }else{
             System.err.println("Removing virtual machine failure: There was made an attempt to remove a null virtual machine.");
+            error = true;
         }
+        
+        return !error;
     }
 
-    @Override
-    public VirtualMachine cloneVirtualMachine(VirtualMachine virtualMachine, CloneType type) {
+    private VirtualMachine cloneVirtualMachine(VirtualMachine virtualMachine, CloneType type, ProgressMonitor monitor) {
         NativeVBoxAPIManager natapiMan = NativeVBoxAPIManager.getInstance();
         VirtualMachine cloneMachine = null;
         boolean error = false;
@@ -145,9 +437,10 @@ public class VirtualizationToolManagerImpl implements VirtualizationToolManager{
         if(virtualMachine != null){
             System.out.println("Cloning virtual machine " + virtualMachine + " on physical machine " + hostMachine);
             try{
-                cloneMachine = natapiMan.createVMClone(virtualMachine, type);
+                cloneMachine = natapiMan.createVMClone(virtualMachine, type, monitor);
             } catch (InterruptedException | ConnectionFailureException | IncompatibleVirtToolAPIVersionException
-                    | UnknownVirtualMachineException | UnexpectedVMStateException | IllegalArgumentException ex) {
+                    | UnknownVirtualMachineException | UnexpectedVMStateException | OperationTimeoutException
+                    | IllegalArgumentException ex) {
                 
                 System.err.println(ex.getMessage());
                 error = true;
@@ -162,10 +455,5 @@ public class VirtualizationToolManagerImpl implements VirtualizationToolManager{
         
         return cloneMachine;
     }
-
-    @Override
-    public VirtualMachineManager getVirtualMachineManager() {
-        return VirtualMachineManagerImpl.getInstance();
-    }
     
 }
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2015 Tomáš Šmíd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.muni.fi.vboxvmsmanager.pubapi.entities;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ *
+ * @author Tomáš Šmíd
+ * @param <T> type of the objects the bulk operation was performed on or has produced
+ */
+public final class BulkOperationReport<T> {
+    private final List<OperationResult<T>> results;
+    private final long duration;
+    
+    public BulkOperationReport(List<OperationResult<T>> results, long duration){
+        this.results = (results == null ? Collections.<OperationResult<T>>emptyList()
+                                        : Collections.unmodifiableList(new ArrayList<>(results)));
+        this.duration = (duration < 0L ? 0L : duration);
+    }
+    
+    public List<OperationResult<T>> getResults() {
+        return results;
+    }
+    
+    //total duration of the whole bulk operation in milliseconds
+    public long getDuration() {
+        return duration;
+    }
+    
+    public int getSuccessfulCount() {
+        int count = 0;
+        for(OperationResult<T> result : results){
+            if(result.isSuccessful()){
+                ++count;
+            }
+        }
+        
+        return count;
+    }
+    
+    @Override
+    public String toString(){
+        return "[" + "Bulk operation report: operations=" + results.size() + ", successful=" + getSuccessfulCount() +
+               ", duration=" + duration + "ms]";
+    }
+}
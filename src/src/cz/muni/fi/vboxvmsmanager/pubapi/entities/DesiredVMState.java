@@ -0,0 +1,124 @@
+/*
+ * Copyright 2015 Tomáš Šmíd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.muni.fi.vboxvmsmanager.pubapi.entities;
+
+import cz.muni.fi.vboxvmsmanager.pubapi.types.CloneType;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ *
+ * @author Tomáš Šmíd
+ */
+public final class DesiredVMState {
+    private final String name;
+    private final PhysicalMachine hostMachine;
+    private final VirtualMachine source;
+    private final CloneType cloneType;
+    private final Boolean running;
+    private final LaunchOptions launchOptions;
+    private final List<PortRule> portRules;
+    
+    public static class Builder {
+        private final String name;
+        private final PhysicalMachine hostMachine;
+        private VirtualMachine source = null;
+        private CloneType cloneType = CloneType.FULL_FROM_MACHINE_STATE;
+        private Boolean running = null;
+        private LaunchOptions launchOptions = new LaunchOptions.Builder().build();
+        private List<PortRule> portRules = null;
+        
+        public Builder(String name, PhysicalMachine hostMachine){
+            this.name = name;
+            this.hostMachine = hostMachine;
+        }
+        
+        public Builder source(VirtualMachine value, CloneType type){
+            source = value;
+            cloneType = type;
+            return this;
+        }
+        
+        public Builder running(boolean value){
+            running = value;
+            return this;
+        }
+        
+        public Builder launchOptions(LaunchOptions value){
+            launchOptions = value;
+            return this;
+        }
+        
+        public Builder portRules(Collection<PortRule> value){
+            portRules = (value == null ? null : Collections.unmodifiableList(new ArrayList<>(value)));
+            return this;
+        }
+        
+        public DesiredVMState build(){
+            return new DesiredVMState(this);
+        }
+    }
+    
+    private DesiredVMState(Builder builder){
+        this.name = builder.name;
+        this.hostMachine = builder.hostMachine;
+        this.source = builder.source;
+        this.cloneType = builder.cloneType;
+        this.running = builder.running;
+        this.launchOptions = builder.launchOptions;
+        this.portRules = builder.portRules;
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    public PhysicalMachine getHostMachine() {
+        return hostMachine;
+    }
+    
+    //virtual machine which is cloned when the desired one does not exist
+    public VirtualMachine getSource() {
+        return source;
+    }
+    
+    public CloneType getCloneType() {
+        return cloneType;
+    }
+    
+    //null means that the state of virtual machine is left as it is
+    public Boolean getRunning() {
+        return running;
+    }
+    
+    public LaunchOptions getLaunchOptions() {
+        return launchOptions;
+    }
+    
+    //null means that port forwarding rules of virtual machine are left as they are
+    public List<PortRule> getPortRules() {
+        return portRules;
+    }
+    
+    @Override
+    public String toString(){
+        return "[" + "Desired virtual machine state: name=" + name + ", hostMachine=" + hostMachine +
+               ", source=" + source + ", running=" + running + ", portRules=" +
+               (portRules == null ? "unmanaged" : portRules.size()) + "]";
+    }
+}
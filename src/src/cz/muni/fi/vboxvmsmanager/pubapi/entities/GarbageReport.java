@@ -0,0 +1,63 @@
+/*
+ * Copyright 2015 Tomáš Šmíd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.muni.fi.vboxvmsmanager.pubapi.entities;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ *
+ * @author Tomáš Šmíd
+ */
+public final class GarbageReport {
+    private final List<String> snapshots;
+    private final List<String> media;
+    private final long reclaimableSpace;
+    private final List<String> errors;
+    
+    public GarbageReport(List<String> snapshots, List<String> media, long reclaimableSpace, List<String> errors){
+        this.snapshots = Collections.unmodifiableList(new ArrayList<>(snapshots));
+        this.media = Collections.unmodifiableList(new ArrayList<>(media));
+        this.reclaimableSpace = (reclaimableSpace < 0L ? 0L : reclaimableSpace);
+        this.errors = Collections.unmodifiableList(new ArrayList<>(errors));
+    }
+    
+    //descriptions of linked base snapshots which are not used by any linked clone
+    public List<String> getSnapshots() {
+        return snapshots;
+    }
+    
+    //locations of hard disks which are not attached to any virtual machine
+    public List<String> getMedia() {
+        return media;
+    }
+    
+    //size of the unused hard disks in bytes
+    public long getReclaimableSpace() {
+        return reclaimableSpace;
+    }
+    
+    public List<String> getErrors() {
+        return errors;
+    }
+    
+    @Override
+    public String toString(){
+        return "[" + "Garbage report: snapshots=" + snapshots.size() + ", media=" + media.size() +
+               ", reclaimableSpace=" + reclaimableSpace + "B, errors=" + errors.size() + "]";
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2015 Tomáš Šmíd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.muni.fi.vboxvmsmanager.pubapi.entities;
+
+import cz.muni.fi.vboxvmsmanager.pubapi.types.CloneType;
+import cz.muni.fi.vboxvmsmanager.pubapi.types.JobType;
+import java.util.UUID;
+
+/**
+ *
+ * @author Tomáš Šmíd
+ */
+public final class Job {
+    private final UUID id;
+    private final JobType type;
+    private final PhysicalMachine hostMachine;
+    private final String virtualMachineName;
+    private final String sourceName;
+    private final CloneType cloneType;
+    
+    public static class Builder {
+        private final JobType type;
+        private final PhysicalMachine hostMachine;
+        private final String virtualMachineName;
+        private UUID id = null;
+        private String sourceName = null;
+        private CloneType cloneType = null;
+        
+        public Builder(JobType type, PhysicalMachine hostMachine, String virtualMachineName){
+            this.type = type;
+            this.hostMachine = hostMachine;
+            this.virtualMachineName = virtualMachineName;
+        }
+        
+        public Builder id(UUID value){
+            id = value;
+            return this;
+        }
+        
+        public Builder source(String value, CloneType type){
+            sourceName = value;
+            cloneType = type;
+            return this;
+        }
+        
+        public Job build(){
+            return new Job(this);
+        }
+    }
+    
+    private Job(Builder builder){
+        this.id = (builder.id == null ? UUID.randomUUID() : builder.id);
+        this.type = builder.type;
+        this.hostMachine = builder.hostMachine;
+        this.virtualMachineName = builder.virtualMachineName;
+        this.sourceName = builder.sourceName;
+        this.cloneType = builder.cloneType;
+    }
+    
+    public UUID getId() {
+        return id;
+    }
+    
+    public JobType getType() {
+        return type;
+    }
+    
+    public PhysicalMachine getHostMachine() {
+        return hostMachine;
+    }
+    
+    //virtual machines are identified by names, so that a clone can be referred to before it is created
+    public String getVirtualMachineName() {
+        return virtualMachineName;
+    }
+    
+    //name of virtual machine which is cloned by a clone job
+    public String getSourceName() {
+        return sourceName;
+    }
+    
+    public CloneType getCloneType() {
+        return cloneType;
+    }
+    
+    @Override
+    public boolean equals(Object obj){
+        if(this == obj){
+            return true;
+        }
+        if(obj == null || this.getClass() != obj.getClass()){
+            return false;
+        }
+        
+        return this.id.equals(((Job)obj).id);
+    }
+    
+    @Override
+    public int hashCode() {
+        return id.hashCode();
+    }
+    
+    @Override
+    public String toString(){
+        return "[" + "Job: id=" + id + ", type=" + type + ", virtualMachine=" + virtualMachineName +
+               ", hostMachine=" + hostMachine + (type == JobType.CLONE ? ", source=" + sourceName + ", cloneType=" + cloneType : "") + "]";
+    }
+}
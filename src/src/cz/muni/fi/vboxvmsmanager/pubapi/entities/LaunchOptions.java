@@ -0,0 +1,85 @@
+/*
+ * Copyright 2015 Tomáš Šmíd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.muni.fi.vboxvmsmanager.pubapi.entities;
+
+import cz.muni.fi.vboxvmsmanager.pubapi.types.LaunchMode;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ *
+ * @author Tomáš Šmíd
+ */
+public final class LaunchOptions {
+    private final LaunchMode mode;
+    private final Map<String, String> environment;
+    private final Boolean vrdeEnabled;
+    
+    public static class Builder {
+        private LaunchMode mode = LaunchMode.GUI;
+        private final Map<String, String> environment = new LinkedHashMap<>();
+        private Boolean vrdeEnabled = null;
+        
+        public Builder(){
+            
+        }
+        
+        public Builder mode(LaunchMode value){
+            mode = value;
+            return this;
+        }
+        
+        public Builder environment(String name, String value){
+            environment.put(name, value);
+            return this;
+        }
+        
+        public Builder vrdeEnabled(boolean value){
+            vrdeEnabled = value;
+            return this;
+        }
+        
+        public LaunchOptions build(){
+            return new LaunchOptions(this);
+        }
+    }
+    
+    private LaunchOptions(Builder builder){
+        this.mode = builder.mode;
+        this.environment = Collections.unmodifiableMap(new LinkedHashMap<>(builder.environment));
+        this.vrdeEnabled = builder.vrdeEnabled;
+    }
+    
+    public LaunchMode getMode() {
+        return mode;
+    }
+    
+    public Map<String, String> getEnvironment() {
+        return environment;
+    }
+    
+    //null means that VRDE server setting of virtual machine is left as it is
+    public Boolean getVRDEEnabled() {
+        return vrdeEnabled;
+    }
+    
+    @Override
+    public String toString(){
+        return "[" + "Launch options: mode=" + mode + ", environment=" + environment +
+               ", vrdeEnabled=" + vrdeEnabled + "]";
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2015 Tomáš Šmíd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.muni.fi.vboxvmsmanager.pubapi.entities;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *
+ * @author Tomáš Šmíd
+ */
+public final class OperationPlan {
+    private final List<PlannedOperation> operations;
+    private final Map<PhysicalMachine, Long> estimatedDurations;
+    
+    public OperationPlan(List<PlannedOperation> operations, Map<PhysicalMachine, Long> estimatedDurations){
+        this.operations = (operations == null ? Collections.<PlannedOperation>emptyList()
+                                              : Collections.unmodifiableList(new ArrayList<>(operations)));
+        this.estimatedDurations = (estimatedDurations == null ? Collections.<PhysicalMachine, Long>emptyMap()
+                                                              : Collections.unmodifiableMap(new LinkedHashMap<>(estimatedDurations)));
+    }
+    
+    public List<PlannedOperation> getOperations() {
+        return operations;
+    }
+    
+    //estimated duration of all the operations on each physical machine in milliseconds
+    public Map<PhysicalMachine, Long> getEstimatedDurations() {
+        return estimatedDurations;
+    }
+    
+    //physical machines are served in parallel, so the whole plan takes as long as the slowest of them
+    public long getEstimatedDuration() {
+        long duration = 0L;
+        for(long hostDuration : estimatedDurations.values()){
+            duration = Math.max(duration, hostDuration);
+        }
+        
+        return duration;
+    }
+    
+    //false when some operation has never been performed before, so the estimates do not include it
+    public boolean isFullyEstimated() {
+        for(PlannedOperation operation : operations){
+            if(!operation.isEstimated()){
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    @Override
+    public String toString(){
+        return "[" + "Operation plan: operations=" + operations.size() + ", estimatedDuration=" + getEstimatedDuration() +
+               "ms, fullyEstimated=" + isFullyEstimated() + "]";
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2015 Tomáš Šmíd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.muni.fi.vboxvmsmanager.pubapi.entities;
+
+/**
+ *
+ * @author Tomáš Šmíd
+ * @param <T> type of the object the operation was performed on or has produced
+ */
+public final class OperationResult<T> {
+    private final T subject;
+    private final boolean successful;
+    private final String message;
+    private final long duration;
+    
+    public OperationResult(T subject, boolean successful, String message, long duration){
+        this.subject = subject;
+        this.successful = successful;
+        this.message = (message == null ? "" : message);
+        this.duration = (duration < 0L ? 0L : duration);
+    }
+    
+    public T getSubject() {
+        return subject;
+    }
+    
+    public boolean isSuccessful() {
+        return successful;
+    }
+    
+    public String getMessage() {
+        return message;
+    }
+    
+    //duration of the operation in milliseconds
+    public long getDuration() {
+        return duration;
+    }
+    
+    @Override
+    public String toString(){
+        return "[" + "Operation result: subject=" + subject + ", successful=" + successful +
+               ", message=" + message + ", duration=" + duration + "ms]";
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2015 Tomáš Šmíd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.muni.fi.vboxvmsmanager.pubapi.entities;
+
+import cz.muni.fi.vboxvmsmanager.pubapi.types.OperationType;
+
+/**
+ *
+ * @author Tomáš Šmíd
+ */
+public final class PlannedOperation {
+    private final OperationType type;
+    private final String virtualMachineName;
+    private final PhysicalMachine hostMachine;
+    private final long estimatedDuration;
+    
+    public PlannedOperation(OperationType type, String virtualMachineName, PhysicalMachine hostMachine,
+                            long estimatedDuration){
+        this.type = type;
+        this.virtualMachineName = virtualMachineName;
+        this.hostMachine = hostMachine;
+        this.estimatedDuration = (estimatedDuration < 0L ? -1L : estimatedDuration);
+    }
+    
+    public OperationType getType() {
+        return type;
+    }
+    
+    public String getVirtualMachineName() {
+        return virtualMachineName;
+    }
+    
+    public PhysicalMachine getHostMachine() {
+        return hostMachine;
+    }
+    
+    //estimated duration in milliseconds or -1 when the operation has never been performed before
+    public long getEstimatedDuration() {
+        return estimatedDuration;
+    }
+    
+    public boolean isEstimated() {
+        return estimatedDuration >= 0L;
+    }
+    
+    @Override
+    public String toString(){
+        return "[" + "Planned operation: type=" + type + ", virtualMachine=" + virtualMachineName + ", hostMachine=" +
+               hostMachine + ", estimatedDuration=" + (isEstimated() ? estimatedDuration + "ms" : "unknown") + "]";
+    }
+}
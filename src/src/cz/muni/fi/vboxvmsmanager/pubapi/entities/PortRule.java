@@ -29,6 +29,7 @@ public final class PortRule implements Comparable<PortRule>{
     private final int hostPort;
     private final String guestIP;
     private final int guestPort;
+    private final long adapterSlot;
     
     public static class Builder {
         private final String name;
@@ -37,6 +38,7 @@ public final class PortRule implements Comparable<PortRule>{
         private ProtocolType protocol = ProtocolType.TCP;
         private String hostIP = "";        
         private String guestIP = "";        
+        private long adapterSlot = 0L;
         
         public Builder (String ruleName, int hostPort, int guestPort){
             this.name = ruleName;
@@ -59,6 +61,11 @@ public final class PortRule implements Comparable<PortRule>{
             return this;
         }
         
+        public Builder adapterSlot(long value){
+            adapterSlot = value;
+            return this;
+        }
+        
         public PortRule build(){
             return new PortRule(this);
         }
@@ -71,6 +78,7 @@ public final class PortRule implements Comparable<PortRule>{
         this.hostPort = builder.hostPort;
         this.guestIP = builder.guestIP;
         this.guestPort = builder.guestPort;
+        this.adapterSlot = builder.adapterSlot;
     }
 
     public String getName() {
@@ -97,6 +105,10 @@ public final class PortRule implements Comparable<PortRule>{
         return guestPort;
     }
     
+    public long getAdapterSlot() {
+        return adapterSlot;
+    }
+    
     @Override
     public boolean equals(Object obj){
         if(obj == this) return true;
@@ -104,7 +116,7 @@ public final class PortRule implements Comparable<PortRule>{
         PortRule rule = (PortRule)obj;
         return ((this.name == rule.name) || 
                 (this.name != null && this.name.equals(rule.name))) &&
-               (this.hostPort == rule.hostPort);
+               (this.hostPort == rule.hostPort) && (this.adapterSlot == rule.adapterSlot);
     }
 
     @Override
@@ -112,6 +124,7 @@ public final class PortRule implements Comparable<PortRule>{
         int hash = 3;
         hash = 41 * hash + Objects.hashCode(this.name);
         hash = 41 * hash + this.hostPort;
+        hash = 41 * hash + (int)(this.adapterSlot ^ (this.adapterSlot >>> 32));
         return hash;
     }
     
@@ -121,7 +134,7 @@ public final class PortRule implements Comparable<PortRule>{
         String gip = guestIP.equals("") ? "\"\"" : guestIP;
         return "[" + "Port rule: name=" + name + ", protocol=" + protocol.toString() +
                ", hostIP=" + hip + ", hostPort=" + hostPort + ", guestIP=" +
-               gip + ", guestPort=" + guestPort + "]";
+               gip + ", guestPort=" + guestPort + ", adapterSlot=" + adapterSlot + "]";
     }
     
     @Override
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2015 Tomáš Šmíd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.muni.fi.vboxvmsmanager.pubapi.entities;
+
+import cz.muni.fi.vboxvmsmanager.pubapi.types.ReconciliationActionType;
+
+/**
+ *
+ * @author Tomáš Šmíd
+ */
+public final class ReconciliationAction {
+    private final ReconciliationActionType type;
+    private final DesiredVMState desiredState;
+    private final VirtualMachine virtualMachine;
+    private final String reason;
+    
+    public ReconciliationAction(ReconciliationActionType type, DesiredVMState desiredState,
+                                VirtualMachine virtualMachine, String reason){
+        this.type = type;
+        this.desiredState = desiredState;
+        this.virtualMachine = virtualMachine;
+        this.reason = (reason == null ? "" : reason);
+    }
+    
+    public ReconciliationActionType getType() {
+        return type;
+    }
+    
+    public DesiredVMState getDesiredState() {
+        return desiredState;
+    }
+    
+    //null when the virtual machine does not exist yet and is going to be cloned
+    public VirtualMachine getVirtualMachine() {
+        return virtualMachine;
+    }
+    
+    //describes the drift of the actual state from the desired one
+    public String getReason() {
+        return reason;
+    }
+    
+    @Override
+    public String toString(){
+        return "[" + "Reconciliation action: type=" + type + ", virtualMachine=" + desiredState.getName() +
+               ", hostMachine=" + desiredState.getHostMachine() + ", reason=" + reason + "]";
+    }
+}
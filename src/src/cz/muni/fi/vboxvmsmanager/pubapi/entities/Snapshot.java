@@ -0,0 +1,91 @@
+/*
+ * Copyright 2015 Tomáš Šmíd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.muni.fi.vboxvmsmanager.pubapi.entities;
+
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ *
+ * @author Tomáš Šmíd
+ */
+public final class Snapshot {
+    private final UUID id;
+    private final String name;
+    private final String description;
+    private final long creationTime;
+    private final UUID parentId;
+    private final boolean current;
+    
+    public Snapshot(UUID id, String name, String description, long creationTime, UUID parentId, boolean current){
+        if(id == null){
+            throw new IllegalArgumentException("Snapshot inicialization failure: ID must not be null.");
+        }
+        this.id = id;
+        this.name = (name == null ? "" : name);
+        this.description = (description == null ? "" : description);
+        this.creationTime = creationTime;
+        this.parentId = parentId;
+        this.current = current;
+    }
+    
+    public UUID getId() {
+        return id;
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    public String getDescription() {
+        return description;
+    }
+    
+    //time of snapshot creation in milliseconds since the epoch
+    public long getCreationTime() {
+        return creationTime;
+    }
+    
+    //null for the first snapshot of virtual machine
+    public UUID getParentId() {
+        return parentId;
+    }
+    
+    //whether the actual state of virtual machine is based on this snapshot
+    public boolean isCurrent() {
+        return current;
+    }
+    
+    @Override
+    public boolean equals(Object obj){
+        if(obj == this) return true;
+        if(!(obj instanceof Snapshot)) return false;
+        Snapshot snapshot = (Snapshot)obj;
+        return this.id.equals(snapshot.id);
+    }
+    
+    @Override
+    public int hashCode() {
+        int hash = 5;
+        hash = 53 * hash + Objects.hashCode(this.id);
+        return hash;
+    }
+    
+    @Override
+    public String toString(){
+        return "[" + "Snapshot: id=" + id + ", name=" + name + ", current=" + current + "]";
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2015 Tomáš Šmíd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.muni.fi.vboxvmsmanager.pubapi.managers;
+
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.Job;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.OperationResult;
+import java.util.List;
+
+/**
+ *
+ * @author Tomáš Šmíd
+ */
+public interface JobManager {
+    
+    public boolean submit(Job job);
+    
+    public boolean submit(Job job, long timeout);
+    
+    public int resume();
+    
+    public List<Job> getUnfinishedJobs();
+    
+    public List<OperationResult<Job>> getFinishedJobs();
+    
+    public void close();
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2015 Tomáš Šmíd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.muni.fi.vboxvmsmanager.pubapi.managers;
+
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.BulkOperationReport;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.DesiredVMState;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.OperationPlan;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.ReconciliationAction;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ *
+ * @author Tomáš Šmíd
+ */
+public interface ReconciliationManager {
+    
+    public List<ReconciliationAction> plan(Collection<DesiredVMState> desiredStates);
+    
+    public BulkOperationReport<ReconciliationAction> reconcile(Collection<DesiredVMState> desiredStates,
+                                                               int maxParallelVMsPerHost);
+    
+    public OperationPlan estimate(Collection<DesiredVMState> desiredStates, int maxParallelVMsPerHost);
+}
@@ -15,8 +15,11 @@
  */
 package cz.muni.fi.vboxvmsmanager.pubapi.managers;
 
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.PhysicalMachine;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.PortRuleOwner;
 import cz.muni.fi.vboxvmsmanager.pubapi.entities.SearchCriteria;
 import cz.muni.fi.vboxvmsmanager.pubapi.entities.VirtualMachine;
+import cz.muni.fi.vboxvmsmanager.pubapi.types.ProtocolType;
 import cz.muni.fi.vboxvmsmanager.pubapi.types.SearchCriterionType;
 import cz.muni.fi.vboxvmsmanager.pubapi.types.SearchMode;
 import java.util.List;
@@ -29,4 +32,6 @@ public interface SearchManager {
     
     public List<VirtualMachine> search(SearchCriteria searchCriteria, SearchMode mode,
                                        List<SearchCriterionType> searchOrder);
+    
+    public PortRuleOwner findPortRuleOwner(PhysicalMachine physicalMachine, ProtocolType protocol, int hostPort);
 }
@@ -15,9 +15,19 @@
  */
 package cz.muni.fi.vboxvmsmanager.pubapi.managers;
 
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.BulkOperationReport;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.LaunchOptions;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.OperationPlan;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.OperationResult;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.PhysicalMachine;
 import cz.muni.fi.vboxvmsmanager.pubapi.entities.PortRule;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.Snapshot;
 import cz.muni.fi.vboxvmsmanager.pubapi.entities.VirtualMachine;
+import cz.muni.fi.vboxvmsmanager.pubapi.listeners.ProgressListener;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
 
 /**
  *
@@ -27,16 +37,67 @@ public interface VirtualMachineManager {
     
     public void startVM(VirtualMachine virtualMachine);
     
+    public void startVM(VirtualMachine virtualMachine, ProgressListener listener);
+    
+    public void startVM(VirtualMachine virtualMachine, LaunchOptions options);
+    
+    public Future<Boolean> startVMAsync(VirtualMachine virtualMachine, long timeout);
+    
+    public BulkOperationReport<VirtualMachine> startVMs(Collection<VirtualMachine> virtualMachines, LaunchOptions options,
+                                                        int maxParallelStartsPerHost, long startInterval);
+    
+    public OperationPlan planStartVMs(Collection<VirtualMachine> virtualMachines, int maxParallelStartsPerHost,
+                                      long startInterval);
+    
     public void shutDownVM(VirtualMachine virtualMachine);
     
+    public void shutDownVM(VirtualMachine virtualMachine, ProgressListener listener);
+    
+    public Future<Boolean> shutDownVMAsync(VirtualMachine virtualMachine, long timeout);
+    
+    public Map<VirtualMachine, OperationResult<VirtualMachine>> shutDownVMs(Collection<VirtualMachine> virtualMachines,
+                                                                          int maxParallelShutdownsPerHost, long timeout);
+    
+    public OperationPlan planShutDownVMs(Collection<VirtualMachine> virtualMachines, int maxParallelShutdownsPerHost);
+    
+    public void shutDownVMGracefully(VirtualMachine virtualMachine, long acpiTimeout);
+    
+    public List<OperationResult<VirtualMachine>> shutDownAllVMsGracefully(PhysicalMachine physicalMachine, long acpiTimeout);
+    
+    public void saveState(VirtualMachine virtualMachine);
+    
+    public void resumeVM(VirtualMachine virtualMachine);
+    
+    public void resumeVM(VirtualMachine virtualMachine, LaunchOptions options);
+    
+    public void pauseVM(VirtualMachine virtualMachine);
+    
+    public void unpauseVM(VirtualMachine virtualMachine);
+    
     public void addPortRule(VirtualMachine virtualMachine, PortRule rule);
     
     public void deletePortRule(VirtualMachine virtualMachine, PortRule rule);
     
+    public List<OperationResult<PortRule>> addPortRules(VirtualMachine virtualMachine, Collection<PortRule> rules);
+    
+    public List<OperationResult<PortRule>> deletePortRules(VirtualMachine virtualMachine, Collection<PortRule> rules);
+    
+    public List<OperationResult<PortRule>> replacePortRules(VirtualMachine virtualMachine, Collection<PortRule> rules);
+    
+    public boolean applyPortRuleSet(VirtualMachine virtualMachine, Collection<PortRule> rules);
+    
     public void deleteAllPortRules(VirtualMachine virtualMachine);
     
     public List<PortRule> getPortRules(VirtualMachine virtualMachine);
     
-    public String getVMState(VirtualMachine virtualMachine);
+    public Snapshot takeSnapshot(VirtualMachine virtualMachine, String name, String description);
+    
+    public void restoreSnapshot(VirtualMachine virtualMachine, Snapshot snapshot);
+    
+    public void deleteSnapshot(VirtualMachine virtualMachine, Snapshot snapshot);
     
+    public List<Snapshot> getSnapshots(VirtualMachine virtualMachine);
+    
+    public String getVMState(VirtualMachine virtualMachine);
+
 }
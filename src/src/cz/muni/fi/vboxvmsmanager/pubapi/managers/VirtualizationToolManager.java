@@ -15,10 +15,16 @@
  */
 package cz.muni.fi.vboxvmsmanager.pubapi.managers;
 
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.GarbageReport;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.OperationPlan;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.OperationResult;
 import cz.muni.fi.vboxvmsmanager.pubapi.entities.VirtualMachine;
+import cz.muni.fi.vboxvmsmanager.pubapi.listeners.ProgressListener;
 import cz.muni.fi.vboxvmsmanager.pubapi.types.CloneType;
+import java.util.Collection;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Future;
 
 /**
  *
@@ -36,7 +42,41 @@ public interface VirtualizationToolManager {
     
     public void removeVirtualMachine(VirtualMachine virtualMachine);
     
+    public void removeVirtualMachine(VirtualMachine virtualMachine, ProgressListener listener);
+    
+    public Future<Boolean> removeVirtualMachineAsync(VirtualMachine virtualMachine, long timeout);
+    
+    public List<OperationResult<VirtualMachine>> removeVirtualMachines(Collection<VirtualMachine> virtualMachines);
+    
     public VirtualMachine cloneVirtualMachine(VirtualMachine virtualMachine, CloneType type);
     
+    public VirtualMachine cloneVirtualMachine(VirtualMachine virtualMachine, CloneType type, ProgressListener listener);
+    
+    public Future<VirtualMachine> cloneVirtualMachineAsync(VirtualMachine virtualMachine, CloneType type, long timeout);
+    
+    public Future<VirtualMachine> cloneVirtualMachineAsync(VirtualMachine virtualMachine, CloneType type, long timeout,
+                                                           ProgressListener listener);
+    
+    public List<OperationResult<VirtualMachine>> cloneVirtualMachine(VirtualMachine virtualMachine, CloneType type, int count);
+    
+    public List<OperationResult<VirtualMachine>> cloneVirtualMachine(VirtualMachine virtualMachine, CloneType type, int count,
+                                                                     ProgressListener listener);
+    
+    public OperationPlan planCloneVirtualMachine(VirtualMachine virtualMachine, CloneType type, int count);
+    
+    public int allocateHostPort(int fromPort);
+    
+    public int allocateHostPorts(int count, int fromPort);
+    
+    public void releaseHostPort(int port);
+    
+    public void setMaxParallelVMOperations(int maxParallelVMs);
+    
+    public void setHostActorEnabled(boolean enabled);
+    
+    public GarbageReport findGarbage();
+    
+    public Future<GarbageReport> collectGarbage();
+    
     public VirtualMachineManager getVirtualMachineManager();
 }
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2015 Tomáš Šmíd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.muni.fi.vboxvmsmanager.logicimpl;
+
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.PhysicalMachine;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.virtualbox_4_3.IVirtualBox;
+import org.virtualbox_4_3.VBoxException;
+import org.virtualbox_4_3.VirtualBoxManager;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author Tomáš Šmíd
+ */
+public class HostActorTest {
+    
+    private final AtomicInteger connections = new AtomicInteger();
+    private final List<String> performed = new CopyOnWriteArrayList<>();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private HostActor actor;
+    
+    @Before
+    public void setUp() {
+        VirtualBoxManager vbm = mock(VirtualBoxManager.class);
+        IVirtualBox vbox = mock(IVirtualBox.class);
+        doReturn(vbox).when(vbm).getVBox();
+        PhysicalMachine pm = new PhysicalMachine("10.0.0.1", "18083", "Jack", "tr1h15");
+        actor = new HostActor(pm, () -> {
+            connections.incrementAndGet();
+            return vbm;
+        });
+    }
+    
+    @After
+    public void tearDown() {
+        actor.close();
+    }
+    
+    @Test
+    public void operationsArePerformedInSubmissionOrder() throws Exception{
+        Future<String> blocker = actor.submit(record("blocker", true));
+        Future<String> read1 = actor.read(record("read1", false));
+        Future<String> write = actor.submit(record("write", false));
+        Future<String> read2 = actor.read(record("read2", false));
+        release.countDown();
+        
+        assertEquals("read2", read2.get(5, TimeUnit.SECONDS));
+        assertEquals("write", write.get());
+        assertEquals("read1", read1.get());
+        assertEquals("blocker", blocker.get());
+        assertEquals(Arrays.asList("blocker", "read1", "write", "read2"), performed);
+    }
+    
+    @Test
+    public void connectionIsReusedForQueuedOperations() throws Exception{
+        actor.submit(record("blocker", true));
+        actor.read(record("read1", false));
+        actor.read(record("read2", false));
+        Future<String> read3 = actor.read(record("read3", false));
+        release.countDown();
+        
+        read3.get(5, TimeUnit.SECONDS);
+        assertEquals(1, connections.get());
+        assertEquals(0, actor.getMailboxSize());
+    }
+    
+    @Test
+    public void brokenConnectionIsReplaced() throws Exception{
+        Future<String> broken = actor.read((vbox) -> {
+            throw new VBoxException("connection reset");
+        });
+        Future<String> read = actor.read(record("read", false));
+        
+        assertEquals("read", read.get(5, TimeUnit.SECONDS));
+        try{
+            broken.get();
+            fail("Operation should have failed.");
+        }catch(ExecutionException ex){
+            assertTrue(ex.getCause() instanceof VBoxException);
+        }
+        assertEquals(2, connections.get());
+    }
+    
+    @Test
+    public void queuedOperationsFailWhenActorIsClosed() throws Exception{
+        actor.submit(record("blocker", true));
+        Future<String> queued = actor.submit(record("queued", false));
+        actor.close();
+        release.countDown();
+        
+        try{
+            queued.get(5, TimeUnit.SECONDS);
+            fail("Queued operation should have failed.");
+        }catch(ExecutionException ex){
+            assertTrue(ex.getCause() instanceof IllegalStateException);
+        }
+        assertFalse(performed.contains("queued"));
+        try{
+            actor.submit(record("late", false)).get();
+            fail("Operation submitted after closing should have failed.");
+        }catch(ExecutionException ex){
+            assertTrue(ex.getCause() instanceof IllegalStateException);
+        }
+    }
+    
+    private HostActor.HostOperation<String> record(String name, boolean block){
+        return (vbox) -> {
+            if(block){
+                release.await();
+            }
+            performed.add(name);
+            return name;
+        };
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2015 Tomáš Šmíd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.muni.fi.vboxvmsmanager.logicimpl;
+
+import java.util.Arrays;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import org.virtualbox_4_3.ChipsetType;
+import org.virtualbox_4_3.IMachine;
+import org.virtualbox_4_3.INATEngine;
+import org.virtualbox_4_3.INetworkAdapter;
+import org.virtualbox_4_3.ISystemProperties;
+import org.virtualbox_4_3.IVirtualBox;
+
+/**
+ *
+ * @author Tomáš Šmíd
+ */
+public class HostPortAllocatorTest {
+    
+    private static final String VM_ID = "6c5a3b8e-2f1d-4c7a-9e0b-1a2b3c4d5e6f";
+    private static final String CLONE_ID = "0f9e8d7c-6b5a-4e3d-8c2b-1a0f9e8d7c6b";
+    private HostPortAllocator sut;
+    
+    @Before
+    public void setUp() {
+        sut = new HostPortAllocator();
+    }
+    
+    @Test
+    public void allocateSkipsUsedPorts(){
+        sut.bind(VM_ID, 2000);
+        sut.bind(VM_ID, 2001);
+        
+        assertEquals("The first free port should be allocated", 2002, sut.allocate(2000));
+        assertEquals("Allocated port should not be allocated again", 2003, sut.allocate(2000));
+        assertFalse("Allocated port should not be free", sut.isFree(2002));
+    }
+    
+    @Test
+    public void allocateRangeSkipsTooSmallGaps(){
+        sut.bind(VM_ID, 3001);
+        sut.bind(VM_ID, 3004);
+        
+        assertEquals("Range should start behind the gaps which are too small", 3005, sut.allocateRange(3, 3000));
+        assertEquals("Port of a too small gap should still be allocable", 3000, sut.allocate(3000));
+        assertEquals("There should not be any range above the highest port", -1, sut.allocateRange(2, HostPortAllocator.MAX_PORT));
+    }
+    
+    @Test
+    public void bindAndRelease(){
+        assertTrue("Free port should be bound", sut.bind(VM_ID, 8080));
+        assertFalse("Bound port should not be bound again", sut.bind(CLONE_ID, 8080));
+        
+        sut.release(VM_ID, 8080);
+        
+        assertTrue("Released port should be free", sut.isFree(8080));
+        assertEquals("Released port should be allocated again", 8080, sut.allocate(8080));
+        assertTrue("Allocated port should be bound by the rule it was allocated for", sut.bind(VM_ID, 8080));
+    }
+    
+    @Test
+    public void portSharedWithCloneStaysBound(){
+        sut.bind(VM_ID, 2222);
+        sut.retain(CLONE_ID, 2222);
+        
+        sut.release(CLONE_ID, 2222);
+        assertFalse("Port should stay bound while the source still uses it", sut.isFree(2222));
+        sut.release(CLONE_ID, 2222);
+        assertFalse("Port should not be released twice by the same machine", sut.isFree(2222));
+        
+        sut.release(VM_ID, 2222);
+        assertTrue("Port should be free when no rule uses it", sut.isFree(2222));
+    }
+    
+    @Test
+    public void pruneReleasesPortsOfRemovedMachines(){
+        IVirtualBox vboxMocked = mock(IVirtualBox.class);
+        IMachine machMocked = mock(IMachine.class);
+        doReturn(VM_ID).when(machMocked).getId();
+        doReturn(Arrays.asList(machMocked)).when(vboxMocked).getMachines();
+        sut.bind(VM_ID, 2222);
+        sut.retain(CLONE_ID, 2222);
+        sut.bind(CLONE_ID, 8080);
+        
+        sut.prune(vboxMocked);
+        
+        assertTrue("Port used only by the removed machine should be free", sut.isFree(8080));
+        assertFalse("Port still used by existing machine should stay bound", sut.isFree(2222));
+    }
+    
+    @Test
+    public void releaseOfAllocatedPortKeepsBoundPorts(){
+        sut.bind(VM_ID, 2222);
+        int allocated = sut.allocate(2222);
+        
+        sut.release(2222);
+        sut.release(allocated);
+        
+        assertFalse("Bound port should not be released as an allocated one", sut.isFree(2222));
+        assertTrue("Allocated port should be free again", sut.isFree(allocated));
+    }
+    
+    @Test
+    public void seedFromRedirectsOfAllAdapters(){
+        IVirtualBox vboxMocked = mock(IVirtualBox.class);
+        ISystemProperties propsMocked = mock(ISystemProperties.class);
+        IMachine machMocked = mock(IMachine.class);
+        INetworkAdapter adapter0 = createAdapter("ssh,TCP,,2222,,22");
+        INetworkAdapter adapter1 = createAdapter("web,TCP,,8080,,80", "dns,UDP,,5353,,53");
+        doReturn(Arrays.asList(machMocked)).when(vboxMocked).getMachines();
+        doReturn(propsMocked).when(vboxMocked).getSystemProperties();
+        doReturn(ChipsetType.PIIX3).when(machMocked).getChipsetType();
+        doReturn(2L).when(propsMocked).getMaxNetworkAdapters(ChipsetType.PIIX3);
+        doReturn(true).when(machMocked).getAccessible();
+        doReturn(VM_ID).when(machMocked).getId();
+        doReturn(adapter0).when(machMocked).getNetworkAdapter(0L);
+        doReturn(adapter1).when(machMocked).getNetworkAdapter(1L);
+        
+        sut = HostPortAllocator.seed(vboxMocked);
+        
+        assertFalse("Host port of the first adapter should be used", sut.isFree(2222));
+        assertFalse("Host ports of other adapters should be used too", sut.isFree(8080) || sut.isFree(5353));
+        assertTrue("Guest port should not be used on host", sut.isFree(22));
+    }
+    
+    private INetworkAdapter createAdapter(String... redirects){
+        INetworkAdapter adapterMocked = mock(INetworkAdapter.class);
+        INATEngine natMocked = mock(INATEngine.class);
+        doReturn(natMocked).when(adapterMocked).getNATEngine();
+        doReturn(Arrays.asList(redirects)).when(natMocked).getRedirects();
+        
+        return adapterMocked;
+    }
+}
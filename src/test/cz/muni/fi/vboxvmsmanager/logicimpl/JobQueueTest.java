@@ -0,0 +1,152 @@
+/*
+ * Copyright 2015 Tomáš Šmíd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.muni.fi.vboxvmsmanager.logicimpl;
+
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.Job;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.OperationResult;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.PhysicalMachine;
+import cz.muni.fi.vboxvmsmanager.pubapi.types.CloneType;
+import cz.muni.fi.vboxvmsmanager.pubapi.types.JobType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Tomáš Šmíd
+ */
+public class JobQueueTest {
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private JobJournal journal;
+    private PhysicalMachine pm;
+    private Job clone;
+    private Job start;
+    
+    @Before
+    public void setUp() throws Exception {
+        journal = new JobJournal(folder.getRoot().toPath().resolve("jobs.journal"));
+        pm = new PhysicalMachine("10.0.0.1", "18083", "Jack", "tr1h15");
+        clone = new Job.Builder(JobType.CLONE, pm, "lab_01").source("template", CloneType.LINKED).build();
+        start = new Job.Builder(JobType.START, pm, "lab_01").build();
+    }
+    
+    @Test
+    public void finishedJobsAreNotLoadedAgain() throws Exception{
+        journal.appendQueued(clone);
+        journal.appendQueued(start);
+        journal.appendFinished(clone.getId(), true, "");
+        
+        List<Job> unfinished = journal.load();
+        
+        assertEquals("Only the unfinished job should be loaded", Arrays.asList(start), unfinished);
+        assertEquals("Password should not be stored", "", unfinished.get(0).getHostMachine().getUserPassword());
+    }
+    
+    @Test
+    public void checkpointKeepsUnfinishedJobsAndIgnoresIncompleteRecord() throws Exception{
+        journal.appendQueued(clone);
+        journal.appendQueued(start);
+        journal.checkpoint(Arrays.asList(start));
+        Files.write(journal.getFile(), Arrays.asList("Q\t" + clone.getId() + "\tCLO"), StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        
+        List<Job> unfinished = journal.load();
+        
+        assertEquals("Checkpoint should contain only the unfinished job", 1, unfinished.size());
+        assertEquals("Job should be loaded with all its properties", start.toString(), unfinished.get(0).toString());
+    }
+    
+    @Test
+    public void jobsAreRejectedWhenHostIsSaturated() throws Exception{
+        JobQueue sut = new JobQueue(journal, 1, 2, (job) -> null, (host) -> false);
+        
+        assertTrue("First job should be queued", sut.submit(clone));
+        assertTrue("Second job should be queued", sut.submit(start));
+        assertFalse("Third job should be rejected", sut.submit(new Job.Builder(JobType.STOP, pm, "lab_02").build()));
+        assertFalse("Waiting for a free place should time out", sut.submit(new Job.Builder(JobType.STOP, pm, "lab_02").build(), 50L));
+        
+        JobQueue recovered = new JobQueue(journal, 1, 2, (job) -> null, (host) -> false);
+        assertEquals("Queued jobs should survive the queue", 2, recovered.recover());
+        assertEquals("Jobs should be recovered in order", Arrays.asList(clone, start), recovered.getUnfinishedJobs());
+    }
+    
+    @Test
+    public void failingJobIsFinishedAsFailed() throws Exception{
+        AtomicInteger attempts = new AtomicInteger();
+        JobQueue sut = new JobQueue(journal, 1, 10, (job) -> {
+            attempts.incrementAndGet();
+            throw new IllegalStateException("lock failed");
+        }, (host) -> true);
+        
+        sut.submit(start);
+        waitForFinishedJobs(sut, 1);
+        
+        assertEquals("Failing job should be performed only once", 1, attempts.get());
+        assertFalse("Job should be finished as failed", sut.getFinishedJobs().get(0).isSuccessful());
+        assertTrue("Failed job should not be recovered", journal.load().isEmpty());
+    }
+    
+    @Test
+    public void waitingJobsAreDispatchedWhenHostIsConnected() throws Exception{
+        AtomicBoolean connected = new AtomicBoolean(false);
+        JobQueue sut = new JobQueue(journal, 1, 10, (job) -> new OperationResult<>(job, true, "", 0L), (host) -> connected.get());
+        
+        sut.submit(start);
+        connected.set(true);
+        JobQueue.dispatchOpenQueues();
+        waitForFinishedJobs(sut, 1);
+        
+        assertTrue("Job should be performed once its host is connected", sut.getUnfinishedJobs().isEmpty());
+        sut.close();
+    }
+    
+    @Test
+    public void jobsOfOneVMArePerformedInOrder() throws Exception{
+        List<Job> performed = Collections.synchronizedList(new ArrayList<>());
+        JobQueue sut = new JobQueue(journal, 4, 10, (job) -> {
+            Thread.sleep(job == clone ? 100L : 0L);
+            performed.add(job);
+            return new OperationResult<>(job, true, "", 0L);
+        }, (host) -> true);
+        
+        sut.submit(clone);
+        sut.submit(start);
+        waitForFinishedJobs(sut, 2);
+        
+        assertEquals("Start should wait for the clone", Arrays.asList(clone, start), performed);
+        assertTrue("Finished jobs should not be recovered", journal.load().isEmpty());
+    }
+    
+    private void waitForFinishedJobs(JobQueue sut, int count) throws InterruptedException{
+        long deadline = System.currentTimeMillis() + 5000L;
+        while(sut.getFinishedJobs().size() < count && System.currentTimeMillis() < deadline){
+            Thread.sleep(10L);
+        }
+    }
+}
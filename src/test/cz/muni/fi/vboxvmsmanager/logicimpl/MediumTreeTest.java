@@ -0,0 +1,115 @@
+/*
+ * Copyright 2015 Tomáš Šmíd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.muni.fi.vboxvmsmanager.logicimpl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import org.virtualbox_4_3.IMedium;
+import org.virtualbox_4_3.IVirtualBox;
+
+/**
+ *
+ * @author Tomáš Šmíd
+ */
+public class MediumTreeTest {
+    
+    private MediumTree sut;
+    
+    //origin has base medium and one snapshot medium, clone1 and clone2 are linked clones of origin,
+    //clone3 is a linked clone of clone1 and standalone is a machine with its own base medium,
+    //orphanBase and orphanChild are not used by any machine
+    @Before
+    public void setUp() {
+        IMedium clone3Med = createMedium("clone3Med", "clone3", Collections.<IMedium>emptyList());
+        IMedium clone1Med = createMedium("clone1Med", "clone1", Arrays.asList(clone3Med));
+        IMedium clone2Med = createMedium("clone2Med", "clone2", Collections.<IMedium>emptyList());
+        IMedium originSnapMed = createMedium("originSnapMed", "origin", Arrays.asList(clone1Med, clone2Med));
+        IMedium originBase = createMedium("originBase", "origin", Arrays.asList(originSnapMed));
+        IMedium standaloneBase = createMedium("standaloneBase", "standalone", Collections.<IMedium>emptyList());
+        IMedium orphanChild = createMedium("orphanChild", null, Collections.<IMedium>emptyList());
+        IMedium orphanBase = createMedium("orphanBase", null, Arrays.asList(orphanChild));
+        IVirtualBox vboxMocked = mock(IVirtualBox.class);
+        doReturn(Arrays.asList(originBase, standaloneBase, orphanBase)).when(vboxMocked).getHardDisks();
+        
+        sut = MediumTree.build(vboxMocked);
+    }
+    
+    @Test
+    public void buildMediumTree(){
+        assertTrue("Medium tree should contain all the media", sut.contains("clone3Med") && sut.contains("standaloneBase"));
+        assertEquals("Parent of medium should be known", "originSnapMed", sut.getParentId("clone1Med"));
+        assertNull("Base medium should not have any parent", sut.getParentId("originBase"));
+        assertEquals("Owner of medium should be known", "clone2", sut.getMachineId("clone2Med"));
+        assertEquals("Children of medium should be known", Arrays.asList("clone1Med", "clone2Med"), sut.getChildrenIds("originSnapMed"));
+    }
+    
+    @Test
+    public void isLinkedClone(){
+        assertTrue("Machine with medium derived from medium of another machine should be a linked clone",
+                   sut.isLinkedClone("clone3", "clone3Med"));
+        assertFalse("Machine with its own base medium should not be a linked clone",
+                    sut.isLinkedClone("origin", "originSnapMed"));
+        assertFalse("Machine with its own base medium should not be a linked clone",
+                    sut.isLinkedClone("standalone", "standaloneBase"));
+    }
+    
+    @Test
+    public void getTopMediumOfMachine(){
+        assertEquals("Top medium of machine should be its base medium", "originBase",
+                     sut.getTopMediumOfMachine("origin", "originSnapMed"));
+        assertEquals("Top medium of linked clone should be its first differencing medium", "clone1Med",
+                     sut.getTopMediumOfMachine("clone1", "clone1Med"));
+    }
+    
+    @Test
+    public void getDepth(){
+        assertEquals("Base medium should have zero depth", 0, sut.getDepth("originBase"));
+        assertEquals("Linked clone of linked clone should be deeper than its parent",
+                     sut.getDepth("clone1Med") + 1, sut.getDepth("clone3Med"));
+    }
+    
+    @Test
+    public void getDependentMachineIds(){
+        List<String> dependents = sut.getDependentMachineIds("originBase");
+        
+        assertEquals("All linked clones should depend on origin", 3, dependents.size());
+        assertTrue("Linked clone should precede the machine it was cloned from",
+                   dependents.indexOf("clone3") < dependents.indexOf("clone1"));
+        assertTrue("Machine without linked clones should not have any dependent machines",
+                   sut.getDependentMachineIds("standaloneBase").isEmpty());
+    }
+    
+    @Test
+    public void getUnusedMediumIds(){
+        assertEquals("Only media not used by any machine should be unused, children before their parents",
+                     Arrays.asList("orphanChild", "orphanBase"), sut.getUnusedMediumIds());
+    }
+    
+    private IMedium createMedium(String id, String machineId, List<IMedium> children){
+        IMedium medMocked = mock(IMedium.class);
+        doReturn(id).when(medMocked).getId();
+        doReturn(machineId == null ? Collections.<String>emptyList() : Arrays.asList(machineId)).when(medMocked).getMachineIds();
+        doReturn(children).when(medMocked).getChildren();
+        
+        return medMocked;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2015 Tomáš Šmíd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.muni.fi.vboxvmsmanager.logicimpl;
+
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.PortRule;
+import cz.muni.fi.vboxvmsmanager.pubapi.types.ProtocolType;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Tomáš Šmíd
+ */
+public class NATRedirectParserTest {
+    
+    @Test
+    public void parseRedirectWithNumericProtocol(){
+        PortRule portRule = NATRedirectParser.parse("ssh,1,127.0.0.1,2222,10.0.2.15,22");
+        
+        assertEquals("Name should be parsed", "ssh", portRule.getName());
+        assertEquals("Protocol code 1 should be TCP", ProtocolType.TCP, portRule.getProtocol());
+        assertEquals("Host IP should be parsed", "127.0.0.1", portRule.getHostIP());
+        assertEquals("Host port should be parsed", 2222, portRule.getHostPort());
+        assertEquals("Guest IP should be parsed", "10.0.2.15", portRule.getGuestIP());
+        assertEquals("Guest port should be parsed", 22, portRule.getGuestPort());
+    }
+    
+    @Test
+    public void parseRedirectWithEmptyAddresses(){
+        PortRule portRule = NATRedirectParser.parse("dns,0,,5353,,53");
+        
+        assertEquals("Protocol code 0 should be UDP", ProtocolType.UDP, portRule.getProtocol());
+        assertEquals("Empty host IP should be parsed", "", portRule.getHostIP());
+        assertEquals("Empty guest IP should be parsed", "", portRule.getGuestIP());
+        assertEquals("Host port should be parsed", 5353, NATRedirectParser.parseHostPort("dns,0,,5353,,53"));
+        assertEquals("Guest port should be parsed", 53, NATRedirectParser.parseGuestPort("dns,0,,5353,,53"));
+    }
+    
+    @Test
+    public void parseProtocolName(){
+        assertEquals("Protocol name should be accepted too", ProtocolType.UDP, NATRedirectParser.parseProtocol("dns,UDP,,5353,,53"));
+    }
+    
+    @Test
+    public void formattedRuleIsParsedBack(){
+        PortRule portRule = new PortRule.Builder("dns", 5353, 53).protocol(ProtocolType.UDP).hostIP(null).build();
+        String redirect = NATRedirectParser.format(portRule);
+        
+        assertEquals("Rule should be formatted as VirtualBox redirect", "dns,0,,5353,,53", redirect);
+        assertEquals("Formatted rule should be parsed back", "dns", NATRedirectParser.parse(redirect).getName());
+    }
+    
+    @Test
+    public void cachedTablesAreKeptPerAdapterSlot(){
+        PortRuleTableCache cache = PortRuleTableCache.getInstance();
+        List<String> redirects = Arrays.asList("ssh,1,,2222,,22");
+        
+        List<PortRule> first = cache.getPortRules("machine", 0L, redirects);
+        List<PortRule> second = cache.getPortRules("machine", 1L, redirects);
+        assertEquals("Rule should be parsed with slot of its adapter", 1L, second.get(0).getAdapterSlot());
+        assertSame("Table of other adapter should not replace the cached one", first, cache.getPortRules("machine", 0L, redirects));
+        cache.invalidate("machine");
+    }
+    
+    @Test
+    public void hasName(){
+        assertTrue("Equal name should match", NATRedirectParser.hasName("ssh,1,,2222,,22", "ssh"));
+        assertFalse("Prefix of name should not match", NATRedirectParser.hasName("ssh2,1,,2222,,22", "ssh"));
+        assertFalse("Longer name should not match", NATRedirectParser.hasName("ssh,1,,2222,,22", "ssh2"));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void parseRedirectWithMissingFields(){
+        NATRedirectParser.parse("ssh,1,,2222");
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void parseRedirectWithInvalidPort(){
+        NATRedirectParser.parseHostPort("ssh,1,,70000,,22");
+    }
+    
+    @Test
+    public void cachedTableIsReusedUntilRedirectsChange(){
+        PortRuleTableCache cache = PortRuleTableCache.getInstance();
+        List<String> redirects = Arrays.asList("ssh,1,,2222,,22", "http,1,,8080,,80");
+        
+        List<PortRule> first = cache.getPortRules("machine", 0L, redirects);
+        assertSame("Table should be reused for the same redirects", first, cache.getPortRules("machine", 0L, Arrays.asList("ssh,1,,2222,,22", "http,1,,8080,,80")));
+        
+        List<PortRule> changed = cache.getPortRules("machine", 0L, Arrays.asList("ssh,1,,2222,,22"));
+        assertNotSame("Table should be refreshed when redirects change", first, changed);
+        assertEquals("Refreshed table should contain current rules only", 1, changed.size());
+        cache.invalidate("machine");
+    }
+}
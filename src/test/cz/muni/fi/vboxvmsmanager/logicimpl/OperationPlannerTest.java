@@ -0,0 +1,91 @@
+/*
+ * Copyright 2015 Tomáš Šmíd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.muni.fi.vboxvmsmanager.logicimpl;
+
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.OperationPlan;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.PhysicalMachine;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.VirtualMachine;
+import cz.muni.fi.vboxvmsmanager.pubapi.types.OperationType;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Tomáš Šmíd
+ */
+public class OperationPlannerTest {
+    
+    private PhysicalMachine pm;
+    private PhysicalMachine otherPM;
+    private OperationLatencyStats stats;
+    
+    @Before
+    public void setUp() {
+        pm = new PhysicalMachine("10.0.0.1", "18083", "Jack", "tr1h15");
+        otherPM = new PhysicalMachine("10.0.0.2", "18083", "Jack", "tr1h15");
+        stats = OperationLatencyStats.getInstance();
+        stats.clear();
+    }
+    
+    @After
+    public void tearDown() {
+        stats.clear();
+    }
+    
+    @Test
+    public void estimateFollowsRecentLatencies(){
+        stats.record(pm, OperationType.START, 1000L);
+        stats.record(pm, OperationType.START, 2000L);
+        
+        assertEquals("Estimate should move towards the newest latency", 1200L, stats.getEstimate(pm, OperationType.START));
+        assertEquals("Operation never performed should not be estimated", -1L, stats.getEstimate(pm, OperationType.SHUT_DOWN));
+    }
+    
+    @Test
+    public void physicalMachineWithoutHistoryUsesOtherMachines(){
+        stats.record(pm, OperationType.FULL_CLONE, 30000L);
+        
+        assertEquals("Latency of the other physical machine should be used", 30000L, stats.getEstimate(otherPM, OperationType.FULL_CLONE));
+    }
+    
+    @Test
+    public void parallelChainsAreLimitedByWorkersAndStartInterval(){
+        List<Long> durations = Arrays.asList(1000L, 1000L, 1000L);
+        
+        assertEquals("Third chain should wait for a free worker", 2000L, OperationPlanner.simulate(durations, 2, 0L));
+        assertEquals("Chains should be started one interval after another", 2500L, OperationPlanner.simulate(durations, 3, 750L));
+    }
+    
+    @Test
+    public void planIsEstimatedPerPhysicalMachine(){
+        stats.record(pm, OperationType.START, 1000L);
+        VirtualMachine vm1 = new VirtualMachine.Builder(UUID.randomUUID(), "lab_01", pm).build();
+        VirtualMachine vm2 = new VirtualMachine.Builder(UUID.randomUUID(), "lab_02", pm).build();
+        VirtualMachine vm3 = new VirtualMachine.Builder(UUID.randomUUID(), "lab_03", otherPM).build();
+        
+        OperationPlan plan = OperationPlanner.getInstance().plan(Arrays.asList(vm1, vm2, vm3), OperationType.START, 1, 0L);
+        
+        assertEquals("All operations should be planned", 3, plan.getOperations().size());
+        assertEquals("Starts on one physical machine should be sequential", Long.valueOf(2000L), plan.getEstimatedDurations().get(pm));
+        assertEquals("Physical machines should be served in parallel", 2000L, plan.getEstimatedDuration());
+        assertTrue("Estimate of the other physical machine should be used", plan.isFullyEstimated());
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2015 Tomáš Šmíd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.muni.fi.vboxvmsmanager.logicimpl;
+
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.OperationResult;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.PhysicalMachine;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.PortRule;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.VirtualMachine;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import org.virtualbox_4_3.IMachine;
+import org.virtualbox_4_3.INATEngine;
+import org.virtualbox_4_3.NATProtocol;
+import org.virtualbox_4_3.VBoxException;
+
+/**
+ *
+ * @author Tomáš Šmíd
+ */
+public class PortRuleEditRollbackTest {
+    
+    private static final String VM_ID = "6c5a3b8e-2f1d-4c7a-9e0b-1a2b3c4d5e6f";
+    private static final String OTHER_VM_ID = "0f9e8d7c-6b5a-4e3d-8c2b-1a0f9e8d7c6b";
+    private NativeVBoxAPIMachine sut;
+    private VirtualMachine vm;
+    private HostPortAllocator allocator;
+    private List<String> redirectTable;
+    private Map<Long, INATEngine> natEngines;
+    private Map<Long, List<String>> previousRedirects;
+    
+    @Before
+    public void setUp() {
+        sut = NativeVBoxAPIMachine.getInstance();
+        PhysicalMachine pm = new PhysicalMachine("10.0.0.1", "18083", "Jack", "tr1h15");
+        vm = new VirtualMachine.Builder(UUID.fromString(VM_ID), "VM_01", pm).build();
+        allocator = new HostPortAllocator();
+        redirectTable = new ArrayList<>(Arrays.asList("ssh,1,,2222,,22", "http,1,,8080,,80"));
+        allocator.bind(VM_ID, 2222);
+        allocator.bind(VM_ID, 8080);
+        previousRedirects = new HashMap<>();
+        previousRedirects.put(0L, new ArrayList<>(redirectTable));
+    }
+    
+    @Test
+    public void failedAddRedirectIsRolledBack(){
+        natEngines = createNATEngines(2, -1);
+        IMachine mutableMachine = mock(IMachine.class);
+        Map<Long, Map<String, PortRule>> wantedRules = createWantedRules(new PortRule.Builder("ssh", 2222, 22).build(),
+                                                                         new PortRule.Builder("http", 8081, 80).build(),
+                                                                         new PortRule.Builder("https", 8443, 443).build());
+        
+        try{
+            sut.applyPortRuleDiff(vm, natEngines, copyRedirects(), allocator, wantedRules);
+            fail("Failure of adding a redirect should be propagated");
+        }catch(VBoxException ex){
+            sut.rollBackPortRuleEdit(VM_ID, mutableMachine, natEngines, previousRedirects, allocator);
+        }
+        
+        assertEquals("Redirect table should be restored", previousRedirects.get(0L), redirectTable);
+        verify(mutableMachine).discardSettings();
+        assertFalse("Port of a restored rule should be bound", allocator.isFree(8080));
+        assertTrue("Port of a rolled back rule should be released", allocator.isFree(8081));
+        assertTrue("Port of a rule which has not been added should be released", allocator.isFree(8443));
+        allocator.release(VM_ID, 8080);
+        assertTrue("Port of a restored rule should be bound only once", allocator.isFree(8080));
+    }
+    
+    @Test
+    public void hostPortLostBeforeBindIsRolledBack(){
+        natEngines = createNATEngines(-1, 1);
+        Map<Long, Map<String, PortRule>> wantedRules = createWantedRules(new PortRule.Builder("ssh", 2223, 22).build(),
+                                                                         new PortRule.Builder("http", 8080, 80).build());
+        
+        List<OperationResult<PortRule>> results = sut.applyPortRuleDiff(vm, natEngines, copyRedirects(), allocator, wantedRules);
+        
+        assertEquals("Only the rule whose port has been lost should be reported", 1, results.size());
+        assertFalse("Rule whose port has been lost should fail", results.get(0).isSuccessful());
+        assertEquals("Redirect table should be restored", previousRedirects.get(0L), redirectTable);
+        assertFalse("Port of a restored rule should be bound", allocator.isFree(2222));
+        assertFalse("Lost port should stay bound by the other virtual machine", allocator.bind(VM_ID, 2223));
+        allocator.release(VM_ID, 2222);
+        assertTrue("Port of a restored rule should be bound only once", allocator.isFree(2222));
+    }
+    
+    //NAT engine of slot 0 backed by redirectTable, its failingAdd-th added redirect fails and its removedToRace-th
+    //removed redirect lets the other virtual machine bind port 2223
+    private Map<Long, INATEngine> createNATEngines(int failingAdd, int removedToRace){
+        INATEngine natEngineMocked = mock(INATEngine.class);
+        int[] addCount = new int[1];
+        int[] removeCount = new int[1];
+        
+        doAnswer((invocation) -> new ArrayList<>(redirectTable)).when(natEngineMocked).getRedirects();
+        doAnswer((invocation) -> {
+            Object[] args = invocation.getArguments();
+            if(++addCount[0] == failingAdd){
+                throw new VBoxException("Adding redirect failure");
+            }
+            int protocolCode = (args[1] == NATProtocol.TCP ? 1 : 0);
+            redirectTable.add(args[0] + "," + protocolCode + "," + args[2] + "," + args[3] + "," + args[4] + "," + args[5]);
+            return null;
+        }).when(natEngineMocked).addRedirect(anyString(), any(NATProtocol.class), anyString(), anyInt(), anyString(), anyInt());
+        doAnswer((invocation) -> {
+            redirectTable.removeIf((redirect) -> NATRedirectParser.hasName(redirect, (String)invocation.getArguments()[0]));
+            if(++removeCount[0] == removedToRace){
+                allocator.bind(OTHER_VM_ID, 2223);
+            }
+            return null;
+        }).when(natEngineMocked).removeRedirect(anyString());
+        
+        Map<Long, INATEngine> engines = new HashMap<>();
+        engines.put(0L, natEngineMocked);
+        return engines;
+    }
+    
+    private Map<Long, Map<String, PortRule>> createWantedRules(PortRule... portRules){
+        Map<String, PortRule> slotRules = new LinkedHashMap<>();
+        for(PortRule portRule : portRules){
+            slotRules.put(portRule.getName(), NATRedirectParser.parse(NATRedirectParser.format(portRule), 0L));
+        }
+        
+        Map<Long, Map<String, PortRule>> wantedRules = new HashMap<>();
+        wantedRules.put(0L, slotRules);
+        return wantedRules;
+    }
+    
+    private Map<Long, List<String>> copyRedirects(){
+        Map<Long, List<String>> redirects = new HashMap<>();
+        redirects.put(0L, new ArrayList<>(redirectTable));
+        return redirects;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2015 Tomáš Šmíd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.muni.fi.vboxvmsmanager.logicimpl;
+
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.PhysicalMachine;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.PortRule;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.PortRuleOwner;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.VirtualMachine;
+import cz.muni.fi.vboxvmsmanager.pubapi.types.ProtocolType;
+import java.util.Arrays;
+import java.util.UUID;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Tomáš Šmíd
+ */
+public class PortRuleIndexTest {
+    
+    private PortRuleIndex sut;
+    private PhysicalMachine pm;
+    private VirtualMachine vm;
+    
+    @Before
+    public void setUp() {
+        sut = PortRuleIndex.getInstance();
+        pm = new PhysicalMachine("10.0.0.1", "18083", "Jack", "tr1h15");
+        vm = new VirtualMachine.Builder(UUID.randomUUID(), "VM_01", pm).build();
+    }
+    
+    @After
+    public void tearDown() {
+        sut.removePhysicalMachine(pm);
+    }
+    
+    @Test
+    public void updateAndLookup(){
+        PortRule rule = new PortRule.Builder("http", 8080, 80).build();
+        sut.update(vm, Arrays.asList(rule));
+        
+        PortRuleOwner owner = sut.lookup(pm, ProtocolType.TCP, 8080);
+        assertNotNull("Indexed rule should be found", owner);
+        assertEquals("Owner should be the virtual machine with the rule", vm.getId(), owner.getVirtualMachine().getId());
+        assertEquals("Found rule should be the indexed one", "http", owner.getPortRule().getName());
+        assertNull("Rule should not be found for other protocol", sut.lookup(pm, ProtocolType.UDP, 8080));
+    }
+    
+    @Test
+    public void updateReplacesOldRules(){
+        sut.update(vm, Arrays.asList(new PortRule.Builder("http", 8080, 80).build()));
+        sut.update(vm, Arrays.asList(new PortRule.Builder("https", 8443, 443).build()));
+        
+        assertNull("Rule which is not present anymore should not be found", sut.lookup(pm, ProtocolType.TCP, 8080));
+        assertNotNull("Current rule should be found", sut.lookup(pm, ProtocolType.TCP, 8443));
+    }
+    
+    @Test
+    public void removeDropsOnlyOwnRules(){
+        VirtualMachine otherVM = new VirtualMachine.Builder(UUID.randomUUID(), "VM_02", pm).build();
+        sut.add(vm, new PortRule.Builder("ssh", 2222, 22).build());
+        sut.remove(otherVM, "ssh", 0L);
+        
+        assertNotNull("Rule of other virtual machine should not be removed", sut.lookup(pm, ProtocolType.TCP, 2222));
+        
+        sut.remove(vm, "ssh", 0L);
+        assertNull("Removed rule should not be found", sut.lookup(pm, ProtocolType.TCP, 2222));
+    }
+    
+    @Test
+    public void removePhysicalMachineDropsItsRules(){
+        sut.add(vm, new PortRule.Builder("ssh", 2222, 22).build());
+        sut.removePhysicalMachine(pm);
+        
+        assertNull("Rules of removed physical machine should not be found", sut.lookup(pm, ProtocolType.TCP, 2222));
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2015 Tomáš Šmíd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.muni.fi.vboxvmsmanager.logicimpl;
+
+import cz.muni.fi.vboxvmsmanager.pubapi.exceptions.OperationTimeoutException;
+import cz.muni.fi.vboxvmsmanager.pubapi.listeners.ProgressListener;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.rules.ExpectedException;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import org.virtualbox_4_3.IProgress;
+
+/**
+ *
+ * @author Tomáš Šmíd
+ */
+public class ProgressMonitorTest {
+    
+    @Rule
+    public ExpectedException exception = ExpectedException.none();
+    
+    private IProgress progMocked;
+    
+    @Before
+    public void setUp() {
+        progMocked = mock(IProgress.class);
+        doReturn(true).when(progMocked).getCancelable();
+    }
+    
+    @After
+    public void tearDown() {
+        //clears the interrupted status possibly set by a test
+        Thread.interrupted();
+    }
+    
+    @Test
+    public void waitForCompletedOperation() throws Exception{
+        ProgressMonitor sut = new ProgressMonitor();
+        doReturn(true).when(progMocked).getCompleted();
+        
+        assertTrue("Completed operation should be reported as completed",
+                   sut.waitForCompletion(progMocked, "Test operation", 100));
+        verify(progMocked, never()).cancel();
+    }
+    
+    @Test
+    public void waitForUnfinishedOperation() throws Exception{
+        ProgressMonitor sut = new ProgressMonitor();
+        doReturn(false).when(progMocked).getCompleted();
+        
+        assertFalse("Unfinished operation should not be reported as completed",
+                    sut.waitForCompletion(progMocked, "Test operation", 100));
+        verify(progMocked).waitForCompletion(100);
+        verify(progMocked, never()).cancel();
+    }
+    
+    @Test
+    public void waitForOperationAfterDeadline() throws Exception{
+        ProgressMonitor sut = new ProgressMonitor(1L);
+        doReturn(false).when(progMocked).getCompleted();
+        Thread.sleep(5L);
+        
+        exception.expect(OperationTimeoutException.class);
+        try{
+            sut.waitForCompletion(progMocked, "Test operation", 100);
+        }finally{
+            verify(progMocked).cancel();
+        }
+    }
+    
+    @Test
+    public void waitForOperationInInterruptedThread() throws Exception{
+        ProgressMonitor sut = new ProgressMonitor();
+        doReturn(false).when(progMocked).getCompleted();
+        Thread.currentThread().interrupt();
+        
+        exception.expect(InterruptedException.class);
+        try{
+            sut.waitForCompletion(progMocked, "Test operation", 100);
+        }finally{
+            verify(progMocked).cancel();
+        }
+    }
+    
+    @Test
+    public void cancelNonCancelableOperation(){
+        ProgressMonitor sut = new ProgressMonitor();
+        doReturn(false).when(progMocked).getCompleted();
+        doReturn(false).when(progMocked).getCancelable();
+        
+        sut.cancel(progMocked);
+        
+        verify(progMocked, never()).cancel();
+        verify(progMocked, never()).waitForCompletion(anyInt());
+    }
+    
+    @Test
+    public void reportProgressWithoutListener(){
+        ProgressMonitor sut = new ProgressMonitor();
+        
+        sut.report(progMocked, "Test operation");
+        
+        verify(progMocked, never()).getPercent();
+    }
+    
+    @Test
+    public void reportProgressIsThrottled(){
+        ProgressListener listMocked = mock(ProgressListener.class);
+        ProgressMonitor sut = new ProgressMonitor(listMocked);
+        doReturn(false).when(progMocked).getCompleted();
+        doReturn(10L).when(progMocked).getPercent();
+        
+        sut.report(progMocked, "Test operation");
+        doReturn(20L).when(progMocked).getPercent();
+        sut.report(progMocked, "Test operation");
+        
+        verify(listMocked, times(1)).progressChanged(anyString(), anyLong(), anyLong());
+        verify(listMocked).progressChanged(eq("Test operation"), eq(10L), anyLong());
+    }
+    
+    @Test
+    public void reportCompletionIsNotThrottled(){
+        ProgressListener listMocked = mock(ProgressListener.class);
+        ProgressMonitor sut = new ProgressMonitor(listMocked);
+        doReturn(false).when(progMocked).getCompleted();
+        doReturn(10L).when(progMocked).getPercent();
+        
+        sut.report(progMocked, "Test operation");
+        doReturn(true).when(progMocked).getCompleted();
+        sut.report(progMocked, "Test operation");
+        sut.report(progMocked, "Test operation");
+        
+        verify(listMocked).progressChanged("Test operation", 10L, -1L);
+        verify(listMocked).progressChanged("Test operation", 100L, 0L);
+        verify(listMocked, times(2)).progressChanged(anyString(), anyLong(), anyLong());
+    }
+    
+    @Test
+    public void reportProgressWithFaultyListener() throws Exception{
+        ProgressMonitor sut = new ProgressMonitor((operation, percent, remainingTime) -> {
+            throw new IllegalStateException("Faulty listener");
+        });
+        doReturn(true).when(progMocked).getCompleted();
+        
+        assertTrue("Faulty listener should not break waiting for operation",
+                   sut.waitForCompletion(progMocked, "Test operation", 100));
+    }
+    
+    @Test
+    public void estimateRemainingTime(){
+        assertEquals("Remaining time should be unknown without any progress",
+                     -1L, ProgressMonitor.estimateRemainingTime(1000L, 2000L, 0L));
+        assertEquals("Remaining time should be estimated from the rate of progress",
+                     3000L, ProgressMonitor.estimateRemainingTime(1000L, 2000L, 25L));
+        assertEquals("Remaining time of completed operation should be zero",
+                     0L, ProgressMonitor.estimateRemainingTime(1000L, 2000L, 100L));
+    }
+    
+    @Test
+    public void createMonitorWithNonPositiveTimeout(){
+        exception.expect(IllegalArgumentException.class);
+        new ProgressMonitor(0L);
+    }
+    
+    @Test
+    public void createMonitorWithHugeTimeout(){
+        ProgressMonitor sut = new ProgressMonitor(Long.MAX_VALUE);
+        
+        assertFalse("Monitor with huge timeout should not overflow its deadline", sut.isDeadlineExceeded());
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2015 Tomáš Šmíd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.muni.fi.vboxvmsmanager.logicimpl;
+
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.DesiredVMState;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.PhysicalMachine;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.PortRule;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.ReconciliationAction;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.VirtualMachine;
+import cz.muni.fi.vboxvmsmanager.pubapi.types.CloneType;
+import cz.muni.fi.vboxvmsmanager.pubapi.types.ReconciliationActionType;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Tomáš Šmíd
+ */
+public class ReconcilerTest {
+    
+    private PhysicalMachine pm;
+    private VirtualMachine vm;
+    private PortRule ssh;
+    
+    @Before
+    public void setUp() {
+        pm = new PhysicalMachine("10.0.0.1", "18083", "Jack", "tr1h15");
+        vm = new VirtualMachine.Builder(UUID.randomUUID(), "lab_01", pm).build();
+        ssh = new PortRule.Builder("ssh", 2222, 22).build();
+    }
+    
+    @Test
+    public void missingVirtualMachineIsClonedConfiguredAndStarted(){
+        VirtualMachine template = new VirtualMachine.Builder(UUID.randomUUID(), "template", pm).build();
+        DesiredVMState desiredState = new DesiredVMState.Builder("lab_01", pm).source(template, CloneType.LINKED)
+                                                                             .running(true).portRules(Arrays.asList(ssh)).build();
+        
+        List<ReconciliationAction> actions = Reconciler.diff(desiredState, null, null, null);
+        
+        assertEquals("Clone should be created, configured and started", 3, actions.size());
+        assertEquals("Cloning should be the first action", ReconciliationActionType.CLONE, actions.get(0).getType());
+        assertEquals("Rules should be applied before start", ReconciliationActionType.APPLY_PORT_RULES, actions.get(1).getType());
+        assertEquals("Starting should be the last action", ReconciliationActionType.START, actions.get(2).getType());
+    }
+    
+    @Test
+    public void convergedVirtualMachineNeedsNoAction(){
+        DesiredVMState desiredState = new DesiredVMState.Builder("lab_01", pm).running(true)
+                                                                             .portRules(Arrays.asList(ssh)).build();
+        PortRule actualSsh = new PortRule.Builder("ssh", 2222, 22).hostIP("").guestIP("").build();
+        
+        assertTrue("No action should be needed", Reconciler.diff(desiredState, vm, "Running", Arrays.asList(actualSsh)).isEmpty());
+    }
+    
+    @Test
+    public void changedRulesAndStateAreReconciled(){
+        DesiredVMState desiredState = new DesiredVMState.Builder("lab_01", pm).running(false)
+                                                                             .portRules(Collections.<PortRule>emptyList()).build();
+        
+        List<ReconciliationAction> actions = Reconciler.diff(desiredState, vm, "Paused", Arrays.asList(ssh));
+        
+        assertEquals("Rules and state should be reconciled", 2, actions.size());
+        assertEquals("Obsolete rules should be removed", ReconciliationActionType.APPLY_PORT_RULES, actions.get(0).getType());
+        assertEquals("Paused virtual machine should be stopped", ReconciliationActionType.STOP, actions.get(1).getType());
+        assertSame("Actions should be performed on the existing virtual machine", vm, actions.get(1).getVirtualMachine());
+    }
+    
+    @Test
+    public void unmanagedPropertiesAreIgnored(){
+        DesiredVMState desiredState = new DesiredVMState.Builder("lab_01", pm).build();
+        
+        assertTrue("No action should be needed", Reconciler.diff(desiredState, vm, null, null).isEmpty());
+    }
+}
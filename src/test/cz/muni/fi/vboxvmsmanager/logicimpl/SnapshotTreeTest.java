@@ -0,0 +1,114 @@
+/*
+ * Copyright 2015 Tomáš Šmíd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.muni.fi.vboxvmsmanager.logicimpl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import org.virtualbox_4_3.IMachine;
+import org.virtualbox_4_3.ISnapshot;
+
+/**
+ *
+ * @author Tomáš Šmíd
+ */
+public class SnapshotTreeTest {
+    
+    private IMachine machMocked;
+    
+    @Before
+    public void setUp() {
+        machMocked = mock(IMachine.class);
+    }
+    
+    @Test
+    public void buildSnapshotTreeWithAllBranches(){
+        ISnapshot snap3 = createSnapshot("id3", "Linked Base For VM and VM_LinkClone", Collections.<ISnapshot>emptyList());
+        ISnapshot snap2 = createSnapshot("id2", "Second", Collections.<ISnapshot>emptyList());
+        ISnapshot snap1 = createSnapshot("id1", "First", Arrays.asList(snap2, snap3));
+        doReturn(3L).when(machMocked).getSnapshotCount();
+        doReturn(snap1).when(machMocked).findSnapshot(null);
+        
+        SnapshotTree sut = SnapshotTree.build(machMocked);
+        
+        assertEquals("Root snapshot should be the first one", "id1", sut.getRootId());
+        assertEquals("Snapshots of all branches should be read, parents first", Arrays.asList("id1", "id2", "id3"), sut.getSnapshotIds());
+        assertEquals("Children of snapshot should be known", Arrays.asList("id2", "id3"), sut.getChildrenIds("id1"));
+        assertEquals("Parent of snapshot should be known", "id1", sut.getParentId("id3"));
+        assertEquals("Name of snapshot should be known", "Second", sut.getName("id2"));
+        assertEquals("Description of snapshot should be known", "Second description", sut.getDescription("id2"));
+    }
+    
+    @Test
+    public void buildSnapshotTreeOfMachineWithoutSnapshots(){
+        doReturn(0L).when(machMocked).getSnapshotCount();
+        
+        SnapshotTree sut = SnapshotTree.build(machMocked);
+        
+        assertTrue("Snapshot tree of machine without snapshots should be empty", sut.isEmpty());
+        assertNull("Empty snapshot tree should not have any root", sut.getRootId());
+        verify(machMocked, never()).findSnapshot(any(String.class));
+    }
+    
+    @Test
+    public void findIdsByName(){
+        ISnapshot snap2 = createSnapshot("id2", "Same", Collections.<ISnapshot>emptyList());
+        ISnapshot snap1 = createSnapshot("id1", "Same", Arrays.asList(snap2));
+        doReturn(2L).when(machMocked).getSnapshotCount();
+        doReturn(snap1).when(machMocked).findSnapshot(null);
+        
+        SnapshotTree sut = SnapshotTree.build(machMocked);
+        
+        assertEquals("All snapshots with the same name should be found", Arrays.asList("id1", "id2"), sut.findIdsByName("Same"));
+        assertTrue("There should not be found any snapshot with unknown name", sut.findIdsByName("Unknown").isEmpty());
+    }
+    
+    @Test
+    public void isLinkedBaseSnapshotOf(){
+        List<String> names = Arrays.asList("VM_LinkClone1");
+        
+        assertTrue("Snapshot shared by several clones should be recognized",
+                   NativeVBoxAPIManager.isLinkedBaseSnapshotOf("Linked Base For VM and 2 clones", "VM_LinkClone1\nVM_LinkClone2", "VM", names));
+        assertTrue("Snapshot without description should be recognized by its name",
+                   NativeVBoxAPIManager.isLinkedBaseSnapshotOf("Linked Base For VM and VM_LinkClone1", null, "VM", names));
+        assertFalse("Snapshot of clone with a longer name should not be recognized",
+                    NativeVBoxAPIManager.isLinkedBaseSnapshotOf("Linked Base For VM and VM_LinkClone10", "VM_LinkClone10", "VM", names));
+        assertFalse("Snapshot of another parent machine should not be recognized",
+                    NativeVBoxAPIManager.isLinkedBaseSnapshotOf("Linked Base For VM2 and VM_LinkClone1", "VM_LinkClone1", "VM", names));
+        assertTrue("Clone names containing the former separator should be recognized",
+                   NativeVBoxAPIManager.isLinkedBaseSnapshotOf("Linked Base For VM and 2 clones", "A, B\nVM_LinkClone1", "VM",
+                                                               Arrays.asList("A, B")));
+    }
+    
+    private ISnapshot createSnapshot(String id, String name, List<ISnapshot> children){
+        ISnapshot snapMocked = mock(ISnapshot.class);
+        doReturn(id).when(snapMocked).getId();
+        doReturn(name).when(snapMocked).getName();
+        doReturn(name + " description").when(snapMocked).getDescription();
+        doReturn(0L).when(snapMocked).getTimeStamp();
+        doReturn(children).when(snapMocked).getChildren();
+        
+        return snapMocked;
+    }
+}
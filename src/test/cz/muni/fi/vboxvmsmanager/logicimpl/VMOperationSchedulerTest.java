@@ -0,0 +1,123 @@
+/*
+ * Copyright 2015 Tomáš Šmíd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.muni.fi.vboxvmsmanager.logicimpl;
+
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.PhysicalMachine;
+import cz.muni.fi.vboxvmsmanager.pubapi.entities.VirtualMachine;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Future;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Tomáš Šmíd
+ */
+public class VMOperationSchedulerTest {
+    
+    private List<Runnable> submitted;
+    private List<String> performed;
+    private VMOperationScheduler sut;
+    private PhysicalMachine pm;
+    private VirtualMachine vm1;
+    private VirtualMachine vm2;
+    
+    @Before
+    public void setUp() {
+        submitted = new ArrayList<>();
+        performed = new ArrayList<>();
+        sut = new VMOperationScheduler(submitted::add);
+        pm = new PhysicalMachine("10.0.0.1", "18083", "Jack", "tr1h15");
+        vm1 = new VirtualMachine.Builder(UUID.randomUUID(), "lab_01", pm).build();
+        vm2 = new VirtualMachine.Builder(UUID.randomUUID(), "lab_02", pm).build();
+    }
+    
+    @Test
+    public void operationsOfOneVMAreSerialized(){
+        sut.schedule(vm1, null, () -> performed.add("shutDown"));
+        sut.schedule(vm1, null, () -> performed.add("addPortRule"));
+        
+        assertEquals("Second operation should wait for the first one", 1, submitted.size());
+        submitted.remove(0).run();
+        assertEquals("Second operation should be submitted when the first one finished", 1, submitted.size());
+        submitted.remove(0).run();
+        assertEquals("Operations should be performed in the order they were scheduled", "[shutDown, addPortRule]", performed.toString());
+        assertEquals("No operation should be pending", 0, sut.getPendingCount(vm1));
+    }
+    
+    @Test
+    public void operationsOfDifferentVMsRunInParallelUpToHostLimit(){
+        VirtualMachine vm3 = new VirtualMachine.Builder(UUID.randomUUID(), "lab_03", pm).build();
+        sut.setMaxParallelVMs(pm, 2);
+        
+        sut.schedule(vm1, null, () -> performed.add("start " + vm1.getName()));
+        sut.schedule(vm2, null, () -> performed.add("start " + vm2.getName()));
+        sut.schedule(vm3, null, () -> performed.add("start " + vm3.getName()));
+        
+        assertEquals("Only two virtual machines should be operated at once", 2, submitted.size());
+        submitted.remove(0).run();
+        assertEquals("Third virtual machine should get the released slot", 2, submitted.size());
+    }
+    
+    @Test
+    public void redundantQueuedOperationIsCoalesced() throws Exception{
+        sut.schedule(vm1, null, () -> performed.add("applyPortRuleSet"));
+        Future<Boolean> first = sut.schedule(vm1, "start", () -> performed.add("start"));
+        Future<Boolean> second = sut.schedule(vm1, "start", () -> performed.add("start"));
+        
+        assertSame("Waiting start should be reused", first, second);
+        assertEquals("Start should be queued only once", 2, sut.getPendingCount(vm1));
+        submitted.remove(0).run();
+        submitted.remove(0).run();
+        assertTrue("Both callers should get the result of the start", second.get());
+        assertEquals("Start should be performed only once", "[applyPortRuleSet, start]", performed.toString());
+    }
+    
+    @Test
+    public void operationQueuedBehindDifferentOneIsNotCoalesced() throws Exception{
+        sut.schedule(vm1, null, () -> performed.add("applyPortRuleSet"));
+        Future<Boolean> first = sut.schedule(vm1, "start", () -> performed.add("start"));
+        sut.schedule(vm1, "shutDown", () -> performed.add("shutDown"));
+        Future<Boolean> second = sut.schedule(vm1, "start", () -> performed.add("start"));
+        
+        assertNotSame("Start behind the shutdown should not reuse the first start", first, second);
+        assertEquals("All operations should be queued", 4, sut.getPendingCount(vm1));
+        while(!submitted.isEmpty()){
+            submitted.remove(0).run();
+        }
+        assertTrue("Last start should be performed", second.get());
+        assertEquals("Virtual machine should end up running", "[applyPortRuleSet, start, shutDown, start]", performed.toString());
+    }
+    
+    @Test
+    public void runningOperationIsNotCoalesced(){
+        sut.schedule(vm1, "start", () -> performed.add("start"));
+        Future<Boolean> second = sut.schedule(vm1, "start", () -> performed.add("start"));
+        
+        assertEquals("Start scheduled while another one is running should be queued", 2, sut.getPendingCount(vm1));
+        submitted.remove(0).run();
+        submitted.remove(0).run();
+        assertTrue("Second start should be performed", second.isDone());
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void virtualMachineWithoutIdIsRejected(){
+        sut.schedule(new VirtualMachine.Builder(null, "lab_01", pm).build(), null, () -> true);
+    }
+}